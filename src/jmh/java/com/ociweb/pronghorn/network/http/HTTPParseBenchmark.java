@@ -0,0 +1,128 @@
+package com.ociweb.pronghorn.network.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.network.ServerConnectionStruct;
+import com.ociweb.pronghorn.network.config.HTTPHeaderDefaults;
+import com.ociweb.pronghorn.network.config.HTTPSpecification;
+import com.ociweb.pronghorn.network.config.HTTPVerb;
+import com.ociweb.pronghorn.struct.StructRegistry;
+import com.ociweb.pronghorn.util.TrieParser;
+import com.ociweb.pronghorn.util.TrieParserReader;
+
+/**
+ * Replays recorded request and chunked response bytes through the same trie walks done by
+ * HTTP1xRouterStage (request line, revision and headers) and HTTP1xResponseParserStage (chunk headers).
+ * The stages themselves need sockets so only their parse loops are measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HTTPParseBenchmark {
+
+	@Param({"1", "400"})
+	public int routes;
+
+	private HTTP1xRouterStageConfig config;
+	private TrieParserReader reader;
+	private byte[][] requests;
+	private byte[] chunked;
+	private int next;
+
+	@Setup
+	public void setup() {
+		config = new HTTP1xRouterStageConfig(HTTPSpecification.defaultSpec(),
+				                             new ServerConnectionStruct(new StructRegistry()));
+		int r = 0;
+		while (r<routes) {
+			config.registerCompositeRoute(HTTPHeaderDefaults.HOST, HTTPHeaderDefaults.CONTENT_LENGTH)
+			      .path("/service"+r+"/item/#{id}")
+			      .routeId();
+			r++;
+		}
+		requests = new byte[routes][];
+		r = routes;
+		while (--r>=0) {
+			requests[r] = ("GET /service"+r+"/item/"+(1000+r)+" HTTP/1.1\r\n"
+					      +"Host: localhost:8080\r\n"
+					      +"User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36\r\n"
+					      +"Accept: */*\r\n"
+					      +"Content-Length: 0\r\n"
+					      +"\r\n").getBytes();
+		}
+
+		StringBuilder body = new StringBuilder();
+		int c = 64;
+		while (--c>=0) {
+			body.append(Integer.toHexString(100+c)).append("\r\n");
+			int i = 100+c;
+			while (--i>=0) {
+				body.append('x');
+			}
+			body.append("\r\n");
+		}
+		body.append("0\r\n\r\n");
+		chunked = body.toString().getBytes();
+
+		reader = new TrieParserReader(true);
+	}
+
+	@Benchmark
+	public long routerParseRequest() {
+		int r = next;
+		if (++next == routes) {
+			next = 0;
+		}
+		byte[] request = requests[r];
+		TrieParserReader.parseSetup(reader, request, 0, request.length, Integer.MAX_VALUE);
+
+		long verbPath = TrieParserReader.parseNext(reader, config.verbURLMap);
+		int pathId = (int)(verbPath >> HTTPVerb.BITS);
+		long result = TrieParserReader.capturedLongField(reader, 0)
+				    + TrieParserReader.parseNext(reader, config.revisionMap);
+
+		TrieParser headerMap = config.headerParserRouteId(config.getRouteIdForPathId(pathId));
+		while (TrieParserReader.parseHasContentLength(reader)>0) {
+			long headerToken = TrieParserReader.parseNext(reader, headerMap);
+			if (HTTPSpecification.END_OF_HEADER_ID == headerToken || -1 == headerToken) {
+				break;
+			}
+			result += headerToken;
+		}
+		return result;
+	}
+
+	@Benchmark
+	public long responseParseChunks() {
+		TrieParserReader.parseSetup(reader, chunked, 0, chunked.length, Integer.MAX_VALUE);
+		long total = 0;
+		while (TrieParserReader.parseHasContentLength(reader)>0) {
+			if (TrieParserReader.parseNext(reader, HTTPUtil.chunkMap) < 0) {
+				break;
+			}
+			long chunkSize = TrieParserReader.capturedLongField(reader, 0);
+			if (0 == chunkSize) {
+				break;
+			}
+			TrieParserReader.parseSkip(reader, (int)chunkSize+2); //data then \r\n
+			total += chunkSize;
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.ociweb.pronghorn.stage.math;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.stage.math.BuildMatrixCompute.MatrixTypes;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.StageScheduler;
+import com.ociweb.pronghorn.stage.scheduling.ThreadPerStageScheduler;
+import com.ociweb.pronghorn.stage.test.PipeCleanerStage;
+
+/**
+ * Column compute against row block compute for the MatrixComputeTest shape and the 2048x512 feature scoring shape.
+ * A new graph is built before every invocation, only the products are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RowBlockComputeBenchmark {
+
+	private static final int PRODUCTS = 10;
+
+	@Param({"1080x1920x1920", "2048x512x512"}) //leftRows, leftColumns, rightColumns
+	public String shape;
+
+	@Param({"Integers", "Floats", "Longs", "Doubles"})
+	public String type;
+
+	@Param({"columns", "rowBlocks"})
+	public String compute;
+
+	@Param({"10"})
+	public int threads;
+
+	private GraphManager gm;
+	private Pipe<?> left;
+	private Pipe<?> right;
+	private PipeCleanerStage<?> watch;
+	private MatrixTypes matrixType;
+	private int leftRows;
+	private int leftColumns;
+	private int rightColumns;
+	private int rowId;
+
+	@Setup(Level.Invocation)
+	public void buildGraph() {
+		String[] dims = shape.split("x");
+		leftRows = Integer.parseInt(dims[0]);
+		leftColumns = Integer.parseInt(dims[1]);
+		rightColumns = Integer.parseInt(dims[2]);
+		matrixType = MatrixTypes.valueOf(type);
+		build();
+	}
+
+	private <M extends MatrixSchema<M>> void build() {
+		MatrixSchema<M> leftSchema = BuildMatrixCompute.buildSchema(leftRows, leftColumns, matrixType);
+		MatrixSchema<M> rightSchema = BuildMatrixCompute.buildSchema(leftColumns, rightColumns, matrixType);
+
+		Pipe<RowSchema<M>> leftPipe = new Pipe<RowSchema<M>>(new PipeConfig<RowSchema<M>>(new RowSchema<M>(leftSchema), leftRows));
+		Pipe<RowSchema<M>> rightPipe = new Pipe<RowSchema<M>>(new PipeConfig<RowSchema<M>>(new RowSchema<M>(rightSchema), leftColumns));
+
+		gm = new GraphManager();
+		GraphManager.addDefaultNota(gm, GraphManager.SCHEDULE_RATE, 500);
+
+		Pipe<RowSchema<M>> result;
+		if ("rowBlocks".equals(compute)) {
+			result = BuildMatrixCompute.buildProductGraphRowBlocks(gm, leftPipe, rightPipe, threads);
+		} else {
+			result = BuildMatrixCompute.buildProductGraphRR(gm, threads, leftPipe, rightPipe);
+		}
+		watch = new PipeCleanerStage<RowSchema<M>>(gm, result);
+
+		left = leftPipe;
+		right = rightPipe;
+		rowId = leftSchema.rowId;
+	}
+
+	@Benchmark
+	public long product() {
+		StageScheduler scheduler = new ThreadPerStageScheduler(gm);
+		scheduler.startup();
+
+		int k = PRODUCTS;
+		while (--k>=0) {
+			writeRows(left, leftRows, leftColumns, false);
+			writeRows(right, leftColumns, rightColumns, true);
+		}
+		writeEOF(left);
+		writeEOF(right);
+
+		GraphManager.blockUntilStageTerminated(gm, watch);
+		scheduler.shutdown();
+		if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+			throw new RuntimeException("product did not finish for "+shape+" "+type+" "+compute);
+		}
+		return watch.totalBytes();
+	}
+
+	private void writeRows(Pipe<?> pipe, int rows, int columns, boolean rowValue) {
+		for(int c = 0; c<rows; c++) {
+			while (!Pipe.hasRoomForWrite(pipe)) {
+				Thread.yield();
+			}
+			Pipe.addMsgIdx(pipe, rowId);
+			for(int r = 0; r<columns; r++) {
+				matrixType.addValue(rowValue ? c : r, pipe);
+			}
+			Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, rowId));
+			Pipe.publishWrites(pipe);
+		}
+	}
+
+	private static void writeEOF(Pipe<?> pipe) {
+		while (!Pipe.hasRoomForWrite(pipe, Pipe.EOF_SIZE)) {
+			Pipe.spinWork(pipe);
+		}
+		Pipe.publishEOF(pipe);
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.ociweb.pronghorn.stage.phast;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+/**
+ * Encodes one message of delta, increment and present fields per invocation, the round trip
+ * benchmark also decodes it so the decode cost is the difference between the two.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PhastBenchmark {
+
+	private static final int FIELDS = 64;
+	private static final int SIZE = RawDataSchema.FROM.fragDataSize[RawDataSchema.MSG_CHUNKEDSTREAM_1];
+
+	private Pipe<RawDataSchema> pipe;
+	private long[] values;
+	private long[] encodeDictionary;
+	private long[] decodeDictionary;
+	private int[] intEncodeDictionary;
+	private int[] intDecodeDictionary;
+	private long sequence;
+
+	@Setup
+	public void setup() {
+		pipe = RawDataSchema.instance.newPipe(4, 4096);
+		pipe.initBuffers();
+		values = new long[FIELDS];
+		int i = FIELDS;
+		while (--i>=0) {
+			values[i] = 1_000_000L*i;
+		}
+		encodeDictionary = new long[FIELDS];
+		decodeDictionary = new long[FIELDS];
+		intEncodeDictionary = new int[1];
+		intDecodeDictionary = new int[1];
+	}
+
+	@Benchmark
+	public int encode() {
+		encodeMessage();
+		return skipMessage();
+	}
+
+	@Benchmark
+	public long roundTrip() {
+		encodeMessage();
+
+		Pipe.takeMsgIdx(pipe);
+		DataInputBlobReader<RawDataSchema> reader = Pipe.openInputStream(pipe);
+		long sum = PhastDecoder.decodeIncrementInt(intDecodeDictionary, 0, 0, 1, false);
+		int i = FIELDS;
+		while (--i>=0) {
+			sum += PhastDecoder.decodeDeltaLong(decodeDictionary, reader, 0, i, 1, false);
+		}
+		sum += PhastDecoder.decodePresentLong(reader, 0, 1, false);
+		Pipe.confirmLowLevelRead(pipe, SIZE);
+		Pipe.releaseReadLock(pipe);
+		return sum;
+	}
+
+	private void encodeMessage() {
+		long drift = ++sequence;
+		int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		DataOutputBlobWriter<RawDataSchema> writer = Pipe.openOutputStream(pipe);
+		PhastEncoder.incrementInt(intEncodeDictionary, writer, 0, 1, 0, false);
+		int i = FIELDS;
+		while (--i>=0) {
+			PhastEncoder.encodeDeltaLong(encodeDictionary, writer, 0, 1, i, values[i]+drift, false);
+		}
+		PhastEncoder.encodeLongPresent(writer, 0, 1, drift, false);
+		DataOutputBlobWriter.closeLowLevelField(writer);
+		Pipe.confirmLowLevelWrite(pipe, size);
+		Pipe.publishWrites(pipe);
+	}
+
+	private int skipMessage() {
+		Pipe.takeMsgIdx(pipe);
+		Pipe.takeByteArrayMetaData(pipe);
+		int len = Pipe.takeByteArrayLength(pipe);
+		Pipe.confirmLowLevelRead(pipe, SIZE);
+		Pipe.releaseReadLock(pipe);
+		return len;
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.ociweb.pronghorn.stage.scheduling;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.route.ReplicatorStage;
+import com.ociweb.pronghorn.stage.test.ByteArrayProducerStage;
+import com.ociweb.pronghorn.stage.test.PipeCleanerStage;
+
+/**
+ * Time to push a fixed volume through producer, replicator and two consumers under each scheduler.
+ * A new graph is built before every invocation, only the run to completion is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SchedulerThroughputBenchmark {
+
+	private static final int VOLUME = 1<<26;
+
+	@Param({"nonThread", "scriptedNonThread", "threadPerStage", "fixedThreads", "scriptedFixedThreads"})
+	public String scheduler;
+
+	private static final byte[] data = new byte[VOLUME];
+
+	private GraphManager gm;
+	private PipeCleanerStage<RawDataSchema> consumerA;
+	private PipeCleanerStage<RawDataSchema> consumerB;
+
+	@Setup(Level.Invocation)
+	public void buildGraph() {
+		gm = new GraphManager();
+		Pipe<RawDataSchema> produced = RawDataSchema.instance.newPipe(64, 1<<14);
+		Pipe<RawDataSchema> a = RawDataSchema.instance.newPipe(64, 1<<14);
+		Pipe<RawDataSchema> b = RawDataSchema.instance.newPipe(64, 1<<14);
+		new ByteArrayProducerStage(gm, data, produced);
+		new ReplicatorStage<RawDataSchema>(gm, produced, a, b);
+		consumerA = new PipeCleanerStage<RawDataSchema>(gm, a);
+		consumerB = new PipeCleanerStage<RawDataSchema>(gm, b);
+	}
+
+	@Benchmark
+	public long runToCompletion() {
+		if ("nonThread".equals(scheduler)) {
+			NonThreadScheduler s = new NonThreadScheduler(gm);
+			s.startup();
+			while (!(GraphManager.isStageTerminated(gm, consumerA.stageId) && GraphManager.isStageTerminated(gm, consumerB.stageId))) {
+				s.run();
+			}
+			s.shutdown();
+		} else if ("scriptedNonThread".equals(scheduler)) {
+			ScriptedNonThreadScheduler s = new ScriptedNonThreadScheduler(gm, false, GraphManager.allStages(gm));
+			s.startup();
+			while (!(GraphManager.isStageTerminated(gm, consumerA.stageId) && GraphManager.isStageTerminated(gm, consumerB.stageId))) {
+				s.run();
+			}
+			s.shutdown();
+		} else {
+			StageScheduler s;
+			if ("threadPerStage".equals(scheduler)) {
+				s = StageScheduler.threadPerStage(gm);
+			} else if ("fixedThreads".equals(scheduler)) {
+				s = StageScheduler.fixedThreads(gm, 2, false);
+			} else {
+				s = new ScriptedFixedThreadsScheduler(gm, 2, false);
+			}
+			s.startup();
+			GraphManager.blockUntilStageTerminated(gm, consumerA);
+			GraphManager.blockUntilStageTerminated(gm, consumerB);
+			s.shutdown();
+			if (!s.awaitTermination(1, TimeUnit.MINUTES)) {
+				throw new RuntimeException("graph did not finish under "+scheduler);
+			}
+		}
+		return consumerA.totalBytes()+consumerB.totalBytes();
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.ociweb.pronghorn.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BloomFilter and CountingBloomFilter add and mayContain over byte keys, half of the
+ * lookups are members so both the early exit and full probe paths are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+	private static final int MEMBERS = 100_000;
+	private static final double FALSE_POSITIVE = 0.0001;
+	private static final int KEYS = 1<<12;
+
+	private BloomFilter bloom;
+	private CountingBloomFilter counting;
+	private byte[][] keys;
+	private int next;
+
+	@Setup
+	public void setup() {
+		bloom = new BloomFilter(MEMBERS, FALSE_POSITIVE);
+		counting = new CountingBloomFilter(MEMBERS, FALSE_POSITIVE);
+		keys = new byte[KEYS][];
+		int i = KEYS;
+		while (--i>=0) {
+			keys[i] = ("/some/resource/path/"+i).getBytes();
+			if (0 == (i&1)) {
+				bloom.addValue(keys[i], 0, keys[i].length, Integer.MAX_VALUE);
+				counting.addValue(keys[i], 0, keys[i].length, Integer.MAX_VALUE);
+			}
+		}
+	}
+
+	private byte[] nextKey() {
+		return keys[next = (KEYS-1) & (next+1)];
+	}
+
+	@Benchmark
+	public int bloomAdd() {
+		byte[] key = nextKey();
+		return bloom.addValue(key, 0, key.length, Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public boolean bloomMayContain() {
+		byte[] key = nextKey();
+		return bloom.mayContain(key, 0, key.length, Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public int countingAdd() {
+		byte[] key = nextKey();
+		return counting.addValue(key, 0, key.length, Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public boolean countingMayContain() {
+		byte[] key = nextKey();
+		return counting.mayContain(key, 0, key.length, Integer.MAX_VALUE);
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.ociweb.pronghorn.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ServiceObjectHolder lookups and churn as done for connections, and PoolIdx reservation
+ * as done when assigning connections to pipes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PoolBenchmark {
+
+	@Param({"8", "14"})
+	public int bits;
+
+	private ServiceObjectHolder<String> holder;
+	private long[] keys;
+	private int keyMask;
+	private int next;
+
+	private PoolIdx pool;
+	private long nextPoolKey;
+	private long oldestPoolKey;
+
+	@Setup
+	public void setup() {
+		holder = new ServiceObjectHolder<String>(bits, String.class, new ServiceObjectValidator<String>() {
+			@Override
+			public boolean isValid(String serviceObject) {
+				return true;
+			}
+			@Override
+			public void dispose(String t) {
+			}
+		}, false);
+
+		//half full so add finds a free slot as it would with real connection churn
+		int count = 1<<(bits-1);
+		keys = new long[count];
+		keyMask = count-1;
+		int i = count;
+		while (--i>=0) {
+			keys[i] = holder.add("connection"+i);
+		}
+
+		pool = new PoolIdx(Math.min(1<<bits, 1024), 4);
+		int half = pool.length()/2;
+		while (nextPoolKey<half) {
+			pool.get(nextPoolKey++);
+		}
+	}
+
+	@Benchmark
+	public String holderGet() {
+		int i = next = keyMask & (next+1);
+		return holder.get(keys[i]);
+	}
+
+	@Benchmark
+	public String holderGetValid() {
+		int i = next = keyMask & (next+1);
+		return holder.getValid(keys[i]);
+	}
+
+	@Benchmark
+	public long holderRemoveAdd() {
+		int i = next = keyMask & (next+1);
+		String value = holder.remove(keys[i]);
+		return keys[i] = holder.add(value);
+	}
+
+	@Benchmark
+	public int poolGetReserved() {
+		return PoolIdx.get(pool, oldestPoolKey + (nextPoolKey-oldestPoolKey)/2);
+	}
+
+	@Benchmark
+	public int poolReserveRelease() {
+		int idx = PoolIdx.get(pool, nextPoolKey++);
+		pool.release(oldestPoolKey++);
+		return idx;
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.ociweb.pronghorn;
+
+import com.ociweb.pronghorn.network.TLSCertificates;
+import com.ociweb.pronghorn.network.http.LoadGeneratorGraphBuilder;
+import com.ociweb.pronghorn.network.http.LoadGeneratorStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.StageScheduler;
+import com.ociweb.pronghorn.util.MainArgs;
+
+public class HTTPLoadGenerator {
+
+	////////////////////////////////////////////////////////////
+	//To run this from the command prompt:
+	// mvn exec:java -Dexec.mainClass="com.ociweb.pronghorn.HTTPLoadGenerator" -Dexec.args="--host 127.0.0.1 --port 8080 --rate 10000 --connections 16 --depth 4 --duration 30000"
+	///////////////////////////////////////////////////////////
+
+	public static void main(String[] args) {
+
+		String host     = MainArgs.getOptArg("host", "h", args, "127.0.0.1");
+		int port        = Integer.parseInt(MainArgs.getOptArg("port", "p", args, "8080"));
+		String path     = MainArgs.getOptArg("path", "u", args, "/");
+		long rate       = Long.parseLong(MainArgs.getOptArg("rate", "r", args, "10000"));
+		int connections = Integer.parseInt(MainArgs.getOptArg("connections", "c", args, "16"));
+		int depth       = Integer.parseInt(MainArgs.getOptArg("depth", "d", args, "1"));
+		long duration   = Long.parseLong(MainArgs.getOptArg("duration", "t", args, "30000"));
+		boolean tls     = MainArgs.hasArg("tls", "s", args);
+
+		GraphManager gm = new GraphManager();
+		GraphManager.addDefaultNota(gm, GraphManager.SCHEDULE_RATE, 20_000);
+
+		LoadGeneratorStage stage = LoadGeneratorGraphBuilder.buildLoadGenerator(gm, host, port, path, rate, duration, connections, depth,
+				                                                                tls ? TLSCertificates.defaultCerts : null);
+
+		StageScheduler scheduler = StageScheduler.defaultScheduler(gm);
+		scheduler.startup();
+		GraphManager.blockUntilStageTerminated(gm, stage);
+		scheduler.shutdown();
+
+		stage.report(System.out);
+	}
+
+}
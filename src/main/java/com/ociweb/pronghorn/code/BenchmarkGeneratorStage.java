@@ -0,0 +1,171 @@
+package com.ociweb.pronghorn.code;
+
+import java.util.Random;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.stream.StreamingVisitorWriter;
+import com.ociweb.pronghorn.pipe.stream.StreamingWriteVisitor;
+import com.ociweb.pronghorn.pipe.stream.StreamingWriteVisitorGenerator;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.ElapsedTimeRecorder;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * _no-docs_
+ * Generates fuzz like FuzzGeneratorStage, at a target rate or flat out, and records how long each
+ * published batch waits on the pipe before the stage under test releases it.
+ *
+ * Every batch written by one run is stamped with its publish time and head position, the latency
+ * of each fragment in the batch is the time until the tail of the pipe passes that position.
+ * Only batches published after the warmup are measured.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class BenchmarkGeneratorStage extends PronghornStage {
+
+	private static final int STAMP_BITS = 12;
+	private static final int STAMP_MASK = (1<<STAMP_BITS)-1;
+
+	private final Pipe<?> output;
+	private final StreamingVisitorWriter writer;
+	private final long warmupNS;
+	private final long durationNS;
+	private final long fragmentsPerSecond;
+
+	private final ElapsedTimeRecorder latency = new ElapsedTimeRecorder();
+	private final long[] stampPosition = new long[1<<STAMP_BITS];
+	private final long[] stampTime = new long[1<<STAMP_BITS];
+	private final long[] stampFragments = new long[1<<STAMP_BITS];
+	private final long[] stampBytes = new long[1<<STAMP_BITS];
+	private long stampHead;
+	private long stampTail;
+
+	private long startNS;
+	private long recordNS;
+	private long stopNS;
+	private long fragmentsWritten;
+	private long measuredFragments;
+	private long measuredBytes;
+	private long lastReleaseNS;
+
+	/**
+	 *
+	 * @param gm
+	 * @param random
+	 * @param warmup milliseconds generated before measuring
+	 * @param duration milliseconds measured after the warmup
+	 * @param fragmentsPerSecond target rate, zero to write as fast as the pipe allows
+	 * @param output _out_ Pipe onto which fuzz will be written.
+	 */
+	public BenchmarkGeneratorStage(GraphManager gm, Random random, long warmup, long duration, long fragmentsPerSecond, Pipe<?> output) {
+		super(gm, NONE, output);
+		this.output = output;
+		this.warmupNS = warmup*1_000_000L;
+		this.durationNS = duration*1_000_000L;
+		this.fragmentsPerSecond = fragmentsPerSecond;
+
+		StreamingWriteVisitor visitor = new StreamingWriteVisitorGenerator(Pipe.from(output), random,
+				                                      output.maxVarLen>>3,  //room for UTF8
+				                                      output.maxVarLen>>1); //just use half
+		this.writer = new StreamingVisitorWriter(output, visitor);
+	}
+
+	@Override
+	public void startup() {
+		startNS = System.nanoTime();
+		recordNS = startNS+warmupNS;
+		stopNS = recordNS+durationNS;
+		lastReleaseNS = recordNS;
+		writer.startup();
+	}
+
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		released(now);
+
+		if (now >= stopNS) {
+			requestShutdown();
+			return;
+		}
+		if (fragmentsPerSecond>0 && fragmentsWritten*1_000_000_000L > (now-startNS)*fragmentsPerSecond) {
+			return; //ahead of the target rate
+		}
+
+		long head = Pipe.headPosition(output);
+		int blobHead = Pipe.getBlobHeadPosition(output);
+		long fragments = Pipe.totalWrittenFragments(output);
+
+		writer.run();
+
+		long written = Pipe.totalWrittenFragments(output)-fragments;
+		if (written>0) {
+			fragmentsWritten += written;
+			long published = System.nanoTime();
+			if (published >= recordNS) {
+				long newHead = Pipe.headPosition(output);
+				stamp(newHead, published, written, ((newHead-head)<<2) + (Pipe.getBlobHeadPosition(output)-blobHead));
+			}
+		}
+	}
+
+	private void stamp(long position, long time, long fragments, long bytes) {
+		if (stampHead-stampTail > STAMP_MASK) {
+			//full so the newest batch is folded into the last, its latency will be over stated
+			int last = STAMP_MASK & (int)(stampHead-1);
+			stampPosition[last] = position;
+			stampFragments[last] += fragments;
+			stampBytes[last] += bytes;
+		} else {
+			int idx = STAMP_MASK & (int)stampHead++;
+			stampPosition[idx] = position;
+			stampTime[idx] = time;
+			stampFragments[idx] = fragments;
+			stampBytes[idx] = bytes;
+		}
+	}
+
+	private void released(long now) {
+		long tail = Pipe.tailPosition(output);
+		while (stampTail<stampHead) {
+			int idx = STAMP_MASK & (int)stampTail;
+			if (tail < stampPosition[idx]) {
+				return;
+			}
+			ElapsedTimeRecorder.record(latency, now-stampTime[idx], stampFragments[idx]);
+			measuredFragments += stampFragments[idx];
+			measuredBytes += stampBytes[idx];
+			lastReleaseNS = now;
+			stampTail++;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		released(System.nanoTime());
+		writer.shutdown();
+	}
+
+	public ElapsedTimeRecorder latency() {
+		return latency;
+	}
+
+	/**
+	 * @return fragments published after the warmup and released by the stage under test
+	 */
+	public long measuredFragments() {
+		return measuredFragments;
+	}
+
+	public long measuredBytes() {
+		return measuredBytes;
+	}
+
+	/**
+	 * @return nanoseconds from the end of the warmup until the last measured release
+	 */
+	public long measuredNS() {
+		return lastReleaseNS-recordNS;
+	}
+
+}
@@ -0,0 +1,100 @@
+package com.ociweb.pronghorn.code;
+
+import java.io.IOException;
+
+import com.ociweb.pronghorn.stage.scheduling.ElapsedTimeRecorder;
+import com.ociweb.pronghorn.util.Appendables;
+
+/**
+ * Result of StageTester.runBenchmark, rates are per second of the measured window after the warmup.
+ * Messages are counted as fragments so a multi fragment message counts once per fragment.
+ */
+public class StageBenchmark {
+
+	public final String stageName;
+	public final long targetRate;
+	public final long messages;
+	public final long bytes;
+	public final long elapsedNS;
+	public final long allocatedBytes; //negative when the JVM can not report thread allocations
+	public final ElapsedTimeRecorder latency;
+
+	StageBenchmark(String stageName, long targetRate, long messages, long bytes, long elapsedNS, long allocatedBytes, ElapsedTimeRecorder latency) {
+		this.stageName = stageName;
+		this.targetRate = targetRate;
+		this.messages = messages;
+		this.bytes = bytes;
+		this.elapsedNS = Math.max(1, elapsedNS);
+		this.allocatedBytes = allocatedBytes;
+		this.latency = latency;
+	}
+
+	public long messagesPerSecond() {
+		return perSecond(messages);
+	}
+
+	public long bytesPerSecond() {
+		return perSecond(bytes);
+	}
+
+	public long allocatedBytesPerSecond() {
+		return allocatedBytes<0 ? -1 : perSecond(allocatedBytes);
+	}
+
+	private long perSecond(long value) {
+		return (long)((value*1_000_000_000d)/elapsedNS);
+	}
+
+	public long latencyAtPercentile(double pct) {
+		return ElapsedTimeRecorder.elapsedAtPercentile(latency, pct);
+	}
+
+	public String toString() {
+		return report(new StringBuilder()).toString();
+	}
+
+	public <A extends Appendable> A report(A target) {
+		try {
+			target.append(stageName).append(0==targetRate ? " flat out" : " target ");
+			if (0!=targetRate) {
+				Appendables.appendValue(target, targetRate).append(" msg/sec");
+			}
+			Appendables.appendValue(target.append("\nmsg/sec: "), messagesPerSecond());
+			Appendables.appendValue(target.append("\nbytes/sec: "), bytesPerSecond());
+			Appendables.appendValue(target.append("\nallocated bytes/sec: "), allocatedBytesPerSecond());
+			target.append("\n");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		Appendables.appendNearestTimeUnit(target, latencyAtPercentile(.50f), " 50 percentile\n");
+		Appendables.appendNearestTimeUnit(target, latencyAtPercentile(.99f), " 99 percentile\n");
+		Appendables.appendNearestTimeUnit(target, latencyAtPercentile(.999f), " 99.9 percentile\n");
+		Appendables.appendNearestTimeUnit(target, latencyAtPercentile(1f), " max\n");
+		return target;
+	}
+
+	/**
+	 * Single line JSON object, appended to a file per run it gives a trend which can be charted.
+	 */
+	public <A extends Appendable> A toJSON(A target) {
+		try {
+			target.append("{\"stage\":\"").append(stageName).append('"');
+			Appendables.appendValue(target.append(",\"targetRate\":"), targetRate);
+			Appendables.appendValue(target.append(",\"elapsedNS\":"), elapsedNS);
+			Appendables.appendValue(target.append(",\"messages\":"), messages);
+			Appendables.appendValue(target.append(",\"bytes\":"), bytes);
+			Appendables.appendValue(target.append(",\"messagesPerSecond\":"), messagesPerSecond());
+			Appendables.appendValue(target.append(",\"bytesPerSecond\":"), bytesPerSecond());
+			Appendables.appendValue(target.append(",\"allocatedBytesPerSecond\":"), allocatedBytesPerSecond());
+			Appendables.appendValue(target.append(",\"p50NS\":"), latencyAtPercentile(.50f));
+			Appendables.appendValue(target.append(",\"p99NS\":"), latencyAtPercentile(.99f));
+			Appendables.appendValue(target.append(",\"p999NS\":"), latencyAtPercentile(.999f));
+			Appendables.appendValue(target.append(",\"maxNS\":"), latencyAtPercentile(1f));
+			target.append("}");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return target;
+	}
+
+}
@@ -2,6 +2,8 @@ package com.ociweb.pronghorn.code;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Parameter;
@@ -16,6 +18,7 @@ import com.ociweb.pronghorn.pipe.Pipe;
 import com.ociweb.pronghorn.pipe.PipeConfig;
 import com.ociweb.pronghorn.stage.PronghornStage;
 import com.ociweb.pronghorn.stage.monitor.PipeMonitorCollectorStage;
+import com.ociweb.pronghorn.stage.scheduling.ElapsedTimeRecorder;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 import com.ociweb.pronghorn.stage.scheduling.NonThreadScheduler;
 
@@ -32,6 +35,7 @@ public class StageTester {
 
     static final int maxPipeLength = 4;
     static final int maxPipeVarArg = 1<<16;
+    static final int benchmarkPipeLength = 64;
     
 	/**
      * General method for running each "expected use" tests
@@ -232,6 +236,13 @@ public class StageTester {
 			Provider<MessageSchema> undefinedSchemas, Provider<Object> undefinedArgs, final int maxPipeLength, final int maxPipeVarArg,
 			final Random random, Constructor<?> con) {
 		GraphManager localTestGM = new GraphManager();
+		PronghornStage stageToTest = buildStage(localTestGM, targetStage, undefinedSchemas, undefinedArgs, maxPipeLength, maxPipeVarArg, con);
+		fuzzTestStage(testDuration, random, localTestGM, stageToTest);
+	}
+
+	private static <S extends PronghornStage> PronghornStage buildStage(GraphManager localTestGM, Class<S> targetStage,
+			Provider<MessageSchema> undefinedSchemas, Provider<Object> undefinedArgs, final int maxPipeLength, final int maxPipeVarArg,
+			Constructor<?> con) {
 		int schemaPos = 0;
 		int argsPos = 0;
 		Parameter[] params = con.getParameters();
@@ -311,9 +322,7 @@ public class StageTester {
 		}
 		    		 
 		try {
-			PronghornStage stageToTest = (PronghornStage)targetStage.getConstructor(constructorParameterTypes).newInstance(constructorParameterObjects);  
-			    		
-			fuzzTestStage(testDuration, random, localTestGM, stageToTest);
+			return (PronghornStage)targetStage.getConstructor(constructorParameterTypes).newInstance(constructorParameterObjects);  
 		} catch (Exception ex) {
 			throw new RuntimeException(ex);
 		}
@@ -446,6 +455,154 @@ public class StageTester {
     	}
 	}
 
+    public static <S extends PronghornStage> StageBenchmark runBenchmark(Class<S> targetStage, long warmup, long testDuration, long messagesPerSecond,
+    		int generatorSeed, final MessageSchema[] undefinedSchemas, final Object[] undefinedArgs) {
+    	return runBenchmark(targetStage, warmup, testDuration, messagesPerSecond, generatorSeed,
+	    			new Provider<MessageSchema>() {
+			    			public MessageSchema get(int i) {
+			    				return undefinedSchemas[i];
+			    			}
+			    	},
+	    			new Provider<Object>() {
+			    		public Object get(int i) {
+		    				return undefinedArgs[i];
+		    			}
+		    	    });
+    }
+
+    public static <S extends PronghornStage> StageBenchmark runBenchmark(Class<S> targetStage, long warmup, long testDuration, long messagesPerSecond,
+    		int generatorSeed, final MessageSchema undefinedSchema, final Object ... undefinedArgs) {
+    	return runBenchmark(targetStage, warmup, testDuration, messagesPerSecond, generatorSeed,
+	    			new Provider<MessageSchema>() {
+			    			public MessageSchema get(int i) {
+			    				return undefinedSchema;
+			    			}
+			    	},
+	    			new Provider<Object>() {
+			    		public Object get(int i) {
+		    				return undefinedArgs[i];
+		    			}
+		    	    });
+    }
+
+    /**
+     * Drives the first non var arg constructor of the target stage with the same generated input as the fuzz test.
+     * Inputs are written at messagesPerSecond, or flat out when zero, and the outputs are consumed by validators.
+     * Everything runs on this thread so the allocation rate covers the generators and validators as well.
+     *
+     * @param warmup milliseconds run before measuring
+     * @param testDuration milliseconds measured
+     * @param messagesPerSecond target rate for each input pipe, zero for flat out
+     */
+    private static <S extends PronghornStage> StageBenchmark runBenchmark(Class<S> targetStage, long warmup, long testDuration, long messagesPerSecond,
+    		int generatorSeed, Provider<MessageSchema> undefinedSchemas, Provider<Object> undefinedArgs) {
+
+    	Constructor<?> con = null;
+    	for(Constructor<?> c:targetStage.getConstructors()) {
+    		if (!c.isVarArgs()) {
+    			con = c;
+    			break;
+    		}
+    	}
+    	if (null == con) {
+    		throw new UnsupportedOperationException("no constructor without var args found for "+targetStage);
+    	}
+
+    	Random random = new Random(generatorSeed);
+    	GraphManager gm = new GraphManager();
+    	PronghornStage stageToTest = buildStage(gm, targetStage, undefinedSchemas, undefinedArgs, benchmarkPipeLength, maxPipeVarArg, con);
+
+    	int c = GraphManager.getOutputPipeCount(gm, stageToTest.stageId);
+    	Pipe[] outputPipes = new Pipe[c];
+    	for(int i=1; i<=c; i++) {
+    		outputPipes[i-1] = GraphManager.getOutputPipe(gm, stageToTest.stageId, i);
+    	}
+    	c = GraphManager.getInputPipeCount(gm, stageToTest.stageId);
+    	Pipe[] inputPipes = new Pipe[c];
+    	for(int i=1; i<=c; i++) {
+    		inputPipes[i-1] = GraphManager.getInputPipe(gm, stageToTest.stageId, i);
+    	}
+
+    	GraphManager.addNota(gm, GraphManager.PRODUCER, GraphManager.PRODUCER, stageToTest);
+
+    	int i = inputPipes.length;
+    	BenchmarkGeneratorStage[] generators = new BenchmarkGeneratorStage[i];
+    	while (--i>=0) {
+    		generators[i] = new BenchmarkGeneratorStage(gm, random, warmup, testDuration, messagesPerSecond, inputPipes[i]);
+    		GraphManager.addNota(gm, GraphManager.PRODUCER, GraphManager.PRODUCER, generators[i]);
+    	}
+    	int j = outputPipes.length;
+    	while (--j>=0) {
+    		new FuzzValidationStage(gm, outputPipes[j]);
+    	}
+
+    	NonThreadScheduler scheduler = new NonThreadScheduler(gm);
+    	scheduler.startup();
+
+    	long now = System.currentTimeMillis();
+    	long recordTime = now+warmup;
+    	long stopTime = recordTime+testDuration;
+    	long allocatedAtStart = 0;
+    	long outputFragmentsAtStart = 0;
+    	boolean recording = false;
+    	do {
+    		scheduler.run();
+    		now = System.currentTimeMillis();
+    		if (!recording && now>=recordTime) {
+    			recording = true;
+    			allocatedAtStart = allocatedBytes();
+    			outputFragmentsAtStart = totalWrittenFragments(outputPipes);
+    		}
+    	} while (now < stopTime);
+    	long allocated = allocatedAtStart<0 ? -1 : allocatedBytes()-allocatedAtStart;
+    	long outputFragments = totalWrittenFragments(outputPipes)-outputFragmentsAtStart;
+
+    	scheduler.shutdown();
+    	scheduler.awaitTermination(testDuration+SHUTDOWN_WINDOW, TimeUnit.MILLISECONDS);
+
+    	ElapsedTimeRecorder latency = new ElapsedTimeRecorder();
+    	long messages = 0;
+    	long bytes = 0;
+    	long elapsedNS = 0;
+    	i = generators.length;
+    	while (--i>=0) {
+    		latency.add(generators[i].latency());
+    		messages += generators[i].measuredFragments();
+    		bytes += generators[i].measuredBytes();
+    		elapsedNS = Math.max(elapsedNS, generators[i].measuredNS());
+    	}
+    	if (0 == generators.length) {
+    		//a producer has nothing to time so only the output volume is reported
+    		messages = outputFragments;
+    		elapsedNS = testDuration*1_000_000L;
+    	}
+
+    	return new StageBenchmark(targetStage.getSimpleName(), messagesPerSecond, messages, bytes, elapsedNS, allocated, latency);
+    }
+
+    private static long totalWrittenFragments(Pipe[] pipes) {
+    	long total = 0;
+    	int i = pipes.length;
+    	while (--i>=0) {
+    		total += Pipe.totalWrittenFragments(pipes[i]);
+    	}
+    	return total;
+    }
+
+    /**
+     * @return bytes allocated by this thread or -1 when the JVM does not support the measurement
+     */
+    private static long allocatedBytes() {
+    	ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    	if (bean instanceof com.sun.management.ThreadMXBean) {
+    		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+    		if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+    			return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    		}
+    	}
+    	return -1;
+    }
+
 	public static boolean hasBadChar(CharSequence text) {
 		int i = text.length();
 		boolean found = false;
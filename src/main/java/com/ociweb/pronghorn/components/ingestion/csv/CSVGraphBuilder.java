@@ -0,0 +1,144 @@
+package com.ociweb.pronghorn.components.ingestion.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Builds parallel CSV ingestion graphs. The file is divided into ranges which
+ * always end just after a newline, each range is memory mapped and given its own
+ * LineSplitterByteBufferStage and FieldSplitterStage.
+ *
+ * NOTE: range boundaries are found by scanning for the next newline so quoted
+ *       fields containing newlines are not supported by the parallel builder.
+ */
+public class CSVGraphBuilder {
+
+	//a single mapped range is addressed with int positions so it must stay well under 2G
+	public static final long MAX_RANGE_SIZE = 1L<<30;
+	private static final int SCAN_BLOCK = 1<<12;
+
+	/**
+	 * Computes the boundaries of the ranges, each range starts at index i and ends at i+1.
+	 * Every boundary other than 0 and the file size is positioned just after a newline.
+	 * Fewer ranges than requested are returned when the lines are too long to fill them.
+	 *
+	 * @param fileChannel source file
+	 * @param rangeCount requested number of ranges, raised if needed to keep each range under MAX_RANGE_SIZE
+	 * @return boundaries where the length is the number of ranges plus 1
+	 */
+	public static long[] splitRanges(FileChannel fileChannel, int rangeCount) throws IOException {
+
+		final long fileSize = fileChannel.size();
+		int count = (int)Math.max(Math.max(1, rangeCount), (fileSize+MAX_RANGE_SIZE-1)/MAX_RANGE_SIZE);
+
+		long[] bounds = new long[count+1];
+		int found = 1; //bounds[0] is always zero
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_BLOCK);
+
+		for(int i = 1; i<count; i++) {
+			long target = Math.max((fileSize*i)/count, bounds[found-1]);
+			long next = nextLineStart(fileChannel, target, fileSize, scan);
+			if (next > bounds[found-1] && next < fileSize) {
+				bounds[found++] = next;
+			}
+		}
+		bounds[found++] = fileSize;
+
+		if (found < bounds.length) {
+			long[] temp = new long[found];
+			System.arraycopy(bounds, 0, temp, 0, found);
+			bounds = temp;
+		}
+
+		int r = bounds.length-1;
+		while (--r>=0) {
+			if (bounds[r+1]-bounds[r] > Integer.MAX_VALUE) {
+				throw new UnsupportedOperationException("Line too long, unable to find newline within range starting at "+bounds[r]);
+			}
+		}
+		return bounds;
+	}
+
+	private static long nextLineStart(FileChannel fileChannel, long position, long fileSize, ByteBuffer scan) throws IOException {
+
+		while (position < fileSize) {
+			scan.clear();
+			int len = fileChannel.read(scan, position);
+			if (len<=0) {
+				break;
+			}
+			int i = 0;
+			while (i<len) {
+				if ('\n' == scan.get(i)) {
+					return position+i+1;
+				}
+				i++;
+			}
+			position += len;
+		}
+		return fileSize;
+	}
+
+	/**
+	 * Builds one line splitter and one field splitter for each range of the file.
+	 *
+	 * @param gm
+	 * @param fileChannel source file
+	 * @param rangeCount number of ranges to be processed concurrently
+	 * @param linesConfig RawDataSchema config for the lines of each range
+	 * @param fieldsConfig MetaMessageDefs config for the fields of each range
+	 * @return one pipe of meta messages for each range, in file order, each ends with a flush
+	 */
+	public static Pipe[] buildParallelIngestion(GraphManager gm, FileChannel fileChannel, int rangeCount,
+			                                    PipeConfig linesConfig, PipeConfig fieldsConfig) {
+
+		long[] bounds;
+		try {
+			bounds = splitRanges(fileChannel, rangeCount);
+
+			Pipe[] fields = new Pipe[bounds.length-1];
+			int i = fields.length;
+			while (--i>=0) {
+				ByteBuffer map = fileChannel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i+1]-bounds[i]);
+
+				Pipe lines = new Pipe(linesConfig);
+				fields[i] = new Pipe(fieldsConfig);
+
+				new LineSplitterByteBufferStage(gm, map, lines);
+				new FieldSplitterStage(gm, lines, fields[i]);
+			}
+			return fields;
+
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Builds the parallel ingestion and merges the results back into the original row order.
+	 * Later ranges are parsed concurrently but will stall once their pipes are full
+	 * so large fieldsConfig pipes give more overlap.
+	 *
+	 * @param gm
+	 * @param fileChannel source file
+	 * @param rangeCount number of ranges to be processed concurrently
+	 * @param linesConfig RawDataSchema config for the lines of each range
+	 * @param fieldsConfig MetaMessageDefs config for the fields of each range
+	 * @param mergedConfig MetaMessageDefs config for the merged output
+	 * @return pipe of meta messages for the whole file in order, ending with a single flush
+	 */
+	public static Pipe buildOrderedParallelIngestion(GraphManager gm, FileChannel fileChannel, int rangeCount,
+            										 PipeConfig linesConfig, PipeConfig fieldsConfig, PipeConfig mergedConfig) {
+
+		Pipe[] fields = buildParallelIngestion(gm, fileChannel, rangeCount, linesConfig, fieldsConfig);
+		Pipe merged = new Pipe(mergedConfig);
+		new OrderedRangeMergeStage(gm, fields, merged);
+		return merged;
+	}
+
+}
@@ -226,12 +226,8 @@ public class FieldSplitterStage extends PronghornStage {
 		//            * For every call including zero lookup the type and use they ByteBuffer.add XXX
 		//            * change endOfData to use RingBuffer.publishEOF(ring);
 		//            * publish in the endOfLine() method.
-		//TODO: The best approach would be to have these code generated from the template file  - see JavaPoet See YF
-		//        using the high level API to write would allow us to write the fields in any order that they arrive.
-		//      WAIT: may not need code generation. If we pass in array of strings that represent the fields in order
-		//         Then on startup convert those strings to an array of LOCs
-		//         then on parse use fieldIdx to look up the LOC and type to do the "right thing" 
-		//             the switch would be a conditional that could be removed by code generation.... but only if needed.
+		//NOTE: when the column types are known up front CSVParserStageGenerator builds a parser for the template,
+		//      this stage remains for files where the types must be discovered.
 		
 		
 	}
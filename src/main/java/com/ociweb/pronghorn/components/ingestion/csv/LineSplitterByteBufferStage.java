@@ -78,8 +78,15 @@ public class LineSplitterByteBufferStage extends PronghornStage {
 	@Override
 	public void run() {
 
-		    	shutdownPosition = parseSingleByteBuffer(this, activeByteBuffer);			    	
-		    	if (shutdownPosition>=activeByteBuffer.limit()) {
+				//keep going until the buffer is consumed or the output pipe is full
+				final int limit = activeByteBuffer.limit();
+				int lastPosition;
+				do {
+					lastPosition = shutdownPosition;
+					shutdownPosition = parseSingleByteBuffer(this, activeByteBuffer);
+				} while (shutdownPosition<limit && shutdownPosition!=lastPosition);
+
+		    	if (shutdownPosition>=limit) {
 		    		resetForNextByteBuffer(this);
 		    		Pipe.publishAllBatchedWrites(outputRing);
 		    		requestShutdown();
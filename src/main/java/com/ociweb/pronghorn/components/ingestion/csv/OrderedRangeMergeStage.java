@@ -0,0 +1,71 @@
+package com.ociweb.pronghorn.components.ingestion.csv;
+
+import com.ociweb.pronghorn.components.ingestion.metaMessageUtil.MetaMessageDefs;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * _no-docs_
+ * Merges the meta messages of consecutive file ranges back into original row order.
+ * Each input is drained up to its flush message before moving on to the next,
+ * only the flush of the final range is passed downstream.
+ *
+ * @see CSVGraphBuilder
+ */
+public class OrderedRangeMergeStage extends PronghornStage {
+
+	private final Pipe[] inputRings;
+	private final Pipe outputRing;
+	private int activeIdx = 0;
+
+	/**
+	 *
+	 * @param gm
+	 * @param inputRings _in_ Meta messages for each range in file order
+	 * @param outputRing _out_ Meta messages for all ranges in file order
+	 */
+	public OrderedRangeMergeStage(GraphManager gm, Pipe[] inputRings, Pipe outputRing) {
+		super(gm, inputRings, outputRing);
+		this.inputRings = inputRings;
+		this.outputRing = outputRing;
+
+		if (Pipe.from(outputRing) != MetaMessageDefs.FROM) {
+			throw new UnsupportedOperationException("This class can only be used with the MetaFieldFROM catalog of messages for output.");
+		}
+		GraphManager.addNota(gm, GraphManager.DOT_BACKGROUND, "cornsilk2", this);
+	}
+
+	@Override
+	public void run() {
+
+		while (activeIdx < inputRings.length) {
+			Pipe input = inputRings[activeIdx];
+
+			if (!Pipe.hasContentToRead(input)) {
+				return; //must wait, rows of later ranges can not be sent before this one
+			}
+
+			if (MetaMessageDefs.MSG_FLUSH == Pipe.peekInt(input)) {
+				if (activeIdx == inputRings.length-1) {
+					if (!Pipe.hasRoomForWrite(outputRing)) {
+						return;
+					}
+					Pipe.copyFragment(input, outputRing);
+					activeIdx++;
+					requestShutdown();
+					return;
+				}
+				//end of this range, drop the flush and continue with the next range
+				Pipe.skipNextFragment(input);
+				activeIdx++;
+			} else {
+				if (!Pipe.hasRoomForWrite(outputRing)) {
+					return;
+				}
+				Pipe.copyFragment(input, outputRing);
+			}
+		}
+	}
+
+}
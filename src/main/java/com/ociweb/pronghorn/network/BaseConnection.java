@@ -26,6 +26,8 @@ public abstract class BaseConnection {
 	private int sequenceNo;
 
 	protected boolean isDisconnecting = false;
+	boolean isSessionRecorded = false; //set once the TLS session has been counted by the SSLEngineFactory
+	final long creationTimeMS = System.currentTimeMillis(); //TLS sessions older than this were resumed
 
     private long lastUsedTimeNS = System.currentTimeMillis();
 
@@ -15,12 +15,15 @@ public interface HTTPServerConfig {
 	HTTPServerConfig setConcurrentChannelsPerEncryptUnit(int value);
 	HTTPServerConfig setConcurrentChannelsPerDecryptUnit(int value);
 	HTTPServerConfig logTraffic(String basePath, int fileCount, long fileSizeLimit, boolean logResponses);
+	HTTPServerConfig logTrafficBinary(String basePath, int fileCount, long fileSizeLimit, boolean logResponses);
 	HTTPServerConfig logTraffic(boolean logResponses);
 	HTTPServerConfig logTraffic();
 	HTTPServerConfig setTracks(int tracks);
 	
 	HTTPServerConfig setClientAuthRequired(boolean value);
 	HTTPServerConfig setServiceName(String name);
+	HTTPServerConfig enableResponseCompression(int minimumSize);
+	HTTPServerConfig setConcurrentAcceptors(int count);
 	
 	int getMaxConnectionBits();
 	int getEncryptionUnitsPerTrack();
@@ -44,6 +44,8 @@ public class HTTPServerConfigImpl implements HTTPServerConfig {
 	private LogFileConfig logFile;	
 	private boolean requireClientAuth = false;
 	private String serviceName = "Server";
+	private int responseCompressionMinimum = -1; //off by default
+	private int concurrentAcceptors = 1; //default 1, more requires SO_REUSEPORT
 	
 	private final ServerConnectionStruct scs;
 	
@@ -69,7 +71,7 @@ public class HTTPServerConfigImpl implements HTTPServerConfig {
 	public ServerCoordinator buildServerCoordinator() {
 		finalizeDeclareConnections();
 		
-		return new ServerCoordinator(
+		ServerCoordinator coordinator = new ServerCoordinator(
 				getCertificates(),
 				bindHost(), 
 				bindPort(),
@@ -78,6 +80,12 @@ public class HTTPServerConfigImpl implements HTTPServerConfig {
 				serviceName(),
 				defaultHostPath(), 
 				buildServerConfig());
+		
+		if (responseCompressionMinimum>=0) {
+			coordinator.enableResponseCompression(responseCompressionMinimum);
+		}
+		coordinator.setConcurrentAcceptors(concurrentAcceptors);
+		return coordinator;
 	}
 	
 	public void beginDeclarations() {
@@ -284,6 +292,12 @@ public class HTTPServerConfigImpl implements HTTPServerConfig {
 		logFile = new LogFileConfig(basePath,fileCount,fileSizeLimit,logResponse);
 		return this;
 	}
+	
+	@Override
+	public HTTPServerConfig logTrafficBinary(String basePath, int fileCount, long fileSizeLimit, boolean logResponse) {
+		logFile = new LogFileConfig(basePath,fileCount,fileSizeLimit,logResponse,true);
+		return this;
+	}
 
 	@Override
 	public HTTPServerConfig echoHeaders(int maxSingleHeaderLength, HTTPHeader... headers) {
@@ -315,6 +329,21 @@ public class HTTPServerConfigImpl implements HTTPServerConfig {
 		return this;
 	}
 
+	@Override
+	public HTTPServerConfig enableResponseCompression(int minimumSize) {
+		//routes must capture HTTPHeaderDefaults.ACCEPT_ENCODING for responses to be compressed
+		responseCompressionMinimum = minimumSize;
+		return this;
+	}
+
+	@Override
+	public HTTPServerConfig setConcurrentAcceptors(int count) {
+		//each acceptor binds the port with SO_REUSEPORT so the kernel spreads new connections across them
+		concurrentAcceptors = count;
+		assert(count>0) : "must have at least one acceptor";
+		return this;
+	}
+
 	@Override
 	public boolean requireClientAuth() {
 		return requireClientAuth;
@@ -16,6 +16,7 @@ public class LogFileConfig {
 	private final long maxFileSize;
 	private final int countOfFiles;
 	private boolean logResponse;
+	private boolean binary;
 		
 	public static String defaultPath() {
 		String home = System.getenv().get("HOME");
@@ -49,8 +50,20 @@ public class LogFileConfig {
 			             int countOfFiles, 
 			             long maxFileSize,
 			             boolean logResponse) {
+		this(baseFileName, countOfFiles, maxFileSize, logResponse, false);
+	}
+	
+	/**
+	 * @param binary write HTTPLogBinaryFormat records to memory mapped segments, see HTTPLogDecoder
+	 */
+	public LogFileConfig(String baseFileName, 
+			             int countOfFiles, 
+			             long maxFileSize,
+			             boolean logResponse,
+			             boolean binary) {
 		
 		this.baseFileName = baseFileName;
+		this.binary = binary;
 		this.maxFileSize = maxFileSize;		
 		this.countOfFiles = countOfFiles;
 		this.logResponse = logResponse;
@@ -74,4 +87,8 @@ public class LogFileConfig {
 		return logResponse;
 	}
 	
+	public boolean isBinary() {
+		return binary;
+	}
+	
 }
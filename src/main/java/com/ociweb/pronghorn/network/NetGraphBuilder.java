@@ -24,6 +24,7 @@ import com.ociweb.pronghorn.network.http.HTTP1xRouterStageConfig;
 import com.ociweb.pronghorn.network.http.HTTPClientRequestStage;
 import com.ociweb.pronghorn.network.http.HTTPLogUnificationStage;
 import com.ociweb.pronghorn.network.http.HTTPRequestJSONExtractionStage;
+import com.ociweb.pronghorn.network.http.HTTPResponseCompressionStage;
 import com.ociweb.pronghorn.network.http.ModuleConfig;
 import com.ociweb.pronghorn.network.http.RouterStageConfig;
 import com.ociweb.pronghorn.network.module.DotModuleStage;
@@ -50,6 +51,8 @@ import com.ociweb.pronghorn.pipe.RawDataSchema;
 import com.ociweb.pronghorn.stage.PronghornStage;
 import com.ociweb.pronghorn.stage.PronghornStageProcessor;
 import com.ociweb.pronghorn.stage.file.FileBlobWriteStage;
+import com.ociweb.pronghorn.stage.file.MappedSegmentRotationStage;
+import com.ociweb.pronghorn.stage.file.MappedSegmentWriteStage;
 import com.ociweb.pronghorn.stage.monitor.PipeMonitorCollectorStage;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 import com.ociweb.pronghorn.util.IPv4Tools;
@@ -329,6 +332,10 @@ public class NetGraphBuilder {
                 
         final HTTP1xRouterStageConfig routerConfig = buildModules(coordinator, graphManager,
         		 									modules, httpSpec, fromModule, toModules);
+        
+        if (coordinator.isResponseCompressionEnabled()) {
+        	buildResponseCompression(graphManager, coordinator, fromModule);
+        }
 		
         //logger.info("build http stages 3");
         
@@ -403,15 +410,26 @@ public class NetGraphBuilder {
 			//PipeCleanerStage.newInstance(graphManager, reqIn);
 			//PipeCleanerStage.newInstance(graphManager, resIn);
 			
-			new HTTPLogUnificationStage(graphManager, logReq, logRes, out);
+			new HTTPLogUnificationStage(graphManager, logReq, logRes, out, logFileConfig.isBinary());
 						
-			boolean append = false;
-			new FileBlobWriteStage(graphManager, out, 
-								   logFileConfig.maxFileSize()
-					               ,append, 
-					               logFileConfig.base(),
-					               logFileConfig.countOfFiles()
-					);
+			if (logFileConfig.isBinary()) {
+				//segments are allocated, forced and deleted on the rotation stage so the writer never waits on the disk
+				Pipe<RawDataSchema> ready = RawDataSchema.instance.newPipe(4, 1<<10);
+				Pipe<RawDataSchema> finished = RawDataSchema.instance.newPipe(4, 1<<10);
+				new MappedSegmentWriteStage(graphManager, out, ready, finished);
+				new MappedSegmentRotationStage(graphManager, finished, ready,
+						                       logFileConfig.maxFileSize(),
+						                       logFileConfig.base(), ".plog",
+						                       logFileConfig.countOfFiles());
+			} else {
+				boolean append = false;
+				new FileBlobWriteStage(graphManager, out, 
+									   logFileConfig.maxFileSize()
+						               ,append, 
+						               logFileConfig.base(),
+						               logFileConfig.countOfFiles()
+						);
+			}
 			
 			//PipeCleanerStage.newInstance(graphManager, out);
 			//ConsoleJSONDumpStage.newInstance(graphManager, out);			
@@ -529,12 +547,29 @@ public class NetGraphBuilder {
                     
         buildSocketWriters(graphManager, coordinator, coordinator.serverSocketWriters, toWiterPipes);
 
-        ServerNewConnectionStage newConStage = new ServerNewConnectionStage(graphManager, coordinator); 
-        coordinator.processNota(graphManager, newConStage);
+        buildNewConnectionStages(graphManager, coordinator);
 
 		return fromOrderedContent;
 	}
 
+	public static void buildNewConnectionStages(final GraphManager graphManager, ServerCoordinator coordinator) {
+		int acceptors = coordinator.concurrentAcceptors();
+		if (acceptors>1 && !ServerNewConnectionStage.isReusePortSupported()) {
+			logger.warn("SO_REUSEPORT is not supported on this JVM, using a single acceptor instead of {}", acceptors);
+			acceptors = 1;
+		}
+		if (1 == acceptors) {
+			ServerNewConnectionStage newConStage = new ServerNewConnectionStage(graphManager, coordinator); 
+			coordinator.processNota(graphManager, newConStage);
+		} else {
+			int i = acceptors;
+			while (--i>=0) {
+				ServerNewConnectionStage newConStage = new ServerNewConnectionStage(graphManager, coordinator, i, true); 
+				coordinator.processNota(graphManager, newConStage);
+			}
+		}
+	}
+
 	private static Pipe<NetPayloadSchema>[] buildSSLWrapersAsNeeded(final GraphManager graphManager,
 			ServerCoordinator coordinator,
 			Pipe<NetPayloadSchema>[] handshakeIncomingGroup,
@@ -601,6 +636,30 @@ public class NetGraphBuilder {
 		return toWiterPipes;
 	}
 
+	public static void buildResponseCompression(GraphManager graphManager, ServerCoordinator coordinator,
+			Pipe<ServerResponseSchema>[][] fromModule) {
+		
+		int track = fromModule.length;
+		while (--track>=0) {
+			Pipe<ServerResponseSchema>[] pipes = fromModule[track];
+			int p = pipes.length;
+			while (--p>=0) {
+				//one compression stage per module pipe so this work is done in parallel
+				//same var length as the module but enough fragments to write a held response as header and body blocks
+				PipeConfig<ServerResponseSchema> config = pipes[p].config();
+				Pipe<ServerResponseSchema> compressed = new Pipe<ServerResponseSchema>(
+						ServerResponseSchema.instance.newPipeConfig(
+								Math.max(4, config.minimumFragmentsOnPipe()), 
+								config.maxVarLenSize()));
+				HTTPResponseCompressionStage stage = HTTPResponseCompressionStage.newInstance(graphManager, 
+						                            pipes[p], compressed, 
+						                            coordinator.responseCompressionMinimum());
+				coordinator.processNota(graphManager, stage);
+				pipes[p] = compressed;
+			}
+		}
+	}
+
 	public static void buildOrderingSupers(GraphManager graphManager, ServerCoordinator coordinator,
 			Pipe<ServerResponseSchema>[][] fromModule, Pipe<HTTPLogResponseSchema>[] log,
 			Pipe<NetPayloadSchema>[][] perTrackFromSuper) {
@@ -1,16 +1,153 @@
 package com.ociweb.pronghorn.network;
 
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SSLEngineFactory {
     private TLSService privateService;
 	private final TLSCertificates certificates;
 
+	//Session resumption is done by the JSSE session contexts, server sessions are found by id and
+	//client sessions by peer host:port. Here we bound those caches and count how often they are used.
+	public static final int DEFAULT_SESSION_CACHE_SIZE = 1<<14;
+	public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 60*60*12;
+	
+	private static final String NULL_CIPHER_SUITE = "SSL_NULL_WITH_NULL_NULL"; //handshake has not begun
+	
+	private int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+	private int sessionTimeoutSeconds = DEFAULT_SESSION_TIMEOUT_SECONDS;
+	private volatile SSLSessionContext serverContext;
+	private volatile SSLSessionContext clientContext;
+	
+	private final AtomicLong serverHits = new AtomicLong();
+	private final AtomicLong serverMisses = new AtomicLong();
+	private final AtomicLong clientHits = new AtomicLong();
+	private final AtomicLong clientMisses = new AtomicLong();
+	
     SSLEngineFactory(TLSCertificates certificates) {
         this.certificates = certificates;
     }
+    
+    /**
+     * Sets the bound for both the server and client session caches, must be called before connections are made.
+     * @param size maximum number of sessions held, 0 is unbounded
+     * @param timeoutSeconds seconds a session may be resumed after it was created, 0 is no limit
+     */
+    public synchronized void setSessionCache(int size, int timeoutSeconds) {
+    	this.sessionCacheSize = size;
+    	this.sessionTimeoutSeconds = timeoutSeconds;
+    	configure(serverContext);
+    	configure(clientContext);
+    }
+    
+    private void configure(SSLSessionContext context) {
+    	if (null != context) {
+    		context.setSessionCacheSize(sessionCacheSize);
+    		context.setSessionTimeout(sessionTimeoutSeconds);
+    	}
+    }
+    
+    /**
+     * The contexts are only reachable from a session, they are taken from the first handshake
+     * while it is still in progress so the bound is in place before any session is cached.
+     */
+    private void captureContext(SSLSession session, boolean isClient) {
+    	SSLSessionContext context = null==session ? null : session.getSessionContext();
+    	if (null == context || (isClient ? clientContext : serverContext) == context) {
+    		return;
+    	}
+    	synchronized(this) {
+    		if (isClient) {
+    			if (null == clientContext) {
+    				configure(context);
+    				clientContext = context;
+    			}
+    		} else {
+    			if (null == serverContext) {
+    				configure(context);
+    				serverContext = context;
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * Called for each connection from the wrap path until it returns with the session counted.
+     * No lock is taken once the contexts are known.
+     */
+    void recordSession(BaseConnection cc) {
+    	if (recordSession(cc.getEngine(), cc instanceof ClientConnection, cc.creationTimeMS)) {
+    		cc.isSessionRecorded = true;
+    	}
+    }
+    
+    /**
+     * A resumed session keeps the creation time of the handshake which first built it, this holds for
+     * TLS 1.3 tickets as well where the session id is new on every handshake and can not be compared.
+     * 
+     * @param engine engine of the connection
+     * @param isClient true for the client side of the connection
+     * @param startMS time the connection was created, before its handshake began
+     * @return true once the completed handshake has been counted
+     */
+    boolean recordSession(SSLEngine engine, boolean isClient, long startMS) {
+    	if (null == engine) {
+    		return false;
+    	}
+    	if (HandshakeStatus.NOT_HANDSHAKING != engine.getHandshakeStatus()) {
+    		if (null == (isClient ? clientContext : serverContext)) {
+    			captureContext(engine.getHandshakeSession(), isClient);
+    		}
+    		return false; //check again later
+    	}
+    	SSLSession session = engine.getSession();
+    	if (NULL_CIPHER_SUITE.equals(session.getCipherSuite())) {
+    		return false; //handshake has not started
+    	}
+    	captureContext(session, isClient);
+    	
+    	boolean resumed = session.getCreationTime() < startMS;
+    	if (isClient) {
+    		(resumed ? clientHits : clientMisses).incrementAndGet();
+    	} else {
+    		(resumed ? serverHits : serverMisses).incrementAndGet();
+    	}
+    	return true;
+    }
+    
+    /**
+     * @return count of server handshakes which resumed a cached session
+     */
+    public long serverSessionHits() {
+    	return serverHits.get();
+    }
+    
+    /**
+     * @return count of server handshakes which required a full handshake
+     */
+    public long serverSessionMisses() {
+    	return serverMisses.get();
+    }
+    
+    /**
+     * @return count of client connections which resumed a cached session
+     */
+    public long clientSessionHits() {
+    	return clientHits.get();
+    }
+    
+    /**
+     * @return count of client connections which required a full handshake
+     */
+    public long clientSessionMisses() {
+    	return clientMisses.get();
+    }
 
     public SSLEngine createSSLEngine(String host, int port) {
         return getService().createSSLEngineClient(host, port);
@@ -608,6 +608,10 @@ public class SSLUtil {
 
 		//	logger.info("wrap data for {} ",cc.getId());
 			
+			if (!cc.isSessionRecorded) {
+				ccm.engineFactory.recordSession(cc); //also bounds the session cache during the first handshake
+			}
+			
 			if (handShakeWrapIfNeeded(cc, target, buffer, isServer, Pipe.peekLong(source, 0xFFF&NetPayloadSchema.MSG_PLAIN_210_FIELD_ARRIVALTIME_210))) {
 			
 				//we know the message is plain but what was the position? if this is an empty message just for handshake then clear it
@@ -15,23 +15,37 @@ public class ServerConnection extends BaseConnection {
 		
 	protected ServerConnection(SSLEngine engine, SocketChannel socketChannel, 
 			                   long id, ServerCoordinator coordinator) {
+		this(engine, socketChannel, id, coordinator, newConnectionDataPipe(coordinator));
+	}
+	
+	/**
+	 * The connection data pipe is the costly part of a new connection, it is built
+	 * before the id is known so it can be done outside of any lock on the slots.
+	 */
+	protected ServerConnection(SSLEngine engine, SocketChannel socketChannel, 
+			                   long id, ServerCoordinator coordinator, Pipe<RawDataSchema> pipe) {
 		
 		super(engine, socketChannel, id);
 		
 		this.scs  = coordinator.connectionStruct();
-		assert(coordinator.connectionStruct() != null) : "server side connections require struct";
-				
-		Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(
-					this.scs.inFlightCount(), this.scs.inFlightPayloadSize()
-				);
-		pipe.initBuffers();
-		Pipe.structRegistry(pipe, scs.registry);
 		
 		this.connectionDataWriter = new ChannelWriterController(pipe);
 		this.connectionDataReader = new ChannelReaderController(pipe);	
 		
 	}
 	
+	static Pipe<RawDataSchema> newConnectionDataPipe(ServerCoordinator coordinator) {
+		ServerConnectionStruct scs = coordinator.connectionStruct();
+		assert(scs != null) : "server side connections require struct";
+		
+		Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(
+					scs.inFlightCount(), scs.inFlightPayloadSize()
+				);
+		pipe.initBuffers();
+		Pipe.structRegistry(pipe, scs.registry);
+		return pipe;
+	}
+	
 	protected ServerConnection(SSLEngine engine, SocketChannel socketChannel, long id,
 							   ChannelWriterController connectionData, ServerConnectionStruct scs) {
 		super(engine, socketChannel, id);
@@ -43,6 +43,8 @@ public class ServerCoordinator extends SSLConnectionHolder {
     private final int                                  port;
     private final String                               bindHost;
 
+    public final static int ACCEPT_GZIP_SHIFT            = 25;//client sent Accept-Encoding with gzip
+    public final static int ACCEPT_DEFLATE_SHIFT         = 26;//client sent Accept-Encoding with deflate
     public final static int BEGIN_RESPONSE_SHIFT         = 27;
     public final static int INCOMPLETE_RESPONSE_SHIFT    = 28;
     public final static int END_RESPONSE_SHIFT           = 29;//for multi message send this high bit marks the end
@@ -51,6 +53,8 @@ public class ServerCoordinator extends SSLConnectionHolder {
     
     public final static int UPGRADE_TARGET_PIPE_MASK     = (1<<21)-1; 
 
+    public final static int ACCEPT_GZIP_MASK             = 1<<ACCEPT_GZIP_SHIFT;
+    public final static int ACCEPT_DEFLATE_MASK          = 1<<ACCEPT_DEFLATE_SHIFT;
     public final static int BEGIN_RESPONSE_MASK          = 1<<BEGIN_RESPONSE_SHIFT;	
     public final static int INCOMPLETE_RESPONSE_MASK     = 1<<INCOMPLETE_RESPONSE_SHIFT;
 	public final static int END_RESPONSE_MASK            = 1<<END_RESPONSE_SHIFT;
@@ -189,6 +193,32 @@ public class ServerCoordinator extends SSLConnectionHolder {
 
 	public long[] routeSLALimits = new long[0];
 
+	//negative when responses are not compressed
+	private int responseCompressionMinimum = -1;
+
+	public void enableResponseCompression(int minimumSize) {
+		responseCompressionMinimum = minimumSize;
+	}
+
+	public boolean isResponseCompressionEnabled() {
+		return responseCompressionMinimum>=0;
+	}
+
+	public int responseCompressionMinimum() {
+		return responseCompressionMinimum;
+	}
+
+	//number of ServerNewConnectionStage instances bound to the port
+	private int concurrentAcceptors = 1;
+
+	public void setConcurrentAcceptors(int count) {
+		concurrentAcceptors = Math.max(1, count);
+	}
+
+	public int concurrentAcceptors() {
+		return concurrentAcceptors;
+	}
+
 
 	
 	//NOT thread safe only called by ServerSocketReaderStage
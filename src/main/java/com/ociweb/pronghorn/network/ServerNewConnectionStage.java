@@ -5,6 +5,7 @@ import java.net.BindException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.SocketOption;
 import java.net.StandardSocketOptions;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -22,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import com.ociweb.pronghorn.network.schema.ServerConnectionSchema;
 import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
 import com.ociweb.pronghorn.stage.PronghornStage;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 import com.ociweb.pronghorn.util.Appendables;
@@ -57,6 +59,11 @@ public class ServerNewConnectionStage extends PronghornStage{
     private Pipe<ServerConnectionSchema> newClientConnections;
     private final String label;
     private boolean needsToNotifyStartup;
+    private final int acceptorIdx;
+    private final boolean reusePort;
+    
+    //SO_REUSEPORT is not part of the Java 7 API so it is looked up once by name
+    private static final SocketOption<Boolean> REUSE_PORT = lookupReusePort();
     
 	public static ServerNewConnectionStage newIntance(GraphManager graphManager, ServerCoordinator coordinator, Pipe<ServerConnectionSchema> newClientConnections, boolean isTLS) {
 		return new ServerNewConnectionStage(graphManager,coordinator,newClientConnections);
@@ -73,6 +80,8 @@ public class ServerNewConnectionStage extends PronghornStage{
         this.coordinator = coordinator;
         this.startupTimeNS = graphManager.startupTimeNS;        
         this.label = coordinator.host()+":"+coordinator.port();
+        this.acceptorIdx = 0;
+        this.reusePort = false;
         
         this.newClientConnections = newClientConnections;
         
@@ -93,10 +102,27 @@ public class ServerNewConnectionStage extends PronghornStage{
 	}
 	
     public ServerNewConnectionStage(GraphManager graphManager, ServerCoordinator coordinator) {
+    	this(graphManager, coordinator, 0, false);
+    }
+    
+	/**
+	 * One of many acceptors bound to the same port, the kernel spreads new connections across them.
+	 *
+	 * @param graphManager
+	 * @param coordinator
+	 * @param acceptorIdx position of this acceptor, only acceptor zero reports the server startup
+	 * @param reusePort when true the server socket is bound with SO_REUSEPORT
+	 */
+    public ServerNewConnectionStage(GraphManager graphManager, ServerCoordinator coordinator, int acceptorIdx, boolean reusePort) {
         super(graphManager, NONE, NONE);
         this.coordinator = coordinator;
         this.startupTimeNS = graphManager.startupTimeNS;  
-        this.label = coordinator.host()+":"+coordinator.port();
+        this.label = coordinator.host()+":"+coordinator.port()+(acceptorIdx>0 ? " #"+acceptorIdx : "");
+        this.acceptorIdx = acceptorIdx;
+        this.reusePort = reusePort;
+        if (reusePort && null==REUSE_PORT) {
+        	throw new UnsupportedOperationException("SO_REUSEPORT is not supported by this JVM");
+        }
         
         this.newClientConnections = null;
         GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "lemonchiffon3", this);
@@ -106,6 +132,45 @@ public class ServerNewConnectionStage extends PronghornStage{
          
     }
     
+    private static SocketOption<Boolean> lookupReusePort() {
+    	//Java 9 and later define this on StandardSocketOptions, some Java 8 builds on jdk.net.ExtendedSocketOptions
+    	SocketOption<Boolean> result = lookupReusePort("java.net.StandardSocketOptions");
+    	if (null == result) {
+    		result = lookupReusePort("jdk.net.ExtendedSocketOptions");
+    	}
+    	if (null != result) {
+    		try {
+    			ServerSocketChannel test = ServerSocketChannel.open();
+    			try {
+    				if (!test.supportedOptions().contains(result)) {
+    					result = null;
+    				}
+    			} finally {
+    				test.close();
+    			}
+    		} catch (IOException e) {
+    			result = null;
+    		}
+    	}
+    	return result;
+    }
+
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> lookupReusePort(String className) {
+		try {
+			return (SocketOption<Boolean>)Class.forName(className).getField("SO_REUSEPORT").get(null);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return true if many acceptors can be bound to the same port on this JVM and OS
+	 */
+	public static boolean isReusePortSupported() {
+		return null != REUSE_PORT;
+	}
+    
     @Override
     public String toString() {
     	String root = super.toString();
@@ -136,6 +201,10 @@ public class ServerNewConnectionStage extends PronghornStage{
     		
     		//to ensure that this port can be re-used quickly for testing and other reasons
     		server.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+    		if (reusePort) {
+    			//every acceptor binds the same port and the kernel balances new connections between them
+    			server.setOption(REUSE_PORT, Boolean.TRUE);
+    		}
     		server.socket().setPerformancePreferences(1, 2, 0);
     		server.socket().setSoTimeout(0);
     		    		
@@ -149,7 +218,7 @@ public class ServerNewConnectionStage extends PronghornStage{
             channel.register(selector, SelectionKey.OP_ACCEPT); 
             
             extractHostString(endPoint);
-            needsToNotifyStartup=true;          
+            needsToNotifyStartup = (0 == acceptorIdx);          
             
         } catch (SocketException se) {
          
@@ -343,59 +412,7 @@ public class ServerNewConnectionStage extends PronghornStage{
 		int readyOps = key.readyOps();
 		                    
 		  if (0 != (SelectionKey.OP_ACCEPT & readyOps)) {
-		      ServiceObjectHolder<ServerConnection> holder = ServerCoordinator.getSocketChannelHolder(coordinator);
-
-		      long channelId = holder.lookupInsertPosition();	        
-		     // logger.info("\nnew connection {}",channelId);
-		      	                      
-		      if (channelId>=0) {		                    
-		          
-		          int targetPipeIdx = 0;//NOTE: this will be needed for rolling out new sites and features atomicly
-		                                		          
-		          try {                          
-		        	  SocketChannel channel = server.accept();
-		              channel.configureBlocking(false);
-		              
-		              //TCP_NODELAY is required for HTTP/2 get used to it being on now.
-		              channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);  
-		              channel.socket().setPerformancePreferences(1, 0, 2);
-		     
-		              SSLEngine sslEngine = null;
-		              if (coordinator.isTLS) {
-						  sslEngine = coordinator.engineFactory.createSSLEngine();//// not needed for server? host, port);
-						  sslEngine.setUseClientMode(false); //here just to be complete and clear
-						  // sslEngine.setNeedClientAuth(true); //only if the auth is required to have a connection
-						  // sslEngine.setWantClientAuth(true); //the auth is optional
-						  sslEngine.setNeedClientAuth(coordinator.requireClientAuth); //required for openSSL/boringSSL
-						  
-						  sslEngine.beginHandshake();
-		              }
-					  							  
-					  
-		              holder.setValue(channelId, 
-		            		  		  new ServerConnection(sslEngine, 
-		            		  				  		       channel, channelId,
-		            				                       coordinator)
-		            		  		  );
-		              
-		             //logger.info("\naccepting new connection {}",channelId); 
-		        		                                                                                                                
-		             // logger.info("register new data to selector for pipe {}",targetPipeIdx);
-		              channel.register(ServerCoordinator.getSelector(coordinator), 
-							           SelectionKey.OP_READ, 
-							           ServerCoordinator.selectorKeyContext(coordinator, channelId));
-						
-					  //logger.info("\nnew server connection attached for new id {} ",channelId);
-					  if (null!=newClientConnections) {								  
-		                  publishNotificationOFNewConnection(targetPipeIdx, channelId);
-					  }
-					  
-		              
-		          } catch (IOException e) {
-		        	  logger.error("Unable to accept connection",e);
-		          } 
-		          doneSelectors.add(key);		          
-		      }
+		      acceptConnection(key, ServerCoordinator.getSocketChannelHolder(coordinator));
 
 		  } else {
 		      assert(0 != (SelectionKey.OP_CONNECT & readyOps)) : "only expected connect";
@@ -408,6 +425,97 @@ public class ServerNewConnectionStage extends PronghornStage{
 		  }
 	}
 
+	private void acceptConnection(SelectionKey key, ServiceObjectHolder<ServerConnection> holder) {
+		
+		  if (!hasOpenSlot(holder)) {
+			  return; //leave the connection waiting in the backlog until a slot is free
+		  }
+		  
+		  int targetPipeIdx = 0;//NOTE: this will be needed for rolling out new sites and features atomicly
+		  
+		  try {                          
+			  //socket and TLS setup is done outside the lock so the acceptors run in parallel
+			  SocketChannel channel = server.accept();
+			  if (null == channel) {
+				  //another acceptor on this port already took this connection
+				  doneSelectors.add(key);
+				  return;
+			  }
+			  channel.configureBlocking(false);
+			  
+			  //TCP_NODELAY is required for HTTP/2 get used to it being on now.
+			  channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);  
+			  channel.socket().setPerformancePreferences(1, 0, 2);
+			  
+			  SSLEngine sslEngine = null;
+			  if (coordinator.isTLS) {
+				  sslEngine = coordinator.engineFactory.createSSLEngine();//// not needed for server? host, port);
+				  sslEngine.setUseClientMode(false); //here just to be complete and clear
+				  // sslEngine.setNeedClientAuth(true); //only if the auth is required to have a connection
+				  // sslEngine.setWantClientAuth(true); //the auth is optional
+				  sslEngine.setNeedClientAuth(coordinator.requireClientAuth); //required for openSSL/boringSSL
+				  
+				  sslEngine.beginHandshake();
+			  }
+			  
+			  Pipe<RawDataSchema> connectionData = ServerConnection.newConnectionDataPipe(coordinator);
+			  
+			  long channelId = reserveSlot(holder, channel, sslEngine, connectionData);
+			  if (channelId<0) {
+				  //another acceptor took the last slot after we checked
+				  logger.warn("no connection slot free, closing new connection");
+				  channel.close();
+				  doneSelectors.add(key);
+				  return;
+			  }
+			  
+			  // logger.info("register new data to selector for pipe {}",targetPipeIdx);
+			  channel.register(ServerCoordinator.getSelector(coordinator), 
+					           SelectionKey.OP_READ, 
+					           ServerCoordinator.selectorKeyContext(coordinator, channelId));
+			  
+			  //logger.info("\nnew server connection attached for new id {} ",channelId);
+			  if (null!=newClientConnections) {								  
+				  publishNotificationOFNewConnection(targetPipeIdx, channelId);
+			  }
+			  
+		  } catch (IOException e) {
+			  logger.error("Unable to accept connection",e);
+		  } 
+		  doneSelectors.add(key);		          
+	}
+
+	private boolean hasOpenSlot(ServiceObjectHolder<ServerConnection> holder) {
+		if (reusePort) {
+			synchronized(holder) {
+				return holder.lookupInsertPosition()>=0;
+			}
+		} else {
+			return holder.lookupInsertPosition()>=0;
+		}
+	}
+
+	private long reserveSlot(ServiceObjectHolder<ServerConnection> holder, SocketChannel channel,
+			                 SSLEngine sslEngine, Pipe<RawDataSchema> connectionData) {
+		if (reusePort) {
+			//other acceptors share the holder so only the slot lookup and store are serialized
+			synchronized(holder) {
+				return storeConnection(holder, channel, sslEngine, connectionData);
+			}
+		} else {
+			return storeConnection(holder, channel, sslEngine, connectionData);
+		}
+	}
+
+	private long storeConnection(ServiceObjectHolder<ServerConnection> holder, SocketChannel channel,
+			                     SSLEngine sslEngine, Pipe<RawDataSchema> connectionData) {
+		long channelId = holder.lookupInsertPosition();
+		if (channelId>=0) {
+			holder.setValue(channelId, new ServerConnection(sslEngine, channel, channelId, coordinator, connectionData));
+		}
+		return channelId;
+	}
+
 	private void publishNotificationOFNewConnection(int targetPipeIdx, final long channelId) {
 		//the pipe selected has already been checked to ensure room for the connect message                      
 		  Pipe<ServerConnectionSchema> targetPipe = newClientConnections;
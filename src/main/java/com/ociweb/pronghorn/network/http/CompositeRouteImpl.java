@@ -111,6 +111,7 @@ public class CompositeRouteImpl implements CompositeRoute {
 		boolean headerContentLength = false;
 		boolean headerTransferEncodeing = false;
 		boolean headerConnection = false;
+		boolean headerAcceptEncoding = false;
 		
 		if (null!=headers) {			
 			int h = headers.length;
@@ -131,6 +132,9 @@ public class CompositeRouteImpl implements CompositeRoute {
 				if (Arrays.equals(HTTPHeaderDefaults.CONNECTION.rootBytes(),header.rootBytes())) {
 					headerConnection = true;
 				}
+				if (Arrays.equals(HTTPHeaderDefaults.ACCEPT_ENCODING.rootBytes(),header.rootBytes())) {
+					headerAcceptEncoding = true;
+				}
 				
 				HTTPUtil.addHeader(scs.registry, structId, headerParser, header);
 			}
@@ -146,6 +150,10 @@ public class CompositeRouteImpl implements CompositeRoute {
 		if (!headerConnection) {
 			HTTPUtil.addHeader(scs.registry, structId, headerParser, HTTPHeaderDefaults.CONNECTION);
 		}
+		//response compression depends on this no matter what the route captures
+		if (!headerAcceptEncoding) {
+			HTTPUtil.addHeader(scs.registry, structId, headerParser, HTTPHeaderDefaults.ACCEPT_ENCODING);
+		}
 				
 		HTTPHeader[] toEcho = scs.headersToEcho();
 		if (null != toEcho) {
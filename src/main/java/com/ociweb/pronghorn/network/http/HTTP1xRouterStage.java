@@ -708,55 +708,81 @@ private int parseHTTP(TrieParserReader trieReader, final long channel, final int
 		return NEED_MORE_DATA;
 	}
 	
-	final int verbId = (int)TrieParserReader.parseNext(trieReader, config.verbMap);     //  GET /hello/x?x=3 HTTP/1.1     
-    if (verbId<0) {
+	int verbId;
+	int pathId;
+	//single walk over the combined verb+path map, also captures all the path fields
+	final long verbPath = TrieParserReader.parseNext(trieReader, config.verbURLMap);  //  GET /hello/x?x=3 HTTP/1.1 
+	if (verbPath >= 0) {
+		verbId = (int)(verbPath & HTTPVerb.MASK);
+		pathId = (int)(verbPath >> HTTPVerb.BITS);
+	} else {
+		//not found in one pass, parse again in two steps to determine 
+		//if this is a bad verb, a bad path or if we just need more data.
+		trieReader.sourceLen = tempLen;
+		trieReader.sourcePos = tempPos;
+		
+		verbId = (int)TrieParserReader.parseNext(trieReader, config.verbMap);     //  GET /hello/x?x=3 HTTP/1.1     
+	    if (verbId<0) {
     	
-    		if (tempLen < (config.verbMap.longestKnown()+1) || (trieReader.sourceLen<0)) { //added 1 for the space which must appear after
-    			return NEED_MORE_DATA;    			
-    		} else {
-    			//trieReader.debugAsUTF8(trieReader, System.out);
-    			logger.info("bad HTTP data recieved by server, channel will be closed. Bytes abandoned:{} looking for verb at {} ",tempLen, tempPos);
-    			sendError(trieReader, channel, idx, tempLen, tempPos, 400);	
+	    		if (tempLen < (config.verbMap.longestKnown()+1) || (trieReader.sourceLen<0)) { //added 1 for the space which must appear after
+	    			return NEED_MORE_DATA;    			
+	    		} else {
+	    			//trieReader.debugAsUTF8(trieReader, System.out);
+	    			logger.info("bad HTTP data recieved by server, channel will be closed. Bytes abandoned:{} looking for verb at {} ",tempLen, tempPos);
+	    			sendError(trieReader, channel, idx, tempLen, tempPos, 400);	
     			
-    			//we have bad data we have been sent, there is enough data yet the verb was not found
+	    			//we have bad data we have been sent, there is enough data yet the verb was not found
     			
-    			boolean debug = false;
-    			if(debug) {
-    				trieReader.sourceLen = tempLen;
-    				trieReader.sourcePos = tempPos;
-    				StringBuilder builder = new StringBuilder();    			    			
-    				TrieParserReader.debugAsUTF8(trieReader, builder, config.verbMap.longestKnown()*2);    			
-    				logger.warn("{} looking for verb but found:\n{} at position {} \n\n",channel,builder,tempPos);
-    			}
+	    			boolean debug = false;
+	    			if(debug) {
+	    				trieReader.sourceLen = tempLen;
+	    				trieReader.sourcePos = tempPos;
+	    				StringBuilder builder = new StringBuilder();    			    			
+	    				TrieParserReader.debugAsUTF8(trieReader, builder, config.verbMap.longestKnown()*2);    			
+	    				logger.warn("{} looking for verb but found:\n{} at position {} \n\n",channel,builder,tempPos);
+	    			}
     			
-    			trieReader.sourceLen = 0;
-    			trieReader.sourcePos = 0;    			
+	    			trieReader.sourceLen = 0;
+	    			trieReader.sourcePos = 0;    			
     			
-    			BaseConnection con = coordinator.connectionForSessionId(channel);
-				if (null!=con) {
-					con.clearPoolReservation();
-				}
-    			//logger.info("success");
-    			return SUCCESS;
+	    			BaseConnection con = coordinator.connectionForSessionId(channel);
+					if (null!=con) {
+						con.clearPoolReservation();
+					}
+	    			//logger.info("success");
+	    			return SUCCESS;
     			    		    			
-    		}
+	    		}
     		
-    }
-   // System.err.println("start at pos "+tempPos+" for "+channel);
+	    }
+	   // System.err.println("start at pos "+tempPos+" for "+channel);
     
-    final boolean showTheRouteMap = false;
-    if (showTheRouteMap) {
-    	config.debugURLMap();
-    }
+	    final boolean showTheRouteMap = false;
+	    if (showTheRouteMap) {
+	    	config.debugURLMap();
+	    }
     
-	tempLen = trieReader.sourceLen;
-	tempPos = trieReader.sourcePos;
-	final int pathId = (int)TrieParserReader.parseNext(trieReader, config.urlMap);     //  GET /hello/x?x=3 HTTP/1.1 
+		tempLen = trieReader.sourceLen;
+		tempPos = trieReader.sourcePos;
+		pathId = (int)TrieParserReader.parseNext(trieReader, config.urlMap);     //  GET /hello/x?x=3 HTTP/1.1 
+	}
 	//the above URLS always end with a white space to ensure they match the spec.
 
 	//logger.info("selected path: "+pathId);
 	
     
+    if (pathId<0) {
+
+    	if (tempLen < config.urlMap.longestKnown() || trieReader.sourceLen<0) {
+    		//logger.info(routeId+" need more data C  "+tempLen+"  "+config.urlMap.longestKnown()+" "+trieReader.sourceLen);
+			return NEED_MORE_DATA;    			
+		} else {
+			//bad format route path error, could not find space after path and before route, send 404 error
+			sendError(trieReader, channel, idx, tempLen, tempPos, 404);	
+			return SUCCESS;
+		}
+    }
+
     int routeId;
     if (config.UNMAPPED_ROUTE == pathId) {
 	    if (!catchAll) {
@@ -770,18 +796,6 @@ private int parseHTTP(TrieParserReader trieReader, final long channel, final int
     } else {
     	routeId = config.getRouteIdForPathId(pathId);
     }
-    
-    if (pathId<0) {
-
-    	if (tempLen < config.urlMap.longestKnown() || trieReader.sourceLen<0) {
-    		//logger.info(routeId+" need more data C  "+tempLen+"  "+config.urlMap.longestKnown()+" "+trieReader.sourceLen);
-			return NEED_MORE_DATA;    			
-		} else {
-			//bad format route path error, could not find space after path and before route, send 404 error
-			sendError(trieReader, channel, idx, tempLen, tempPos, 404);	
-			return SUCCESS;
-		}
-    }
 
  
    // logger.info("send this message to route {}",routeId);
@@ -1004,6 +1018,10 @@ private static int parseHeaderFields(TrieParserReader trieReader,
 					    	assert(Arrays.equals(HTTPHeaderDefaults.CONNECTION.rootBytes(),header.rootBytes())) : "Custom enums must share same ordinal positions, CONNECTION does not match";
 					    	
 					    	requestContext = applyKeepAliveOrCloseToContext(requestContext, trieReader, serverConnection.id);                
+					    } else if (HTTPHeaderDefaults.ACCEPT_ENCODING.ordinal() == header.ordinal()) {
+					    	assert(Arrays.equals(HTTPHeaderDefaults.ACCEPT_ENCODING.rootBytes(),header.rootBytes())) : "Custom enums must share same ordinal positions, ACCEPT_ENCODING does not match";
+					    	
+					    	requestContext = applyAcceptEncodingToContext(requestContext, trieReader);
 					    }			                
 		
 					    TrieParserReader.writeCapturedValuesToDataOutput(trieReader, writer);
@@ -1372,6 +1390,106 @@ private long plainFreshStart(final int idx, Pipe<NetPayloadSchema> selectedInput
 	}
 
 
+	private static final byte[] GZIP = "gzip".getBytes();
+	private static final byte[] DEFLATE = "deflate".getBytes();
+
+	/**
+	 * Flags the encodings produced by HTTPResponseCompressionStage which the client accepts.
+	 * The header is read token by token, eg  gzip;q=0.5, deflate;q=0, *
+	 * A coding listed with q=0 is refused, codings not listed take the q of * when present.
+	 */
+	static int applyAcceptEncodingToContext(int requestContext, TrieParserReader trieReader) {
+		int len = TrieParserReader.capturedFieldBytesLength(trieReader, 0);
+		int gzip = -1; //-1 not listed, 0 refused, 1 accepted
+		int deflate = -1;
+		int any = -1;
+		int i = 0;
+		while (i<len) {
+			int c = TrieParserReader.capturedFieldByte(trieReader, 0, i);
+			if (','==c || ' '==c || '\t'==c) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i<len && !isCodingEnd(c = TrieParserReader.capturedFieldByte(trieReader, 0, i))) {
+				i++;
+			}
+			int end = i;
+			
+			//parameters up to the next element, only q is used
+			int accepted = 1;
+			while (i<len && ','!=(c = TrieParserReader.capturedFieldByte(trieReader, 0, i))) {
+				i++;
+				if (';'==c) {
+					while (i<len && isSpace(TrieParserReader.capturedFieldByte(trieReader, 0, i))) {
+						i++;
+					}
+					if (i+1<len && 'q'==(0x20|TrieParserReader.capturedFieldByte(trieReader, 0, i))
+						        && '='==TrieParserReader.capturedFieldByte(trieReader, 0, i+1)) {
+						i += 2;
+						accepted = isZeroQValue(trieReader, i, len) ? 0 : 1;
+					}
+				}
+			}
+			
+			if (codingEquals(trieReader, start, end, GZIP)) {
+				gzip = accepted;
+			} else if (codingEquals(trieReader, start, end, DEFLATE)) {
+				deflate = accepted;
+			} else if (end-start==1 && '*'==TrieParserReader.capturedFieldByte(trieReader, 0, start)) {
+				any = accepted;
+			}
+		}
+		if (1==gzip || (-1==gzip && 1==any)) {
+			requestContext |= ServerCoordinator.ACCEPT_GZIP_MASK;
+		}
+		if (1==deflate || (-1==deflate && 1==any)) {
+			requestContext |= ServerCoordinator.ACCEPT_DEFLATE_MASK;
+		}
+		return requestContext;
+	}
+
+	private static boolean isCodingEnd(int c) {
+		return ','==c || ';'==c || isSpace(c);
+	}
+
+	private static boolean isSpace(int c) {
+		return ' '==c || '\t'==c;
+	}
+
+	private static boolean codingEquals(TrieParserReader trieReader, int start, int end, byte[] coding) {
+		if (end-start != coding.length) {
+			return false;
+		}
+		int j = coding.length;
+		while (--j>=0) {
+			//codings are case insensitive
+			if (coding[j] != (0x20|TrieParserReader.capturedFieldByte(trieReader, 0, start+j))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * q values are 0 to 1 with at most 3 decimal places so only 0, 0. and 0.000 are zero
+	 */
+	private static boolean isZeroQValue(TrieParserReader trieReader, int i, int len) {
+		if (i>=len || '0'!=TrieParserReader.capturedFieldByte(trieReader, 0, i)) {
+			return false;
+		}
+		while (++i<len) {
+			int c = TrieParserReader.capturedFieldByte(trieReader, 0, i);
+			if (c>='1' && c<='9') {
+				return false;
+			}
+			if ('.'!=c && '0'!=c) {
+				break;
+			}
+		}
+		return true;
+	}
+
 	private static int keepAliveOrNotContext(int revisionId, long id) {
 		int requestContext = 0; //by default this is keep alive, eg zero.
         
@@ -34,6 +34,7 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
 	
     public final TrieParser urlMap;
     public final TrieParser verbMap;
+    public final TrieParser verbURLMap; //verb and path together, value is (pathId<<HTTPVerb.BITS)|verb
     public final TrieParser revisionMap;
       
     private final int defaultLength = 4;
@@ -41,6 +42,10 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
     private TrieParser[] headersParser = new TrieParser[4];    
     private JSONExtractorCompleted[] requestJSONExtractor = new JSONExtractorCompleted[defaultLength];    
     private FieldExtractionDefinitions[] pathDefinitions = new FieldExtractionDefinitions[defaultLength];
+    private int[] pathRouteIds = new int[defaultLength]; //direct pathId to routeId lookup
+    
+    private final byte[][] verbPrefixes;
+    private final int[] verbIds;
     
 	private int routeCount = 0;
 	private AtomicInteger pathCount = new AtomicInteger();
@@ -91,10 +96,17 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
         if (verbs != null) {
 	        int y = verbs.length;
 	        assert(verbs.length>=1) : "only found "+verbs.length+" defined";
+	        verbPrefixes = new byte[y][];
+	        verbIds = new int[y];
 	        while (--y >= 0) {
 	        	//logger.info("add verb {}",verbs[y].getKey());
-	            verbMap.setUTF8Value(verbs[y].getKey()," ", verbs[y].ordinal());           
+	            verbMap.setUTF8Value(verbs[y].getKey()," ", verbs[y].ordinal());
+	            verbPrefixes[y] = (verbs[y].getKey()+" ").getBytes();
+	            verbIds[y] = verbs[y].ordinal();
 	        }
+        } else {
+        	verbPrefixes = new byte[0][];
+        	verbIds = new int[0];
         }
 
 
@@ -102,6 +114,9 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
         this.urlMap = new TrieParser(512,2,false //never skip deep check so we can return 404 for all "unknowns"
         	 	                   ,true,true);
         
+        //same routes as urlMap but prefixed with each verb so both are found in one walk
+        this.verbURLMap = new TrieParser(512*Math.max(1, verbIds.length),2,false,true,true);
+        
 		String constantUnknownRoute = "${path}";//do not modify
 		int routeId = UNMAPPED_ROUTE;//routeCount can not be inc due to our using it to know if there are valid routes.
 		int pathId = UNMAPPED_ROUTE;
@@ -119,7 +134,8 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
     			structId,
     			HTTPHeaderDefaults.CONTENT_LENGTH,
     			HTTPHeaderDefaults.TRANSFER_ENCODING,
-    			HTTPHeaderDefaults.CONNECTION
+    			HTTPHeaderDefaults.CONNECTION,
+    			HTTPHeaderDefaults.ACCEPT_ENCODING
 			);
 		
 	}
@@ -129,6 +145,7 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
 		
 		try {
 			urlMap.toDOTFile(File.createTempFile("debugTrie", ".dot"));
+			verbURLMap.toDOTFile(File.createTempFile("debugVerbTrie", ".dot"));
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -141,7 +158,7 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
 		//Many projects do not need this so do not build..
 		if (routeParser==null) {
 	        boolean trustText = false; 
-			routeParser = new URLTemplateParser(urlMap, trustText);
+			routeParser = new URLTemplateParser(urlMap, verbURLMap, verbPrefixes, verbIds, trustText);
 		}
 		return routeParser;
 	}
@@ -167,6 +184,14 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
 		}
 		pathDefinitions[pathIdx]=route;	
 		
+		if (pathIdx>=pathRouteIds.length) {
+			int i = pathRouteIds.length;
+			int[] newArray = new int[i*2]; //only grows on startup as needed
+			System.arraycopy(pathRouteIds, 0, newArray, 0, i);
+			pathRouteIds = newArray;
+		}
+		pathRouteIds[pathIdx]=route.routeId;
+		
 		//we have 1 pipe per composite route so nothing gets stuck and
 		//we have max visibility into the traffic by route type.
 		//any behavior can process multiple routes but it comes in as multiple pipes.
@@ -190,7 +215,7 @@ public class HTTP1xRouterStageConfig<T extends Enum<T> & HTTPContentType,
 	}
 
 	public int getRouteIdForPathId(int pathId) {
-		return (pathId != UNMAPPED_ROUTE) ? extractionParser(pathId).routeId : -1;
+		return (pathId != UNMAPPED_ROUTE) ? pathRouteIds[pathId] : -1;
 	}
 
 	//only needed on startup, ok to be linear search
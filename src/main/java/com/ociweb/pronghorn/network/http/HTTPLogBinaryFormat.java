@@ -0,0 +1,110 @@
+package com.ociweb.pronghorn.network.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.util.ISOTimeFormatterLowGC;
+import com.ociweb.pronghorn.util.Appendables;
+
+/**
+ * Compact binary form of the HTTP access log written by HTTPLogUnificationStage in binary mode.
+ *
+ * Each record is a kind byte followed by varint fields:
+ *   kind, arrivalTimeMS, channelId, sequence, (durationNS for responses only), headLength, head bytes
+ *
+ * Varints hold 7 bits per byte with the high bit set on all but the last byte, signed values are zigzag encoded.
+ * Records are never split across blocks so each segment written by MappedSegmentWriteStage can be decoded on its own.
+ */
+public final class HTTPLogBinaryFormat {
+
+	public static final byte KIND_REQUEST = 1;
+	public static final byte KIND_RESPONSE = 2;
+
+	private static final byte[] BYTES_RESPONSE = "OUT ".getBytes();
+	private static final byte[] BYTES_REQUEST = "IN ".getBytes();
+	private static final String EOL = "\r\n";
+
+	//kind, 4 longs of at most 10 bytes and the head length
+	static final int MAX_RECORD_OVERHEAD = 1+(4*10)+5;
+
+	public static void writeVarLong(DataOutputBlobWriter<?> writer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			writer.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		writer.writeByte((int)value);
+	}
+
+	public static void writeSignedVarLong(DataOutputBlobWriter<?> writer, long value) {
+		writeVarLong(writer, (value << 1) ^ (value >> 63));
+	}
+
+	public static long readVarLong(ByteBuffer source) {
+		long result = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = source.get();
+			result |= ((long)(b & 0x7F)) << shift;
+			shift += 7;
+		} while (b<0);
+		return result;
+	}
+
+	public static long readSignedVarLong(ByteBuffer source) {
+		long raw = readVarLong(source);
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	/**
+	 * Renders every record from the position to the limit of source in the same layout
+	 * HTTPLogUnificationStage uses for the text log.
+	 */
+	public static <A extends Appendable> A render(ByteBuffer source, A target) throws IOException {
+		ISOTimeFormatterLowGC formatter = new ISOTimeFormatterLowGC();
+		StringBuilder time = new StringBuilder();
+		while (source.hasRemaining()) {
+			byte kind = source.get();
+			if (KIND_REQUEST != kind && KIND_RESPONSE != kind) {
+				throw new IOException("unknown record kind "+kind+" at "+(source.position()-1));
+			}
+			long arrivalTimeMS = readVarLong(source);
+			long channelId = readVarLong(source);
+			int sequence = (int)readSignedVarLong(source);
+			long durationNS = KIND_RESPONSE == kind ? readVarLong(source) : -1;
+			int headLength = (int)readVarLong(source);
+
+			append(target, KIND_RESPONSE == kind ? BYTES_RESPONSE : BYTES_REQUEST);
+			target.append(" [");
+			Appendables.appendHexDigits(target, channelId);
+			target.append(':');
+			Appendables.appendHexDigits(target, sequence);
+			target.append("] ");
+			if (durationNS>=0) {
+				target.append("BusinessLatency:");
+				Appendables.appendNearestTimeUnit(target, durationNS);
+			}
+			target.append(EOL);
+
+			time.setLength(0);
+			formatter.write(arrivalTimeMS, time);
+			target.append(time).append(EOL);
+
+			//head bytes are written as found, like the text log
+			int i = headLength;
+			while (--i>=0) {
+				target.append((char)(0xFF & source.get()));
+			}
+			target.append(EOL).append(EOL);
+		}
+		return target;
+	}
+
+	private static void append(Appendable target, byte[] ascii) throws IOException {
+		for(int i = 0; i<ascii.length; i++) {
+			target.append((char)ascii[i]);
+		}
+	}
+
+}
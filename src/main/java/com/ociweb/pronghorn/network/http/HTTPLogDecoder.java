@@ -0,0 +1,43 @@
+package com.ociweb.pronghorn.network.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.stage.file.MappedSegmentWriteStage;
+
+/**
+ * Offline tool which renders binary access log segments as text.
+ *
+ * Usage: HTTPLogDecoder [segment files or folders]...
+ * Folders are expanded to their files in name order which is also the order they were written.
+ */
+public class HTTPLogDecoder {
+
+	public static void main(String[] args) throws IOException {
+		if (0 == args.length) {
+			System.err.println("Usage: HTTPLogDecoder [segment files or folders]...");
+			return;
+		}
+		PrintStream out = System.out;
+		for(String arg: args) {
+			File file = new File(arg);
+			if (file.isDirectory()) {
+				File[] files = file.listFiles();
+				Arrays.sort(files);
+				for(File f: files) {
+					decode(f, out);
+				}
+			} else {
+				decode(file, out);
+			}
+		}
+		out.flush();
+	}
+
+	public static <A extends Appendable> A decode(File segment, A target) throws IOException {
+		return HTTPLogBinaryFormat.render(MappedSegmentWriteStage.readSegment(segment), target);
+	}
+
+}
@@ -14,7 +14,8 @@ import com.ociweb.pronghorn.util.Appendables;
 
 /**
  * Takes multiple HTTP log requests and responses and turns them into a RawDataSchema for
- * easier output.
+ * easier output. The records are either text or the compact HTTPLogBinaryFormat, records
+ * are never split across two RawDataSchema messages.
  *
  * @author Nathan Tippy
  * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
@@ -31,6 +32,7 @@ public class HTTPLogUnificationStage extends PronghornStage {
 	private final Pipe<HTTPLogRequestSchema>[] requestInputs;
 	private final Pipe<HTTPLogResponseSchema>[] responseInputs;			                          
 	private final Pipe<RawDataSchema> output;
+	private final boolean binary;
 		
 	private ISOTimeFormatterLowGC formatter;
 	private ElapsedTimeRecorder etr;
@@ -49,11 +51,28 @@ public class HTTPLogUnificationStage extends PronghornStage {
 			                          Pipe<HTTPLogRequestSchema>[] requestInputs,
 			                          Pipe<HTTPLogResponseSchema>[] responseInputs,			                          
 			                          Pipe<RawDataSchema> output) {
+		this(graphManager, requestInputs, responseInputs, output, false);
+	}
+	
+	/**
+	 *
+	 * @param graphManager
+	 * @param requestInputs _in_ All HTTP request logs.
+	 * @param responseInputs _in_ All HTTP response logs.
+	 * @param output _out_ All the request and response logs combined onto the output pipe as a RawDataSchema.
+	 * @param binary write HTTPLogBinaryFormat records instead of text
+	 */
+	public HTTPLogUnificationStage(GraphManager graphManager, 
+			                          Pipe<HTTPLogRequestSchema>[] requestInputs,
+			                          Pipe<HTTPLogResponseSchema>[] responseInputs,			                          
+			                          Pipe<RawDataSchema> output,
+			                          boolean binary) {
 		
 		super(graphManager, join(requestInputs, responseInputs), output);
 		this.requestInputs = requestInputs;
 		this.responseInputs = responseInputs;
 		this.output = output;
+		this.binary = binary;
 
 		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "lemonchiffon3", this);
 	}
@@ -139,6 +158,16 @@ public class HTTPLogUnificationStage extends PronghornStage {
 			}
 			//all the pipes have now requested shutdown
 			if (Pipe.hasRoomForWrite(output)) {
+				if (messageOpen) {
+					//the last block must be published before the EOF
+					DataOutputBlobWriter.closeLowLevelField(Pipe.outputStream(output)); 
+					Pipe.confirmLowLevelWrite(output, Pipe.sizeOf(output, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+					Pipe.publishWrites(output);	
+					messageOpen=false;
+					if (!Pipe.hasRoomForWrite(output)) {
+						return;//try again later
+					}
+				}
 				Pipe.publishEOF(output); //tell downstream to shutdown
 				requestShutdown(); //shutdown myself			
 			} else {
@@ -174,7 +203,11 @@ public class HTTPLogUnificationStage extends PronghornStage {
 			int esitmate = 100+header.available();
 			batchMessages(output, esitmate);
 							
-			publishLogMessage(timeNS, chnl, seq, durationNS, BYTES_RESPONSE, header, Pipe.outputStream(output));
+			if (binary) {
+				publishBinaryLogMessage(timeNS, chnl, seq, durationNS, HTTPLogBinaryFormat.KIND_RESPONSE, header, Pipe.outputStream(output));
+			} else {
+				publishLogMessage(timeNS, chnl, seq, durationNS, BYTES_RESPONSE, header, Pipe.outputStream(output));
+			}
 			
 
 		
@@ -198,7 +231,11 @@ public class HTTPLogUnificationStage extends PronghornStage {
 			int esitmate = 100+header.available();
 			batchMessages(output, esitmate);
 			
-			publishLogMessage(timeNS, chnl, seq, -1, BYTES_REQUEST, header, Pipe.outputStream(output));
+			if (binary) {
+				publishBinaryLogMessage(timeNS, chnl, seq, -1, HTTPLogBinaryFormat.KIND_REQUEST, header, Pipe.outputStream(output));
+			} else {
+				publishLogMessage(timeNS, chnl, seq, -1, BYTES_REQUEST, header, Pipe.outputStream(output));
+			}
 			
 
 		
@@ -211,7 +248,7 @@ public class HTTPLogUnificationStage extends PronghornStage {
 		if ((!messageOpen) || (Pipe.outputStream(output).remaining() < (esitmate+(1<<12))) ) {
 			if (messageOpen) {
 				//add to end of each file, when there is room.
-				if (Pipe.outputStream(output).remaining()>(1<<12)) {
+				if (!binary && Pipe.outputStream(output).remaining()>(1<<12)) {
 					Pipe.outputStream(output).append("\n");
 					etr.report(Pipe.outputStream(output));
 				}
@@ -229,6 +266,28 @@ public class HTTPLogUnificationStage extends PronghornStage {
 	
 	private int etlCounter = 0;
 	
+	private void publishBinaryLogMessage(long timeNS, long chnl, int seq, long duration, 
+			                             byte kind,
+			                             DataInputBlobReader<?> header,
+			                             DataOutputBlobWriter<?> writer) {
+		
+		//reconstruct arrival time using the NS time provided
+		long arrivalTimeMS = System.currentTimeMillis() - ((System.nanoTime()-timeNS)/1_000_000L);
+		int headLength = header.available();
+		
+		writer.writeByte(kind);
+		HTTPLogBinaryFormat.writeVarLong(writer, arrivalTimeMS);
+		HTTPLogBinaryFormat.writeVarLong(writer, chnl);
+		HTTPLogBinaryFormat.writeSignedVarLong(writer, seq);
+		if (duration>=0) {
+			ElapsedTimeRecorder.record(etr, duration);
+			HTTPLogBinaryFormat.writeVarLong(writer, duration);
+		}
+		HTTPLogBinaryFormat.writeVarLong(writer, headLength);
+		header.readInto(writer, headLength);
+		
+	}
+	
 	private void publishLogMessage(long timeNS, long chnl, int seq, long duration, 
 								   byte[] state,
 			                       DataInputBlobReader<?> header,
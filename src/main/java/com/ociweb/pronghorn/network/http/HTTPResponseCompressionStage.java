@@ -0,0 +1,653 @@
+package com.ociweb.pronghorn.network.http;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.network.ServerCoordinator;
+import com.ociweb.pronghorn.network.config.HTTPContentType;
+import com.ociweb.pronghorn.network.config.HTTPContentTypeDefaults;
+import com.ociweb.pronghorn.network.schema.ServerResponseSchema;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.util.Appendables;
+import com.ociweb.pronghorn.util.TrieParser;
+import com.ociweb.pronghorn.util.TrieParserReader;
+
+/**
+ * Optional stage placed between a module and the OrderSupervisorStage which compresses
+ * large text, JSON and XML responses with gzip or deflate. Small responses, binary content types,
+ * chunked responses and responses which are already encoded pass through untouched.
+ *
+ * The request context must carry ServerCoordinator.ACCEPT_GZIP_MASK or ACCEPT_DEFLATE_MASK,
+ * these are set by the router when the route captures the Accept-Encoding header.
+ * One instance is built for each module output pipe so compression work is done in parallel.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class HTTPResponseCompressionStage extends PronghornStage {
+
+	private static final Logger logger = LoggerFactory.getLogger(HTTPResponseCompressionStage.class);
+
+	public static final int DEFAULT_MINIMUM_SIZE = 1<<10;
+
+	private static final int SIZE_OF_TO_CHNL = Pipe.sizeOf(ServerResponseSchema.instance, ServerResponseSchema.MSG_TOCHANNEL_100);
+	private static final int CHANNEL_ID_IDX = 1;
+	private static final int SEQUENCE_NO_IDX = 3;
+	private static final int PAYLOAD_LENGTH_IDX = 5;
+	private static final int REQUEST_CONTEXT_IDX = 6;
+
+	private static final int NOT_FINAL_MASK = ~(ServerCoordinator.END_RESPONSE_MASK | ServerCoordinator.CLOSE_CONNECTION_MASK);
+
+	private static final byte[] CONTENT_ENCODING_GZIP = "Content-Encoding: gzip\r\n".getBytes();
+	private static final byte[] CONTENT_ENCODING_DEFLATE = "Content-Encoding: deflate\r\n".getBytes();
+	private static final byte[] VARY_ACCEPT_ENCODING = "Vary: Accept-Encoding\r\n".getBytes();
+
+	//lower case since the header names are compared without case
+	private static final byte[] HEADER_CONTENT_TYPE = "content-type:".getBytes();
+	private static final byte[] HEADER_CONTENT_LENGTH = "content-length:".getBytes();
+	private static final byte[] HEADER_CONTENT_ENCODING = "content-encoding:".getBytes();
+	private static final byte[] HEADER_TRANSFER_ENCODING = "transfer-encoding:".getBytes();
+
+	//magic, deflate method, no flags, no time, no extra flags, unknown OS
+	private static final byte[] GZIP_HEADER = new byte[] {0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xFF};
+	private static final int GZIP_TRAILER_SIZE = 8;
+
+	//room for the new encoding, vary and length lines written into the header
+	private static final int HEADER_GROWTH = CONTENT_ENCODING_DEFLATE.length + VARY_ACCEPT_ENCODING.length + HTTPUtil.CONTENT_LENGTH.length + 12;
+
+	private static final int STATE_IDLE    = 0; //next fragment is the beginning of a new response
+	private static final int STATE_PASS    = 1; //forward fragments untouched until the end of this response
+	private static final int STATE_HOLD    = 2; //header is held until the first body fragment shows us the request context
+	private static final int STATE_COLLECT = 3; //body is accumulated until the end of the response so it can be compressed
+
+	private static final int MAX_ABANDONED = 8; //responses interrupted by another channel, their remaining fragments pass through
+
+	private final Pipe<ServerResponseSchema> input;
+	private final Pipe<ServerResponseSchema> output;
+	private final int minimumSize;
+	private final int level;
+	private final TrieParser compressibleTypes;
+
+	private TrieParserReader reader;
+	private Deflater gzipDeflater;
+	private Deflater zlibDeflater;
+	private CRC32 crc;
+
+	private int maxBuffered;
+	private byte[] buffer;
+	private int bufferLength;
+	private int headerLength;
+	private byte[] compressed;
+
+	private int state = STATE_IDLE;
+	private long activeChannelId;
+	private int activeSequenceNo;
+	private int activeContext;
+
+	private long[] abandonedChannelIds;
+	private int[] abandonedSequenceNos;
+	private int abandonedCount;
+
+	public static HTTPResponseCompressionStage newInstance(GraphManager graphManager,
+			Pipe<ServerResponseSchema> input,
+			Pipe<ServerResponseSchema> output,
+			int minimumSize) {
+		return new HTTPResponseCompressionStage(graphManager, input, output, minimumSize, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Compresses each response whose content type is found to be compressible using HTTPContentTypeDefaults.
+	 * @param graphManager
+	 * @param input _in_ The server responses as written by the module.
+	 * @param output _out_ The same responses, compressed when the client and the content allow it.
+	 * @param minimumSize bodies smaller than this are never compressed
+	 * @param level the Deflater compression level
+	 */
+	public HTTPResponseCompressionStage(GraphManager graphManager,
+			Pipe<ServerResponseSchema> input,
+			Pipe<ServerResponseSchema> output,
+			int minimumSize, int level) {
+		super(graphManager, input, output);
+		this.input = input;
+		this.output = output;
+		this.minimumSize = minimumSize;
+		this.level = level;
+
+		assert(output.config().canConsume(input.config())) : "output pipe must be as large or larger than input";
+
+		this.compressibleTypes = new TrieParser(1024,1,true,false,true);
+		HTTPContentTypeDefaults[] types = HTTPContentTypeDefaults.values();
+		int i = types.length;
+		while (--i>=0) {
+			if (isCompressible(types[i])) {
+				compressibleTypes.setUTF8Value(types[i].contentType(), types[i].ordinal());
+			}
+		}
+
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "lemonchiffon2", this);
+	}
+
+	/**
+	 * Text based content compresses well, streams must not be held back so they are excluded.
+	 * @param type content type to be checked
+	 * @return true if this type should be compressed
+	 */
+	public static boolean isCompressible(HTTPContentType type) {
+		if (HTTPContentTypeDefaults.EVENT_STREAM == type || HTTPContentTypeDefaults.JSON_STREAM == type) {
+			return false;
+		}
+		String value = type.contentType().toString();
+		return value.startsWith("text/")
+			|| value.endsWith("json")
+			|| value.endsWith("xml")
+			|| value.endsWith("javascript")
+			|| value.endsWith("xml-dtd")
+			|| value.endsWith("postscript");
+	}
+
+	@Override
+	public void startup() {
+		reader = new TrieParserReader(true);
+		gzipDeflater = new Deflater(level, true); //raw, gzip header and trailer are written here
+		zlibDeflater = new Deflater(level, false);
+		crc = new CRC32();
+
+		//we must always be able to write the held response as a header and its body fragments
+		maxBuffered = (output.config().minimumFragmentsOnPipe()-2) * output.maxVarLen;
+		if (maxBuffered < minimumSize) {
+			logger.warn("output pipe is too small to hold responses of {} bytes, compression is disabled", minimumSize);
+		}
+		buffer = new byte[Math.max(0, Math.min(maxBuffered, 1<<16))];
+		compressed = new byte[buffer.length];
+		abandonedChannelIds = new long[MAX_ABANDONED];
+		abandonedSequenceNos = new int[MAX_ABANDONED];
+	}
+
+	@Override
+	public void shutdown() {
+		gzipDeflater.end();
+		zlibDeflater.end();
+	}
+
+	@Override
+	public void run() {
+
+		while (Pipe.hasContentToRead(input)) {
+
+			int msgIdx = Pipe.peekInt(input);
+			if (ServerResponseSchema.MSG_TOCHANNEL_100 != msgIdx) {
+				if (!processOtherMessage(msgIdx)) {
+					return;
+				}
+				continue;
+			}
+
+			long channelId = Pipe.peekLong(input, CHANNEL_ID_IDX);
+			int sequenceNo = Pipe.peekInt(input, SEQUENCE_NO_IDX);
+			int length = Pipe.peekInt(input, PAYLOAD_LENGTH_IDX);
+
+			int abandonedIdx = abandonedIndex(channelId, sequenceNo);
+			if (abandonedIdx >= 0) {
+				if (!Pipe.hasRoomForWrite(output, SIZE_OF_TO_CHNL)) {
+					return;
+				}
+				passAbandoned(abandonedIdx);
+				continue;
+			}
+
+			if (STATE_IDLE != state && (channelId != activeChannelId || sequenceNo != activeSequenceNo)) {
+				//modules finish one response before starting the next, if not we give up on this one
+				if (STATE_PASS != state && !flushHeld(false)) {
+					return;
+				}
+				abandon(activeChannelId, activeSequenceNo);
+				state = STATE_IDLE;
+			} else if (STATE_HOLD == state || STATE_COLLECT == state) {
+				if (bufferLength+length > maxBuffered) {
+					//too large to hold, send what we have and pass the rest
+					if (!flushHeld(false)) {
+						return;
+					}
+					state = STATE_PASS;
+				}
+			}
+
+			if (!Pipe.hasRoomForWrite(output, SIZE_OF_TO_CHNL * (2 + ((bufferLength+length)/output.maxVarLen)))) {
+				return;
+			}
+
+			switch (state) {
+				case STATE_IDLE:
+					beginResponse();
+					break;
+				case STATE_PASS:
+					passFragment();
+					break;
+				default:
+					continueResponse();
+			}
+		}
+	}
+
+	private boolean processOtherMessage(int msgIdx) {
+
+		if (STATE_HOLD == state || STATE_COLLECT == state) {
+			if (!flushHeld(false)) {
+				return false;
+			}
+			abandon(activeChannelId, activeSequenceNo);
+			state = STATE_IDLE;
+		}
+
+		if (msgIdx < 0) {
+			if (!Pipe.hasRoomForWrite(output, Pipe.EOF_SIZE)) {
+				return false;
+			}
+			Pipe.takeMsgIdx(input);
+			Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+			Pipe.releaseReadLock(input);
+			Pipe.publishEOF(output);
+			requestShutdown();
+			return false;
+		}
+
+		if (!Pipe.hasRoomForWrite(output, Pipe.sizeOf(input, msgIdx))) {
+			return false;
+		}
+		Pipe.copyFragment(input, output);
+		return true;
+	}
+
+	private void passFragment() {
+		int context = Pipe.peekInt(input, REQUEST_CONTEXT_IDX);
+		Pipe.copyFragment(input, output);
+		state = isEndOfResponse(context) ? STATE_IDLE : STATE_PASS;
+	}
+
+	private void passAbandoned(int idx) {
+		int context = Pipe.peekInt(input, REQUEST_CONTEXT_IDX);
+		Pipe.copyFragment(input, output);
+		if (isEndOfResponse(context)) {
+			abandonedCount--;
+			abandonedChannelIds[idx] = abandonedChannelIds[abandonedCount];
+			abandonedSequenceNos[idx] = abandonedSequenceNos[abandonedCount];
+		}
+	}
+
+	/**
+	 * The start of this response has already been written so the rest of it must not be taken for a new header.
+	 */
+	private void abandon(long channelId, int sequenceNo) {
+		if (MAX_ABANDONED == abandonedCount) {
+			logger.warn("too many interleaved responses, channel {} is no longer tracked", abandonedChannelIds[0]);
+			abandonedCount--;
+			System.arraycopy(abandonedChannelIds, 1, abandonedChannelIds, 0, abandonedCount);
+			System.arraycopy(abandonedSequenceNos, 1, abandonedSequenceNos, 0, abandonedCount);
+		}
+		abandonedChannelIds[abandonedCount] = channelId;
+		abandonedSequenceNos[abandonedCount] = sequenceNo;
+		abandonedCount++;
+	}
+
+	private int abandonedIndex(long channelId, int sequenceNo) {
+		int i = abandonedCount;
+		while (--i>=0) {
+			if (channelId == abandonedChannelIds[i] && sequenceNo == abandonedSequenceNos[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void beginResponse() {
+
+		int msgIdx = Pipe.takeMsgIdx(input);
+		assert(ServerResponseSchema.MSG_TOCHANNEL_100 == msgIdx);
+		long channelId = Pipe.takeLong(input);
+		int sequenceNo = Pipe.takeInt(input);
+		int meta = Pipe.takeByteArrayMetaData(input);
+		int length = Pipe.takeByteArrayLength(input);
+		int context = Pipe.takeInt(input);
+
+		byte[] blob = Pipe.byteBackingArray(meta, input);
+		int position = Pipe.bytePosition(meta, input, length);
+		int mask = Pipe.blobMask(input);
+
+		activeChannelId = channelId;
+		activeSequenceNo = sequenceNo;
+		int headerEnd = candidateHeaderLength(blob, position, length, mask, context);
+		if (headerEnd < 0) {
+			writeFragment(channelId, sequenceNo, blob, position, length, mask, context);
+			state = isEndOfResponse(context) ? STATE_IDLE : STATE_PASS;
+		} else {
+			activeContext = context;
+			headerLength = headerEnd;
+			bufferLength = 0;
+			append(blob, position, length, mask);
+
+			if (length > headerEnd || isEndOfResponse(context)) {
+				selectEncoding(context);
+			} else {
+				//the header block holds no context, wait for the first body block
+				state = STATE_HOLD;
+			}
+		}
+
+		Pipe.confirmLowLevelRead(input, SIZE_OF_TO_CHNL);
+		Pipe.releaseReadLock(input);
+	}
+
+	private void continueResponse() {
+
+		int msgIdx = Pipe.takeMsgIdx(input);
+		assert(ServerResponseSchema.MSG_TOCHANNEL_100 == msgIdx);
+		long channelId = Pipe.takeLong(input);
+		int sequenceNo = Pipe.takeInt(input);
+		assert(channelId == activeChannelId);
+		assert(sequenceNo == activeSequenceNo);
+		int meta = Pipe.takeByteArrayMetaData(input);
+		int length = Pipe.takeByteArrayLength(input);
+		int context = Pipe.takeInt(input);
+
+		append(Pipe.byteBackingArray(meta, input),
+			   Pipe.bytePosition(meta, input, length),
+			   length, Pipe.blobMask(input));
+
+		activeContext |= context;
+		if (STATE_HOLD == state) {
+			selectEncoding(context);
+		} else if (isEndOfResponse(context)) {
+			publishCompressed();
+		}
+
+		Pipe.confirmLowLevelRead(input, SIZE_OF_TO_CHNL);
+		Pipe.releaseReadLock(input);
+	}
+
+	private void selectEncoding(int context) {
+		if (0 != (context & (ServerCoordinator.ACCEPT_GZIP_MASK | ServerCoordinator.ACCEPT_DEFLATE_MASK))) {
+			if (isEndOfResponse(context)) {
+				publishCompressed();
+			} else {
+				state = STATE_COLLECT;
+			}
+		} else {
+			//client does not accept our encodings
+			boolean isEnd = isEndOfResponse(context);
+			flushHeld(isEnd);
+			state = isEnd ? STATE_IDLE : STATE_PASS;
+		}
+	}
+
+	private void publishCompressed() {
+
+		final int bodyLength = bufferLength - headerLength;
+		final boolean isGzip = 0 != (activeContext & ServerCoordinator.ACCEPT_GZIP_MASK);
+
+		int compressedLength = -1;
+		if (bodyLength >= minimumSize) {
+			compressedLength = isGzip ? gzip(buffer, headerLength, bodyLength)
+					                  : deflate(buffer, headerLength, bodyLength);
+		}
+
+		if (compressedLength > 0) {
+			writeCompressedHeader(isGzip, compressedLength);
+			writeBody(compressed, 0, compressedLength, activeContext);
+		} else {
+			flushHeld(true);
+		}
+		state = STATE_IDLE;
+	}
+
+	/**
+	 * Writes all the held data unchanged as a header block followed by body blocks.
+	 * @param isEnd true if the held data completes the response
+	 * @return false if there was no room to write
+	 */
+	private boolean flushHeld(boolean isEnd) {
+		if (!Pipe.hasRoomForWrite(output, SIZE_OF_TO_CHNL * (2 + (bufferLength/output.maxVarLen)))) {
+			return false;
+		}
+		int lastContext = isEnd ? activeContext : (activeContext & NOT_FINAL_MASK);
+		int bodyLength = bufferLength - headerLength;
+		writeFragment(activeChannelId, activeSequenceNo, buffer, 0, headerLength, Integer.MAX_VALUE,
+				      bodyLength>0 ? (activeContext & NOT_FINAL_MASK) : lastContext);
+		writeBody(buffer, headerLength, bodyLength, lastContext);
+		bufferLength = 0;
+		return true;
+	}
+
+	private void writeBody(byte[] source, int position, int length, int lastContext) {
+		while (length > 0) {
+			int blockLength = Math.min(length, output.maxVarLen);
+			length -= blockLength;
+			writeFragment(activeChannelId, activeSequenceNo, source, position, blockLength, Integer.MAX_VALUE,
+					      length>0 ? (lastContext & NOT_FINAL_MASK) : lastContext);
+			position += blockLength;
+		}
+	}
+
+	private void writeFragment(long channelId, int sequenceNo,
+			                   byte[] source, int position, int length, int mask,
+			                   int context) {
+		int size = Pipe.addMsgIdx(output, ServerResponseSchema.MSG_TOCHANNEL_100);
+		Pipe.addLongValue(channelId, output);
+		Pipe.addIntValue(sequenceNo, output);
+
+		DataOutputBlobWriter<ServerResponseSchema> writer = Pipe.openOutputStream(output);
+		writer.write(source, position, length, mask);
+		writer.closeLowLevelField();
+
+		Pipe.addIntValue(context, output);
+		Pipe.confirmLowLevelWrite(output, size);
+		Pipe.publishWrites(output);
+	}
+
+	private void writeCompressedHeader(boolean isGzip, int compressedLength) {
+
+		int size = Pipe.addMsgIdx(output, ServerResponseSchema.MSG_TOCHANNEL_100);
+		Pipe.addLongValue(activeChannelId, output);
+		Pipe.addIntValue(activeSequenceNo, output);
+
+		DataOutputBlobWriter<ServerResponseSchema> writer = Pipe.openOutputStream(output);
+
+		//copy every line except the old length and the final blank line
+		final int limit = headerLength-2;
+		int lineStart = 0;
+		while (lineStart < limit) {
+			int lineEnd = lineStart;
+			while (buffer[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			lineEnd++;
+			if (!startsWithIgnoreCase(buffer, lineStart, lineEnd-lineStart, Integer.MAX_VALUE, HEADER_CONTENT_LENGTH)) {
+				DataOutputBlobWriter.write(writer, buffer, lineStart, lineEnd-lineStart);
+			}
+			lineStart = lineEnd;
+		}
+
+		writer.write(isGzip ? CONTENT_ENCODING_GZIP : CONTENT_ENCODING_DEFLATE);
+		writer.write(VARY_ACCEPT_ENCODING);
+		writer.write(HTTPUtil.CONTENT_LENGTH);
+		Appendables.appendValue(writer, compressedLength);
+		writer.write(HTTPUtil.RETURN_NEWLINE);
+		writer.write(HTTPUtil.RETURN_NEWLINE);
+
+		writer.closeLowLevelField();
+
+		Pipe.addIntValue(activeContext & NOT_FINAL_MASK, output);
+		Pipe.confirmLowLevelWrite(output, size);
+		Pipe.publishWrites(output);
+	}
+
+	private int gzip(byte[] source, int position, int length) {
+
+		int limit = length - GZIP_TRAILER_SIZE;
+		if (limit <= GZIP_HEADER.length) {
+			return -1;
+		}
+		ensureCompressedCapacity(length);
+		System.arraycopy(GZIP_HEADER, 0, compressed, 0, GZIP_HEADER.length);
+
+		gzipDeflater.reset();
+		gzipDeflater.setInput(source, position, length);
+		gzipDeflater.finish();
+		int total = GZIP_HEADER.length + fill(gzipDeflater, GZIP_HEADER.length, limit);
+		if (!gzipDeflater.finished()) {
+			return -1; //no smaller than the original
+		}
+
+		crc.reset();
+		crc.update(source, position, length);
+		total = writeIntLE(compressed, total, (int)crc.getValue());
+		return writeIntLE(compressed, total, length);
+	}
+
+	private int deflate(byte[] source, int position, int length) {
+
+		ensureCompressedCapacity(length);
+		zlibDeflater.reset();
+		zlibDeflater.setInput(source, position, length);
+		zlibDeflater.finish();
+		int total = fill(zlibDeflater, 0, length);
+		return zlibDeflater.finished() ? total : -1;
+	}
+
+	private int fill(Deflater deflater, int position, int limit) {
+		int total = 0;
+		int count;
+		while (!deflater.finished()
+				&& (position+total) < limit
+				&& (count = deflater.deflate(compressed, position+total, limit-(position+total))) > 0) {
+			total += count;
+		}
+		return total;
+	}
+
+	private static int writeIntLE(byte[] target, int position, int value) {
+		target[position++] = (byte)value;
+		target[position++] = (byte)(value>>8);
+		target[position++] = (byte)(value>>16);
+		target[position++] = (byte)(value>>24);
+		return position;
+	}
+
+	private void ensureCompressedCapacity(int length) {
+		if (compressed.length < length) {
+			compressed = new byte[buffer.length];
+		}
+	}
+
+	private void append(byte[] blob, int position, int length, int mask) {
+		if (bufferLength+length > buffer.length) {
+			byte[] temp = new byte[Math.min(maxBuffered, Math.max(bufferLength+length, buffer.length*2))];
+			System.arraycopy(buffer, 0, temp, 0, bufferLength);
+			buffer = temp;
+		}
+		Pipe.copyBytesFromToRing(blob, position, mask, buffer, bufferLength, Integer.MAX_VALUE, length);
+		bufferLength += length;
+	}
+
+	/**
+	 * Scans the header found at the beginning of the response.
+	 * @return the length of the header including the blank line, or -1 if this response should not be compressed
+	 */
+	private int candidateHeaderLength(byte[] blob, int position, int length, int mask, int context) {
+
+		if (0 != (context & ServerCoordinator.UPGRADE_MASK) || length < 12 || maxBuffered < minimumSize) {
+			return -1;
+		}
+		//only a full 200 response, others have no body or are partial
+		if ('2' != blob[mask&(position+9)] || '0' != blob[mask&(position+10)] || '0' != blob[mask&(position+11)]) {
+			return -1;
+		}
+
+		boolean foundType = false;
+		int lineStart = -1;
+		int i = 0;
+		while (i < length) {
+			if ('\n' == blob[mask&(position+i)]) {
+				if (lineStart >= 0) {
+					int lineLength = (i+1)-lineStart;
+					if (lineLength <= 2) {
+						//blank line ends the header
+						int headerEnd = i+1;
+						return (foundType && (headerEnd+HEADER_GROWTH < output.maxVarLen)) ? headerEnd : -1;
+					}
+					int linePos = position+lineStart;
+					if (startsWithIgnoreCase(blob, linePos, lineLength, mask, HEADER_CONTENT_ENCODING)
+						|| startsWithIgnoreCase(blob, linePos, lineLength, mask, HEADER_TRANSFER_ENCODING)) {
+						return -1;
+					}
+					if (startsWithIgnoreCase(blob, linePos, lineLength, mask, HEADER_CONTENT_LENGTH)) {
+						if (parseValue(blob, linePos+HEADER_CONTENT_LENGTH.length, lineLength-HEADER_CONTENT_LENGTH.length, mask) < minimumSize) {
+							return -1;
+						}
+					} else if (startsWithIgnoreCase(blob, linePos, lineLength, mask, HEADER_CONTENT_TYPE)) {
+						if (!isCompressibleType(blob, linePos+HEADER_CONTENT_TYPE.length, lineLength-HEADER_CONTENT_TYPE.length, mask)) {
+							return -1;
+						}
+						foundType = true;
+					}
+				}
+				lineStart = i+1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	private boolean isCompressibleType(byte[] blob, int position, int length, int mask) {
+		//trim leading space and stop at parameters such as charset
+		while (length>0 && ' ' == blob[mask&position]) {
+			position++;
+			length--;
+		}
+		int valueLength = 0;
+		while (valueLength<length) {
+			byte b = blob[mask&(position+valueLength)];
+			if (';' == b || ' ' == b || '\r' == b || '\n' == b) {
+				break;
+			}
+			valueLength++;
+		}
+		return valueLength>0 && -1 != TrieParserReader.query(reader, compressibleTypes, blob, position, valueLength, mask);
+	}
+
+	private static long parseValue(byte[] blob, int position, int length, int mask) {
+		long value = 0;
+		int i = 0;
+		while (i<length) {
+			byte b = blob[mask&(position+i++)];
+			if (b>='0' && b<='9') {
+				value = (value*10) + (b-'0');
+			} else if (b!=' ') {
+				break;
+			}
+		}
+		return value;
+	}
+
+	private static boolean startsWithIgnoreCase(byte[] blob, int position, int length, int mask, byte[] lowerCaseName) {
+		if (length < lowerCaseName.length) {
+			return false;
+		}
+		int i = lowerCaseName.length;
+		while (--i>=0) {
+			if (lowerCaseName[i] != Character.toLowerCase(blob[mask&(position+i)])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isEndOfResponse(int context) {
+		return 0 != (context & ServerCoordinator.END_RESPONSE_MASK);
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.ociweb.pronghorn.network.http;
+
+import com.ociweb.pronghorn.network.NetGraphBuilder;
+import com.ociweb.pronghorn.network.TLSCertificates;
+import com.ociweb.pronghorn.network.schema.ClientHTTPRequestSchema;
+import com.ociweb.pronghorn.network.schema.NetResponseSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Builds a LoadGeneratorStage on top of the HTTP client graph so Pronghorn servers can be
+ * benchmarked from the same box without external tools.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class LoadGeneratorGraphBuilder {
+
+	public static LoadGeneratorStage buildLoadGenerator(GraphManager gm, String host, int port, String path,
+			                                            long requestsPerSecond, long durationMS,
+			                                            int connections, int depth, TLSCertificates tlsCertificates) {
+
+		int tracks = Math.min(4, connections);
+		int connectionsInBits = Math.max(2, 32 - Integer.numberOfLeadingZeros(connections)); //room for reconnects
+
+		Pipe<ClientHTTPRequestSchema>[] requests = Pipe.buildPipes(tracks,
+				new PipeConfig<ClientHTTPRequestSchema>(ClientHTTPRequestSchema.instance, 2*depth*connections, 1<<10));
+		//one response pipe per connection so a close is charged only to the session which lost it
+		Pipe<NetResponseSchema>[] responses = Pipe.buildPipes(connections,
+				new PipeConfig<NetResponseSchema>(NetResponseSchema.instance, Math.max(4, 4*depth), 1<<15));
+
+		int maxPartialResponses = connections;
+		int clientRequestCount = 4*depth;
+		int clientRequestSize = 1<<15;
+		NetGraphBuilder.buildHTTPClientGraph(gm, responses, requests, maxPartialResponses, connectionsInBits,
+				                             clientRequestCount, clientRequestSize, tlsCertificates);
+
+		return new LoadGeneratorStage(gm, responses, requests, host, port, path,
+				                      requestsPerSecond, durationMS, connections, depth);
+	}
+
+}
@@ -0,0 +1,311 @@
+package com.ociweb.pronghorn.network.http;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.network.ClientCoordinator;
+import com.ociweb.pronghorn.network.ServerCoordinator;
+import com.ociweb.pronghorn.network.schema.ClientHTTPRequestSchema;
+import com.ociweb.pronghorn.network.schema.NetResponseSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.util.hash.LongHashTable;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.ElapsedTimeRecorder;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.util.Appendables;
+
+/**
+ * Sends GET requests on a constant rate schedule over a fixed number of connections and records
+ * the response latency. Request k is intended to go out at start+(k*interval) on connection k%connections.
+ *
+ * Latency is measured from the intended send time, not the actual one, so when the server stalls and
+ * the requests queue up behind it the wait is counted against every request which should have been sent
+ * (correcting for coordinated omission). The latency from the actual send is also kept for comparison.
+ *
+ * Each connection has at most depth requests in flight, this is the pipelining depth. When a connection
+ * is full the schedule waits for it, later requests are then late and their latency shows it.
+ *
+ * When a connection is closed the requests still in flight on it will never be answered, they are
+ * counted as errors and the session starts over on a new connection. The close message does not carry
+ * the connection so it is charged to every session using that response pipe, give each connection its
+ * own response pipe for exact accounting.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class LoadGeneratorStage extends PronghornStage {
+
+	private static final Logger logger = LoggerFactory.getLogger(LoadGeneratorStage.class);
+	private static final long DRAIN_NS = 10_000_000_000L; //wait this long for the last responses
+
+	private final Pipe<NetResponseSchema>[] responses;
+	private final Pipe<ClientHTTPRequestSchema>[] requests;
+
+	private final byte[] hostBytes;
+	private final int port;
+	private final byte[] pathBytes;
+	private final int connections;
+	private final int depthBits;
+	private final int depthMask;
+	private final long intervalNS;
+	private final long totalRequests;
+
+	private final ElapsedTimeRecorder corrected = new ElapsedTimeRecorder();
+	private final ElapsedTimeRecorder uncorrected = new ElapsedTimeRecorder();
+
+	private long[] intendedTimes;  //ring of depth per connection
+	private long[] sentTimes;
+	private long[] sent;
+	private long[] received;
+	private long[] connectionIds;
+	private LongHashTable sessionsByConnection;
+	private int hostId;
+
+	private long startNS;
+	private long scheduled;
+	private long completed;
+	private long lastResponseNS;
+	private long closed;
+	private long errors;
+
+	/**
+	 *
+	 * @param gm
+	 * @param responses _in_ Responses from the HTTP client
+	 * @param requests _out_ GET requests to the HTTP client
+	 * @param host
+	 * @param port
+	 * @param path
+	 * @param requestsPerSecond total rate across all the connections
+	 * @param durationMS length of the schedule
+	 * @param connections count of connections, each uses its own session
+	 * @param depth requests in flight per connection, rounded up to a power of two
+	 */
+	public LoadGeneratorStage(GraphManager gm,
+							  Pipe<NetResponseSchema>[] responses,
+							  Pipe<ClientHTTPRequestSchema>[] requests,
+							  String host, int port, String path,
+							  long requestsPerSecond, long durationMS,
+							  int connections, int depth) {
+		super(gm, responses, requests);
+		this.responses = responses;
+		this.requests = requests;
+		this.hostBytes = host.getBytes();
+		this.port = port;
+		this.pathBytes = path.getBytes();
+		this.connections = connections;
+		this.depthBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, depth)-1);
+		this.depthMask = (1<<depthBits)-1;
+		this.intervalNS = Math.max(1, 1_000_000_000L/requestsPerSecond);
+		this.totalRequests = (requestsPerSecond*durationMS)/1000;
+
+		ClientCoordinator.registerDomain(host);
+
+		GraphManager.addNota(gm, GraphManager.DOT_BACKGROUND, "lavenderblush", this);
+	}
+
+	@Override
+	public void startup() {
+		intendedTimes = new long[connections<<depthBits];
+		sentTimes = new long[connections<<depthBits];
+		sent = new long[connections];
+		received = new long[connections];
+		connectionIds = new long[connections];
+		int i = connections;
+		while (--i>=0) {
+			connectionIds[i] = -1;
+		}
+		sessionsByConnection = new LongHashTable(32 - Integer.numberOfLeadingZeros(connections*2));
+		hostId = ClientCoordinator.lookupHostId(hostBytes);
+		startNS = System.nanoTime();
+		lastResponseNS = startNS;
+	}
+
+	@Override
+	public void run() {
+		long now = System.nanoTime();
+		consumeResponses();
+
+		if (scheduled < totalRequests) {
+			sendDue(now);
+		} else if (completed+errors == totalRequests || now-lastResponseNS > DRAIN_NS) {
+			if (completed+errors != totalRequests) {
+				logger.warn("gave up waiting for {} responses", totalRequests-(completed+errors));
+			}
+			requestShutdown();
+		}
+	}
+
+	private void sendDue(long now) {
+		while (scheduled < totalRequests) {
+			long intended = startNS + (scheduled*intervalNS);
+			if (intended > now) {
+				return;
+			}
+			int session = (int)(scheduled % connections);
+			if (sent[session]-received[session] > depthMask) {
+				return; //connection is full so the schedule waits, latency still counts from intended
+			}
+			Pipe<ClientHTTPRequestSchema> output = requests[session % requests.length];
+			if (!Pipe.hasRoomForWrite(output)) {
+				return;
+			}
+
+			long connectionId = connectionIds[session];
+			if (-1 == connectionId) {
+				connectionId = ClientCoordinator.lookup(hostId, port, session);
+			}
+			int msgIdx = -1 == connectionId ? ClientHTTPRequestSchema.MSG_HTTPGET_100 : ClientHTTPRequestSchema.MSG_FASTHTTPGET_200;
+
+			int size = Pipe.addMsgIdx(output, msgIdx);
+			Pipe.addIntValue(session % responses.length, output); //destination, index of the response pipe
+			Pipe.addIntValue(session, output); //session
+			Pipe.addIntValue(port, output);
+			Pipe.addByteArray(hostBytes, 0, hostBytes.length, output);
+			if (-1 != connectionId) {
+				Pipe.addLongValue(connectionId, output);
+			}
+			Pipe.addByteArray(pathBytes, 0, pathBytes.length, output);
+			Pipe.addUTF8("", output); //headers
+			Pipe.confirmLowLevelWrite(output, size);
+			Pipe.publishWrites(output);
+
+			int slot = (session<<depthBits) + (depthMask & (int)sent[session]++);
+			intendedTimes[slot] = intended;
+			sentTimes[slot] = System.nanoTime();
+			scheduled++;
+		}
+	}
+
+	private void consumeResponses() {
+		int i = responses.length;
+		while (--i>=0) {
+			Pipe<NetResponseSchema> pipe = responses[i];
+			while (Pipe.hasContentToRead(pipe)) {
+				int msgIdx = Pipe.takeMsgIdx(pipe);
+				switch (msgIdx) {
+					case NetResponseSchema.MSG_RESPONSE_101:
+					case NetResponseSchema.MSG_CONTINUATION_102:
+						long connectionId = Pipe.takeLong(pipe);
+						int flags = Pipe.takeInt(pipe);
+						Pipe.takeByteArrayMetaData(pipe);
+						Pipe.takeByteArrayLength(pipe);
+						if (0 != (ServerCoordinator.END_RESPONSE_MASK & flags)) {
+							responseEnd(connectionId, System.nanoTime());
+						}
+						break;
+					case NetResponseSchema.MSG_CLOSED_10:
+						Pipe.takeByteArrayMetaData(pipe);
+						Pipe.takeByteArrayLength(pipe);
+						Pipe.takeInt(pipe);
+						connectionClosed(i, System.nanoTime());
+						break;
+					case -1:
+						Pipe.confirmLowLevelRead(pipe, Pipe.EOF_SIZE);
+						Pipe.releaseReadLock(pipe);
+						continue;
+					default:
+						throw new UnsupportedOperationException("unexpected message "+msgIdx);
+				}
+				Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(NetResponseSchema.instance, msgIdx));
+				Pipe.releaseReadLock(pipe);
+			}
+		}
+	}
+
+	private void responseEnd(long connectionId, long now) {
+		int session = sessionFor(connectionId);
+		if (session<0 || received[session]==sent[session]) {
+			logger.warn("response on unknown connection {}", connectionId);
+			return;
+		}
+		int slot = (session<<depthBits) + (depthMask & (int)received[session]++);
+		ElapsedTimeRecorder.record(corrected, now-intendedTimes[slot]);
+		ElapsedTimeRecorder.record(uncorrected, now-sentTimes[slot]);
+		completed++;
+		lastResponseNS = now;
+	}
+
+	private void connectionClosed(int pipeIdx, long now) {
+		closed++;
+		boolean changed = false;
+		int session = connections;
+		while (--session>=0) {
+			if (pipeIdx == session % responses.length
+				&& (-1 != connectionIds[session] || sent[session] != received[session])) {
+				//these will never be answered, without this the session stays full and the schedule stalls
+				errors += (sent[session]-received[session]);
+				received[session] = sent[session];
+				connectionIds[session] = -1;
+				changed = true;
+			}
+		}
+		if (changed) {
+			//entries can not be removed so rebuild from the connections which are still open
+			sessionsByConnection = new LongHashTable(32 - Integer.numberOfLeadingZeros(connections*2));
+			session = connections;
+			while (--session>=0) {
+				if (-1 != connectionIds[session]) {
+					LongHashTable.setItem(sessionsByConnection, connectionIds[session], session+1);
+				}
+			}
+		}
+		lastResponseNS = now;
+	}
+
+	private int sessionFor(long connectionId) {
+		if (LongHashTable.hasItem(sessionsByConnection, connectionId)) {
+			return LongHashTable.getItem(sessionsByConnection, connectionId)-1;
+		}
+		//first response on this connection, find which session opened it
+		int s = connections;
+		while (--s>=0) {
+			if (ClientCoordinator.lookup(hostId, port, s) == connectionId) {
+				connectionIds[s] = connectionId;
+				LongHashTable.setItem(sessionsByConnection, connectionId, s+1);
+				return s;
+			}
+		}
+		return -1;
+	}
+
+	public long completed() {
+		return completed;
+	}
+
+	public long errors() {
+		return errors;
+	}
+
+	public long closed() {
+		return closed;
+	}
+
+	public ElapsedTimeRecorder correctedLatency() {
+		return corrected;
+	}
+
+	public ElapsedTimeRecorder uncorrectedLatency() {
+		return uncorrected;
+	}
+
+	public <A extends Appendable> A report(A target) {
+		try {
+			long elapsedMS = Math.max(1, (lastResponseNS-startNS)/1_000_000);
+			Appendables.appendValue(target.append("requests: "), completed);
+			Appendables.appendValue(target.append(" of "), totalRequests);
+			Appendables.appendValue(target.append(" errors: "), errors);
+			Appendables.appendValue(target.append(" closed connections: "), closed);
+			Appendables.appendValue(target.append("\nachieved rate: "), (completed*1000)/elapsedMS).append(" req/sec\n");
+			target.append("latency from intended send time (corrected)\n");
+			corrected.report(target);
+			target.append("latency from actual send time (uncorrected)\n");
+			uncorrected.report(target);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return target;
+	}
+
+}
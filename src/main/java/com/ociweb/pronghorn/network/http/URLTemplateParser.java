@@ -6,6 +6,7 @@ import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ociweb.pronghorn.network.config.HTTPVerb;
 import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
 import com.ociweb.pronghorn.pipe.Pipe;
 import com.ociweb.pronghorn.pipe.RawDataSchema;
@@ -25,12 +26,34 @@ public class URLTemplateParser {
     
     private final TrieParser routerMap;
     private final boolean trustText;
+    
+    //optional combined verb+path map, each path is added once for every verb
+    //so the router can find both the verb and path in a single walk
+    private final TrieParser verbRouterMap;
+    private final byte[][] verbPrefixes;
+    private final int[] verbIds;
         
     
     public URLTemplateParser(TrieParser routerMap, boolean trustText) {
+    	this(routerMap, null, null, null, trustText);
+    }
+    
+    /**
+     * @param routerMap path only map, value is the pathId
+     * @param verbRouterMap combined map, value is the pathId shifted by HTTPVerb.BITS with the verb in the low bits
+     * @param verbPrefixes verb text followed by a single space, one for each verb
+     * @param verbIds verb ordinal matching each of the verbPrefixes
+     * @param trustText
+     */
+    public URLTemplateParser(TrieParser routerMap, TrieParser verbRouterMap, 
+    		                 byte[][] verbPrefixes, int[] verbIds, boolean trustText) {
     	
+    	assert((null==verbRouterMap) || (verbPrefixes.length == verbIds.length));
     	this.converter = new EncodingConverter();
     	this.routerMap = routerMap;
+    	this.verbRouterMap = verbRouterMap;
+    	this.verbPrefixes = verbPrefixes;
+    	this.verbIds = verbIds;
     	this.trustText = trustText;
     	
     }
@@ -81,6 +104,8 @@ public class URLTemplateParser {
 	//state needed in addRoute due to no lambdas here
 	private FieldExtractionDefinitions activeRouteDef;
 	private long activePathId;
+	private byte[] activePrefix; //null when building the path only map
+	private long activeVerbPathValue;
 	
 	private final EncodingTransform et = new EncodingTransform() {
 
@@ -88,12 +113,18 @@ public class URLTemplateParser {
 		public void transform(TrieParserReader templateParserReader,
 				DataOutputBlobWriter<RawDataSchema> outputStream) {
 
-			activeRouteDef.setIndexCount(
-					convertEncoding(activeRouteDef.getRuntimeParser(), 
-							        templateParserReader, 
-							        templateParser, 
-							        outputStream));
-		
+			if (null == activePrefix) {
+				activeRouteDef.setIndexCount(
+						convertEncoding(activeRouteDef.getRuntimeParser(), 
+								        templateParserReader, 
+								        templateParser, 
+								        outputStream, 0));
+			} else {
+				//fields were already registered by the path only pass
+				outputStream.write(activePrefix);
+				convertEncoding(null, templateParserReader, templateParser, 
+						        outputStream, activePrefix.length);
+			}
 		}			
 	};
 	
@@ -103,7 +134,11 @@ public class URLTemplateParser {
 		public void store(Pipe<RawDataSchema> pipe) {
 			//set full byte field in pipe to map with the key routeValue
 			//this is the converted to tri parser format text value
-			routerMap.setValue(pipe, activePathId);
+			if (null == activePrefix) {
+				routerMap.setValue(pipe, activePathId);
+			} else {
+				verbRouterMap.setValue(pipe, activeVerbPathValue);
+			}
 		}
 		
 	};
@@ -123,6 +158,17 @@ public class URLTemplateParser {
 		activePathId = pathId;
 		activeRouteDef = new FieldExtractionDefinitions(trustText, routeId, pathId, structId);		
 		converter.convert(path, et, es);
+		
+		if (null != verbRouterMap) {
+			//same template again once per verb so verb, path and fields are all captured in one walk
+			int v = verbPrefixes.length;
+			while (--v >= 0) {
+				activePrefix = verbPrefixes[v];
+				activeVerbPathValue = (((long)pathId) << HTTPVerb.BITS) | (verbIds[v] & HTTPVerb.MASK);
+				converter.convert(path, et, es);
+			}
+			activePrefix = null;
+		}
 				
 		return activeRouteDef;
 	}
@@ -130,7 +176,8 @@ public class URLTemplateParser {
 	private static int convertEncoding(TrieParser runtimeParser, 
 			                           TrieParserReader templateParserReader, 
 			                           TrieParser templateParser, 
-			                           DataOutputBlobWriter<RawDataSchema> outputStream) {
+			                           DataOutputBlobWriter<RawDataSchema> outputStream,
+			                           int startPosition) {
 		
 		//if we have nothing then use the root /
 		if (!TrieParserReader.parseHasContent(templateParserReader)) {
@@ -151,36 +198,32 @@ public class URLTemplateParser {
 				case TrieParser.ESCAPE_CMD_RATIONAL:
 					
 					outputStream.append("%i%/");					
-				    TrieParserReader.capturedFieldSetValue(templateParserReader, 0, runtimeParser,
-				    		          (token<<16) | (fieldIndex++));//type high 16, and position in low 16
+				    captureField(runtimeParser, templateParserReader, (token<<16) | (fieldIndex++));//type high 16, and position in low 16
 				    fieldIndex++;//takes up 2 spots so we must add one more
 					break;
 				case TrieParser.ESCAPE_CMD_DECIMAL:
 					
 					outputStream.append("%i%.");					
-				    TrieParserReader.capturedFieldSetValue(templateParserReader, 0, runtimeParser,
-				    		          (token<<16) | (fieldIndex++));//type high 16, and position in low 16
+				    captureField(runtimeParser, templateParserReader, (token<<16) | (fieldIndex++));//type high 16, and position in low 16
 				    fieldIndex++;//takes up 2 spots so we must add one more					
 					break;
 				case TrieParser.ESCAPE_CMD_SIGNED_INT:
 					
 					outputStream.append("%i");					
-				    TrieParserReader.capturedFieldSetValue(templateParserReader, 0, runtimeParser,
-				    		          (token<<16) | (fieldIndex++));//type high 16, and position in low 16
+				    captureField(runtimeParser, templateParserReader, (token<<16) | (fieldIndex++));//type high 16, and position in low 16
 										
 					break;
 				case TrieParser.ESCAPE_CMD_BYTES:
 					
 					outputStream.append("%b");					
-				    TrieParserReader.capturedFieldSetValue(templateParserReader, 0, runtimeParser,
-				    		          (token<<16) | (fieldIndex++));//type high 16, and position in low 16
+				    captureField(runtimeParser, templateParserReader, (token<<16) | (fieldIndex++));//type high 16, and position in low 16
 					
 					break;
 				case -1:
 					
 					int value = TrieParserReader.parseSkipOne(templateParserReader);
 					if (value>=0) {
-						if (('/'!=(char)value) && (0 == outputStream.position())) {
+						if (('/'!=(char)value) && (startPosition == outputStream.position())) {
 							//the leading / was missing so we add it now
 							logger.info("the leading / was added on URL since route did not define it");
 							outputStream.writeByte('/');
@@ -206,5 +249,11 @@ public class URLTemplateParser {
 		return fieldIndex-1;
 	}
 
+	private static void captureField(TrieParser runtimeParser, TrieParserReader templateParserReader, long value) {
+		if (null != runtimeParser) {
+			TrieParserReader.capturedFieldSetValue(templateParserReader, 0, runtimeParser, value);
+		}
+	}
+
 
 }
@@ -40,7 +40,7 @@ public class MQTTClientGraphBuilder {
 		if (tlsCertificates == null) {
 			tlsCertificates = TLSCertificates.defaultCerts;
 		}
-		int maxInFlight = 10;
+		int maxInFlight = 64; //ceiling, the encoder starts at 10 in flight and grows while the broker acks keep up
 		int maximumLenghOfVariableLengthFields = 4096;
 		int rate = 1_200;
 
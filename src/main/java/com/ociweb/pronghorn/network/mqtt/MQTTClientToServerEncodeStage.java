@@ -74,12 +74,15 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 	private final int quiteDivisorBits = 5;
 	
 	private boolean isInReloadPersisted;
-	private boolean isInPersistWrite;
-	private int inPersistSize;
+	private int persistPending; //blocks sent to disk which are not yet acknowledged
+	private long persistLastId = -1; //last block of the open batch, its ack covers the whole batch
+	private boolean persistHoldsInput;
+	private boolean persistHoldsInputAck;
 	
 	private long replayFromPosition = -1;//reset every time we consume this.
 		
 	private long lastActvityTime;
+	
 	boolean isPersistantSession;
 	
 	//The File server module also copies data from the outgoing pipe however...
@@ -92,6 +95,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 	private int[]  packetIdRing;
 	private long[] slabPositionsRing;
 	private int[]  blobPositionsRing;
+	private long[] sentTimeRing;
 		
 	private int ringTail;
 	private int ringHead;
@@ -99,6 +103,11 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 	private final int ringMask;
 	
     int remainingInFlight;
+    
+    //the in flight window starts small and grows while acks return without queuing delay
+    private final int maxInFlight;
+    private final MQTTInFlightWindow inFlightWindow;
+    private int countOfSaturations;
 
 	/**
 	 *
@@ -144,7 +153,9 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		assert(ofSchema(toBroker, NetPayloadSchema.instance));
 		assert(toBroker.length>0);
 		
-		this.remainingInFlight = maxInFlight;
+		this.maxInFlight = maxInFlight;
+		this.inFlightWindow = new MQTTInFlightWindow(maxInFlight);
+		this.remainingInFlight = inFlightWindow.limit();
 		
 		int ringSizeBits = (int)Math.ceil(Math.log(maxInFlight)/Math.log(2));
 		this.ringSize = 1 << ringSizeBits;
@@ -154,6 +165,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		this.packetIdRing = new int[ringSize];
 		this.slabPositionsRing = new long[ringSize];
 		this.blobPositionsRing = new int[ringSize];
+		this.sentTimeRing = new long[ringSize];
 	
 		this.ccm = ccm;
 				
@@ -211,6 +223,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 	}
 	
 	private void storePublishedPosPersisted(int blobPosition, int blobConsumed, byte[] blob, final int packetId) {
+		persistLastId = packetId;
 		Pipe.presumeRoomForWrite(persistBlobStoreProducer);
 		FragmentWriter.writeLV(persistBlobStoreProducer, PersistedBlobStoreProducerSchema.MSG_BLOCK_1,
 				packetId, //persist store supports long but we only have a packetId.
@@ -230,6 +243,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		packetIdRing[ringMask & ringHead] = packetId;
 		slabPositionsRing[ringMask & ringHead] = slabPosition;
 		blobPositionsRing[ringMask & ringHead] = blobPosition;
+		sentTimeRing[ringMask & ringHead] = System.nanoTime();
 		ringHead++;
 	}
 	
@@ -258,6 +272,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		if ((packetIdRing[ringMask & ringTail] == packetId) && hasUnackPublished() ) {
 			//logger.info("got the expected next packetId {} ",packetId);
 			//this is the normal case since if everyone behaves these values will arrive in order
+			remainingInFlight += inFlightWindow.acked(sentTimeRing[ringMask & ringTail], System.nanoTime());
 			ringTail++;			
 			while (hasUnackPublished() && packetIdRing[ringMask & ringTail] == Integer.MAX_VALUE) {
 				ringTail++; //skip over any values that showed up early.
@@ -269,6 +284,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 			int stop = ringMask&ringHead;
 			while ((i&ringMask) != stop) {
 				if (packetIdRing[ringMask & i] == packetId) {			
+					remainingInFlight += inFlightWindow.acked(sentTimeRing[ringMask & i], System.nanoTime());
 					packetIdRing[ringMask & i] = Integer.MAX_VALUE;//set as bad value to skip
 					//logger.trace("found an cleared old packetId {}",packetId);
 					break;
@@ -284,6 +300,10 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		remainingInFlight++;
 	}
 	
+	public int inFlightLimit() {
+		return inFlightWindow.limit();
+	}
+	
 	private final boolean rePublish(Pipe<NetPayloadSchema> pipe) {
 
 		replayFromPosition = -1; //get next lowest value.
@@ -490,22 +510,29 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		    switch(msgIdx) {
 		        case PersistedBlobLoadProducerSchema.MSG_ACKWRITE_11:
 		        	
-		        	Pipe<NetPayloadSchema> pipe = toBroker[activeConnection.requestPipeLineIdx()];
-					Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(NetPayloadSchema.instance, NetPayloadSchema.MSG_PLAIN_210));
-					Pipe.publishWrites(pipe);
-							        	
-					assert(inPersistSize>=0);
-		        	Pipe.confirmLowLevelRead(input, inPersistSize);
-		        	inPersistSize = -1;
-		        	Pipe.releaseReadLock(input);
-		        	
-		        	isInPersistWrite = false;//can now continue with next write
-		        			        	
 		        	long comittedBlockId = Pipe.takeLong(persistBlobLoadProducer);	
 		        	assert(comittedBlockId>=0);
+		        	assert(persistPending>0);
 		        	//logger.trace("publish ack write is now on disk for id {} ",comittedBlockId);
-		        	//NOTE: if desired we could send this id back to MQTTClient, but I see no need at this time.
-		        			        	
+		        	
+		        	//the store acks the last id it has on disk, earlier ids of this batch are covered by it
+		        	if (comittedBlockId == persistLastId) {
+		        		//the whole batch is on disk so it is published and released together
+		        		persistPending = 0;
+		        		persistLastId = -1;
+		        		Pipe<NetPayloadSchema> pipe = toBroker[activeConnection.requestPipeLineIdx()];
+		        		Pipe.publishWrites(pipe);
+		        		
+		        		if (persistHoldsInput) {
+		        			Pipe.releaseReadLock(input);
+		        			persistHoldsInput = false;
+		        		}
+		        		if (persistHoldsInputAck) {
+		        			Pipe.releaseReadLock(inputAck);
+		        			persistHoldsInputAck = false;
+		        		}
+		        	}
+		        	
 		        break;		        
 		        case -1:
 		           requestShutdown();
@@ -514,7 +541,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		    PipeReader.releaseReadLock(persistBlobLoadProducer);
 		}		
 		
-		return isInReloadPersisted || isInPersistWrite;
+		return isInReloadPersisted || persistPending>0;
 	}
 
 	
@@ -558,7 +585,9 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 
 
 		
-		while ( (Pipe.peekMsg(input, MQTTClientToServerSchema.MSG_BROKERHOST_100)  				
+		//while a batch waits on disk only more persisted messages may join it, anything else would publish it early
+		while ( (0==persistPending || isNextInputPersisted())
+				&& (Pipe.peekMsg(input, MQTTClientToServerSchema.MSG_BROKERHOST_100)  				
 				|| (
 				    ((connectionId = connectionId())>=0)
 				   && hasInFlightCapacity()
@@ -657,14 +686,26 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 				
 				//logger.trace("did not write to broker {} ", Pipe.totalWrittenFragments(server));
 				
-				inPersistSize = Pipe.sizeOf(MQTTClientToServerSchema.instance,msgIdx);						
-				isInPersistWrite = true;
-				return;//must wait until this is completed
+				//held until the disk acknowledges the batch, keep going to add more to this batch
+				Pipe.confirmLowLevelWrite(server, Pipe.sizeOf(NetPayloadSchema.instance, NetPayloadSchema.MSG_PLAIN_210));
+				Pipe.confirmLowLevelRead(input, Pipe.sizeOf(MQTTClientToServerSchema.instance,msgIdx));
+				persistPending++;
+				persistHoldsInput = true;
 			}
 			
 		}
 	}
 
+	private boolean isNextInputPersisted() {
+		return isPersistantSession
+			   && Pipe.hasContentToRead(input)
+			   && ((Pipe.peekMsg(input, MQTTClientToServerSchema.MSG_PUBLISH_3) 
+					   && 0!=Pipe.peekInt(input, MQTTClientToServerSchema.MSG_PUBLISH_3_FIELD_QOS_21))
+				   || Pipe.peekMsg(input, MQTTClientToServerSchema.MSG_SUBSCRIBE_8, 
+						                  MQTTClientToServerSchema.MSG_UNSUBSCRIBE_10,
+						                  MQTTClientToServerSchema.MSG_PUBREC_5));
+	}
+
 	private long MAX_FRAG_SIZE_REPLAY = FieldReferenceOffsetManager.maxFragmentSize(NetPayloadSchema.FROM); //max we will write
 	
 	int countOfReplayBlocks = 0;
@@ -673,33 +714,34 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		Pipe<NetPayloadSchema> server = toBroker[activeConnection.requestPipeLineIdx()];
 		
 		//can not write if we have replay values we may write over.		
-		if (-1==replayFromPosition) {			
+		if (-1==replayFromPosition || hasRoomAheadOfReplay(server)) {			
 			return true;
-		} else {
-			//NOTE: this rePublish may be happening far too often if the pipe is too short...
-			
+		}
+		//only move the unacknowledged messages forward once a new message would write over them,
+		//replay would also publish a batch still waiting on disk
+		if (0==persistPending) {
 			rePublish(server);
-	
-			if (-1==replayFromPosition) {			
+			if (-1==replayFromPosition || hasRoomAheadOfReplay(server)) {			
 				return true;
 			}
 		}
+		if (Integer.numberOfLeadingZeros(countOfReplayBlocks) != 
+			Integer.numberOfLeadingZeros(++countOfReplayBlocks)) {
+			
+			logger.info("max write {} max position {} slab write to {} ",
+					 (countUnackPublished()*MAX_FRAG_SIZE_REPLAY + Pipe.getSlabHeadPosition(server) + MAX_FRAG_SIZE_REPLAY), 
+					 replayFromPosition, Pipe.getSlabHeadPosition(server));
+			
+			logger.info("Warning: required replay messages have blocked new content {} times",countOfReplayBlocks);
+		}
+		return false;
+	}
+
+	private boolean hasRoomAheadOfReplay(Pipe<NetPayloadSchema> server) {
 		final long slabPos = Pipe.getSlabHeadPosition(server); //where we will write..
 		long maxReplaySpaceNeeded = countUnackPublished()*MAX_FRAG_SIZE_REPLAY;
 		long wrappedOnceLimit = replayFromPosition+server.sizeOfSlabRing;
-		boolean result =  (maxReplaySpaceNeeded + slabPos + MAX_FRAG_SIZE_REPLAY) < wrappedOnceLimit;				          
-		if (!result) {
-			if (Integer.numberOfLeadingZeros(countOfReplayBlocks) != 
-				Integer.numberOfLeadingZeros(++countOfReplayBlocks)) {
-				
-				logger.info("max write {} max position {} slab write to {} ",
-						 (maxReplaySpaceNeeded + slabPos + MAX_FRAG_SIZE_REPLAY), 
-						 replayFromPosition, slabPos);
-				
-				logger.info("Warning: required replay messages have blocked new content {} times",countOfReplayBlocks);
-			}
-		}
-		return result;
+		return (maxReplaySpaceNeeded + slabPos + MAX_FRAG_SIZE_REPLAY) < wrappedOnceLimit;
 	}
 
 	private boolean hasInFlightCapacity() {
@@ -714,7 +756,10 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 			result = (Pipe.peekInt(input, MQTTClientToServerSchema.MSG_PUBLISH_3_FIELD_QOS_21)<=remainingInFlight);
 			
 			if (!result) {
-				logger.info("in flight capacity saturated, remaining limit {} ",remainingInFlight);
+				inFlightWindow.saturated();
+				if (Integer.numberOfLeadingZeros(countOfSaturations) != Integer.numberOfLeadingZeros(++countOfSaturations)) {
+					logger.info("in flight capacity saturated {} times, window {} of max {}",countOfSaturations, inFlightWindow.limit(), maxInFlight);
+				}
 			}
 			
 		} else if (Pipe.peekMsg(input, MQTTClientToServerSchema.MSG_SUBSCRIBE_8, 
@@ -723,6 +768,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 			result = 1<=remainingInFlight;
 			
 			if (!result) {
+				inFlightWindow.saturated();
 				logger.info("does not have in flight capacity, remaining limit {} ",remainingInFlight);
 			}
 			
@@ -743,6 +789,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 				   && hasRoomToSocketWriteOrDropQoSZeros() 	)
 				)
 				&& Pipe.hasContentToRead(inputAck)
+				&& 0==persistPending
 				&& (!isPersistantSession || hasRoomToPersist()) ) {
 
 			//NOTE: warning, if this gets disconnected it may pick a new pipe and the old data may be abandoned?
@@ -768,8 +815,12 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 				Pipe.confirmLowLevelRead(inputAck, Pipe.sizeOf(MQTTClientToServerSchemaAck.instance, msgIdx));
 				Pipe.releaseReadLock(inputAck);
 			} else {
-				isInPersistWrite = true;
-				return;//must wait until this is completed
+				//held until the disk acknowledges the write
+				Pipe.confirmLowLevelWrite(toBroker[activeConnection.requestPipeLineIdx()], Pipe.sizeOf(NetPayloadSchema.instance, NetPayloadSchema.MSG_PLAIN_210));
+				Pipe.confirmLowLevelRead(inputAck, Pipe.sizeOf(MQTTClientToServerSchemaAck.instance, msgIdx));
+				persistPending++;
+				persistHoldsInputAck = true;
+				return;
 			}
 			
 		}
@@ -1117,7 +1168,7 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 					
 					remainingInFlight -= qos;
 								
-					buildPublishMessage(output, qos, packetId);
+					buildPublishMessage(output, server, qos, packetId);
 					output.closeLowLevelField();
 
 					//logger.info("publish with qos {} ", qos);
@@ -1315,9 +1366,9 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 		//logger.info("wrote block of {}",len2);
 	}
 
-	private void buildPublishMessage(DataOutputBlobWriter<NetPayloadSchema> output, int qos, int packetId) {
+	private void buildPublishMessage(DataOutputBlobWriter<NetPayloadSchema> output, Pipe<NetPayloadSchema> server, int qos, int packetId) {
 				
-		buildPublishMessage(output, qos, packetId, 
+		buildPublishMessage(output, server, qos, packetId, 
 				Pipe.takeInt(input), 
 				Pipe.takeByteArrayMetaData(input), 
 				Pipe.takeByteArrayLength(input), 
@@ -1325,22 +1376,37 @@ public class MQTTClientToServerEncodeStage extends PronghornStage {
 				Pipe.takeByteArrayLength(input));
 	}
 
-	private void buildPublishMessage(DataOutputBlobWriter<NetPayloadSchema> output, int qos, int packetId, int retain,
+	private void buildPublishMessage(DataOutputBlobWriter<NetPayloadSchema> output, Pipe<NetPayloadSchema> server, int qos, int packetId, int retain,
 			int topicMeta, int topicLength, int payloadMeta, int payloadLength) {
 		
+		//packet id is only sent for QoS 1 and 2
+		final int idLength = qos>0 ? 2 : 0;
 		final int pubHead = 0x30 | (0x06&(qos<<1)) | 1&retain; //bit 3 dup is zero which is modified later
-		output.writeByte((0xFF&pubHead));
-		encodeVarLength(output, topicLength + 2 + payloadLength + (packetId>=0 ? 2 : 0)); //const and remaining length, 2  bytes
+		
+		//written straight into the blob, every position is masked so the ring wraps without a branch
+		byte[] blob = Pipe.blob(server);
+		int mask = Pipe.blobMask(server);
+		int pos = output.absolutePosition();
+		
+		blob[mask & pos++] = (byte)pubHead;
+		pos = MQTTEncoder.encodeVarLength(blob, pos, mask, topicLength + 2 + payloadLength + idLength);
 
 		//variable header
-		output.writeShort(topicLength);
-		Pipe.readBytes(input, output, topicMeta, topicLength);
+		blob[mask & pos++] = (byte)(0xFF&(topicLength>>8));
+		blob[mask & pos++] = (byte)(0xFF&topicLength);
+		Pipe.copyBytesFromToRing(Pipe.byteBackingArray(topicMeta, input), Pipe.bytePosition(topicMeta, input, topicLength), Pipe.blobMask(input),
+				                 blob, pos, mask, topicLength);
+		pos += topicLength;
 		
-		if (packetId>=0) {
-			output.writeShort(packetId);
-		}						
+		if (qos>0) {
+			blob[mask & pos++] = (byte)(0xFF&(packetId>>8));
+			blob[mask & pos++] = (byte)(0xFF&packetId);
+		}
 		
-		Pipe.readBytes(input, output, payloadMeta, payloadLength);
+		//payload is one block copy from the request ring
+		Pipe.copyBytesFromToRing(Pipe.byteBackingArray(payloadMeta, input), Pipe.bytePosition(payloadMeta, input, payloadLength), Pipe.blobMask(input),
+				                 blob, pos, mask, payloadLength);
+		output.absolutePosition(pos + payloadLength);
 	}
 
 	public int computeConectionOpenLength(int conFlags, int clientIdLen, int willTopicLen, int willMessageLen,
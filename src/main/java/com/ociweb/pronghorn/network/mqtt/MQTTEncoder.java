@@ -156,15 +156,15 @@ public class MQTTEncoder {
 
 		
 	
-    //TODO: B, Break up the packet into to splittable parts so we can use constants that need not be copied  through the ring buffer
-	
 	public static int buildPublishPacket(int bytePos, byte[] byteBuffer, int byteMask, int qos, int retain, 
 			                             byte[] topic, int topicIdx, int topicLength, int topicMask,
 			                             byte[] payload, int payloadIdx, int payloadLength, int payloadMask,  int packetId) {
 		
 		final int firstPos = bytePos;
 		
-		int length = topicLength + 2 + payloadLength + (packetId>=0 ? 2 : 0); //replace with  (0x2&(~packetId)>>30) //TOOD: B, or od this external and break method up.
+		//packet id is only sent for QoS 1 and 2
+		final int idLength = qos>0 ? 2 : 0;
+		int length = topicLength + 2 + payloadLength + idLength;
 		
 		assert(length<(topicMask+payloadMask)) : "Length is far too large and can not be right"; //TODO: C, be sure server side checks this and rejects bad values.
 				
@@ -176,23 +176,13 @@ public class MQTTEncoder {
 		bytePos = appendShort(bytePos, byteMask, byteBuffer, topicLength);
 		bytePos = appendBytes(bytePos, byteMask, byteBuffer, topic, topicIdx, topicLength, topicMask);
 		
-		if (packetId>=0) {//TODO: B, we have 3 conditionals around this packet id change on QOS, must remove.\
-		 //   byte a = (byte)(0xFF&(packetId>>8));
-		//    byte b = (byte)(0xFF&packetId);
-		    bytePos = appendShort(bytePos, byteMask, byteBuffer, packetId);
-
-	//	    System.out.println("APPENDED packet id to "+packetId+"  "+byteBuffer[byteMask&(bytePos-2)]+"  "+byteBuffer[byteMask&(bytePos-1)]+"   "+a+"  "+b);
-		    
+		if (qos>0) {
+			bytePos = appendShort(bytePos, byteMask, byteBuffer, packetId);
 		}
 		
-		
 		//payload - note it does not record the length first, its just the remaining space
 		bytePos = appendBytes(bytePos, byteMask, byteBuffer, payload, payloadIdx, payloadLength, payloadMask);
 		
-		
-		
-		//todo: BUILD THIS DEBUG MESSAGE INTO rINGbUFFER.
-//		System.out.println("BUILT:"+Arrays.toString(Arrays.copyOfRange(byteBuffer, firstPos, bytePos)));
 		//total length is needed to close out this var length field in the queue
 		return bytePos-firstPos;
 	}
@@ -0,0 +1,76 @@
+package com.ociweb.pronghorn.network.mqtt;
+
+/**
+ * Count of messages allowed in flight to the broker, adapted to the round trip time from send to ack.
+ * The window grows by one when acks return near the best round trip and the window was what held
+ * back the sender. It shrinks by an eighth when the average round trip passes four times the best,
+ * at most once per round trip since only acks for messages sent after the last cut can show its effect.
+ *
+ * The best round trip is re-sampled when it has not been seen again within MIN_RTT_EXPIRE_NS so
+ * a route change or a slower broker does not leave the window shrinking against a stale minimum.
+ */
+public class MQTTInFlightWindow {
+
+	public static final int INITIAL = 10;
+	public static final int MINIMUM = 2;
+	public static final long MIN_RTT_EXPIRE_NS = 10_000_000_000L;
+
+	private final int maximum;
+	private int limit;
+	private boolean saturated;
+	private long minRTT = Long.MAX_VALUE;
+	private long minRTTTime;
+	private long avgRTT;
+	private long lastDecreaseNS = Long.MIN_VALUE;
+
+	public MQTTInFlightWindow(int maximum) {
+		this.maximum = maximum;
+		this.limit = Math.min(INITIAL, maximum);
+	}
+
+	/**
+	 * Called when a message could not be sent because the window was full.
+	 */
+	public void saturated() {
+		saturated = true;
+	}
+
+	/**
+	 * Records the round trip of one acknowledged message.
+	 *
+	 * @param sentNS time the message was sent
+	 * @param nowNS time the ack arrived
+	 * @return change in the limit, negative when it shrinks
+	 */
+	public int acked(long sentNS, long nowNS) {
+		long rtt = nowNS-sentNS;
+		if (rtt <= minRTT || nowNS-minRTTTime > MIN_RTT_EXPIRE_NS) {
+			minRTT = rtt;
+			minRTTTime = nowNS;
+		}
+		avgRTT = (0==avgRTT) ? rtt : avgRTT + ((rtt-avgRTT)>>3);
+
+		if (avgRTT > (minRTT<<2)) {
+			//acks are queuing at the broker or on the network, back off once for this round trip
+			if (sentNS > lastDecreaseNS) {
+				int drop = Math.max(1, limit>>3);
+				if (limit-drop >= MINIMUM) {
+					limit -= drop;
+					lastDecreaseNS = nowNS;
+					return -drop;
+				}
+			}
+		} else if (avgRTT < (minRTT<<1) && saturated && limit < maximum) {
+			//round trip is near the best seen and the window is what held us back so grow it
+			limit++;
+			saturated = false;
+			return 1;
+		}
+		return 0;
+	}
+
+	public int limit() {
+		return limit;
+	}
+
+}
@@ -0,0 +1,279 @@
+package com.ociweb.pronghorn.stage.blocking;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Alternative to BlockingSupportStage with the same Blockable and Choosable contract.
+ * Blocking work is submitted to an Executor instead of holding one platform thread per Blockable,
+ * by default this is a virtual thread per task executor when the JVM provides one.
+ *
+ * Workers hand completed Blockables back through a lock free ring so all writes to the
+ * output and timeout pipes are done by this stage. A Blockable which runs longer than
+ * the timeout is interrupted and its timeout method is called in place of finish.
+ *
+ * @see BlockingSupportStage
+ */
+public class ExecutorBlockingSupportStage<T extends MessageSchema<T>, P extends MessageSchema<P>, Q extends MessageSchema<Q>> extends PronghornStage {
+
+	private static final int IDLE      = 0;
+	private static final int RUNNING   = 1;
+	private static final int DONE      = 2;
+	private static final int TIMED_OUT = 3;
+
+	private final Pipe<T> input;
+	private final Pipe<P> output;
+	private final Pipe<Q> timeout;
+	private final Choosable<T> chooser;
+	private final Blockable<T, P, Q>[] blockables;
+	private final long timeoutNS;
+	private final int maxInFlight;
+
+	private Executor executor;
+	private boolean ownsExecutor;
+	private Runnable[] tasks;
+	private Thread[] workers; //guarded by the matching blockable
+	private AtomicIntegerArray state;
+	private AtomicLongArray times;
+	private int inFlight;
+
+	//completion ring, many workers publish and only this stage consumes
+	private AtomicIntegerArray completed;
+	private AtomicLong completedTail;
+	private long completedHead;
+	private int completedMask;
+
+	private static final Logger logger = LoggerFactory.getLogger(ExecutorBlockingSupportStage.class);
+
+	/**
+	 * Uses virtual threads when available, otherwise a cached thread pool.
+	 *
+	 * @param graphManager
+	 * @param input _in_ Input that will be released until ready
+	 * @param output _out_ Pipe onto which the input will be released on
+	 * @param timeout _out_ Pipe written by Blockables which did not finish in time
+	 * @param timeoutNS
+	 * @param maxInFlight limit of concurrently running Blockables
+	 * @param chooser
+	 * @param blockables
+	 */
+	public ExecutorBlockingSupportStage(GraphManager graphManager, Pipe<T> input, Pipe<P> output, Pipe<Q> timeout,
+			                            long timeoutNS, int maxInFlight, Choosable<T> chooser, Blockable<T,P,Q> ... blockables) {
+		this(graphManager, input, output, timeout, timeoutNS, maxInFlight, null, chooser, blockables);
+	}
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param input _in_ Input that will be released until ready
+	 * @param output _out_ Pipe onto which the input will be released on
+	 * @param timeout _out_ Pipe written by Blockables which did not finish in time
+	 * @param timeoutNS
+	 * @param maxInFlight limit of concurrently running Blockables
+	 * @param executor runs the blocking work, when null virtual threads are used if available
+	 * @param chooser
+	 * @param blockables
+	 */
+	public ExecutorBlockingSupportStage(GraphManager graphManager, Pipe<T> input, Pipe<P> output, Pipe<Q> timeout,
+			                            long timeoutNS, int maxInFlight, Executor executor, Choosable<T> chooser, Blockable<T,P,Q> ... blockables) {
+		super(graphManager, input, output==timeout ? join(output) : join(output,timeout));
+		this.input = input;
+		this.output = output;
+		this.timeout = timeout;
+		this.chooser = chooser;
+		this.blockables = blockables;
+		this.timeoutNS = timeoutNS;
+		this.maxInFlight = Math.max(1, Math.min(maxInFlight, blockables.length));
+		this.executor = executor;
+
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "lightcoral", this);
+	}
+
+	/**
+	 * @return new virtual thread per task executor or null if this JVM does not support them
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			//looked up by name since the source level is older than virtual threads
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Throwable t) {
+			return null;
+		}
+	}
+
+	@Override
+	public void startup() {
+		int count = blockables.length;
+
+		if (null == executor) {
+			ExecutorService service = newVirtualThreadExecutor();
+			if (null == service) {
+				logger.info("virtual threads are not available, using a cached thread pool for blocking work");
+				service = Executors.newCachedThreadPool();
+			}
+			executor = service;
+			ownsExecutor = true;
+		}
+
+		state = new AtomicIntegerArray(count);
+		times = new AtomicLongArray(count);
+		workers = new Thread[count];
+
+		//each blockable is in the ring at most once so it can never overflow
+		int size = Integer.highestOneBit(Math.max(2, count)-1)<<1;
+		completed = new AtomicIntegerArray(size);
+		completedMask = size-1;
+		completedTail = new AtomicLong();
+
+		tasks = new Runnable[count];
+		int t = count;
+		while (--t >= 0) {
+			tasks[t] = buildRunnable(t);
+		}
+	}
+
+	private Runnable buildRunnable(final int instance) {
+
+		final Blockable<T, P, Q> b = blockables[instance];
+
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized(b) {
+					workers[instance] = Thread.currentThread();
+				}
+				//needed for external timeout checking
+				times.set(instance, System.nanoTime());
+				try {
+					if (RUNNING == state.get(instance)) {
+						b.run();
+					}
+				} catch (InterruptedException ie) {
+					//timed out, the stage has already marked this instance
+				} catch (Exception e) {
+					//for SQL exceptions
+					logger.warn("blocking task {} failed", b.name(), e);
+				} finally {
+					times.set(instance, 0);
+					synchronized(b) {
+						workers[instance] = null;
+						Thread.interrupted(); //clear any late interrupt before this thread is reused
+					}
+					state.compareAndSet(instance, RUNNING, DONE);
+					publishCompleted(instance);
+				}
+			}
+		};
+	}
+
+	private void publishCompleted(int instance) {
+		long pos = completedTail.getAndIncrement();
+		completed.set(completedMask & (int)pos, instance+1); //zero marks an empty slot
+	}
+
+	@Override
+	public void run() {
+
+		finishCompleted();
+
+		//pick up as much new work as we can
+		while (inFlight<maxInFlight && Pipe.hasContentToRead(input)) {
+			int choice = chooser.choose(input);
+			if (choice>=0 && IDLE == state.get(choice)) {
+				blockables[choice].begin(input);
+				state.set(choice, RUNNING);
+				inFlight++;
+				try {
+					executor.execute(tasks[choice]);
+				} catch (RejectedExecutionException ree) {
+					logger.warn("blocking task rejected by executor", ree);
+					state.set(choice, TIMED_OUT);
+					publishCompleted(choice);
+				}
+			} else {
+				break;
+			}
+		}
+
+		if (inFlight>0) {
+			checkForTimeouts();
+		}
+	}
+
+	private void checkForTimeouts() {
+		long now = System.nanoTime();
+		int t = blockables.length;
+		while (--t>=0) {
+			long localTime = times.get(t);
+			if (0!=localTime) {
+				long duration = now - localTime;
+				if (duration>timeoutNS && state.compareAndSet(t, RUNNING, TIMED_OUT)) {
+					logger.info("timeout task {}ns",duration);
+					Blockable<T,P,Q> b = blockables[t];
+					synchronized(b) {
+						Thread worker = workers[t];
+						if (null != worker) {
+							worker.interrupt();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void finishCompleted() {
+		int slot;
+		while (0 != (slot = completed.get(completedMask & (int)completedHead))) {
+			int instance = slot-1;
+			Blockable<T,P,Q> b = blockables[instance];
+			if (TIMED_OUT == state.get(instance)) {
+				if (!Pipe.hasRoomForWrite(timeout)) {
+					return;
+				}
+				b.timeout(timeout);
+			} else {
+				if (!Pipe.hasRoomForWrite(output)) {
+					return;
+				}
+				b.finish(output);
+			}
+			completed.set(completedMask & (int)completedHead, 0);
+			completedHead++;
+			inFlight--;
+			state.set(instance, IDLE);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		int t = blockables.length;
+		while (--t>=0) {
+			state.set(t, TIMED_OUT);
+			Blockable<T,P,Q> b = blockables[t];
+			synchronized(b) {
+				Thread worker = workers[t];
+				if (null != worker) {
+					worker.interrupt();
+				}
+			}
+		}
+		if (ownsExecutor) {
+			((ExecutorService)executor).shutdownNow();
+		}
+	}
+
+}
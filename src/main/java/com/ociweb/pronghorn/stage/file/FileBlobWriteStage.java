@@ -1,6 +1,7 @@
 package com.ociweb.pronghorn.stage.file;
 
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
@@ -21,11 +22,11 @@ import com.ociweb.pronghorn.pipe.util.ISOTimeFormatterLowGC;
 import com.ociweb.pronghorn.stage.PronghornStage;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 
-//TODO: should roll up writes when possible.
-//TODO: update to use byteBuffer array...
-
 /**
  * Writes data to file on disk (in blobs).
+ * All the fragments on the input, up to the batch size in bytes, are written with a single
+ * gathering write and when requested forced to the device once for the whole batch.
+ * The input is released only after the batch is on disk.
  *
  * @author Nathan Tippy
  * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
@@ -33,15 +34,22 @@ import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 public class FileBlobWriteStage extends PronghornStage{
 
     private static final long FILE_ROTATE_SIZE = 1L<<27;
+    private static final int BATCH_SIZE = 1<<20;
 	private static final int SIZE = RawDataSchema.FROM.fragDataSize[0];
     private static final Logger logger = LoggerFactory.getLogger(FileBlobWriteStage.class);
     
     private final Pipe<RawDataSchema> input;
     private FileChannel fileChannel;
     
-    private ByteBuffer buffA;
-    private ByteBuffer buffB;
-    private boolean releaseRead = false;
+    private ByteBuffer[] batch;
+    private ByteBuffer[] slotsA;
+    private ByteBuffer[] slotsB;
+    private int batchCount;
+    private int batchFirst;
+    private int batchFragments;
+    private boolean endOfInput;
+    private final int batchSize;
+    private final boolean syncPerBatch;
     
     private FileSystemProvider provider;
     private FileSystem fileSystem;
@@ -94,6 +102,28 @@ public class FileBlobWriteStage extends PronghornStage{
     		                  boolean append, 
     		                  String pathBase,
     		                  int maxFileCount) {
+    	this(graphManager, input, fileRotateSize, append, pathBase, maxFileCount, BATCH_SIZE, true);
+    }
+    
+    /**
+     *
+     * @param graphManager
+     * @param input _in_ RawDataSchema that will be written  to file.
+     * @param fileRotateSize ignored if file count is 1
+     * @param append
+     * @param pathBase
+     * @param maxFileCount
+     * @param batchSize bytes gathered into one write, a single larger fragment is still written whole
+     * @param syncPerBatch force the data (not the metadata) to the device after each batch
+     */
+    public FileBlobWriteStage(GraphManager graphManager,
+    		                  Pipe<RawDataSchema> input,
+    		                  long fileRotateSize,
+    		                  boolean append, 
+    		                  String pathBase,
+    		                  int maxFileCount,
+    		                  int batchSize,
+    		                  boolean syncPerBatch) {
     	
     	
     	//TODO: add second constructor to add control pipe.
@@ -106,6 +136,8 @@ public class FileBlobWriteStage extends PronghornStage{
         this.maxFileCount = maxFileCount;
         this.basePath = pathBase;
         this.extension = ".log";
+        this.batchSize = batchSize;
+        this.syncPerBatch = syncPerBatch;
         
         GraphManager.addNota(graphManager, GraphManager.ISOLATE, GraphManager.ISOLATE, this);
         GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "lemonchiffon3", this);
@@ -125,7 +157,6 @@ public class FileBlobWriteStage extends PronghornStage{
         this.provider = fileSystem.provider();
         this.writeOptions = new HashSet<OpenOption>();
 
-        this.writeOptions.add(StandardOpenOption.SYNC);
         this.writeOptions.add(StandardOpenOption.CREATE);
 
         if (append) {
@@ -136,6 +167,15 @@ public class FileBlobWriteStage extends PronghornStage{
         
         this.writeOptions.add(StandardOpenOption.WRITE);
         
+        this.batch = new ByteBuffer[2*(input.sizeOfSlabRing/SIZE)];
+        //the wrapped reading buffers are shared by the pipe so each batch entry needs its own view
+        this.slotsA = new ByteBuffer[batch.length];
+        this.slotsB = new ByteBuffer[batch.length];
+        int i = batch.length;
+        while (--i>=0) {
+        	slotsA[i] = Pipe.wrappedBlobRingA(input).duplicate();
+        	slotsB[i] = Pipe.wrappedBlobRingB(input).duplicate();
+        }
         this.absoluteFileNames = new String[maxFileCount];
         this.pathBuilder = new StringBuilder();
         
@@ -175,139 +215,151 @@ public class FileBlobWriteStage extends PronghornStage{
     }
 
 	private void writeProcessing() {
-		do {
-        
-        if (null==buffA && 
-            null==buffB) {
-            //read the next block
-            
-            if (releaseRead) {
-                //only done after we have consumed the bytes
-                Pipe.confirmLowLevelRead(input, SIZE);
-                Pipe.releaseReadLock(input);
-                releaseRead = false;
-            }
-
-            //only rotate when we have more than 1 file 
-            if (maxFileCount>1) {
-	            try {
-					long fileSize = fileChannel.size();
-					if (fileSize>fileRotateSize) {
-						//close file
-						fileChannel.close();
-						
-						//rotate to next file.
-						if (++selectedFile == maxFileCount) {
-							selectedFile = 0;
-						}
-						
-						String oldName = "";
-						if (null!=absoluteFileNames[selectedFile]) {
-							//before we replace this file we must delete if it is found							
-							provider.delete(fileSystem.getPath(oldName = absoluteFileNames[selectedFile]));							
-						}
-						
-						absoluteFileNames[selectedFile] = generateFileName(extension);
-						if (absoluteFileNames[selectedFile].equals(oldName)) {
-							logger.warn("log file names are not unique because the file sizes are too small, increase max size.");
-							//to allow for continued use modify the name to avoid collision.
-							absoluteFileNames[selectedFile] += (""+Math.random());
-						}
-						
-						fileChannel = provider.newFileChannel(
-			        			 fileSystem.getPath(absoluteFileNames[selectedFile]), writeOptions);
-					}
-					
-					
+		while (true) {
+			
+			if (0 == batchCount) {
+				//only rotate between batches so a batch is never split across files
+				if (maxFileCount>1) {
+					rotateWhenFull();
+				}
+				gatherBatch();
+			}
+			
+			if (batchFirst<batchCount) {
+				try {
+					fileChannel.write(batch, batchFirst, batchCount-batchFirst);
 				} catch (IOException e) {
 					
-					//do not report closed when we are shutting down
-					if (!(e instanceof ClosedChannelException)) {
+					//TODO: must revisit on shutdown so we dont write when file is closed...
+					
+					throw new RuntimeException(e);
+				}
+				while (batchFirst<batchCount && !batch[batchFirst].hasRemaining()) {
+					batch[batchFirst++] = null;
+				}
+				if (batchFirst<batchCount) {
+					return;//try the rest later
+				}
+			}
+			
+			if (batchFragments>0) {
+				if (syncPerBatch) {
+					try {
+						fileChannel.force(false);
+					} catch (IOException e) {
 						throw new RuntimeException(e);
 					}
-					
 				}
-            }
-            
-            
-            if (Pipe.hasContentToRead(input)) {
-                int msgId      = Pipe.takeMsgIdx(input);   
-                if (msgId < 0) {
-                    Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
-                    Pipe.releaseReadLock(input);
-                    requestShutdown();
-                    return;
-                }
-                assert(0==msgId);
-                int meta = Pipe.takeByteArrayMetaData(input); //for string and byte array
-                int len = Pipe.takeByteArrayLength(input);
-                                
-                if (len < 0) {
-                    Pipe.confirmLowLevelRead(input, SIZE);
-                    Pipe.releaseReadLock(input);
-                    requestShutdown();
-                    return;
-                }
-                
-                                                
-                releaseRead = true;
-                buffA = Pipe.wrappedBlobReadingRingA(input, meta, len);
-                buffB = Pipe.wrappedBlobReadingRingB(input, meta, len);
-                if (!buffB.hasRemaining()) {
-                    buffB = null;
-                }
-                
-                
-            } else {
-                //there is nothing to read
-                return;
-            }
-            
-        }
-        
-        //we have existing data to be written
-        if (null!=buffA) {
-            try {
-                
-                 fileChannel.write(buffA);
-                if (0==buffA.remaining()) {
-                    buffA = null;
-                } else {
-                    return;//do not write B because we did not finish A
-                }
-                
-                if (this.didWorkMonitor != null) {
-        			didWorkMonitor.published(); //did work but we are batching.
-        		}
-                
-            } catch (IOException e) {
-            	
-            	//TODO: must revisit on shutdown so we dont write when file is closed...
-            	
-                throw new RuntimeException(e);
-            }
-        }
-        
-        if (null!=buffB) {
-            try {                
-                fileChannel.write(buffB);
-                if (0==buffB.remaining()) {
-                    buffB = null;
-                }
-                
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        
-        } while (null == buffA && null == buffB);
+				if (this.didWorkMonitor != null) {
+					didWorkMonitor.published();
+				}
+			}
+			
+			boolean didWork = batchFragments>0;
+			if (didWork || endOfInput) {
+				//only done after we have consumed the bytes
+				Pipe.releaseAllPendingReadLock(input);
+			}
+			batchCount = 0;
+			batchFirst = 0;
+			batchFragments = 0;
+			
+			if (endOfInput) {
+				requestShutdown();
+				return;
+			}
+			if (!didWork) {
+				return;//there is nothing to read
+			}
+		}
+	}
+
+	private void gatherBatch() {
+		long bytes = 0;
+		while (bytes<batchSize && Pipe.hasContentToRead(input)) {
+			int msgId = Pipe.takeMsgIdx(input);
+			if (msgId < 0) {
+				Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+				Pipe.readNextWithoutReleasingReadLock(input);
+				endOfInput = true;
+				return;
+			}
+			assert(0==msgId);
+			int meta = Pipe.takeByteArrayMetaData(input); //for string and byte array
+			int len = Pipe.takeByteArrayLength(input);
+			Pipe.confirmLowLevelRead(input, SIZE);
+			Pipe.readNextWithoutReleasingReadLock(input);
+			
+			if (len < 0) {
+				endOfInput = true;
+				return;
+			}
+			
+			batchFragments++;
+			bytes += len;
+			ByteBuffer buffA = Pipe.wrappedBlobReadingRingA(input, meta, len);
+			if (buffA.hasRemaining()) {
+				batch[batchCount] = view(slotsA[batchCount], buffA);
+				batchCount++;
+			}
+			ByteBuffer buffB = Pipe.wrappedBlobReadingRingB(input, meta, len);
+			if (buffB.hasRemaining()) {
+				batch[batchCount] = view(slotsB[batchCount], buffB);
+				batchCount++;
+			}
+		}
+	}
+
+	private static ByteBuffer view(ByteBuffer slot, ByteBuffer source) {
+		((Buffer)slot).limit(source.limit());
+		((Buffer)slot).position(source.position());
+		return slot;
+	}
+
+	private void rotateWhenFull() {
+		try {
+			long fileSize = fileChannel.size();
+			if (fileSize>fileRotateSize) {
+				//close file
+				fileChannel.close();
+				
+				//rotate to next file.
+				if (++selectedFile == maxFileCount) {
+					selectedFile = 0;
+				}
+				
+				String oldName = "";
+				if (null!=absoluteFileNames[selectedFile]) {
+					//before we replace this file we must delete if it is found							
+					provider.delete(fileSystem.getPath(oldName = absoluteFileNames[selectedFile]));							
+				}
+				
+				absoluteFileNames[selectedFile] = generateFileName(extension);
+				if (absoluteFileNames[selectedFile].equals(oldName)) {
+					logger.warn("log file names are not unique because the file sizes are too small, increase max size.");
+					//to allow for continued use modify the name to avoid collision.
+					absoluteFileNames[selectedFile] += (""+Math.random());
+				}
+				
+				fileChannel = provider.newFileChannel(
+	        			 fileSystem.getPath(absoluteFileNames[selectedFile]), writeOptions);
+			}
+			
+		} catch (IOException e) {
+			
+			//do not report closed when we are shutting down
+			if (!(e instanceof ClosedChannelException)) {
+				throw new RuntimeException(e);
+			}
+			
+		}
 	}
 
     @Override
     public void shutdown() {
-        if (releaseRead) {
+        if (batchFragments>0) {
             //only done after we have consumed the bytes
-            Pipe.releaseReadLock(input);
+            Pipe.releaseAllPendingReadLock(input);
         }
         if (fileChannel.isOpen()) {
         	try {
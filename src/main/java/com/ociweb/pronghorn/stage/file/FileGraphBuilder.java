@@ -156,4 +156,31 @@ public class FileGraphBuilder {
 		}
 	}
 
+	/**
+	 * Builds a blob store with the same pipes as buildSequentialReplayer, kept in a memory mapped
+	 * circular log and index so startup is not a replay of the files and releases are not rewritten.
+	 * The files are reused when they already exist in the target directory.
+	 */
+	public static MappedBlobStoreStage buildMappedBlobStore(GraphManager gm,
+			Pipe<PersistedBlobLoadReleaseSchema>  fromStoreRelease,
+			Pipe<PersistedBlobLoadConsumerSchema> fromStoreConsumer,
+			Pipe<PersistedBlobLoadProducerSchema> fromStoreProducer,
+			Pipe<PersistedBlobStoreConsumerSchema> toStoreConsumer,
+			Pipe<PersistedBlobStoreProducerSchema> toStoreProducer,
+			long logSize, int indexBits, File targetDirectory,
+			PronghornStageProcessor stageProcessor) {
+
+		MappedBlobStoreStage stage = new MappedBlobStoreStage(gm,
+				toStoreConsumer, toStoreProducer,
+				fromStoreRelease, fromStoreConsumer, fromStoreProducer,
+				new File(targetDirectory, "blobStore.log"),
+				new File(targetDirectory, "blobStore.idx"),
+				logSize, indexBits);
+
+		if (null!=stageProcessor) {
+			stageProcessor.process(gm,  stage);
+		}
+		return stage;
+	}
+
 }
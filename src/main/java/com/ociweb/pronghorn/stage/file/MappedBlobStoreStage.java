@@ -0,0 +1,622 @@
+package com.ociweb.pronghorn.stage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.FragmentWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadConsumerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadProducerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadReleaseSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreConsumerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreProducerSchema;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Blob store speaking the same pipes as SequentialReplayerStage, kept in a fixed size memory mapped
+ * circular log with a second mapped file holding the id to log position index. The log is mapped in
+ * chunks so it is not limited to 2G, a record never crosses the end of a chunk. Nothing is rebuilt
+ * on startup, a release flips the state of one record, and the tail is advanced over released
+ * records a few at a time between stores. Live records found at the tail are copied to the head
+ * only when the log is running short of room. Like SequentialReplayerStage the stores are acked
+ * with the last id written, an AckWrite covers that id and every block stored before it.
+ *
+ * Log layout, fixed header followed by the records:
+ *   magic, version, (padding), head, tail
+ * Record, 16 byte aligned, padded to the start of the next chunk when it does not fit in this one:
+ *   id, length, state, bytes
+ * Index layout, fixed header followed by open addressed slots:
+ *   magic, slotBits, liveCount then pairs of id, position+1
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class MappedBlobStoreStage extends PronghornStage {
+
+	public static final long LOG_MAGIC = 0x5048424C_4F424C47L; //PHBLOBLG
+	public static final long INDEX_MAGIC = 0x5048424C_4F424958L; //PHBLOBIX
+	public static final int VERSION = 1;
+	public static final int DEFAULT_CHUNK_BITS = 30; //1G per mapping
+
+	private static final int OFF_HEAD = 16;
+	private static final int OFF_TAIL = 24;
+	private static final int LOG_HEADER = 64;
+
+	private static final int OFF_BITS = 8;
+	private static final int OFF_LIVE = 12;
+	private static final int INDEX_HEADER = 16;
+
+	private static final int RECORD_HEADER = 16;
+	private static final int STATE_LIVE = 1;
+	private static final int STATE_RELEASED = 2;
+	private static final int STATE_PAD = 3;
+
+	private static final int COMPACT_STEP = 64; //records examined per run so stores are never held up
+
+	private static final Logger logger = LoggerFactory.getLogger(MappedBlobStoreStage.class);
+
+	private final Pipe<PersistedBlobStoreConsumerSchema> storeConsumerRequests;
+	private final Pipe<PersistedBlobStoreProducerSchema> storeProducerRequests;
+
+	private final Pipe<PersistedBlobLoadReleaseSchema>  loadReleaseResponses;
+	private final Pipe<PersistedBlobLoadConsumerSchema> loadConsumerResponses;
+	private final Pipe<PersistedBlobLoadProducerSchema> loadProducerResponses;
+
+	private final File logFile;
+	private final File indexFile;
+	private final long logSize;
+	private final int indexBits;
+	private final int chunkBits;
+	private final long chunkMask;
+	private final int reserve; //room kept back from stores for relocating the largest record with its padding
+
+	private MappedByteBuffer header;
+	private MappedByteBuffer[] chunks;
+	private ByteBuffer[] views; //duplicates of the chunks, reading records out never moves the write position
+	private MappedByteBuffer index;
+	private long capacity;
+	private int slotMask;
+	private int liveLimit;
+
+	private long head;
+	private long tail;
+	private int liveCount;
+
+	private long pendingId;
+	private int pendingLength = -1;
+	private ByteBuffer buffA;
+	private ByteBuffer buffB;
+
+	private boolean replaying;
+	private long replayPosition;
+	private long replayEnd;
+
+	private long relocated;
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param storeConsumerRequests _in_ Release, replay and clear requests
+	 * @param storeProducerRequests _in_ Blocks to be stored
+	 * @param loadReleaseResponses _out_ Acks for each release
+	 * @param loadConsumerResponses _out_ Replayed blocks
+	 * @param loadProducerResponses _out_ Acks for each stored block
+	 * @param logFile circular log of records
+	 * @param indexFile id to log position index
+	 * @param logSize bytes in the log when it is created, an existing log keeps its size
+	 * @param indexBits slots in the index when it is created, live blocks are limited to 3/4 of them
+	 */
+	public MappedBlobStoreStage(GraphManager graphManager,
+			                    Pipe<PersistedBlobStoreConsumerSchema> storeConsumerRequests,
+			                    Pipe<PersistedBlobStoreProducerSchema> storeProducerRequests,
+			                    Pipe<PersistedBlobLoadReleaseSchema>  loadReleaseResponses,
+			                    Pipe<PersistedBlobLoadConsumerSchema> loadConsumerResponses,
+			                    Pipe<PersistedBlobLoadProducerSchema> loadProducerResponses,
+			                    File logFile, File indexFile, long logSize, int indexBits) {
+		this(graphManager, storeConsumerRequests, storeProducerRequests,
+			 loadReleaseResponses, loadConsumerResponses, loadProducerResponses,
+			 logFile, indexFile, logSize, indexBits, DEFAULT_CHUNK_BITS);
+	}
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param storeConsumerRequests _in_ Release, replay and clear requests
+	 * @param storeProducerRequests _in_ Blocks to be stored
+	 * @param loadReleaseResponses _out_ Acks for each release
+	 * @param loadConsumerResponses _out_ Replayed blocks
+	 * @param loadProducerResponses _out_ Acks for each stored block
+	 * @param logFile circular log of records
+	 * @param indexFile id to log position index
+	 * @param logSize bytes in the log when it is created, an existing log keeps its size
+	 * @param indexBits slots in the index when it is created, live blocks are limited to 3/4 of them
+	 * @param chunkBits the log is mapped in chunks of 1<<chunkBits bytes, must be the same each time the log is opened
+	 */
+	public MappedBlobStoreStage(GraphManager graphManager,
+			                    Pipe<PersistedBlobStoreConsumerSchema> storeConsumerRequests,
+			                    Pipe<PersistedBlobStoreProducerSchema> storeProducerRequests,
+			                    Pipe<PersistedBlobLoadReleaseSchema>  loadReleaseResponses,
+			                    Pipe<PersistedBlobLoadConsumerSchema> loadConsumerResponses,
+			                    Pipe<PersistedBlobLoadProducerSchema> loadProducerResponses,
+			                    File logFile, File indexFile, long logSize, int indexBits, int chunkBits) {
+		super(graphManager, join(storeConsumerRequests, storeProducerRequests),
+				            join(loadReleaseResponses, loadConsumerResponses, loadProducerResponses));
+
+		this.storeConsumerRequests = storeConsumerRequests;
+		this.storeProducerRequests = storeProducerRequests;
+		this.loadReleaseResponses = loadReleaseResponses;
+		this.loadConsumerResponses = loadConsumerResponses;
+		this.loadProducerResponses = loadProducerResponses;
+
+		this.logFile = logFile;
+		this.indexFile = indexFile;
+		this.logSize = logSize;
+		this.indexBits = indexBits;
+		this.chunkBits = chunkBits;
+		this.chunkMask = (1L<<chunkBits)-1;
+		this.reserve = 2*recordSize(storeProducerRequests.maxVarLen);
+
+		if (chunkBits<8 || chunkBits>30) {
+			throw new UnsupportedOperationException("chunkBits must be from 8 to 30");
+		}
+		if (recordSize(storeProducerRequests.maxVarLen) > (1<<chunkBits)) {
+			throw new UnsupportedOperationException("blocks of "+storeProducerRequests.maxVarLen+" do not fit in log chunks of "+(1<<chunkBits)+" bytes");
+		}
+		if (8L*recordSize(storeProducerRequests.maxVarLen) > logSize-LOG_HEADER) { //room for the reserve and a few blocks
+			throw new UnsupportedOperationException("log of "+logSize+" bytes is too small for blocks of "+storeProducerRequests.maxVarLen);
+		}
+		if (storeProducerRequests.maxVarLen > loadConsumerResponses.maxVarLen) {
+			throw new UnsupportedOperationException("stored blocks will not fit in the replay pipe");
+		}
+
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "cornsilk2", this);
+	}
+
+	@Override
+	public void startup() {
+		try {
+			mapLog();
+			index = map(indexFile, INDEX_HEADER + (16L<<indexBits));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (0 == header.getLong(0)) {
+			header.putInt(8, VERSION);
+			header.putLong(OFF_HEAD, 0);
+			header.putLong(OFF_TAIL, 0);
+			header.putLong(0, LOG_MAGIC);
+		} else if (LOG_MAGIC != header.getLong(0)) {
+			throw new UnsupportedOperationException(logFile+" is not a blob store log");
+		}
+		head = header.getLong(OFF_HEAD);
+		tail = header.getLong(OFF_TAIL);
+
+		if (0 == index.getLong(0)) {
+			index.putInt(OFF_BITS, indexBits);
+			index.putInt(OFF_LIVE, 0);
+			index.putLong(0, INDEX_MAGIC);
+		} else if (INDEX_MAGIC != index.getLong(0)) {
+			throw new UnsupportedOperationException(indexFile+" is not a blob store index");
+		}
+		int bits = index.getInt(OFF_BITS);
+		slotMask = (1<<bits)-1;
+		liveLimit = 3*(1<<bits)/4;
+		liveCount = index.getInt(OFF_LIVE);
+	}
+
+	private void mapLog() throws IOException {
+		RandomAccessFile raf = open(logFile, LOG_HEADER + (~0xF & (logSize-LOG_HEADER)));
+		try {
+			capacity = raf.length()-LOG_HEADER;
+			if (capacity<=0 || 0 != (capacity&0xF)) {
+				throw new UnsupportedOperationException(logFile+" is not a blob store log");
+			}
+			FileChannel channel = raf.getChannel();
+			header = channel.map(FileChannel.MapMode.READ_WRITE, 0, LOG_HEADER);
+			int count = (int)((capacity+chunkMask)>>chunkBits);
+			chunks = new MappedByteBuffer[count];
+			views = new ByteBuffer[count];
+			for(int i = 0; i<count; i++) {
+				long start = ((long)i)<<chunkBits;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, LOG_HEADER+start, Math.min(chunkMask+1, capacity-start));
+				views[i] = chunks[i].duplicate();
+			}
+		} finally {
+			raf.close(); //mappings remain valid
+		}
+	}
+
+	private static MappedByteBuffer map(File file, long length) throws IOException {
+		RandomAccessFile raf = open(file, length);
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		} finally {
+			raf.close(); //mapping remains valid
+		}
+	}
+
+	private static RandomAccessFile open(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		if (0 == raf.length()) {
+			raf.setLength(length); //new files read as zeros
+		}
+		return raf;
+	}
+
+	@Override
+	public void shutdown() {
+		if (null != header) {
+			int i = chunks.length;
+			while (--i>=0) {
+				chunks[i].force();
+			}
+			header.force();
+			index.force();
+		}
+		if (relocated>0) {
+			logger.info("relocated {} live records to make room in {}", relocated, logFile);
+		}
+	}
+
+	@Override
+	public void run() {
+
+		boolean didWork;
+		do {
+			didWork = storeBlocks();
+			if (!replaying) {
+				boolean waitingForRoom = pendingLength>=0 && liveCount<liveLimit;
+				didWork |= compact(waitingForRoom || capacity-(head-tail) < (capacity>>2));
+			} else {
+				didWork |= replay();
+			}
+			if (!replaying && consumerRequests()) {
+				return; //shutdown
+			}
+		} while (didWork);
+	}
+
+	private boolean storeBlocks() {
+		if (!Pipe.hasRoomForWrite(loadProducerResponses)) {
+			return false;
+		}
+		boolean didWork = false;
+		long lastStoredId = -1;
+		while (true) {
+
+			if (pendingLength<0) {
+				if (!Pipe.hasContentToRead(storeProducerRequests)) {
+					break;
+				}
+				int msgIdx = Pipe.takeMsgIdx(storeProducerRequests);
+				if (PersistedBlobStoreProducerSchema.MSG_BLOCK_1 != msgIdx) {
+					//producer may not end the store, only the consumer which knows all the acks are back
+					Pipe.confirmLowLevelRead(storeProducerRequests, Pipe.sizeOf(PersistedBlobStoreProducerSchema.instance, msgIdx));
+					Pipe.releaseReadLock(storeProducerRequests);
+					continue;
+				}
+				pendingId = Pipe.takeLong(storeProducerRequests);
+				int meta = Pipe.takeByteArrayMetaData(storeProducerRequests);
+				int len = Pipe.takeByteArrayLength(storeProducerRequests);
+				buffA = Pipe.wrappedBlobReadingRingA(storeProducerRequests, meta, len);
+				buffB = Pipe.wrappedBlobReadingRingB(storeProducerRequests, meta, len);
+				pendingLength = len;
+			}
+
+			if (liveCount>=liveLimit || !hasRoom(recordSize(pendingLength), reserve)) {
+				//must wait for releases, compaction is called by run between each pass
+				//and the reserve is always left so a live record at the tail can be moved
+				break;
+			}
+
+			long position = append(pendingId, pendingLength);
+			MappedByteBuffer target = chunk(position);
+			target.position(offset(position)+RECORD_HEADER);
+			target.put(buffA);
+			if (buffB.hasRemaining()) {
+				target.put(buffB);
+			}
+			indexPut(pendingId, position); //before the head, a restart finds entries past the head by their id
+			header.putLong(OFF_HEAD, head); //after the data so a restart never sees a partial record
+
+			buffA = null;
+			buffB = null;
+			pendingLength = -1;
+			Pipe.confirmLowLevelRead(storeProducerRequests, Pipe.sizeOf(PersistedBlobStoreProducerSchema.instance, PersistedBlobStoreProducerSchema.MSG_BLOCK_1));
+			Pipe.releaseReadLock(storeProducerRequests);
+
+			lastStoredId = pendingId;
+			didWork = true;
+		}
+		if (didWork) {
+			//one ack for the last id, everything stored before it is also in the log
+			FragmentWriter.writeL(loadProducerResponses, PersistedBlobLoadProducerSchema.MSG_ACKWRITE_11, lastStoredId);
+		}
+		return didWork;
+	}
+
+	private boolean consumerRequests() {
+		while (Pipe.hasContentToRead(storeConsumerRequests)) {
+
+			if (Pipe.peekMsg(storeConsumerRequests, PersistedBlobStoreConsumerSchema.MSG_RELEASE_7)) {
+				if (!Pipe.hasRoomForWrite(loadReleaseResponses)) {
+					return false;
+				}
+				Pipe.takeMsgIdx(storeConsumerRequests);
+				long id = Pipe.takeLong(storeConsumerRequests);
+				release(id);
+				FragmentWriter.writeL(loadReleaseResponses, PersistedBlobLoadReleaseSchema.MSG_ACKRELEASE_10, id);
+				finishRead(PersistedBlobStoreConsumerSchema.MSG_RELEASE_7);
+
+			} else if (Pipe.peekMsg(storeConsumerRequests, PersistedBlobStoreConsumerSchema.MSG_REQUESTREPLAY_6)) {
+				if (!Pipe.hasRoomForWrite(loadConsumerResponses)) {
+					return false;
+				}
+				Pipe.takeMsgIdx(storeConsumerRequests);
+				finishRead(PersistedBlobStoreConsumerSchema.MSG_REQUESTREPLAY_6);
+				FragmentWriter.write(loadConsumerResponses, PersistedBlobLoadConsumerSchema.MSG_BEGINREPLAY_8);
+				replaying = true;
+				replayPosition = tail;
+				replayEnd = head; //blocks stored during the replay were acked to the producer already
+				return false;
+
+			} else if (Pipe.peekMsg(storeConsumerRequests, PersistedBlobStoreConsumerSchema.MSG_CLEAR_12)) {
+				Pipe.takeMsgIdx(storeConsumerRequests);
+				clear();
+				finishRead(PersistedBlobStoreConsumerSchema.MSG_CLEAR_12);
+
+			} else {
+				if (!Pipe.hasRoomForWrite(loadConsumerResponses) || !Pipe.hasRoomForWrite(loadProducerResponses)) {
+					return false;
+				}
+				Pipe.takeMsgIdx(storeConsumerRequests);
+				Pipe.confirmLowLevelRead(storeConsumerRequests, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(storeConsumerRequests);
+
+				Pipe.publishEOF(loadConsumerResponses);
+				Pipe.publishEOF(loadProducerResponses);
+				requestShutdown();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void finishRead(int msgIdx) {
+		Pipe.confirmLowLevelRead(storeConsumerRequests, Pipe.sizeOf(PersistedBlobStoreConsumerSchema.instance, msgIdx));
+		Pipe.releaseReadLock(storeConsumerRequests);
+	}
+
+	private boolean replay() {
+		boolean didWork = false;
+		while (Pipe.hasRoomForWrite(loadConsumerResponses)) {
+			if (replayPosition == replayEnd) {
+				FragmentWriter.write(loadConsumerResponses, PersistedBlobLoadConsumerSchema.MSG_FINISHREPLAY_9);
+				replaying = false;
+				return true;
+			}
+			MappedByteBuffer source = chunk(replayPosition);
+			int at = offset(replayPosition);
+			int len = source.getInt(at+8);
+			if (STATE_LIVE == source.getInt(at+12)) {
+				writeBlock(source.getLong(at), view(replayPosition), at+RECORD_HEADER, len);
+			}
+			replayPosition += recordSize(len);
+			didWork = true;
+		}
+		return didWork;
+	}
+
+	private void writeBlock(long id, ByteBuffer view, int at, int len) {
+		Pipe<PersistedBlobLoadConsumerSchema> output = loadConsumerResponses;
+		byte[] blob = Pipe.blob(output);
+		int blobMask = Pipe.blobMask(output);
+		int blobPos = Pipe.getWorkingBlobHeadPosition(output);
+
+		int start = blobMask & blobPos;
+		int first = Math.min(len, blobMask+1-start);
+		view.limit(at+len);
+		view.position(at);
+		view.get(blob, start, first);
+		view.get(blob, 0, len-first);
+
+		int size = Pipe.addMsgIdx(output, PersistedBlobLoadConsumerSchema.MSG_BLOCK_1);
+		Pipe.addLongValue(id, output);
+		Pipe.addBytePosAndLen(output, blobPos, len);
+		Pipe.addAndGetBlobWorkingHeadPosition(output, len);
+		Pipe.confirmLowLevelWrite(output, size);
+		Pipe.publishWrites(output);
+	}
+
+	/**
+	 * Moves the tail past released records. When short of room live records at the tail are
+	 * copied to the head so the space behind them can be reused.
+	 */
+	private boolean compact(boolean relocate) {
+		long start = tail;
+		long room = capacity-(head-tail);
+		int steps = COMPACT_STEP;
+		while (--steps>=0 && tail<head) {
+			MappedByteBuffer record = chunk(tail);
+			int at = offset(tail);
+			int len = record.getInt(at+8);
+			int size = recordSize(len);
+			if (STATE_LIVE == record.getInt(at+12)) {
+				if (!relocate || !hasRoom(size, 0)) {
+					break;
+				}
+				long id = record.getLong(at);
+				long position = append(id, len);
+				ByteBuffer source = view(tail);
+				source.limit(at+RECORD_HEADER+len);
+				source.position(at+RECORD_HEADER);
+				MappedByteBuffer target = chunk(position);
+				target.position(offset(position)+RECORD_HEADER);
+				target.put(source);
+				header.putLong(OFF_HEAD, head); //before the index releases the old copy so a restart has one or the other
+				indexPut(id, position);
+				relocated++;
+			}
+			tail += size;
+		}
+		if (tail != start) {
+			header.putLong(OFF_TAIL, tail);
+		}
+		//only more room counts as work, moving live records past the padding they leave behind can go round forever
+		return capacity-(head-tail) > room;
+	}
+
+	private void release(long id) {
+		int slot = indexFind(id);
+		if (slot>=0) {
+			long position = index.getLong(slotOffset(slot)+8)-1;
+			MappedByteBuffer record = chunk(position);
+			int at = offset(position);
+			if (id == record.getLong(at)) { //guard against an index written ahead of a lost record
+				record.putInt(at+12, STATE_RELEASED);
+			}
+			indexRemove(slot);
+		}
+	}
+
+	private void clear() {
+		head = tail = 0;
+		header.putLong(OFF_HEAD, 0);
+		header.putLong(OFF_TAIL, 0);
+		int slot = slotMask+1;
+		while (--slot>=0) {
+			index.putLong(slotOffset(slot)+8, 0);
+		}
+		liveCount = 0;
+		index.putInt(OFF_LIVE, 0);
+	}
+
+	private boolean hasRoom(int size, int reserve) {
+		int toEnd = toBoundary(head);
+		int needed = toEnd<size ? toEnd+size : size;
+		return capacity-(head-tail)-reserve >= needed;
+	}
+
+	/**
+	 * Writes the record header at the head, padding to the start of the next chunk when it does not fit before the end of this one.
+	 *
+	 * @return log position of the new record
+	 */
+	private long append(long id, int len) {
+		int size = recordSize(len);
+		int toEnd = toBoundary(head);
+		if (toEnd<size) {
+			MappedByteBuffer pad = chunk(head);
+			int at = offset(head);
+			pad.putLong(at, -1);
+			pad.putInt(at+8, toEnd-RECORD_HEADER);
+			pad.putInt(at+12, STATE_PAD);
+			head += toEnd;
+		}
+		long position = head;
+		MappedByteBuffer record = chunk(position);
+		int at = offset(position);
+		record.putLong(at, id);
+		record.putInt(at+8, len);
+		record.putInt(at+12, STATE_LIVE);
+		head += size;
+		return position;
+	}
+
+	private MappedByteBuffer chunk(long position) {
+		return chunks[(int)((position % capacity)>>chunkBits)];
+	}
+
+	private ByteBuffer view(long position) {
+		return views[(int)((position % capacity)>>chunkBits)];
+	}
+
+	private int offset(long position) {
+		return (int)((position % capacity) & chunkMask);
+	}
+
+	/**
+	 * @return bytes from position to the end of its chunk, the last chunk ends with the log
+	 */
+	private int toBoundary(long position) {
+		long at = position % capacity;
+		return (int)(Math.min(capacity, (at|chunkMask)+1) - at);
+	}
+
+	private static int recordSize(int len) {
+		return RECORD_HEADER + ((len+0xF) & ~0xF);
+	}
+
+	private static int slotOffset(int slot) {
+		return INDEX_HEADER + (slot<<4);
+	}
+
+	private int home(long id) {
+		long h = id * 0x9E3779B97F4A7C15L;
+		return slotMask & (int)(h>>>32);
+	}
+
+	private int indexFind(long id) {
+		int slot = home(id);
+		while (0 != index.getLong(slotOffset(slot)+8)) {
+			if (id == index.getLong(slotOffset(slot))) {
+				return slot;
+			}
+			slot = slotMask & (slot+1);
+		}
+		return -1;
+	}
+
+	private void indexPut(long id, long position) {
+		int slot = home(id);
+		long value;
+		while (0 != (value = index.getLong(slotOffset(slot)+8))) {
+			if (id == index.getLong(slotOffset(slot))) {
+				MappedByteBuffer old = chunk(value-1);
+				int at = offset(value-1);
+				if (value-1 != position && id == old.getLong(at) && STATE_LIVE == old.getInt(at+12)) {
+					old.putInt(at+12, STATE_RELEASED); //same id stored again, latest wins
+				}
+				index.putLong(slotOffset(slot)+8, position+1);
+				return;
+			}
+			slot = slotMask & (slot+1);
+		}
+		index.putLong(slotOffset(slot), id);
+		index.putLong(slotOffset(slot)+8, position+1);
+		index.putInt(OFF_LIVE, ++liveCount);
+	}
+
+	/**
+	 * Backward shift delete, keeps every probe chain unbroken without leaving markers behind.
+	 */
+	private void indexRemove(int slot) {
+		int j = slot;
+		while (true) {
+			j = slotMask & (j+1);
+			long value = index.getLong(slotOffset(j)+8);
+			if (0 == value) {
+				break;
+			}
+			long id = index.getLong(slotOffset(j));
+			int k = home(id);
+			if (slot<=j ? (slot<k && k<=j) : (slot<k || k<=j)) {
+				continue; //already in its chain between home and here
+			}
+			index.putLong(slotOffset(slot), id);
+			index.putLong(slotOffset(slot)+8, value);
+			slot = j;
+		}
+		index.putLong(slotOffset(slot)+8, 0);
+		index.putInt(OFF_LIVE, --liveCount);
+	}
+
+}
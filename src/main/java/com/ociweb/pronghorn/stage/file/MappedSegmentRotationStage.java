@@ -0,0 +1,213 @@
+package com.ociweb.pronghorn.stage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.util.ISOTimeFormatterLowGC;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Background partner of MappedSegmentWriteStage. Keeps spare segment files allocated ahead of the writer,
+ * forces each full segment to disk and deletes the oldest segments beyond the max file count.
+ *
+ * File names follow FileBlobWriteStage, <BasePath>YYYYMMDDHHMMsssss-<count>.<ext>
+ * where count is zero padded so the names sort in the order they were written.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class MappedSegmentRotationStage extends PronghornStage {
+
+	private static final int SIZE = RawDataSchema.FROM.fragDataSize[0];
+	private static final int SPARES = 2;
+	private static final Logger logger = LoggerFactory.getLogger(MappedSegmentRotationStage.class);
+
+	private final Pipe<RawDataSchema> finished;
+	private final Pipe<RawDataSchema> ready;
+	private final String basePath;
+	private final String extension;
+	private final long segmentSize;
+	private final int maxFileCount;
+
+	private String[] history; //full segments oldest first, as a ring
+	private int historyStart;
+	private int historyCount;
+	private List<String> spares;
+	private long segmentCount;
+	private StringBuilder pathBuilder;
+	private StringBuilder nameBuilder;
+	private ISOTimeFormatterLowGC formatter;
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param finished _in_ Names of the full segment files
+	 * @param ready _out_ Names of the new segment files which are ready for writing
+	 * @param segmentSize bytes in each segment
+	 * @param basePath prefix of every segment file name
+	 * @param extension suffix of every segment file name
+	 * @param maxFileCount full segments kept on disk
+	 */
+	public MappedSegmentRotationStage(GraphManager graphManager,
+			                          Pipe<RawDataSchema> finished,
+			                          Pipe<RawDataSchema> ready,
+			                          long segmentSize,
+			                          String basePath,
+			                          String extension,
+			                          int maxFileCount) {
+		super(graphManager, finished, ready);
+		this.finished = finished;
+		this.ready = ready;
+		this.segmentSize = segmentSize;
+		this.basePath = basePath;
+		this.extension = extension;
+		this.maxFileCount = Math.max(1, maxFileCount);
+
+		if (segmentSize>Integer.MAX_VALUE || segmentSize<=MappedSegmentWriteStage.HEADER_SIZE) {
+			throw new UnsupportedOperationException("segment size must be larger than the header and no larger than 2GB");
+		}
+
+		GraphManager.addNota(graphManager, GraphManager.ISOLATE, GraphManager.ISOLATE, this);
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "lemonchiffon3", this);
+		long LARGE_SLA_FOR_FILE_WRITE = 10_000_000_000L;
+		GraphManager.addNota(graphManager, GraphManager.SLA_LATENCY, LARGE_SLA_FOR_FILE_WRITE, this);
+	}
+
+	@Override
+	public void startup() {
+		this.history = new String[maxFileCount];
+		this.spares = new ArrayList<String>(SPARES+1);
+		this.pathBuilder = new StringBuilder();
+		this.nameBuilder = new StringBuilder();
+		this.formatter = new ISOTimeFormatterLowGC(true);
+	}
+
+	@Override
+	public void run() {
+
+		//stay ahead of the writer
+		while (spares.size()<SPARES && Pipe.hasRoomForWrite(ready)) {
+			prepareSegment();
+		}
+
+		while (Pipe.hasContentToRead(finished)) {
+
+			int msgIdx = Pipe.takeMsgIdx(finished);
+			if (msgIdx<0) {
+				Pipe.confirmLowLevelRead(finished, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(finished);
+				requestShutdown();
+				return;
+			}
+			int meta = Pipe.takeByteArrayMetaData(finished);
+			int len = Pipe.takeByteArrayLength(finished);
+			nameBuilder.setLength(0);
+			Pipe.readUTF8(finished, nameBuilder, meta, len);
+			Pipe.confirmLowLevelRead(finished, SIZE);
+			Pipe.releaseReadLock(finished);
+
+			completeSegment(nameBuilder.toString());
+
+			if (spares.size()<SPARES && Pipe.hasRoomForWrite(ready)) {
+				prepareSegment();
+			}
+		}
+	}
+
+	private void prepareSegment() {
+		String name = generateFileName();
+		try {
+			RandomAccessFile raf = new RandomAccessFile(name, "rw");
+			try {
+				raf.setLength(segmentSize);
+				raf.seek(0);
+				raf.writeLong(MappedSegmentWriteStage.MAGIC);
+				raf.writeInt(MappedSegmentWriteStage.VERSION);
+				raf.writeInt(0);
+				raf.writeLong(MappedSegmentWriteStage.HEADER_SIZE); //used
+				raf.writeLong(System.currentTimeMillis()); //created
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		spares.add(name);
+
+		int size = Pipe.addMsgIdx(ready, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		Pipe.addUTF8(name, ready);
+		Pipe.confirmLowLevelWrite(ready, size);
+		Pipe.publishWrites(ready);
+	}
+
+	private void completeSegment(String name) {
+		spares.remove(name);
+		boolean isEmpty = false;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(name, "rw");
+			try {
+				//also forces the pages written through the mapping
+				raf.getChannel().force(true);
+				raf.seek(MappedSegmentWriteStage.OFF_USED);
+				isEmpty = MappedSegmentWriteStage.HEADER_SIZE == raf.readLong();
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if (isEmpty) {
+			new File(name).delete();
+			return;
+		}
+
+		if (historyCount == maxFileCount) {
+			//remove the oldest to make room
+			new File(history[historyStart]).delete();
+			history[historyStart] = name;
+			if (++historyStart == maxFileCount) {
+				historyStart = 0;
+			}
+		} else {
+			history[(historyStart+historyCount++)%maxFileCount] = name;
+		}
+	}
+
+	private String generateFileName() {
+		pathBuilder.setLength(0);
+		pathBuilder.append(basePath);
+		formatter.write(System.currentTimeMillis(), pathBuilder);
+		pathBuilder.append('-');
+		//padded so name order is write order
+		long count = segmentCount++;
+		long digits = 100_000_000L;
+		while (digits>1 && count<digits) {
+			pathBuilder.append('0');
+			digits /= 10;
+		}
+		pathBuilder.append(count).append(extension);
+		return pathBuilder.toString();
+	}
+
+	@Override
+	public void shutdown() {
+		//spares which were never used hold no data
+		int i = spares.size();
+		while (--i>=0) {
+			if (!new File(spares.get(i)).delete()) {
+				logger.info("unable to delete unused segment {}", spares.get(i));
+			}
+		}
+		Pipe.publishEOF(ready);
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.ociweb.pronghorn.stage.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Copies each block into a memory mapped, pre-allocated segment file. Nothing here waits on the disk,
+ * segments are created, forced and deleted by MappedSegmentRotationStage on its own thread.
+ * Blocks are never split across segments.
+ *
+ * Segment layout, fixed header followed by the blocks:
+ *   magic, version, (padding), usedLength, createdTimeMS
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class MappedSegmentWriteStage extends PronghornStage {
+
+	public static final long MAGIC = 0x50485345_474D5431L; //PHSEGMT1
+	public static final int VERSION = 1;
+	public static final int OFF_USED = 16;
+	public static final int OFF_CREATED = 24;
+	public static final int HEADER_SIZE = 32;
+
+	private static final int SIZE = RawDataSchema.FROM.fragDataSize[0];
+	private static final Logger logger = LoggerFactory.getLogger(MappedSegmentWriteStage.class);
+
+	private final Pipe<RawDataSchema> input;
+	private final Pipe<RawDataSchema> ready;
+	private final Pipe<RawDataSchema> finished;
+
+	private final StringBuilder segmentName = new StringBuilder();
+	private MappedByteBuffer segment;
+	private int position;
+
+	private ByteBuffer buffA;
+	private ByteBuffer buffB;
+	private int pendingLength = -1;
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param input _in_ Blocks to be written
+	 * @param ready _in_ Names of the segment files which are ready for writing
+	 * @param finished _out_ Names of the full segment files
+	 */
+	public MappedSegmentWriteStage(GraphManager graphManager,
+			                       Pipe<RawDataSchema> input,
+			                       Pipe<RawDataSchema> ready,
+			                       Pipe<RawDataSchema> finished) {
+		super(graphManager, join(input, ready), finished);
+		this.input = input;
+		this.ready = ready;
+		this.finished = finished;
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "lemonchiffon3", this);
+	}
+
+	/**
+	 * @return the written blocks of this segment file, from the end of the header to the used length
+	 */
+	public static ByteBuffer readSegment(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (raf.length()<HEADER_SIZE || MAGIC != mapped.getLong(0)) {
+				throw new IOException(file+" is not a segment file");
+			}
+			mapped.position(HEADER_SIZE);
+			mapped.limit((int)mapped.getLong(OFF_USED));
+			return mapped.slice();
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Override
+	public void run() {
+
+		while (true) {
+
+			if (null == segment && !openNextSegment()) {
+				return;
+			}
+
+			if (pendingLength<0) {
+				if (!Pipe.hasContentToRead(input)) {
+					return;
+				}
+				if (Pipe.peekInt(input)<0) {
+					if (!Pipe.hasRoomForWrite(finished)) {
+						return;
+					}
+					finishSegment();
+					Pipe.takeMsgIdx(input);
+					Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+					Pipe.releaseReadLock(input);
+					requestShutdown();
+					return;
+				}
+				Pipe.takeMsgIdx(input);
+				int meta = Pipe.takeByteArrayMetaData(input);
+				int len = Pipe.takeByteArrayLength(input);
+				if (len<=0) {
+					Pipe.confirmLowLevelRead(input, SIZE);
+					Pipe.releaseReadLock(input);
+					continue;
+				}
+				buffA = Pipe.wrappedBlobReadingRingA(input, meta, len);
+				buffB = Pipe.wrappedBlobReadingRingB(input, meta, len);
+				pendingLength = len;
+			}
+
+			if (position+pendingLength > segment.capacity()) {
+				if (HEADER_SIZE == position) {
+					throw new UnsupportedOperationException("block of "+pendingLength+" bytes will never fit in a segment of "+segment.capacity());
+				}
+				if (!Pipe.hasRoomForWrite(finished)) {
+					return;
+				}
+				finishSegment();
+				continue;
+			}
+
+			segment.position(position);
+			segment.put(buffA);
+			if (buffB.hasRemaining()) {
+				segment.put(buffB);
+			}
+			position += pendingLength;
+			segment.putLong(OFF_USED, position); //after the data so readers never see a partial block
+			pendingLength = -1;
+			buffA = null;
+			buffB = null;
+			Pipe.confirmLowLevelRead(input, SIZE);
+			Pipe.releaseReadLock(input);
+
+			if (this.didWorkMonitor != null) {
+				didWorkMonitor.published();
+			}
+		}
+	}
+
+	private boolean openNextSegment() {
+		if (!Pipe.hasContentToRead(ready)) {
+			return false;
+		}
+		int msgIdx = Pipe.takeMsgIdx(ready);
+		if (msgIdx<0) {
+			//rotation has stopped, wait for our own input to end
+			Pipe.confirmLowLevelRead(ready, Pipe.EOF_SIZE);
+			Pipe.releaseReadLock(ready);
+			return false;
+		}
+		int meta = Pipe.takeByteArrayMetaData(ready);
+		int len = Pipe.takeByteArrayLength(ready);
+		segmentName.setLength(0);
+		Pipe.readUTF8(ready, segmentName, meta, len);
+		Pipe.confirmLowLevelRead(ready, SIZE);
+		Pipe.releaseReadLock(ready);
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(segmentName.toString(), "rw");
+			try {
+				segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Integer.MAX_VALUE, raf.length()));
+			} finally {
+				raf.close(); //mapping remains valid
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (MAGIC != segment.getLong(0)) {
+			throw new UnsupportedOperationException(segmentName+" is not a segment file");
+		}
+		position = (int)segment.getLong(OFF_USED);
+		return true;
+	}
+
+	private void finishSegment() {
+		if (null != segment) {
+			int size = Pipe.addMsgIdx(finished, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+			Pipe.addUTF8(segmentName, finished);
+			Pipe.confirmLowLevelWrite(finished, size);
+			Pipe.publishWrites(finished);
+			segment = null;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		if (pendingLength>=0) {
+			logger.info("shutdown while {} bytes were not written", pendingLength);
+			Pipe.releaseReadLock(input);
+		}
+		Pipe.publishEOF(finished);
+	}
+
+}
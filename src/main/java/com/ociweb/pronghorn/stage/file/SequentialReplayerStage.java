@@ -21,6 +21,7 @@ import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 
 /**
  * Replays a sequential read/write based on store requests and load responses.
+ * Stores are acked with the last id written, an AckWrite covers that id and every block stored before it.
  *
  * @author Nathan Tippy
  * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
@@ -56,6 +57,8 @@ public class SequentialReplayerStage extends PronghornStage {
 		
 	private int activeIdx = -1;
 	private int requestsInFlight = 0;
+	private long lastStoredId = -1; //only this id is acked, each file acks in order so it covers the blocks stored before it
+	private int lastStoredIdx = -1;
 	
 	private int biggestIdx = -1;
 	private long biggestSize = 0;
@@ -360,8 +363,12 @@ public class SequentialReplayerStage extends PronghornStage {
 			        	requestsInFlight--;
 			        	long ackId = Pipe.takeLong(input);
 			           	if (0==i || 1==i) {
-			           		Pipe.presumeRoomForWrite(loadProducerResponses);			           		
-							FragmentWriter.writeL(loadProducerResponses, PersistedBlobLoadProducerSchema.MSG_ACKWRITE_11, ackId);	
+			           		//blocks rewritten by compaction were acked when first stored
+			           		if (i==lastStoredIdx && ackId==lastStoredId) {
+			           			Pipe.presumeRoomForWrite(loadProducerResponses);			           		
+			           			FragmentWriter.writeL(loadProducerResponses, PersistedBlobLoadProducerSchema.MSG_ACKWRITE_11, ackId);
+			           			lastStoredId = -1;
+			           		}
 			        	} else {
 			        		Pipe.presumeRoomForWrite(loadReleaseResponses);
 			        		FragmentWriter.writeL(loadReleaseResponses, PersistedBlobLoadReleaseSchema.MSG_ACKRELEASE_10, ackId);
@@ -541,7 +548,9 @@ public class SequentialReplayerStage extends PronghornStage {
 					writeBlock(blockId, 
 				    		   Pipe.openInputStream(storeProducerRequests), 
 				    		   fileOutput[activeIdx], 
-				    		   fileControl[activeIdx]);		        	
+				    		   fileControl[activeIdx]);
+					lastStoredId = blockId;
+					lastStoredIdx = activeIdx;
 	
 				    detectAndTriggerCompaction();
 				break;
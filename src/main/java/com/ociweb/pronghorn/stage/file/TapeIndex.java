@@ -0,0 +1,128 @@
+package com.ociweb.pronghorn.stage.file;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sparse index written by TapeWriteStage alongside the tape. An entry is recorded at the start of the
+ * first chunk and then at the start of the first chunk after every interval of tape bytes, so a reader
+ * can jump to a chunk boundary without scanning the chunks in front of it.
+ *
+ * Index layout, magic followed by fixed size entries in the order they were written:
+ *   timeMS, position (slab position of the recorded pipe), fileOffset (of the chunk header)
+ *
+ * Times never go backwards within an index, so both times and positions can be binary searched.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class TapeIndex {
+
+	public static final long MAGIC = 0x50485441_50454958L; //PHTAPEIX
+	public static final int HEADER_SIZE = 8;
+	public static final int ENTRY_SIZE = 24;
+	public static final String EXTENSION = ".idx";
+
+	private static final int FIELD_TIME = 0;
+	private static final int FIELD_POSITION = 8;
+	private static final int FIELD_OFFSET = 16;
+
+	private final FileChannel channel;
+	private final long interval;
+	private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+	private long lastOffset = -1;
+	private long lastTime = Long.MIN_VALUE;
+
+	/**
+	 * @param channel empty file which will hold the index
+	 * @param interval tape bytes between the index entries
+	 */
+	public TapeIndex(FileChannel channel, long interval) throws IOException {
+		this.channel = channel;
+		this.interval = Math.max(1, interval);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putLong(MAGIC);
+		((Buffer)header).flip();
+		channel.truncate(0);
+		writeFully(channel, header, 0);
+	}
+
+	public static String indexPath(CharSequence tapePath) {
+		return tapePath + EXTENSION;
+	}
+
+	/**
+	 * Called with the offset of each chunk header before it is written, only some become entries.
+	 */
+	public void chunk(long timeMS, long position, long fileOffset) throws IOException {
+		if (lastOffset>=0 && fileOffset-lastOffset < interval) {
+			return;
+		}
+		lastOffset = fileOffset;
+		lastTime = Math.max(lastTime, timeMS);
+
+		((Buffer)entry).clear();
+		entry.putLong(lastTime);
+		entry.putLong(position);
+		entry.putLong(fileOffset);
+		((Buffer)entry).flip();
+		writeFully(channel, entry, channel.size());
+	}
+
+	/**
+	 * @return file offset of the last indexed chunk at or before timeMS, zero when there is none
+	 */
+	public static long offsetForTime(FileChannel index, long timeMS) throws IOException {
+		return search(index, FIELD_TIME, timeMS);
+	}
+
+	/**
+	 * @return file offset of the last indexed chunk starting at or before the recorded pipe position, zero when there is none
+	 */
+	public static long offsetForPosition(FileChannel index, long position) throws IOException {
+		return search(index, FIELD_POSITION, position);
+	}
+
+	private static long search(FileChannel index, int field, long target) throws IOException {
+		ByteBuffer value = ByteBuffer.allocate(8);
+		if (index.size()<HEADER_SIZE || MAGIC != readLong(index, 0, value)) {
+			throw new IOException("not a tape index");
+		}
+		long low = 0;
+		long high = ((index.size()-HEADER_SIZE)/ENTRY_SIZE)-1;
+		long found = -1;
+		while (low<=high) {
+			long mid = (low+high)>>>1;
+			if (readLong(index, entryPosition(mid)+field, value) <= target) {
+				found = mid;
+				low = mid+1;
+			} else {
+				high = mid-1;
+			}
+		}
+		return found<0 ? 0 : readLong(index, entryPosition(found)+FIELD_OFFSET, value);
+	}
+
+	private static long entryPosition(long entry) {
+		return HEADER_SIZE+(entry*ENTRY_SIZE);
+	}
+
+	private static long readLong(FileChannel index, long position, ByteBuffer value) throws IOException {
+		((Buffer)value).clear();
+		while (value.hasRemaining()) {
+			if (index.read(value, position+value.position())<0) {
+				throw new IOException("truncated tape index");
+			}
+		}
+		return value.getLong(0);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+		while (source.hasRemaining()) {
+			position += channel.write(source, position);
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.ociweb.pronghorn.stage.file;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.Buffer;
@@ -9,11 +10,15 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.ociweb.pronghorn.pipe.DataInputBlobReader;
 import com.ociweb.pronghorn.pipe.MessageSchema;
 import com.ociweb.pronghorn.pipe.Pipe;
 import com.ociweb.pronghorn.pipe.RawDataSchema;
 import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.file.schema.TapeControlSchema;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 
 /**
@@ -21,12 +26,24 @@ import com.ociweb.pronghorn.stage.scheduling.GraphManager;
  * Tape is a file format that mimics Pronghorn pipe data format, useful for
  * very structured formats.
  *
+ * With a control pipe the tapes are chosen by TapeControlSchema commands. Open or Rotate replays a tape from
+ * its beginning, SeekTime and SeekPosition jump to the last chunk in the TapeIndex at or before the target
+ * and replay continues from there. Commands are only taken between chunks. Reaching the end of a tape
+ * does not end this stage, it waits for the next command. Once the control pipe ends the open tape is
+ * read to its end and then this stage ends.
+ *
  * @author Nathan Tippy
  * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
  */
 public class TapeReadStage extends PronghornStage {
 
+    private static final Logger logger = LoggerFactory.getLogger(TapeReadStage.class);
+
     private final RandomAccessFile inputFile;
+    private final Pipe<TapeControlSchema> control;
+    private RandomAccessFile openTape;
+    private FileChannel indexChannel;
+    private StringBuilder pathBuilder;
     private FileChannel fileChannel;
 
     //    private HeaderWritableByteChannel   HEADER_WRAPPER = new HeaderWritableByteChannel();    
@@ -42,8 +59,8 @@ public class TapeReadStage extends PronghornStage {
     private  IntBuffer intHeader;
     private int slabInProgress = -1;
     private boolean shutdownInProgress;
+    private boolean controlEnded;
     
-    //TODO: add command pipe for reading from multiple channels
     //TODO: Unrelated: build stage with executor service as arg for map reduce using new random access to pipe
 
     /**
@@ -55,6 +72,23 @@ public class TapeReadStage extends PronghornStage {
     public TapeReadStage(GraphManager graphManager, RandomAccessFile inputFile, Pipe<RawDataSchema> output) {
         super(graphManager, NONE, output);
         this.inputFile = inputFile;
+        this.control = null;
+        this.target = output;       
+
+        this.supportsBatchedRelease=false;
+        this.supportsBatchedPublish=false;
+    }
+
+    /**
+     *
+     * @param graphManager
+     * @param control _in_ Open, SeekTime, SeekPosition, Rotate and Close commands, the index is read from the tape path with ".idx" appended.
+     * @param output _out_ Writes the read tape directly back onto a RawDataSchema pipe.
+     */
+    public TapeReadStage(GraphManager graphManager, Pipe<TapeControlSchema> control, Pipe<RawDataSchema> output) {
+        super(graphManager, control, output);
+        this.inputFile = null;
+        this.control = control;
         this.target = output;       
 
         this.supportsBatchedRelease=false;
@@ -63,7 +97,10 @@ public class TapeReadStage extends PronghornStage {
 
     @Override
     public void startup() {
-        fileChannel = inputFile.getChannel();
+        if (null != inputFile) {
+        	fileChannel = inputFile.getChannel();
+        }
+        pathBuilder = new StringBuilder();
         header = ByteBuffer.allocate(8);
         ((Buffer)header).clear();
         intHeader = header.asIntBuffer();
@@ -83,6 +120,21 @@ public class TapeReadStage extends PronghornStage {
     		return;    		
     	}
     	
+    	//commands are only taken between chunks
+    	if (null != control && 0==slabToRead && 0==blobToRead && slabInProgress<0 && 0==header.position()) {
+    		if (!controlEnded) {
+    			processControl();
+    		}
+    		if (controlEnded && null == fileChannel) {
+    			Pipe.publishAllBatchedWrites(target);
+    			shutdownInProgress = true;
+    			return;
+    		}
+    	}
+    	if (null == fileChannel) {
+    		return;
+    	}
+    	
         while (processAvailData(this)) {
             //keeps going while there is data to read and room to write it.
         }
@@ -90,9 +142,94 @@ public class TapeReadStage extends PronghornStage {
 
     @Override
     public void shutdown() {
+        closeTape();
         //if file contains eof it is never sent to pipe so we end with this one.
         Pipe.publishEOF(target);
     }
+    
+    private void processControl() {
+    	while (Pipe.hasContentToRead(control)) {
+    		int msgIdx = Pipe.takeMsgIdx(control);
+    		switch (msgIdx) {
+    			case TapeControlSchema.MSG_OPEN_1:
+    			case TapeControlSchema.MSG_ROTATE_4:
+    				int meta = Pipe.takeByteArrayMetaData(control);
+    				int len = Pipe.takeByteArrayLength(control);
+    				pathBuilder.setLength(0);
+    				Pipe.readUTF8(control, pathBuilder, meta, len);
+    				closeTape();
+    				openTape(pathBuilder.toString());
+    			break;
+    			case TapeControlSchema.MSG_SEEKTIME_2:
+    				long time = Pipe.takeLong(control);
+    				try {
+    					seek(null==indexChannel ? 0 : TapeIndex.offsetForTime(indexChannel, time));
+    				} catch (IOException e) {
+    					throw new RuntimeException(e);
+    				}
+    			break;
+    			case TapeControlSchema.MSG_SEEKPOSITION_3:
+    				long position = Pipe.takeLong(control);
+    				try {
+    					seek(null==indexChannel ? 0 : TapeIndex.offsetForPosition(indexChannel, position));
+    				} catch (IOException e) {
+    					throw new RuntimeException(e);
+    				}
+    			break;
+    			case TapeControlSchema.MSG_CLOSE_5:
+    				closeTape();
+    			break;
+    			case -1:
+    				Pipe.confirmLowLevelRead(control, Pipe.EOF_SIZE);
+    				Pipe.releaseReadLock(control);
+    				controlEnded = true; //finish the open tape first
+    				return;
+    		}
+    		Pipe.confirmLowLevelRead(control, Pipe.sizeOf(control, msgIdx));
+    		Pipe.releaseReadLock(control);
+    	}
+    }
+
+    private void openTape(String path) {
+    	try {
+    		openTape = new RandomAccessFile(path, "r");
+    		File index = new File(TapeIndex.indexPath(path));
+    		if (index.exists()) {
+    			indexChannel = new RandomAccessFile(index, "r").getChannel();
+    		} else {
+    			logger.info("no index found for {}, seeks will replay from the beginning", path);
+    		}
+    	} catch (IOException e) {
+    		throw new RuntimeException(e);
+    	}
+    	fileChannel = openTape.getChannel();
+    }
+
+    private void seek(long offset) {
+    	if (null != fileChannel) {
+    		try {
+    			fileChannel.position(offset);
+    		} catch (IOException e) {
+    			throw new RuntimeException(e);
+    		}
+    	}
+    }
+
+    private void closeTape() {
+    	try {
+    		if (null != openTape) {
+    			openTape.close(); //also closes the file channel
+    			openTape = null;
+    			fileChannel = null;
+    		}
+    		if (null != indexChannel) {
+    			indexChannel.close();
+    			indexChannel = null;
+    		}
+    	} catch (IOException e) {
+    		throw new RuntimeException(e);
+    	}
+    }
     private boolean processAvailData(TapeReadStage tapeReadStage) {
 
     	
@@ -111,6 +248,12 @@ public class TapeReadStage extends PronghornStage {
                 int len = fileChannel.read(header);
                                 
                 if (len<0) {
+                    if (null != control) {
+                        //wait here for the next command, a partial header is dropped with the tape
+                        ((Buffer)header).clear();
+                        closeTape();
+                        return false;
+                    }
                     fileChannel.close();
                     Pipe.publishAllBatchedWrites(target);
                     shutdownInProgress = true;
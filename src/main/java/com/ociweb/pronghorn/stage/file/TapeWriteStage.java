@@ -15,6 +15,7 @@ import com.ociweb.pronghorn.pipe.MessageSchema;
 import com.ociweb.pronghorn.pipe.Pipe;
 import com.ociweb.pronghorn.pipe.RawDataSchema;
 import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.file.schema.TapeControlSchema;
 import com.ociweb.pronghorn.stage.route.ReplicatorStage;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 
@@ -22,6 +23,13 @@ import com.ociweb.pronghorn.stage.scheduling.GraphManager;
  * Write data from a pipe directly to disk. This records both the slab and blob data without any schema concerns.
  * This is the simplest way to save data in a pipe to disk.
  * 
+ * When an index file is provided a sparse TapeIndex of time, pipe position and file offset is written
+ * alongside the tape so TapeReadStage can seek without reading the chunks in front of the target.
+ * 
+ * With a control pipe the files are opened, rotated and closed by TapeControlSchema commands, each
+ * change happens between chunks so every tape begins with a complete chunk. No data is taken from
+ * the source while no tape is open.
+ * 
  * @author Nathan Tippy
  * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
  */
@@ -57,8 +65,14 @@ public class TapeWriteStage<T extends MessageSchema<T>> extends PronghornStage {
     
 	
 	private final RandomAccessFile outputFile;
+	private final RandomAccessFile indexFile;
+	private final long indexInterval;
+	private TapeIndex index;
 	
-	///TODO: add second pipe with commands eg (write N fields to X file then close)
+	private final Pipe<TapeControlSchema> control;
+	private RandomAccessFile openTape;
+	private RandomAccessFile openIndex;
+	private StringBuilder pathBuilder;
 
     /**
      *
@@ -67,9 +81,43 @@ public class TapeWriteStage<T extends MessageSchema<T>> extends PronghornStage {
      * @param outputFile
      */
 	public TapeWriteStage(GraphManager gm, Pipe<T> source, RandomAccessFile outputFile) {
+		this(gm, source, outputFile, null, 0);
+    }
+
+    /**
+     *
+     * @param gm
+     * @param source _in_ The input pipe that will be written as a tape to disk.
+     * @param outputFile
+     * @param indexFile receives the sparse index of the tape, may be null
+     * @param indexInterval tape bytes between index entries
+     */
+	public TapeWriteStage(GraphManager gm, Pipe<T> source, RandomAccessFile outputFile, RandomAccessFile indexFile, long indexInterval) {
 		super(gm,source,NONE);
 		
         this.outputFile = outputFile;        
+        this.indexFile = indexFile;
+        this.indexInterval = indexInterval;
+        this.control = null;
+        this.source = source;        
+        this.cachedTail = Pipe.tailPosition(source);
+    
+    }
+
+    /**
+     *
+     * @param gm
+     * @param control _in_ Open, Rotate and Close commands, the index is written to the tape path with ".idx" appended.
+     * @param source _in_ The input pipe that will be written as a tape to disk.
+     * @param indexInterval tape bytes between index entries
+     */
+	public TapeWriteStage(GraphManager gm, Pipe<TapeControlSchema> control, Pipe<T> source, long indexInterval) {
+		super(gm,join(control,source),NONE);
+		
+        this.outputFile = null;        
+        this.indexFile = null;
+        this.indexInterval = indexInterval;
+        this.control = control;
         this.source = source;        
         this.cachedTail = Pipe.tailPosition(source);
     
@@ -93,12 +141,28 @@ public class TapeWriteStage<T extends MessageSchema<T>> extends PronghornStage {
 	    header = ByteBuffer.allocate(8);
 	    headerInt = header.asIntBuffer();
 	    
-	    fileChannel = outputFile.getChannel();
+	    pathBuilder = new StringBuilder();
+	    
+	    if (null != outputFile) {
+	    	fileChannel = outputFile.getChannel();
+	    	if (null != indexFile) {
+	    		try {
+	    			index = new TapeIndex(indexFile.getChannel(), indexInterval);
+	    		} catch (IOException e) {
+	    			throw new RuntimeException(e);
+	    		}
+	    	}
+	    }
 	}
     
     @Override
     public void run() {     
-        processAvailData(this);//spin here makes little difference, its the ammount of work done which is the problem.
+    	if (null!=control && 0==totalPrimaryCopy && !processControl()) {
+    		return;
+    	}
+    	if (null!=fileChannel) {
+    		processAvailData(this);//spin here makes little difference, its the ammount of work done which is the problem.
+    	}
     }
 
     @Override
@@ -108,6 +172,70 @@ public class TapeWriteStage<T extends MessageSchema<T>> extends PronghornStage {
             //if all the copies are done then record it as complete, does as much work as possible each time its called.
             copyToFile(this);
         }
+        closeTape();
+    }
+    
+    /**
+     * Only called between chunks.
+     * @return false once the control pipe has ended
+     */
+    private boolean processControl() {
+    	while (Pipe.hasContentToRead(control)) {
+    		int msgIdx = Pipe.takeMsgIdx(control);
+    		switch (msgIdx) {
+    			case TapeControlSchema.MSG_OPEN_1:
+    			case TapeControlSchema.MSG_ROTATE_4:
+    				int meta = Pipe.takeByteArrayMetaData(control);
+    				int len = Pipe.takeByteArrayLength(control);
+    				pathBuilder.setLength(0);
+    				Pipe.readUTF8(control, pathBuilder, meta, len);
+    				closeTape();
+    				openTape(pathBuilder.toString());
+    			break;
+    			case TapeControlSchema.MSG_SEEKTIME_2:
+    			case TapeControlSchema.MSG_SEEKPOSITION_3:
+    				Pipe.takeLong(control); //tapes are only appended
+    			break;
+    			case TapeControlSchema.MSG_CLOSE_5:
+    				closeTape();
+    			break;
+    			case -1:
+    				Pipe.confirmLowLevelRead(control, Pipe.EOF_SIZE);
+    				Pipe.releaseReadLock(control);
+    				requestShutdown();
+    				return false;
+    		}
+    		Pipe.confirmLowLevelRead(control, Pipe.sizeOf(control, msgIdx));
+    		Pipe.releaseReadLock(control);
+    	}
+    	return true;
+    }
+
+    private void openTape(String path) {
+    	try {
+    		openTape = new RandomAccessFile(path, "rw");
+    		openTape.setLength(0);
+    		openIndex = new RandomAccessFile(TapeIndex.indexPath(path), "rw");
+    		index = new TapeIndex(openIndex.getChannel(), indexInterval);
+    	} catch (IOException e) {
+    		throw new RuntimeException(e);
+    	}
+    	fileChannel = openTape.getChannel();
+    }
+
+    private void closeTape() {
+    	if (null != openTape) {
+    		try {
+    			openTape.close();
+    			openIndex.close();
+    		} catch (IOException e) {
+    			throw new RuntimeException(e);
+    		}
+    		openTape = null;
+    		openIndex = null;
+    		index = null;
+    		fileChannel = null;
+    	}
     }
     
     private static <S extends MessageSchema<S>> void processAvailData(TapeWriteStage<S> ss) {
@@ -125,6 +253,9 @@ public class TapeWriteStage<T extends MessageSchema<T>> extends PronghornStage {
                 return; //nothing to copy so come back later
             }
             setupBuffersToWriteFrom(ss);              
+            if (null != ss.index) {
+            	recordIndex(ss);
+            }
         }
         copyToFile(ss);       
         
@@ -172,6 +303,15 @@ public class TapeWriteStage<T extends MessageSchema<T>> extends PronghornStage {
         ((Buffer)ss.header).clear();
     }
 
+    private static <S extends MessageSchema<S>> void recordIndex(TapeWriteStage<S> ss) {
+        try {
+            //nothing of this chunk has been written yet so the position is where its header will be found
+            ss.index.chunk(System.currentTimeMillis(), ss.cachedTail, ss.fileChannel.position());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static <S extends MessageSchema<S>> void copyToFile(TapeWriteStage<S> ss) {
         try {
             
@@ -0,0 +1,108 @@
+package com.ociweb.pronghorn.stage.file.schema;
+
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.PipeWriter;
+
+/**
+ * Defines the commands for TapeWriteStage and TapeReadStage, open, seek, rotate and close.
+ */
+public class TapeControlSchema extends MessageSchema<TapeControlSchema> {
+
+	public final static FieldReferenceOffsetManager FROM = new FieldReferenceOffsetManager(
+		    new int[]{0xc0400002,0xa8000000,0xc0200002,0xc0400002,0x90000000,0xc0200002,0xc0400002,0x90000001,0xc0200002,0xc0400002,0xa8000000,0xc0200002,0xc0400001,0xc0200001},
+		    (short)0,
+		    new String[]{"Open","Path",null,"SeekTime","TimeMS",null,"SeekPosition","Position",null,"Rotate","Path",null,"Close",null},
+		    new long[]{1, 10, 0, 2, 11, 0, 3, 12, 0, 4, 10, 0, 5, 0},
+		    new String[]{"global",null,null,"global",null,null,"global",null,null,"global",null,null,"global",null},
+		    "TapeControl.xml",
+		    new long[]{2, 2, 0},
+		    new int[]{2, 2, 0});
+
+
+		protected TapeControlSchema() {
+		    super(FROM);
+		}
+
+		public static final TapeControlSchema instance = new TapeControlSchema();
+
+		public static final int MSG_OPEN_1 = 0x00000000; //Group/OpenTempl/2
+		public static final int MSG_OPEN_1_FIELD_PATH_10 = 0x01400001; //UTF8/None/0
+		public static final int MSG_SEEKTIME_2 = 0x00000003; //Group/OpenTempl/2
+		public static final int MSG_SEEKTIME_2_FIELD_TIMEMS_11 = 0x00800001; //LongUnsigned/None/0
+		public static final int MSG_SEEKPOSITION_3 = 0x00000006; //Group/OpenTempl/2
+		public static final int MSG_SEEKPOSITION_3_FIELD_POSITION_12 = 0x00800001; //LongUnsigned/None/1
+		public static final int MSG_ROTATE_4 = 0x00000009; //Group/OpenTempl/2
+		public static final int MSG_ROTATE_4_FIELD_PATH_10 = 0x01400001; //UTF8/None/0
+		public static final int MSG_CLOSE_5 = 0x0000000c; //Group/OpenTempl/1
+
+
+		public static void consume(Pipe<TapeControlSchema> input) {
+		    while (PipeReader.tryReadFragment(input)) {
+		        int msgIdx = PipeReader.getMsgIdx(input);
+		        switch(msgIdx) {
+		            case MSG_OPEN_1:
+		                consumeOpen(input);
+		            break;
+		            case MSG_SEEKTIME_2:
+		                consumeSeekTime(input);
+		            break;
+		            case MSG_SEEKPOSITION_3:
+		                consumeSeekPosition(input);
+		            break;
+		            case MSG_ROTATE_4:
+		                consumeRotate(input);
+		            break;
+		            case MSG_CLOSE_5:
+		                consumeClose(input);
+		            break;
+		            case -1:
+		               //requestShutdown();
+		            break;
+		        }
+		        PipeReader.releaseReadLock(input);
+		    }
+		}
+
+		public static void consumeOpen(Pipe<TapeControlSchema> input) {
+		    StringBuilder fieldPath = PipeReader.readUTF8(input,MSG_OPEN_1_FIELD_PATH_10,new StringBuilder(PipeReader.readBytesLength(input,MSG_OPEN_1_FIELD_PATH_10)));
+		}
+		public static void consumeSeekTime(Pipe<TapeControlSchema> input) {
+		    long fieldTimeMS = PipeReader.readLong(input,MSG_SEEKTIME_2_FIELD_TIMEMS_11);
+		}
+		public static void consumeSeekPosition(Pipe<TapeControlSchema> input) {
+		    long fieldPosition = PipeReader.readLong(input,MSG_SEEKPOSITION_3_FIELD_POSITION_12);
+		}
+		public static void consumeRotate(Pipe<TapeControlSchema> input) {
+		    StringBuilder fieldPath = PipeReader.readUTF8(input,MSG_ROTATE_4_FIELD_PATH_10,new StringBuilder(PipeReader.readBytesLength(input,MSG_ROTATE_4_FIELD_PATH_10)));
+		}
+		public static void consumeClose(Pipe<TapeControlSchema> input) {
+		}
+
+		public static void publishOpen(Pipe<TapeControlSchema> output, CharSequence fieldPath) {
+		        PipeWriter.presumeWriteFragment(output, MSG_OPEN_1);
+		        PipeWriter.writeUTF8(output,MSG_OPEN_1_FIELD_PATH_10, fieldPath);
+		        PipeWriter.publishWrites(output);
+		}
+		public static void publishSeekTime(Pipe<TapeControlSchema> output, long fieldTimeMS) {
+		        PipeWriter.presumeWriteFragment(output, MSG_SEEKTIME_2);
+		        PipeWriter.writeLong(output,MSG_SEEKTIME_2_FIELD_TIMEMS_11, fieldTimeMS);
+		        PipeWriter.publishWrites(output);
+		}
+		public static void publishSeekPosition(Pipe<TapeControlSchema> output, long fieldPosition) {
+		        PipeWriter.presumeWriteFragment(output, MSG_SEEKPOSITION_3);
+		        PipeWriter.writeLong(output,MSG_SEEKPOSITION_3_FIELD_POSITION_12, fieldPosition);
+		        PipeWriter.publishWrites(output);
+		}
+		public static void publishRotate(Pipe<TapeControlSchema> output, CharSequence fieldPath) {
+		        PipeWriter.presumeWriteFragment(output, MSG_ROTATE_4);
+		        PipeWriter.writeUTF8(output,MSG_ROTATE_4_FIELD_PATH_10, fieldPath);
+		        PipeWriter.publishWrites(output);
+		}
+		public static void publishClose(Pipe<TapeControlSchema> output) {
+		        PipeWriter.presumeWriteFragment(output, MSG_CLOSE_5);
+		        PipeWriter.publishWrites(output);
+		}
+}
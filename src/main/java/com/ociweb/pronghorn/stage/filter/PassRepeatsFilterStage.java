@@ -2,10 +2,8 @@ package com.ociweb.pronghorn.stage.filter;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
 import com.ociweb.pronghorn.pipe.MessageSchema;
 import com.ociweb.pronghorn.pipe.Pipe;
@@ -13,6 +11,7 @@ import com.ociweb.pronghorn.pipe.PipeReader;
 import com.ociweb.pronghorn.pipe.PipeWriter;
 import com.ociweb.pronghorn.stage.PronghornStage;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.util.MappedRollingBloomFilter;
 import com.ociweb.pronghorn.util.RollingBloomFilter;
 
 /**
@@ -33,7 +32,7 @@ public class PassRepeatsFilterStage<T extends MessageSchema<T>> extends Pronghor
     // 10_000_000  .00001 -> 32MB
     
     private int instances;
-    private RollingBloomFilter[] filters;
+    private MappedRollingBloomFilter[] filters;
     private final Pipe<T> input;
     private final Pipe<T> output;
     private final int varFieldLoc;
@@ -66,60 +65,55 @@ public class PassRepeatsFilterStage<T extends MessageSchema<T>> extends Pronghor
     @Override
     public void startup() {
    
-        if (storage.exists()) {
-            try {
-                FileInputStream fist = new FileInputStream(storage);
-                ObjectInputStream oist = new ObjectInputStream(fist);                
-                filters = (RollingBloomFilter[]) oist.readObject();
-                instances = filters.length;
-                oist.close();
-            } catch (Throwable e) {
-                System.out.println("build new repeats filter, old one is not compatible");
-                buildNewFilters();
+        try {
+            if (storage.exists()) {
+                //one time move of the old serialized filters into the mapped files
+                RollingBloomFilter[] old = null;
+                try {
+                    FileInputStream fist = new FileInputStream(storage);
+                    ObjectInputStream oist = new ObjectInputStream(fist);                
+                    old = (RollingBloomFilter[]) oist.readObject();
+                    oist.close();
+                } catch (Throwable e) {
+                    System.out.println("build new repeats filter, old one is not compatible");
+                }
+                if (backup.exists()) {
+                    backup.delete();
+                }
+                storage.renameTo(backup);
+                
+                if (null != old) {
+                    instances = old.length;
+                    filters = new MappedRollingBloomFilter[instances];
+                    int i = instances;
+                    while (--i>=0) {
+                        filters[i] = MappedRollingBloomFilter.open(instanceFile(i), old[i], MappedRollingBloomFilter.DEFAULT_FORCE_INTERVAL_MS);
+                    }
+                    return;
+                }
             }
             
-//            System.out.println("loaded BloomFilters");
-//            int i = filters.length;
-//            while (--i>=0) {
-//                System.out.println(i+" pct full "+ (100f*filters[i].pctConsumed()));
-//            }
-//            System.out.println();
-            
-            
-        } else {
-            buildNewFilters();
+            int i = instances;
+            filters = new MappedRollingBloomFilter[i];
+            while (--i>=0) {
+                filters[i] = MappedRollingBloomFilter.open(instanceFile(i), maximumItems, maximumFailure);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        
     }
 
-    private void buildNewFilters() {
-        int i = instances;
-        filters = new RollingBloomFilter[i];
-        while (--i>=0) {
-            filters[i] = new RollingBloomFilter(maximumItems, maximumFailure);
-        }
+    private File instanceFile(int i) {
+        return new File(storage.getPath()+"."+i);
     }
     
     @Override
     public void shutdown() {
-        //NOTE: this save resume logic is all new and may be replaced with pipes and/or and external system.
-        
-        saveFilter();
-    }
-
-    private void saveFilter() {
-        try {
-            if (backup.exists()) {
-                backup.delete();
-            }
-            storage.renameTo(backup);
-            
-            FileOutputStream fost = new FileOutputStream(storage);
-            ObjectOutputStream oost = new ObjectOutputStream(fost);
-            oost.writeObject(filters);
-            oost.close();
-            
-        } catch (Exception e) {
-           throw new RuntimeException(e);
+        //all the bits are already in the mapped files, just make sure they are on disk.
+        int i = filters.length;
+        while (--i>=0) {
+            filters[i].close();
         }
     }
     
@@ -161,7 +155,11 @@ public class PassRepeatsFilterStage<T extends MessageSchema<T>> extends Pronghor
             PipeReader.releaseReadLock(input);
         }
         if (updateFile) {
-            saveFilter();
+            long now = System.currentTimeMillis();
+            int i = instances;
+            while (--i>=0) {
+                filters[i].checkpoint(now);
+            }
         }
     }   
     
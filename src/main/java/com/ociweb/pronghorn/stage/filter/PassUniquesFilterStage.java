@@ -3,11 +3,10 @@ package com.ociweb.pronghorn.stage.filter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import com.ociweb.pronghorn.pipe.MessageSchema;
 import com.ociweb.pronghorn.pipe.Pipe;
@@ -15,6 +14,7 @@ import com.ociweb.pronghorn.pipe.PipeReader;
 import com.ociweb.pronghorn.pipe.PipeWriter;
 import com.ociweb.pronghorn.stage.PronghornStage;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.util.MappedRollingBloomFilter;
 import com.ociweb.pronghorn.util.RollingBloomFilter;
 
 /**
@@ -34,12 +34,13 @@ public class PassUniquesFilterStage<T extends MessageSchema<T>> extends Pronghor
     private final double maximumFailure = .00001; 
     // 10_000_000  .00001 -> 32MB
     
-    private RollingBloomFilter filter;
+    private MappedRollingBloomFilter filter;
     private final Pipe<T> input;
     private final Pipe<T> output;
     private final int varFieldLoc;
     private final File storage;
     private final File backup;
+    private final File migrated;
     private boolean moveInProgress = false;            
     
     public PassUniquesFilterStage(GraphManager graphManager, Pipe<T> input, Pipe<T> output, int varFieldLoc, File storage) {
@@ -50,6 +51,7 @@ public class PassUniquesFilterStage<T extends MessageSchema<T>> extends Pronghor
         this.storage = storage;
         try {
             this.backup = new File(storage.getCanonicalPath()+".bak");
+            this.migrated = new File(storage.getCanonicalPath()+".tmp");
         } catch (IOException e) {
            throw new RuntimeException(e);
         }
@@ -58,23 +60,38 @@ public class PassUniquesFilterStage<T extends MessageSchema<T>> extends Pronghor
     @Override
     public void startup() {
    
-        if (storage.exists()) {
-            File localStorage = storage;
-            
-            try {
-                filter = loadFilter(localStorage);
-            } catch (Exception e) {
-                System.out.println("Unable to load old filters, starting with new files");
-                buildNewFilters();
+        try {
+            if (storage.exists() && !MappedRollingBloomFilter.isMappedFile(storage)) {
+                migrate();
             }
-            
-            System.out.println("loaded BloomFilter");
-            System.out.println("seen pct full "+ (100f*filter.pctConsumed()));
-            System.out.println();            
-            
-        } else {
-            buildNewFilters();
+            filter = MappedRollingBloomFilter.open(storage, maximumItems, maximumFailure);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        
+        System.out.println("loaded BloomFilter");
+        System.out.println("seen pct full "+ (100f*filter.pctConsumed()));
+        System.out.println();            
+        
+    }
+
+    /**
+     * One time move of the old serialized filter into the mapped file. The mapped copy is built
+     * beside the old file and renamed over it once complete so a failure never loses the old filter.
+     */
+    private void migrate() throws IOException {
+        RollingBloomFilter old;
+        try {
+            old = loadFilter(storage);
+        } catch (Exception e) {
+            //keep the unreadable filter so it can be recovered by hand
+            Files.move(storage.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Unable to load old filters, kept as "+backup+" and starting with new files");
+            return;
         }
+        Files.copy(storage.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        MappedRollingBloomFilter.open(migrated, old, MappedRollingBloomFilter.DEFAULT_FORCE_INTERVAL_MS).close();
+        Files.move(migrated.toPath(), storage.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
     }
 
     private RollingBloomFilter loadFilter(File file) throws FileNotFoundException, IOException, ClassNotFoundException {
@@ -85,38 +102,11 @@ public class PassUniquesFilterStage<T extends MessageSchema<T>> extends Pronghor
         oist.close();
         return localFilter;
     }
-
-    private void buildNewFilters() {
-        filter = new RollingBloomFilter(maximumItems, maximumFailure);
-    }
     
     @Override
     public void shutdown() {
-        //NOTE: this save resume logic is all new and may be replaced with pipes and/or and external system.
-        
-        saveFilter();
-    }
-
-    private void saveFilter() {
-        try {
-            if (backup.exists()) {
-                backup.delete();
-            }
-            storage.renameTo(backup);
-            
-           // RandomAccessFile raf = new RandomAccessFile(storage, "rws");
-            
-          
-            FileOutputStream fost = new FileOutputStream(storage);
-            ObjectOutputStream oost = new ObjectOutputStream(fost);
-            
-            oost.writeObject(filter);
-            
-            oost.close();
-            
-        } catch (Exception e) {
-           throw new RuntimeException(e);
-        }
+        //all the bits are already in the mapped file, just make sure they are on disk.
+        filter.close();
     }
 
     @Override
@@ -154,7 +144,7 @@ public class PassUniquesFilterStage<T extends MessageSchema<T>> extends Pronghor
             PipeReader.releaseReadLock(input);
         }
         if (updateFile) {
-            saveFilter();
+            filter.checkpoint(System.currentTimeMillis());
         }
     }   
     
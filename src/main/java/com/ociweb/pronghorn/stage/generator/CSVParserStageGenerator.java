@@ -0,0 +1,268 @@
+package com.ociweb.pronghorn.stage.generator;
+
+import java.io.IOException;
+
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.token.TokenBuilder;
+import com.ociweb.pronghorn.pipe.token.TypeMask;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Generates a stage which parses CSV lines from a RawDataSchema pipe directly into
+ * one message of the target schema. The fields of the message define the columns in order,
+ * each column gets its own unrolled parse block so there is no type dispatch at runtime.
+ *
+ * Supported field types are int, long, decimal (exponent is the count of digits after the '.')
+ * and text/byte vectors. Lines may end with LF or CRLF. Text columns may be quoted, a quoted column
+ * may hold commas and a doubled quote is one literal quote. Empty numeric columns are written as zero.
+ * A line with any other character in a numeric column is dropped and counted in rejectedLines.
+ */
+public class CSVParserStageGenerator {
+
+    private static final String tab = "    ";
+    private final String inPipeName = "input";
+    private final String outPipeName = "output";
+
+    private final MessageSchema schema;
+    private final Appendable target;
+    private final int msgIdx;
+    private final String className;
+    private final String packageName;
+
+    /**
+     * Generate a parser for the first message of the schema
+     *
+     * @param schema target schema
+     * @param target generated source is written here
+     */
+    public CSVParserStageGenerator(MessageSchema schema, Appendable target) {
+        this(schema, target, MessageSchema.from(schema).messageStarts()[0]);
+    }
+
+    /**
+     * @param schema target schema
+     * @param target generated source is written here
+     * @param msgIdx message of the schema which defines the columns
+     */
+    public CSVParserStageGenerator(MessageSchema schema, Appendable target, int msgIdx) {
+        this.schema = schema;
+        this.target = target;
+        this.msgIdx = msgIdx;
+        this.className = generateClassName(schema);
+        this.packageName = schema.getClass().getPackage().getName() + ".build";
+    }
+
+    private static String generateClassName(MessageSchema schema) {
+        if (schema instanceof MessageSchemaDynamic) {
+            String name = MessageSchema.from(schema).name.replaceAll("/", "").replaceAll(".xml", "") + "CSVParserStage";
+            if (Character.isLowerCase(name.charAt(0))) {
+                return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            }
+            return name;
+        } else {
+            return (schema.getClass().getSimpleName().replace("Schema", "")) + "CSVParserStage";
+        }
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public void processSchema() throws IOException {
+
+        final FieldReferenceOffsetManager from = MessageSchema.from(schema);
+        final String schemaName = schema.getClass().getSimpleName();
+
+        target.append("package ").append(packageName).append(";\n\n");
+        target.append("import ").append(DataOutputBlobWriter.class.getCanonicalName()).append(";\n");
+        target.append("import ").append(Pipe.class.getCanonicalName()).append(";\n");
+        target.append("import ").append(RawDataSchema.class.getCanonicalName()).append(";\n");
+        target.append("import ").append(PronghornStage.class.getCanonicalName()).append(";\n");
+        target.append("import ").append(GraphManager.class.getCanonicalName()).append(";\n");
+        target.append("import ").append(schema.getClass().getCanonicalName()).append(";\n\n");
+
+        target.append("public class ").append(className).append(" extends PronghornStage {\n\n");
+
+        target.append(tab).append("private final Pipe<RawDataSchema> ").append(inPipeName).append(";\n");
+        target.append(tab).append("private final Pipe<").append(schemaName).append("> ").append(outPipeName).append(";\n");
+        target.append(tab).append("private long rejected;\n\n");
+
+        //constructor
+        target.append(tab).append("public ").append(className).append("(GraphManager gm, Pipe<RawDataSchema> ")
+              .append(inPipeName).append(", Pipe<").append(schemaName).append("> ").append(outPipeName).append(") {\n");
+        target.append(tab).append(tab).append("super(gm, ").append(inPipeName).append(", ").append(outPipeName).append(");\n");
+        target.append(tab).append(tab).append("this.").append(inPipeName).append(" = ").append(inPipeName).append(";\n");
+        target.append(tab).append(tab).append("this.").append(outPipeName).append(" = ").append(outPipeName).append(";\n");
+        target.append(tab).append("}\n\n");
+
+        target.append(tab).append("/**\n");
+        target.append(tab).append(" * @return count of lines dropped because a numeric column held something other than digits\n");
+        target.append(tab).append(" */\n");
+        target.append(tab).append("public long rejectedLines() {\n");
+        target.append(tab).append(tab).append("return rejected;\n");
+        target.append(tab).append("}\n\n");
+
+        //run
+        target.append(tab).append("@Override\n");
+        target.append(tab).append("public void run() {\n");
+        target.append(tab).append(tab).append("while (Pipe.hasContentToRead(").append(inPipeName)
+              .append(") && Pipe.hasRoomForWrite(").append(outPipeName).append(")) {\n");
+        target.append(tab).append(tab).append(tab).append("int msgIdx = Pipe.takeMsgIdx(").append(inPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append("if (msgIdx<0) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("Pipe.confirmLowLevelRead(").append(inPipeName).append(", Pipe.EOF_SIZE);\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("Pipe.releaseReadLock(").append(inPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("Pipe.publishEOF(").append(outPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("requestShutdown();\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("return;\n");
+        target.append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append(tab).append("int meta = Pipe.takeByteArrayMetaData(").append(inPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append("int len = Pipe.takeByteArrayLength(").append(inPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append("byte[] data = Pipe.byteBackingArray(meta, ").append(inPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append("int mask = Pipe.blobMask(").append(inPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append("int pos = Pipe.bytePosition(meta, ").append(inPipeName).append(", len);\n");
+        target.append(tab).append(tab).append(tab).append("if (!parseLine(data, mask, pos, pos+len, ").append(outPipeName).append(")) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("rejected++;\n");
+        target.append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append(tab).append("Pipe.confirmLowLevelRead(").append(inPipeName).append(", Pipe.sizeOf(").append(inPipeName).append(", msgIdx));\n");
+        target.append(tab).append(tab).append(tab).append("Pipe.releaseReadLock(").append(inPipeName).append(");\n");
+        target.append(tab).append(tab).append("}\n");
+        target.append(tab).append("}\n\n");
+
+        //unrolled line parser
+        target.append(tab).append("private static boolean parseLine(byte[] data, int mask, int pos, int end, Pipe<")
+              .append(schemaName).append("> ").append(outPipeName).append(") {\n");
+        target.append(tab).append(tab).append("long value;\n");
+        target.append(tab).append(tab).append("long sign;\n");
+        target.append(tab).append(tab).append("int places;\n");
+        target.append(tab).append(tab).append("int start;\n");
+        target.append(tab).append(tab).append("int bad = 0; //negative once any numeric column holds a non digit\n");
+        target.append(tab).append(tab).append("byte b;\n");
+        target.append(tab).append(tab).append("DataOutputBlobWriter<").append(schemaName).append("> quoted;\n");
+        target.append(tab).append(tab).append("while (end>pos && ('\\r'==(b=data[mask&(end-1)]) || '\\n'==b)) {\n");
+        target.append(tab).append(tab).append(tab).append("end--;\n");
+        target.append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("final int size = Pipe.addMsgIdx(").append(outPipeName).append(", ");
+        appendInt(target, msgIdx).append(");\n");
+
+        int cursor = msgIdx+1;
+        int column = 0;
+        int type;
+        while (cursor<from.tokens.length && TypeMask.Group != (type = TokenBuilder.extractType(from.tokens[cursor]))) {
+
+            target.append("\n").append(tab).append(tab).append("//column ");
+            appendInt(target, column++).append(" ").append(from.fieldNameScript[cursor]).append("\n");
+
+            if ((TypeMask.Decimal>>1) == (type>>1)) {
+                appendDecimalColumn(target);
+            } else if (TypeMask.isInt(type)) {
+                appendWholeColumn(target, !TypeMask.isUnsigned(type));
+                target.append(tab).append(tab).append("Pipe.addIntValue((int)(sign*value), ").append(outPipeName).append(");\n");
+            } else if (TypeMask.isLong(type)) {
+                appendWholeColumn(target, !TypeMask.isUnsigned(type));
+                target.append(tab).append(tab).append("Pipe.addLongValue(sign*value, ").append(outPipeName).append(");\n");
+            } else if (TypeMask.isText(type) || TypeMask.isByteVector(type)) {
+                appendBytesColumn(target);
+            } else {
+                throw new UnsupportedOperationException("Unsupported CSV column type "+TokenBuilder.tokenToString(from.tokens[cursor]));
+            }
+            //skip the comma
+            target.append(tab).append(tab).append("pos++;\n");
+
+            cursor += TypeMask.scriptTokenSize[type];
+        }
+
+        target.append("\n");
+        target.append(tab).append(tab).append("if (bad<0) {\n");
+        target.append(tab).append(tab).append(tab).append("Pipe.resetHead(").append(outPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append("return false;\n");
+        target.append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("Pipe.confirmLowLevelWrite(").append(outPipeName).append(", size);\n");
+        target.append(tab).append(tab).append("Pipe.publishWrites(").append(outPipeName).append(");\n");
+        target.append(tab).append(tab).append("return true;\n");
+        target.append(tab).append("}\n\n");
+
+        target.append("}\n");
+    }
+
+    private void appendWholeColumn(Appendable target, boolean signed) throws IOException {
+        target.append(tab).append(tab).append("value = 0;\n");
+        if (signed) {
+            target.append(tab).append(tab).append("sign = (pos<end && '-'==data[mask&pos]) ? -1 : 1;\n");
+            target.append(tab).append(tab).append("pos += (int)(1-sign)>>1;\n");
+        } else {
+            target.append(tab).append(tab).append("sign = 1;\n");
+        }
+        target.append(tab).append(tab).append("while (pos<end && ','!=(b=data[mask&pos])) {\n");
+        target.append(tab).append(tab).append(tab).append("bad |= (b-'0')|('9'-b);\n");
+        target.append(tab).append(tab).append(tab).append("value = (value*10)+(b-'0');\n");
+        target.append(tab).append(tab).append(tab).append("pos++;\n");
+        target.append(tab).append(tab).append("}\n");
+    }
+
+    private void appendDecimalColumn(Appendable target) throws IOException {
+        target.append(tab).append(tab).append("value = 0;\n");
+        target.append(tab).append(tab).append("places = 0;\n");
+        target.append(tab).append(tab).append("sign = (pos<end && '-'==data[mask&pos]) ? -1 : 1;\n");
+        target.append(tab).append(tab).append("pos += (int)(1-sign)>>1;\n");
+        target.append(tab).append(tab).append("while (pos<end && ','!=(b=data[mask&pos]) && '.'!=b) {\n");
+        target.append(tab).append(tab).append(tab).append("bad |= (b-'0')|('9'-b);\n");
+        target.append(tab).append(tab).append(tab).append("value = (value*10)+(b-'0');\n");
+        target.append(tab).append(tab).append(tab).append("pos++;\n");
+        target.append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("if (pos<end && '.'==data[mask&pos]) {\n");
+        target.append(tab).append(tab).append(tab).append("pos++;\n");
+        target.append(tab).append(tab).append(tab).append("while (pos<end && ','!=(b=data[mask&pos])) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("bad |= (b-'0')|('9'-b);\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("value = (value*10)+(b-'0');\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("places++;\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("pos++;\n");
+        target.append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("Pipe.addDecimal(places, sign*value, ").append(outPipeName).append(");\n");
+    }
+
+    private void appendBytesColumn(Appendable target) throws IOException {
+        target.append(tab).append(tab).append("if (pos<end && '\"'==data[mask&pos]) {\n");
+        //quoted text is copied a byte at a time so doubled quotes can be collapsed
+        target.append(tab).append(tab).append(tab).append("pos++;\n");
+        target.append(tab).append(tab).append(tab).append("quoted = Pipe.openOutputStream(").append(outPipeName).append(");\n");
+        target.append(tab).append(tab).append(tab).append("while (pos<end) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("b = data[mask&pos++];\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("if ('\"'==b) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append(tab).append("if (pos<end && '\"'==data[mask&pos]) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append(tab).append(tab).append("pos++;\n");
+        target.append(tab).append(tab).append(tab).append(tab).append(tab).append("} else {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append(tab).append(tab).append("break;\n");
+        target.append(tab).append(tab).append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("quoted.writeByte(b);\n");
+        target.append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append(tab).append("quoted.closeLowLevelField();\n");
+        target.append(tab).append(tab).append(tab).append("while (pos<end && ','!=data[mask&pos]) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("pos++; //anything after the closing quote is ignored\n");
+        target.append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append("} else {\n");
+        //unquoted text is one block copy
+        target.append(tab).append(tab).append(tab).append("start = pos;\n");
+        target.append(tab).append(tab).append(tab).append("while (pos<end && ','!=data[mask&pos]) {\n");
+        target.append(tab).append(tab).append(tab).append(tab).append("pos++;\n");
+        target.append(tab).append(tab).append(tab).append("}\n");
+        target.append(tab).append(tab).append(tab).append("Pipe.addByteArrayWithMask(").append(outPipeName).append(", mask, pos-start, data, start);\n");
+        target.append(tab).append(tab).append("}\n");
+    }
+
+    private static Appendable appendInt(Appendable target, int value) throws IOException {
+        return target.append(Integer.toString(value));
+    }
+
+}
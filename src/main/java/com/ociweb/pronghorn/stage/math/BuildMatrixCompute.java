@@ -393,7 +393,7 @@ public class BuildMatrixCompute {
 		rightColumnConfig.hideLabels();
 		
 		
-		//TODO: build second compute that will use rows rather than keep this column open.
+		//TODO: build second compute that will use rows rather than keep this column open. (see buildProductGraphRowBlocks)
 		PipeConfig<ColumnSchema<M>> resultColumnConfig = new PipeConfig<ColumnSchema<M>>(columnsOutoutSchema,4);
 		resultColumnConfig.hideLabels();
 		
@@ -482,6 +482,54 @@ public class BuildMatrixCompute {
 	}
 
 
+	/**
+	 * Row oriented product, the left matrix is divided into even blocks of rows and each block is
+	 * multiplied by one RowBlockComputeStage using cache sized tiles. The left matrix is never replicated,
+	 * only the right matrix is sent to every compute stage.
+	 *
+	 * @param gm
+	 * @param left rows of the left matrix
+	 * @param right rows of the right matrix
+	 * @param parallelism number of compute stages, reduced if the left matrix has fewer rows
+	 * @return rows of the result in order
+	 */
+	public static <M extends MatrixSchema<M>> Pipe<RowSchema<M>> buildProductGraphRowBlocks(GraphManager gm,
+			Pipe<RowSchema<M>> left, Pipe<RowSchema<M>> right, int parallelism) {
+
+		MatrixSchema<M> leftSchema = left.config().schema().rootSchema();
+		MatrixSchema<M> resultSchema = resultSchema(left, right);
+		int parts = Math.max(1, Math.min(parallelism, leftSchema.getRows()));
+		int[] blockRows = RowBlockSplitStage.blockRows(leftSchema.getRows(), parts);
+
+		PipeConfig<RowSchema<M>> blockConfig = new PipeConfig<RowSchema<M>>(left.config().schema(), 2*RowBlockComputeStage.TILE_ROWS);
+		blockConfig.hideLabels();
+		PipeConfig<RowSchema<M>> resultBlockConfig = new PipeConfig<RowSchema<M>>(new RowSchema<M>(resultSchema), 2*RowBlockComputeStage.TILE_ROWS);
+		resultBlockConfig.hideLabels();
+		PipeConfig<RowSchema<M>> resultConfig = new PipeConfig<RowSchema<M>>(new RowSchema<M>(resultSchema), resultSchema.getRows());
+		resultConfig.hideLabels();
+
+		Pipe<RowSchema<M>>[] leftBlocks = new Pipe[parts];
+		Pipe<RowSchema<M>>[] rightCopies = new Pipe[parts];
+		Pipe<RowSchema<M>>[] resultBlocks = new Pipe[parts];
+
+		int i = parts;
+		while (--i>=0) {
+			leftBlocks[i] = new Pipe<RowSchema<M>>(blockConfig);
+			rightCopies[i] = 1==parts ? right : new Pipe<RowSchema<M>>(right.config().grow2x());
+			resultBlocks[i] = new Pipe<RowSchema<M>>(resultBlockConfig);
+			new RowBlockComputeStage(gm, leftBlocks[i], rightCopies[i], resultBlocks[i], blockRows[i]);
+		}
+
+		new RowBlockSplitStage<M>(gm, left, leftBlocks);
+		if (parts>1) {
+			new ReplicatorStage<RowSchema<M>>(gm, right, rightCopies);
+		}
+
+		Pipe<RowSchema<M>> result = new Pipe<RowSchema<M>>(resultConfig);
+		new RowBlockMergeStage<M>(gm, resultBlocks, result);
+		return result;
+	}
+
 	public static <M extends MatrixSchema<M>> Pipe<RowSchema<M>> buildProductGraphRR(GraphManager gm,
 			int targetThreadCount, Pipe<RowSchema<M>> left, Pipe<RowSchema<M>> right) {
 		Pipe<ColumnSchema<M>>[] colResults = buildProductGraphRC(gm,
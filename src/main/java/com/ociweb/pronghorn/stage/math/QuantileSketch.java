@@ -0,0 +1,345 @@
+package com.ociweb.pronghorn.stage.math;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+
+/**
+ * Mergeable streaming quantile sketch for long values (KLL).
+ *
+ * Values are held in levels of primitive arrays, an item at level h stands for 2^h values.
+ * When a level fills it is sorted and every other item is promoted to the next level.
+ * Arrays are only allocated when a new level is added so updates do not produce garbage.
+ * Rank error is roughly 1.7/k, k=200 gives about 1%.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class QuantileSketch {
+
+	public static final int DEFAULT_K = 200;
+	private static final int MAX_LEVELS = 61;
+	private static final int MIN_CAPACITY = 8;
+	private static final double DECAY = 2d/3d;
+
+	private final int k;
+	private final long[][] levels = new long[MAX_LEVELS][];
+	private final int[] sizes = new int[MAX_LEVELS];
+	private final int[] capacities = new int[MAX_LEVELS];
+	private int numLevels;
+
+	private long count;
+	private long min;
+	private long max;
+	private long random;
+
+	//used by quantile lookups
+	private long[] sortedValues;
+	private long[] sortedWeights;
+	private int sortedCount = -1;
+	private final int[] cursors = new int[MAX_LEVELS];
+
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	public QuantileSketch(int k) {
+		if (k<MIN_CAPACITY) {
+			throw new UnsupportedOperationException("k must be at least "+MIN_CAPACITY);
+		}
+		this.k = k;
+		this.random = 0x9E3779B97F4A7C15L ^ System.nanoTime();
+		levels[0] = new long[levelArraySize()];
+		reset();
+	}
+
+	public int k() {
+		return k;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	public long min() {
+		return min;
+	}
+
+	public long max() {
+		return max;
+	}
+
+	public boolean isEmpty() {
+		return 0 == count;
+	}
+
+	/**
+	 * Largest number of bytes write can produce for a sketch of this k. Once a level is added the
+	 * capacities below it shrink by 2/3 so a level may still hold up to 1.5 times its capacity,
+	 * every item is a packed long of at most 10 bytes.
+	 */
+	public static int maxPackedSize(int k) {
+		int maxRetained = (3*((3*k)+(MIN_CAPACITY*MAX_LEVELS))/2) + MAX_LEVELS;
+		return 10*(4+MAX_LEVELS+maxRetained);
+	}
+
+	/**
+	 * @return number of items held, this is what is stored when written
+	 */
+	public int retained() {
+		int total = 0;
+		int h = numLevels;
+		while (--h>=0) {
+			total += sizes[h];
+		}
+		return total;
+	}
+
+	public void reset() {
+		Arrays.fill(sizes, 0);
+		setLevels(1);
+		count = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+		sortedCount = -1;
+	}
+
+	private int levelArraySize() {
+		//a level is compacted once it reaches its capacity (at most k) and may receive
+		//half of the level below in the same pass
+		return (2*k)+2;
+	}
+
+	private int capacity(int level) {
+		return capacities[level];
+	}
+
+	private void setLevels(int count) {
+		//higher levels keep more items, capacity shrinks by 2/3 for each level below the top
+		numLevels = count;
+		int h = count;
+		while (--h>=0) {
+			capacities[h] = Math.max(MIN_CAPACITY, (int)(k*Math.pow(DECAY, count-1-h)));
+		}
+	}
+
+	public void update(long value) {
+		count++;
+		if (value<min) {
+			min = value;
+		}
+		if (value>max) {
+			max = value;
+		}
+		append(0, value);
+	}
+
+	private void append(int level, long value) {
+		levels[level][sizes[level]++] = value;
+		sortedCount = -1;
+		if (sizes[level]>=capacity(level)) {
+			compress();
+		}
+	}
+
+	private void compress() {
+		for(int h = 0; h<numLevels; h++) {
+			if (sizes[h]>=capacity(h)) {
+				compact(h);
+			}
+		}
+	}
+
+	private void compact(int level) {
+		int next = level+1;
+		if (next==numLevels) {
+			if (next==MAX_LEVELS) {
+				throw new UnsupportedOperationException("sketch is full");
+			}
+			if (null==levels[next]) {
+				levels[next] = new long[levelArraySize()];
+			}
+			sizes[next] = 0;
+			setLevels(numLevels+1);
+		}
+
+		long[] items = levels[level];
+		int size = sizes[level];
+		Arrays.sort(items, 0, size);
+
+		//an odd item out stays on this level
+		int keep = size&1;
+		random ^= random << 13;
+		random ^= random >>> 7;
+		random ^= random << 17;
+		int i = keep + (int)(random&1);
+
+		long[] target = levels[next];
+		int targetSize = sizes[next];
+		if (targetSize+(size/2)+1 > target.length) {
+			//only when reading a sketch built with a larger k
+			target = levels[next] = Arrays.copyOf(target, targetSize+(size/2)+1);
+		}
+		while (i<size) {
+			target[targetSize++] = items[i];
+			i += 2;
+		}
+		sizes[next] = targetSize;
+		sizes[level] = keep;
+	}
+
+	/**
+	 * Adds all the values represented by the other sketch into this one.
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.isEmpty()) {
+			return;
+		}
+		while (numLevels<other.numLevels) {
+			if (null==levels[numLevels]) {
+				levels[numLevels] = new long[levelArraySize()];
+			}
+			sizes[numLevels] = 0;
+			setLevels(numLevels+1);
+		}
+		for(int h = 0; h<other.numLevels; h++) {
+			long[] items = other.levels[h];
+			int size = other.sizes[h];
+			for(int i = 0; i<size; i++) {
+				append(h, items[i]);
+			}
+		}
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * @param q fraction between 0 and 1
+	 * @return estimated value at this quantile, Long.MIN_VALUE if empty
+	 */
+	public long quantile(double q) {
+		if (isEmpty()) {
+			return Long.MIN_VALUE;
+		}
+		if (q<=0) {
+			return min;
+		}
+		if (q>=1) {
+			return max;
+		}
+		sortAll();
+		long target = (long)Math.ceil(q*count);
+		long cumulative = 0;
+		for(int i = 0; i<sortedCount; i++) {
+			cumulative += sortedWeights[i];
+			if (cumulative>=target) {
+				return sortedValues[i];
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Looks up many quantiles with a single sort.
+	 *
+	 * @param q ascending fractions between 0 and 1
+	 * @param target values are written here in the same order
+	 */
+	public void quantiles(double[] q, long[] target) {
+		for(int j = 0; j<q.length; j++) {
+			target[j] = quantile(q[j]);
+		}
+	}
+
+	private void sortAll() {
+		if (sortedCount>=0) {
+			return;
+		}
+		int total = retained();
+		if (null==sortedValues || sortedValues.length<total) {
+			sortedValues = new long[total];
+			sortedWeights = new long[total];
+		}
+		for(int h = 0; h<numLevels; h++) {
+			Arrays.sort(levels[h], 0, sizes[h]);
+			cursors[h] = 0;
+		}
+		//merge the sorted levels
+		for(int i = 0; i<total; i++) {
+			int best = -1;
+			long bestValue = Long.MAX_VALUE;
+			for(int h = 0; h<numLevels; h++) {
+				if (cursors[h]<sizes[h]) {
+					long v = levels[h][cursors[h]];
+					if (best<0 || v<bestValue) {
+						best = h;
+						bestValue = v;
+					}
+				}
+			}
+			cursors[best]++;
+			sortedValues[i] = bestValue;
+			sortedWeights[i] = 1L<<best;
+		}
+		sortedCount = total;
+	}
+
+	/**
+	 * Writes this sketch as packed longs, each level is sorted and delta encoded.
+	 */
+	public void write(DataOutputBlobWriter<?> out) {
+		out.writePackedLong(count);
+		out.writePackedLong(min);
+		out.writePackedLong(max);
+		out.writePackedLong(numLevels);
+		for(int h = 0; h<numLevels; h++) {
+			int size = sizes[h];
+			long[] items = levels[h];
+			Arrays.sort(items, 0, size);
+			out.writePackedLong(size);
+			long prev = 0;
+			for(int i = 0; i<size; i++) {
+				out.writePackedLong(items[i]-prev);
+				prev = items[i];
+			}
+		}
+	}
+
+	/**
+	 * Replaces the content of this sketch with the one written by write.
+	 */
+	public void read(DataInputBlobReader<?> in) {
+		reset();
+		long localCount = in.readPackedLong();
+		long localMin = in.readPackedLong();
+		long localMax = in.readPackedLong();
+		int levelCount = (int)in.readPackedLong();
+		if (levelCount>MAX_LEVELS) {
+			throw new UnsupportedOperationException("corrupt sketch, "+levelCount+" levels");
+		}
+		setLevels(Math.max(1, levelCount));
+		for(int h = 0; h<levelCount; h++) {
+			if (null==levels[h]) {
+				levels[h] = new long[levelArraySize()];
+			}
+			int size = (int)in.readPackedLong();
+			long[] items = levels[h];
+			if (size>items.length) {
+				//written by a sketch with a larger k
+				items = levels[h] = new long[size];
+			}
+			long prev = 0;
+			for(int i = 0; i<size; i++) {
+				prev += in.readPackedLong();
+				items[i] = prev;
+			}
+			sizes[h] = size;
+		}
+		count = localCount;
+		min = localMin;
+		max = localMax;
+		compress();
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.ociweb.pronghorn.stage.math;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Adds samples to a QuantileSketch and publishes the sketch once it holds the requested number of samples.
+ * Each input message is a block of packed longs, one for each sample.
+ * The remaining samples are published before the EOF is passed on.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class QuantileSketchBuildStage extends PronghornStage {
+
+	private final Pipe<RawDataSchema> input;
+	private final Pipe<QuantileSketchSchema> output;
+	private final long samplesPerSketch;
+	private final QuantileSketch sketch;
+	private DataInputBlobReader<RawDataSchema> samples;
+	private int activeMsgIdx = -1;
+
+	public static QuantileSketchBuildStage newInstance(GraphManager gm,
+			                                          Pipe<RawDataSchema> input,
+			                                          Pipe<QuantileSketchSchema> output,
+			                                          int k, long samplesPerSketch) {
+		return new QuantileSketchBuildStage(gm, input, output, k, samplesPerSketch);
+	}
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param input _in_ Blocks of packed long samples
+	 * @param output _out_ Sketch of each group of samples
+	 * @param k accuracy of the sketch, larger values are more accurate but larger
+	 * @param samplesPerSketch number of samples summarized by each published sketch
+	 */
+	protected QuantileSketchBuildStage(GraphManager graphManager,
+			                           Pipe<RawDataSchema> input,
+			                           Pipe<QuantileSketchSchema> output,
+			                           int k, long samplesPerSketch) {
+		super(graphManager, input, output);
+		this.input = input;
+		this.output = output;
+		this.samplesPerSketch = samplesPerSketch;
+		this.sketch = new QuantileSketch(k);
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "cadetblue2", this);
+	}
+
+	@Override
+	public void run() {
+
+		//a full sketch must be published before any more samples are taken
+		if (sketch.count()>=samplesPerSketch) {
+			if (!Pipe.hasRoomForWrite(output)) {
+				return;
+			}
+			QuantileSketchSchema.writeSketch(output, sketch);
+			sketch.reset();
+		}
+
+		while (activeMsgIdx>=0 || (Pipe.hasRoomForWrite(output) && Pipe.hasContentToRead(input))) {
+
+			if (activeMsgIdx<0) {
+				int msgIdx = Pipe.takeMsgIdx(input);
+				if (msgIdx<0) {
+					if (!sketch.isEmpty()) {
+						QuantileSketchSchema.writeSketch(output, sketch);
+						sketch.reset();
+					}
+					Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+					Pipe.releaseReadLock(input);
+					requestShutdown();
+					return;
+				}
+				activeMsgIdx = msgIdx;
+				samples = Pipe.openInputStream(input);
+			}
+
+			//a single block may span more than one sketch, the rest of the block waits in the pipe while the output is full
+			while (samples.available()>0) {
+				sketch.update(samples.readPackedLong());
+				if (sketch.count()>=samplesPerSketch) {
+					if (!Pipe.hasRoomForWrite(output)) {
+						return;
+					}
+					QuantileSketchSchema.writeSketch(output, sketch);
+					sketch.reset();
+				}
+			}
+			Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, activeMsgIdx));
+			Pipe.releaseReadLock(input);
+			activeMsgIdx = -1;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		Pipe.publishEOF(output);
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.ociweb.pronghorn.stage.math;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Merge one sketch from each input pipe together into a single sketch.
+ * Unlike HistogramSumStage the inputs may differ in size and accuracy so
+ * any number of these can be arranged as a tree, see buildMergeTree.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class QuantileSketchMergeStage extends PronghornStage {
+
+	private final Pipe<QuantileSketchSchema>[] inputs;
+	private final Pipe<QuantileSketchSchema> output;
+	private final QuantileSketch merged;
+	private final QuantileSketch temp;
+
+	public static QuantileSketchMergeStage newInstance(GraphManager gm,
+			                                          int k,
+			                                          Pipe<QuantileSketchSchema> output,
+			                                          Pipe<QuantileSketchSchema> ... inputs) {
+		return new QuantileSketchMergeStage(gm, k, output, inputs);
+	}
+
+	/**
+	 * Builds a tree of merge stages so no single stage has more than fanIn inputs.
+	 *
+	 * @param gm
+	 * @param k accuracy of the merged sketches
+	 * @param fanIn max inputs for each merge stage, at least 2
+	 * @param config used for the pipes between levels of the tree, the blob is grown to fit a sketch of k
+	 * @param inputs leaves of the tree
+	 * @return pipe of the fully merged sketches
+	 */
+	public static Pipe<QuantileSketchSchema> buildMergeTree(GraphManager gm, int k, int fanIn,
+			                                                 PipeConfig<QuantileSketchSchema> config,
+			                                                 Pipe<QuantileSketchSchema> ... inputs) {
+		fanIn = Math.max(2, fanIn);
+		if (config.maxVarLenSize() < QuantileSketch.maxPackedSize(k)) {
+			config = QuantileSketchSchema.instance.newPipeConfig(config.minimumFragmentsOnPipe(),
+					                                             QuantileSketch.maxPackedSize(k));
+		}
+		Pipe<QuantileSketchSchema>[] level = inputs;
+		do {
+			int groups = (level.length+fanIn-1)/fanIn;
+			Pipe<QuantileSketchSchema>[] next = new Pipe[groups];
+			int g = groups;
+			while (--g>=0) {
+				int start = (g*level.length)/groups;
+				int end = ((g+1)*level.length)/groups;
+				Pipe<QuantileSketchSchema>[] group = new Pipe[end-start];
+				System.arraycopy(level, start, group, 0, group.length);
+				next[g] = new Pipe<QuantileSketchSchema>(config);
+				newInstance(gm, k, next[g], group);
+			}
+			level = next;
+		} while (level.length>1);
+		return level[0];
+	}
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param k accuracy of the merged sketch
+	 * @param output _out_ Merged sketch
+	 * @param inputs _in_ One sketch is taken from each of these for every merged sketch
+	 */
+	protected QuantileSketchMergeStage(GraphManager graphManager,
+			                           int k,
+			                           Pipe<QuantileSketchSchema> output,
+			                           Pipe<QuantileSketchSchema> ... inputs) {
+		super(graphManager, inputs, output);
+		this.inputs = inputs;
+		this.output = output;
+		this.merged = new QuantileSketch(k);
+		this.temp = new QuantileSketch(k);
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "cadetblue2", this);
+	}
+
+	@Override
+	public void run() {
+
+		while (Pipe.hasRoomForWrite(output) && allHaveData(inputs)) {
+
+			boolean shutDown = false;
+			merged.reset();
+			int i = inputs.length;
+			while (--i>=0) {
+				Pipe<QuantileSketchSchema> pipe = inputs[i];
+				int msgIdx = Pipe.takeMsgIdx(pipe);
+				if (msgIdx>=0) {
+					QuantileSketchSchema.readSketch(pipe, temp);
+					merged.merge(temp);
+					Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+				} else {
+					Pipe.confirmLowLevelRead(pipe, Pipe.EOF_SIZE);
+					shutDown = true;
+				}
+				Pipe.releaseReadLock(pipe);
+			}
+
+			if (shutDown) {
+				requestShutdown();
+				return;
+			}
+			QuantileSketchSchema.writeSketch(output, merged);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		Pipe.publishEOF(output);
+	}
+
+	private boolean allHaveData(Pipe<QuantileSketchSchema>[] inputs) {
+		int i = inputs.length;
+		while (--i >= 0) {
+			if (!Pipe.hasContentToRead(inputs[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
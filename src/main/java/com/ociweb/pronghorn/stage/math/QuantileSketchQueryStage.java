@@ -0,0 +1,88 @@
+package com.ociweb.pronghorn.stage.math;
+
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Looks up the requested quantiles, e.g. 0.5, 0.99, 0.999, from each sketch and
+ * publishes them as packed longs in the same order.
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class QuantileSketchQueryStage extends PronghornStage {
+
+	private final Pipe<QuantileSketchSchema> input;
+	private final Pipe<QuantileSketchSchema> output;
+	private final double[] quantiles;
+	private final long[] values;
+	private final QuantileSketch sketch = new QuantileSketch();
+
+	public static QuantileSketchQueryStage newInstance(GraphManager gm,
+			                                          Pipe<QuantileSketchSchema> input,
+			                                          Pipe<QuantileSketchSchema> output,
+			                                          double ... quantiles) {
+		return new QuantileSketchQueryStage(gm, input, output, quantiles);
+	}
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param input _in_ Sketches to be queried
+	 * @param output _out_ Quantiles message for each sketch
+	 * @param quantiles fractions between 0 and 1
+	 */
+	protected QuantileSketchQueryStage(GraphManager graphManager,
+			                           Pipe<QuantileSketchSchema> input,
+			                           Pipe<QuantileSketchSchema> output,
+			                           double ... quantiles) {
+		super(graphManager, input, output);
+		this.input = input;
+		this.output = output;
+		this.quantiles = quantiles;
+		this.values = new long[quantiles.length];
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "cadetblue2", this);
+	}
+
+	@Override
+	public void run() {
+
+		while (Pipe.hasRoomForWrite(output) && Pipe.hasContentToRead(input)) {
+
+			int msgIdx = Pipe.takeMsgIdx(input);
+			if (msgIdx<0) {
+				Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(input);
+				requestShutdown();
+				return;
+			}
+
+			if (QuantileSketchSchema.MSG_SKETCH_1 == msgIdx) {
+				QuantileSketchSchema.readSketch(input, sketch);
+				sketch.quantiles(quantiles, values);
+
+				int size = Pipe.addMsgIdx(output, QuantileSketchSchema.MSG_QUANTILES_2);
+				Pipe.addLongValue(sketch.count(), output);
+				DataOutputBlobWriter<QuantileSketchSchema> out = Pipe.openOutputStream(output);
+				int i = 0;
+				while (i<values.length) {
+					out.writePackedLong(values[i++]);
+				}
+				DataOutputBlobWriter.closeLowLevelField(out);
+				Pipe.confirmLowLevelWrite(output, size);
+				Pipe.publishWrites(output);
+			}
+			//Quantiles messages on the input have already been queried and are dropped
+
+			Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, msgIdx));
+			Pipe.releaseReadLock(input);
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		Pipe.publishEOF(output);
+	}
+
+}
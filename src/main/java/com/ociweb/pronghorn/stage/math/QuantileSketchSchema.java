@@ -0,0 +1,113 @@
+package com.ociweb.pronghorn.stage.math;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.PipeWriter;
+
+public class QuantileSketchSchema extends MessageSchema<QuantileSketchSchema> {
+
+	public final static FieldReferenceOffsetManager FROM = new FieldReferenceOffsetManager(
+		    new int[]{0xc0400004,0x90000000,0x80000000,0xb8000000,0xc0200004,0xc0400003,0x90000000,0xb8000001,0xc0200003},
+		    (short)0,
+		    new String[]{"Sketch","Count","K","PackedLevels",null,"Quantiles","Count","PackedValues",null},
+		    new long[]{1, 11, 12, 13, 0, 2, 11, 14, 0},
+		    new String[]{"global",null,null,null,null,"global",null,null,null},
+		    "QuantileSketch.xml",
+		    new long[]{2, 2, 0},
+		    new int[]{2, 2, 0});
+
+
+		public QuantileSketchSchema() { 
+		    super(FROM);
+		}
+
+		protected QuantileSketchSchema(FieldReferenceOffsetManager from) { 
+		    super(from);
+		}
+
+		public static final QuantileSketchSchema instance = new QuantileSketchSchema();
+
+		public static final int MSG_SKETCH_1 = 0x00000000; //Group/OpenTempl/4
+		public static final int MSG_SKETCH_1_FIELD_COUNT_11 = 0x00800001; //LongUnsigned/None/0
+		public static final int MSG_SKETCH_1_FIELD_K_12 = 0x00000003; //IntegerUnsigned/None/0
+		public static final int MSG_SKETCH_1_FIELD_PACKEDLEVELS_13 = 0x01c00004; //ByteVector/None/0
+		public static final int MSG_QUANTILES_2 = 0x00000005; //Group/OpenTempl/3
+		public static final int MSG_QUANTILES_2_FIELD_COUNT_11 = 0x00800001; //LongUnsigned/None/0
+		public static final int MSG_QUANTILES_2_FIELD_PACKEDVALUES_14 = 0x01c00003; //ByteVector/None/1
+
+		public static void consume(Pipe<QuantileSketchSchema> input) {
+		    while (PipeReader.tryReadFragment(input)) {
+		        int msgIdx = PipeReader.getMsgIdx(input);
+		        switch(msgIdx) {
+		            case MSG_SKETCH_1:
+		                consumeSketch(input);
+		            break;
+		            case MSG_QUANTILES_2:
+		                consumeQuantiles(input);
+		            break;
+		            case -1:
+		               //requestShutdown();
+		            break;
+		        }
+		        PipeReader.releaseReadLock(input);
+		    }
+		}
+
+		public static void consumeSketch(Pipe<QuantileSketchSchema> input) {
+		    long fieldCount = PipeReader.readLong(input,MSG_SKETCH_1_FIELD_COUNT_11);
+		    int fieldK = PipeReader.readInt(input,MSG_SKETCH_1_FIELD_K_12);
+		    DataInputBlobReader<QuantileSketchSchema> fieldPackedLevels = PipeReader.inputStream(input, MSG_SKETCH_1_FIELD_PACKEDLEVELS_13);
+		}
+		public static void consumeQuantiles(Pipe<QuantileSketchSchema> input) {
+		    long fieldCount = PipeReader.readLong(input,MSG_QUANTILES_2_FIELD_COUNT_11);
+		    DataInputBlobReader<QuantileSketchSchema> fieldPackedValues = PipeReader.inputStream(input, MSG_QUANTILES_2_FIELD_PACKEDVALUES_14);
+		}
+
+		public static void publishSketch(Pipe<QuantileSketchSchema> output, long fieldCount, int fieldK, byte[] fieldPackedLevelsBacking, int fieldPackedLevelsPosition, int fieldPackedLevelsLength) {
+		        PipeWriter.presumeWriteFragment(output, MSG_SKETCH_1);
+		        PipeWriter.writeLong(output,MSG_SKETCH_1_FIELD_COUNT_11, fieldCount);
+		        PipeWriter.writeInt(output,MSG_SKETCH_1_FIELD_K_12, fieldK);
+		        PipeWriter.writeBytes(output,MSG_SKETCH_1_FIELD_PACKEDLEVELS_13, fieldPackedLevelsBacking, fieldPackedLevelsPosition, fieldPackedLevelsLength);
+		        PipeWriter.publishWrites(output);
+		}
+		public static void publishQuantiles(Pipe<QuantileSketchSchema> output, long fieldCount, byte[] fieldPackedValuesBacking, int fieldPackedValuesPosition, int fieldPackedValuesLength) {
+		        PipeWriter.presumeWriteFragment(output, MSG_QUANTILES_2);
+		        PipeWriter.writeLong(output,MSG_QUANTILES_2_FIELD_COUNT_11, fieldCount);
+		        PipeWriter.writeBytes(output,MSG_QUANTILES_2_FIELD_PACKEDVALUES_14, fieldPackedValuesBacking, fieldPackedValuesPosition, fieldPackedValuesLength);
+		        PipeWriter.publishWrites(output);
+		}
+
+		/**
+		 * Low level write of the full sketch as one Sketch message, caller must check for room.
+		 */
+		public static void writeSketch(Pipe<QuantileSketchSchema> output, QuantileSketch sketch) {
+			if (QuantileSketch.maxPackedSize(sketch.k()) > output.maxVarLen) {
+				throw new UnsupportedOperationException("sketch with k of "+sketch.k()+" may need "
+			                       +QuantileSketch.maxPackedSize(sketch.k())+" bytes but pipe only holds "+output.maxVarLen);
+			}
+			int size = Pipe.addMsgIdx(output, MSG_SKETCH_1);
+			Pipe.addLongValue(sketch.count(), output);
+			Pipe.addIntValue(sketch.k(), output);
+			DataOutputBlobWriter<QuantileSketchSchema> out = Pipe.openOutputStream(output);
+			sketch.write(out);
+			DataOutputBlobWriter.closeLowLevelField(out);
+			Pipe.confirmLowLevelWrite(output, size);
+			Pipe.publishWrites(output);
+		}
+
+		/**
+		 * Low level read of the body of a Sketch message after the message index has been taken.
+		 * The caller must confirm and release the read.
+		 */
+		public static void readSketch(Pipe<QuantileSketchSchema> input, QuantileSketch target) {
+			Pipe.takeLong(input); //count, also found in the packed levels
+			Pipe.takeInt(input);  //k of the writer
+			Pipe.openInputStream(input);
+			target.read(Pipe.inputStream(input));
+		}
+		
+}
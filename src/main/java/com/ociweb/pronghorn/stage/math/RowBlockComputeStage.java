@@ -0,0 +1,289 @@
+package com.ociweb.pronghorn.stage.math;
+
+import java.util.Arrays;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.math.BuildMatrixCompute.MatrixTypes;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * _no-docs_
+ * Computes one block of rows of the product matrix. The right matrix is held in an array,
+ * rows of the left block are gathered into small tiles and multiplied against column tiles
+ * of the right matrix so the working set stays in cache. Results are written as rows.
+ *
+ * Integers and Longs are summed as longs, Floats and Doubles as doubles. Decimals are not supported.
+ *
+ * @param <M>
+ * @param <L>
+ * @param <R>
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class RowBlockComputeStage<M extends MatrixSchema<M>, L extends MatrixSchema<L>, R extends MatrixSchema<R>> extends PronghornStage {
+
+	public static final int TILE_ROWS = 8;
+	private static final int TILE_COLUMNS = 256;
+	private static final int TILE_DEPTH = 128;
+
+	private final Pipe<RowSchema<L>> leftInput;
+	private final Pipe<RowSchema<R>> rightInput;
+	private final Pipe<RowSchema<M>> output;
+	private final MatrixTypes type;
+	private final int depth;   //left columns and right rows
+	private final int columns; //right columns and result columns
+	private final int blockRows;
+	private final int rowOutSize;
+	private final boolean isFloating;
+	private final boolean isWide;
+
+	private long[]   rightLong;
+	private long[]   leftLong;
+	private long[]   sumLong;
+	private double[] rightDouble;
+	private double[] leftDouble;
+	private double[] sumDouble;
+
+	private int remainingRight;
+	private int remainingBlock;
+	private int tileRows;
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param leftInput _in_ Block of rows from the left matrix
+	 * @param rightInput _in_ All rows of the right matrix
+	 * @param output _out_ Block of rows of the result
+	 * @param blockRows number of left rows sent to this stage for each matrix
+	 */
+	public RowBlockComputeStage(GraphManager graphManager,
+			                    Pipe<RowSchema<L>> leftInput,
+			                    Pipe<RowSchema<R>> rightInput,
+			                    Pipe<RowSchema<M>> output,
+			                    int blockRows) {
+		super(graphManager, join(leftInput, rightInput), output);
+		this.leftInput = leftInput;
+		this.rightInput = rightInput;
+		this.output = output;
+		this.blockRows = blockRows;
+
+		MatrixSchema<L> leftSchema = leftInput.config().schema().rootSchema();
+		MatrixSchema<R> rightSchema = rightInput.config().schema().rootSchema();
+		MatrixSchema<M> resultSchema = output.config().schema().rootSchema();
+
+		if (leftSchema.getColumns() != rightSchema.getRows()) {
+			throw new UnsupportedOperationException("column count of left input must match row count of right input "+leftSchema.getColumns()+" vs "+rightSchema.getRows());
+		}
+		if (resultSchema.getColumns() != rightSchema.getColumns()) {
+			throw new UnsupportedOperationException("column count of right input must match result output "+rightSchema.getColumns()+" vs "+resultSchema.getColumns());
+		}
+		if (leftSchema.type != rightSchema.type || resultSchema.type != leftSchema.type) {
+			throw new UnsupportedOperationException("type mismatch");
+		}
+		if (MatrixTypes.Decimals == leftSchema.type) {
+			throw new UnsupportedOperationException("Decimals are not supported by the row block compute");
+		}
+		if (blockRows<1) {
+			throw new UnsupportedOperationException("block must have at least one row");
+		}
+
+		this.type = leftSchema.type;
+		this.depth = rightSchema.getRows();
+		this.columns = rightSchema.getColumns();
+		this.isFloating = (MatrixTypes.Floats == type) || (MatrixTypes.Doubles == type);
+		this.isWide = 2 == type.size();
+		this.rowOutSize = Pipe.sizeOf(output, resultSchema.rowId);
+
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "cadetblue2", this);
+	}
+
+	@Override
+	public void startup() {
+		if (isFloating) {
+			rightDouble = new double[depth*columns];
+			leftDouble = new double[TILE_ROWS*depth];
+			sumDouble = new double[TILE_ROWS*columns];
+		} else {
+			rightLong = new long[depth*columns];
+			leftLong = new long[TILE_ROWS*depth];
+			sumLong = new long[TILE_ROWS*columns];
+		}
+		remainingRight = depth;
+		remainingBlock = blockRows;
+	}
+
+	@Override
+	public void shutdown() {
+		Pipe.publishEOF(output);
+	}
+
+	@Override
+	public void run() {
+
+		while (true) {
+
+			//load the full right matrix before any of the left rows are used
+			while (remainingRight>0) {
+				if (!Pipe.hasContentToRead(rightInput)) {
+					return;
+				}
+				int id = Pipe.takeMsgIdx(rightInput);
+				if (id<0) {
+					Pipe.confirmLowLevelRead(rightInput, Pipe.EOF_SIZE);
+					Pipe.releaseReadLock(rightInput);
+					requestShutdown();
+					return;
+				}
+				readRow(rightInput, (depth-remainingRight)*columns, columns, rightLong, rightDouble);
+				Pipe.confirmLowLevelRead(rightInput, Pipe.sizeOf(rightInput, id));
+				Pipe.releaseReadLock(rightInput);
+				remainingRight--;
+			}
+
+			//gather one tile of rows from the left block
+			final int tileTarget = Math.min(TILE_ROWS, remainingBlock);
+			while (tileRows<tileTarget) {
+				if (!Pipe.hasContentToRead(leftInput)) {
+					return;
+				}
+				int id = Pipe.takeMsgIdx(leftInput);
+				if (id<0) {
+					Pipe.confirmLowLevelRead(leftInput, Pipe.EOF_SIZE);
+					Pipe.releaseReadLock(leftInput);
+					requestShutdown();
+					return;
+				}
+				readRow(leftInput, tileRows*depth, depth, leftLong, leftDouble);
+				Pipe.confirmLowLevelRead(leftInput, Pipe.sizeOf(leftInput, id));
+				Pipe.releaseReadLock(leftInput);
+				tileRows++;
+			}
+
+			if (!Pipe.hasRoomForWrite(output, tileRows*rowOutSize)) {
+				return;
+			}
+
+			if (isFloating) {
+				multiplyTile(leftDouble, rightDouble, sumDouble, tileRows, depth, columns);
+			} else {
+				multiplyTile(leftLong, rightLong, sumLong, tileRows, depth, columns);
+			}
+			writeRows(tileRows);
+
+			remainingBlock -= tileRows;
+			tileRows = 0;
+			if (0 == remainingBlock) {
+				//this block is done, the next matrix pair starts with a new right matrix
+				remainingBlock = blockRows;
+				remainingRight = depth;
+			}
+		}
+	}
+
+	private void readRow(Pipe<?> pipe, int offset, int count, long[] longs, double[] doubles) {
+		if (isFloating) {
+			if (isWide) {
+				while (--count>=0) {
+					doubles[offset++] = Double.longBitsToDouble(Pipe.takeLong(pipe));
+				}
+			} else {
+				while (--count>=0) {
+					doubles[offset++] = Float.intBitsToFloat(Pipe.takeInt(pipe));
+				}
+			}
+		} else {
+			if (isWide) {
+				while (--count>=0) {
+					longs[offset++] = Pipe.takeLong(pipe);
+				}
+			} else {
+				while (--count>=0) {
+					longs[offset++] = Pipe.takeInt(pipe);
+				}
+			}
+		}
+	}
+
+	private void writeRows(int rows) {
+		final int rowId = output.config().schema().rootSchema().rowId;
+		for(int r = 0; r<rows; r++) {
+			Pipe.addMsgIdx(output, rowId);
+			int pos = r*columns;
+			final int limit = pos+columns;
+			switch (type) {
+				case Integers:
+					while (pos<limit) {
+						Pipe.addIntValue((int)sumLong[pos++], output);
+					}
+					break;
+				case Longs:
+					while (pos<limit) {
+						Pipe.addLongValue(sumLong[pos++], output);
+					}
+					break;
+				case Floats:
+					while (pos<limit) {
+						Pipe.addIntValue(Float.floatToIntBits((float)sumDouble[pos++]), output);
+					}
+					break;
+				case Doubles:
+					while (pos<limit) {
+						Pipe.addLongValue(Double.doubleToLongBits(sumDouble[pos++]), output);
+					}
+					break;
+				default:
+					throw new UnsupportedOperationException();
+			}
+			Pipe.confirmLowLevelWrite(output, rowOutSize);
+			Pipe.publishWrites(output);
+		}
+	}
+
+	/**
+	 * sum = left * right for a tile of rows, walking the right matrix in column and depth tiles
+	 */
+	static void multiplyTile(long[] left, long[] right, long[] sum, int rows, int depth, int columns) {
+		Arrays.fill(sum, 0, rows*columns, 0L);
+		for(int jj = 0; jj<columns; jj+=TILE_COLUMNS) {
+			final int jLimit = Math.min(columns, jj+TILE_COLUMNS);
+			for(int kk = 0; kk<depth; kk+=TILE_DEPTH) {
+				final int kLimit = Math.min(depth, kk+TILE_DEPTH);
+				for(int i = 0; i<rows; i++) {
+					final int leftBase = i*depth;
+					final int sumBase = i*columns;
+					for(int k = kk; k<kLimit; k++) {
+						final long a = left[leftBase+k];
+						if (0 != a) {
+							final int rightBase = k*columns;
+							for(int j = jj; j<jLimit; j++) {
+								sum[sumBase+j] += a*right[rightBase+j];
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	static void multiplyTile(double[] left, double[] right, double[] sum, int rows, int depth, int columns) {
+		Arrays.fill(sum, 0, rows*columns, 0d);
+		for(int jj = 0; jj<columns; jj+=TILE_COLUMNS) {
+			final int jLimit = Math.min(columns, jj+TILE_COLUMNS);
+			for(int kk = 0; kk<depth; kk+=TILE_DEPTH) {
+				final int kLimit = Math.min(depth, kk+TILE_DEPTH);
+				for(int i = 0; i<rows; i++) {
+					final int leftBase = i*depth;
+					final int sumBase = i*columns;
+					for(int k = kk; k<kLimit; k++) {
+						final double a = left[leftBase+k];
+						final int rightBase = k*columns;
+						for(int j = jj; j<jLimit; j++) {
+							sum[sumBase+j] += a*right[rightBase+j];
+						}
+					}
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.ociweb.pronghorn.stage.math;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Joins the blocks of rows written by RowBlockSplitStage and the compute stages back into a single
+ * row pipe, keeping the original row order of each matrix.
+ *
+ * @param <M>
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class RowBlockMergeStage<M extends MatrixSchema<M>> extends PronghornStage {
+
+	private final Pipe<RowSchema<M>>[] rowPipeInput;
+	private final Pipe<RowSchema<M>> rowPipeOutput;
+	private final int[] blockRows;
+	private int activeIdx;
+	private int remainingInBlock;
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param rowPipeInput _in_ Blocks of rows in the same order given to RowBlockSplitStage
+	 * @param rowPipeOutput _out_ All the rows of each matrix in order
+	 */
+	public RowBlockMergeStage(GraphManager graphManager, Pipe<RowSchema<M>>[] rowPipeInput, Pipe<RowSchema<M>> rowPipeOutput) {
+		super(graphManager, rowPipeInput, rowPipeOutput);
+		this.rowPipeInput = rowPipeInput;
+		this.rowPipeOutput = rowPipeOutput;
+		this.blockRows = RowBlockSplitStage.blockRows(rowPipeOutput.config().schema().rootSchema().getRows(), rowPipeInput.length);
+		this.remainingInBlock = blockRows[0];
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "cadetblue2", this);
+	}
+
+	@Override
+	public void run() {
+
+		Pipe<RowSchema<M>> input = rowPipeInput[activeIdx];
+		while (Pipe.hasContentToRead(input)) {
+
+			if (Pipe.peekInt(input) < 0) {
+				if (!Pipe.hasRoomForWrite(rowPipeOutput, Pipe.EOF_SIZE)) {
+					return;
+				}
+				Pipe.takeMsgIdx(input);
+				Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(input);
+				Pipe.publishEOF(rowPipeOutput);
+				requestShutdown();
+				return;
+			}
+
+			if (!Pipe.hasRoomForWrite(rowPipeOutput)) {
+				return;
+			}
+			Pipe.copyFragment(input, rowPipeOutput);
+
+			if (--remainingInBlock == 0) {
+				if (++activeIdx == rowPipeInput.length) {
+					activeIdx = 0;
+				}
+				remainingInBlock = blockRows[activeIdx];
+				input = rowPipeInput[activeIdx];
+			}
+		}
+	}
+
+}
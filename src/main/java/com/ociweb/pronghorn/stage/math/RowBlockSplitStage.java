@@ -0,0 +1,96 @@
+package com.ociweb.pronghorn.stage.math;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * Routes contiguous blocks of rows of each matrix to the outputs, every row is sent to exactly one output.
+ * Block sizes differ by at most one row, the first outputs take the remainder.
+ *
+ * @param <M>
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class RowBlockSplitStage<M extends MatrixSchema<M>> extends PronghornStage {
+
+	private final Pipe<RowSchema<M>> rowPipeInput;
+	private final Pipe<RowSchema<M>>[] rowPipeOutput;
+	private final int[] blockRows;
+	private int activeIdx;
+	private int remainingInBlock;
+
+	/**
+	 *
+	 * @param graphManager
+	 * @param rowPipeInput _in_ Rows of the matrix to be divided
+	 * @param rowPipeOutput _out_ One block of rows from each matrix is written to each output in order
+	 */
+	public RowBlockSplitStage(GraphManager graphManager, Pipe<RowSchema<M>> rowPipeInput, Pipe<RowSchema<M>>[] rowPipeOutput) {
+		super(graphManager, rowPipeInput, rowPipeOutput);
+		this.rowPipeInput = rowPipeInput;
+		this.rowPipeOutput = rowPipeOutput;
+		this.blockRows = blockRows(rowPipeInput.config().schema().rootSchema().getRows(), rowPipeOutput.length);
+		this.remainingInBlock = blockRows[0];
+		if (0 == blockRows[rowPipeOutput.length-1]) {
+			throw new UnsupportedOperationException("more outputs than rows, every output must get at least one row");
+		}
+		GraphManager.addNota(graphManager, GraphManager.DOT_BACKGROUND, "cadetblue2", this);
+	}
+
+	/**
+	 * Divides the rows as evenly as possible, the first rows%parts blocks get one extra row.
+	 */
+	public static int[] blockRows(int rows, int parts) {
+		int[] result = new int[parts];
+		int base = rows/parts;
+		int extra = rows%parts;
+		int i = parts;
+		while (--i>=0) {
+			result[i] = base + (i<extra ? 1 : 0);
+		}
+		return result;
+	}
+
+	@Override
+	public void run() {
+
+		while (Pipe.hasContentToRead(rowPipeInput)) {
+
+			if (Pipe.peekInt(rowPipeInput) < 0) {
+				if (!allHaveRoomForEOF()) {
+					return;
+				}
+				Pipe.takeMsgIdx(rowPipeInput);
+				Pipe.confirmLowLevelRead(rowPipeInput, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(rowPipeInput);
+				Pipe.publishEOF(rowPipeOutput);
+				requestShutdown();
+				return;
+			}
+
+			Pipe<RowSchema<M>> target = rowPipeOutput[activeIdx];
+			if (!Pipe.hasRoomForWrite(target)) {
+				return;
+			}
+			Pipe.copyFragment(rowPipeInput, target);
+
+			if (--remainingInBlock == 0) {
+				if (++activeIdx == rowPipeOutput.length) {
+					activeIdx = 0;
+				}
+				remainingInBlock = blockRows[activeIdx];
+			}
+		}
+	}
+
+	private boolean allHaveRoomForEOF() {
+		int i = rowPipeOutput.length;
+		while (--i>=0) {
+			if (!Pipe.hasRoomForWrite(rowPipeOutput[i], Pipe.EOF_SIZE)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -168,24 +168,14 @@ public class PhastPackingStage extends PronghornStage {
     private int writePackedFields(int localSum, Pipe<PhastCodecSchema> localInput1,
            DataOutputBlobWriter<RawDataSchema> localWriter, int msgIdx, int localFieldCount) {
        
-           int i = localFieldCount;
-           //System.err.println("field count "+i);
-           while (--i >= 0) {
-                packField(localWriter, Pipe.takeLong(localInput1));                    
-           }         
+           //pack the whole block of longs straight from the input slab into the output blob
+           long slabPos = Pipe.getWorkingTailPosition(localInput1);
+           localWriter.absolutePosition(PhastVarint.pack(Pipe.slab(localInput1), Pipe.slabMask(localInput1), slabPos, localFieldCount,
+                                                         Pipe.blob(output), Pipe.blobMask(output), localWriter.absolutePosition()));
+           Pipe.setWorkingTailPosition(localInput1, slabPos + (localFieldCount<<1));
+           
            localSum += localFieldCount;
            return localSum;
     }
 
-
-    private void packField(final DataOutputBlobWriter<RawDataSchema> localWriter, long value) {
-        if (ESCAPE_VALUE != value) {
-            DataOutputBlobWriter.writePackedLong(localWriter, value);
-        } else {
-            //TODO: have escape prebuilt as an array of bytes to copy
-            DataOutputBlobWriter.writePackedLong(localWriter, ESCAPE_VALUE);
-            DataOutputBlobWriter.writePackedLong(localWriter, ESCAPE_VALUE);
-        }
-    }
-
 }
@@ -1,6 +1,5 @@
 package com.ociweb.pronghorn.stage.phast;
 
-import com.ociweb.pronghorn.pipe.DataInputBlobReader;
 import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
 import com.ociweb.pronghorn.pipe.Pipe;
 import com.ociweb.pronghorn.pipe.RawDataSchema;
@@ -13,7 +12,10 @@ import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 public class PhastUnpackingStage extends PronghornStage {
 
     private final Pipe<RawDataSchema> input;
-    private DataInputBlobReader<RawDataSchema> reader;
+    private byte[] blob;
+    private int blobMask;
+    private int position;
+    private int remaining;
 
     private final Pipe<PhastCodecSchema>                output1;
     private final Pipe<RawDataSchema>                   output2;
@@ -34,7 +36,8 @@ public class PhastUnpackingStage extends PronghornStage {
 
     @Override
     public void startup() {
-        reader = new DataInputBlobReader<RawDataSchema>(input);
+        blob = Pipe.blob(input);
+        blobMask = Pipe.blobMask(input);
         output2Writer = new DataOutputBlobWriter<RawDataSchema>(output2);
         
         int maxValue = PhastCodecSchema.FROM.messageStarts.length+1;
@@ -49,44 +52,47 @@ public class PhastUnpackingStage extends PronghornStage {
 
     }    
     
-    //TODO: needs testing of byte blocks
-    
     @Override
     public void run() {
         
-        if (bytesRemainingToCopy>0) {
-            if (Pipe.hasRoomForWrite(output1) && Pipe.hasRoomForWrite(output2)) {
-                writeBytesToOutput(output1, output2, output2Writer, reader);
-            } else {
-                return;//try later and read bytesRemainingToCopy
-            }
-        }
-        
-        while (Pipe.hasContentToRead(input) || reader.hasRemainingBytes()) {
+        while (Pipe.hasContentToRead(input) || remaining>0) {
                         
-            if (!reader.hasRemainingBytes()) {
+            if (remaining<=0) {
                 int msgIdx = Pipe.takeMsgIdx(input);
-                Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, msgIdx));
                 if (msgIdx>=0) {
-                    reader.openLowLevelAPIField(); 
-                    if (!reader.hasRemainingBytes()) {
+                    int meta = Pipe.takeByteArrayMetaData(input);
+                    int length = Pipe.takeByteArrayLength(input);
+                    Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, msgIdx));
+                    position = Pipe.bytePosition(meta, input, length);
+                    remaining = length;
+                    if (remaining<=0) {
                         Pipe.releaseReadLock(input);
                         continue;
                     }
                 } else {
+                    Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, msgIdx));
                     requestShutdown();
                     break;
                 }
             }
             
+            //a byte block may continue from the previous chunk
+            if (bytesRemainingToCopy>0) {
+                if (Pipe.hasRoomForWrite(output1) && Pipe.hasRoomForWrite(output2)) {
+                    writeBytesToOutput(output1, output2, output2Writer);
+                } else {
+                    return;//try later and read bytesRemainingToCopy
+                }
+            }
+            
             long msgIdxPos = -1;
             
             int localFieldCount = 0;
-            while ((localFieldCount>0 || Pipe.hasRoomForWrite(output1)) && reader.hasRemainingBytes()) {
+            while ((localFieldCount>0 || Pipe.hasRoomForWrite(output1)) && remaining>0) {
                                                                
-                long value = reader.readPackedLong();
+                long value = readPackedLong();
                 if (ESCAPE == value) {
-                    value = reader.readPackedLong();
+                    value = readPackedLong();
                     if (ESCAPE != value) {
                         //value now holds the length of the byte run to be copied over.
                         
@@ -97,7 +103,7 @@ public class PhastUnpackingStage extends PronghornStage {
                         bytesRemainingToCopy = (int)value;
                         
                         if (Pipe.hasRoomForWrite(output1) && Pipe.hasRoomForWrite(output2)) {
-                            writeBytesToOutput(output1, output2, output2Writer, reader);
+                            writeBytesToOutput(output1, output2, output2Writer);
                         } else {
                             return;//try later and read bytesRemainingToCopy
                         }
@@ -123,30 +129,59 @@ public class PhastUnpackingStage extends PronghornStage {
                 localFieldCount = 0;
             }            
             
-            if (!reader.hasRemainingBytes()) {                
+            if (remaining<=0) {                
                 Pipe.releaseReadLock(input);
+            } else {
+                return;//output is full, continue this chunk later
             }
             
         }
     }
 
+    /**
+     * Values of up to 8 bytes are found with one scan of the stop bits over a word,
+     * longer values are read a byte at a time.
+     */
+    private long readPackedLong() {
+        long word = PhastVarint.readWord(blob, blobMask, position);
+        int length = PhastVarint.unpackedLength(word);
+        if (length>0) {
+            position += length;
+            remaining -= length;
+            return PhastVarint.unpack(word, length);
+        }
+        byte b = blob[blobMask & position++];
+        remaining--;
+        long value = (b<<25)>>31; //sign from bit 6 of the first byte
+        while (b>=0) {
+            value = (value<<7) | b;
+            b = blob[blobMask & position++];
+            remaining--;
+        }
+        return (value<<7) | (0x7F & b);
+    }
+
     private void closePackedFieldsMessage(long msgIdxPos, int msgIdx, Pipe<PhastCodecSchema> output1) {
         Pipe.setIntValue(msgIdx, output1, msgIdxPos);
         Pipe.confirmLowLevelWrite(output1, Pipe.sizeOf(output1, msgIdx));
         Pipe.publishWrites(output1);
     }
 
-    private void writeBytesToOutput(Pipe<PhastCodecSchema> output1, Pipe<RawDataSchema> output2, DataOutputBlobWriter<RawDataSchema> output2Writer, DataInputBlobReader<RawDataSchema> reader) {
+    private void writeBytesToOutput(Pipe<PhastCodecSchema> output1, Pipe<RawDataSchema> output2, DataOutputBlobWriter<RawDataSchema> output2Writer) {
         Pipe.addMsgIdx(output1, PhastCodecSchema.MSG_BLOBCHUNK_1000);
         Pipe.confirmLowLevelWrite(output1, Pipe.sizeOf(output1, PhastCodecSchema.MSG_BLOBCHUNK_1000));
         
         Pipe.addMsgIdx(output2, RawDataSchema.MSG_CHUNKEDSTREAM_1);
         
+        //the packer splits long byte blocks across chunks so only copy what is in this one
+        int length = Math.min(bytesRemainingToCopy, remaining);
         output2Writer.openField();                            
-        DataOutputBlobWriter.writeBytes(output2Writer, reader, bytesRemainingToCopy);
+        DataOutputBlobWriter.write(output2Writer, blob, position, length, blobMask);
         output2Writer.closeLowLevelField();
         
-        bytesRemainingToCopy = 0;
+        position += length;
+        remaining -= length;
+        bytesRemainingToCopy -= length;
         Pipe.confirmLowLevelWrite(output2, Pipe.sizeOf(output2, RawDataSchema.MSG_CHUNKEDSTREAM_1));
         
         Pipe.publishWrites(output2);
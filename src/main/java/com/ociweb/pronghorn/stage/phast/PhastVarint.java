@@ -0,0 +1,98 @@
+package com.ociweb.pronghorn.stage.phast;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+
+/**
+ * Block packing and word at a time unpacking of the signed stop bit encoding written by
+ * DataOutputBlobWriter.writePackedLong. Each byte holds 7 bits, high bits first, and the last byte
+ * of a value has its high bit set. Bit 6 of the first byte is the sign.
+ *
+ * Positions are absolute and every access is masked so the ring wraps without a branch.
+ */
+public final class PhastVarint {
+
+    private static final long STOP_BITS = 0x8080808080808080L;
+    private static final byte ESCAPE_BYTE = (byte)(0x80 | (0x7F & PhastPackingStage.ESCAPE_VALUE));
+
+    //packed byte count indexed by the count of significant bits including the sign
+    private static final byte[] PACKED_LENGTH = new byte[65];
+    static {
+        int bits = PACKED_LENGTH.length;
+        while (--bits>=0) {
+            PACKED_LENGTH[bits] = (byte)Math.max(1, (bits+6)/7);
+        }
+    }
+
+    private PhastVarint() {
+    }
+
+    /**
+     * @return count of bytes needed to pack this value
+     */
+    public static int packedLength(long value) {
+        return PACKED_LENGTH[65 - Long.numberOfLeadingZeros(value ^ (value>>63))];
+    }
+
+    /**
+     * Packs count longs taken from the slab starting at slabPos into the blob starting at blobPos.
+     * ESCAPE_VALUE is written twice so the reader does not take it as the start of a byte block.
+     *
+     * @return the blob position after the last packed byte
+     */
+    public static int pack(int[] slab, int slabMask, long slabPos, int count,
+                           byte[] blob, int blobMask, int blobPos) {
+        while (--count>=0) {
+            long value = Pipe.readLong(slab, slabMask, slabPos);
+            slabPos += 2;
+            if (PhastPackingStage.ESCAPE_VALUE != value) {
+                int shift = 7*(packedLength(value)-1);
+                while (shift>0) {
+                    blob[blobMask & blobPos++] = (byte)(0x7F & (value>>shift));
+                    shift -= 7;
+                }
+                blob[blobMask & blobPos++] = (byte)(0x80 | (0x7F & value));
+            } else {
+                blob[blobMask & blobPos++] = ESCAPE_BYTE;
+                blob[blobMask & blobPos++] = ESCAPE_BYTE;
+            }
+        }
+        return blobPos;
+    }
+
+    /**
+     * Reads 8 bytes with the first in the low bits. Bytes past the end of the field may be read,
+     * they are never used when the value ends inside the field.
+     */
+    public static long readWord(byte[] blob, int blobMask, int blobPos) {
+        return  (0xFFL & blob[blobMask &  blobPos])          |
+               ((0xFFL & blob[blobMask & (blobPos+1)])<<8)  |
+               ((0xFFL & blob[blobMask & (blobPos+2)])<<16) |
+               ((0xFFL & blob[blobMask & (blobPos+3)])<<24) |
+               ((0xFFL & blob[blobMask & (blobPos+4)])<<32) |
+               ((0xFFL & blob[blobMask & (blobPos+5)])<<40) |
+               ((0xFFL & blob[blobMask & (blobPos+6)])<<48) |
+               ((0xFFL & blob[blobMask & (blobPos+7)])<<56);
+    }
+
+    /**
+     * @return bytes used by the first value in the word, zero if it is longer than 8 bytes
+     */
+    public static int unpackedLength(long word) {
+        long stops = word & STOP_BITS;
+        return 0 == stops ? 0 : 1 + (Long.numberOfTrailingZeros(stops)>>3);
+    }
+
+    /**
+     * @return the first value in the word which is length bytes long
+     */
+    public static long unpack(long word, int length) {
+        long value = (word<<57)>>63; //sign from bit 6 of the first byte
+        int shift = 0;
+        do {
+            value = (value<<7) | (0x7F & (word>>>shift));
+            shift += 8;
+        } while (--length>0);
+        return value;
+    }
+
+}
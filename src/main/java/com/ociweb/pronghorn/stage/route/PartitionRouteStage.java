@@ -0,0 +1,322 @@
+package com.ociweb.pronghorn.stage.route;
+
+import com.ociweb.pronghorn.pipe.MessageSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+/**
+ * For some schema T distributes the messages across N output pipes by the hash of one field,
+ * every message with the same key value is sent to the same output. Stages holding per key state,
+ * dedup, aggregation or sessions, can then be run in parallel behind this stage.
+ *
+ * The key field must be found at the same LOC in every message, for example an id leading each message,
+ * and the messages must be single fragments. Messages are copied with the low level API.
+ *
+ * When hotKeys is non zero the stage is also skew aware. The heaviest keys of each window are tracked
+ * and when one output is overloaded the hot key which best evens the load is moved to the lightest output.
+ * A moved key stays on its new output until it sees no messages for a whole window, or it is the coldest
+ * moved key when room is needed for a new move, then it goes back to its hashed output. Affinity only
+ * changes at these moments, stages with per key state will see that key start over on its new output.
+ *
+ * @param <T>
+ *
+ * @see <a href="https://github.com/objectcomputing/Pronghorn">Pronghorn</a>
+ */
+public class PartitionRouteStage<T extends MessageSchema<T>> extends PronghornStage {
+
+	public static final int FIELD_INT = 0;
+	public static final int FIELD_LONG = 1;
+	public static final int FIELD_BYTES = 2;
+
+	static final int WINDOW = 1<<12;
+
+	private final Pipe<T> input;
+	private final Pipe<T>[] outputs;
+	private final int fieldOffset;
+	private final int fieldType;
+
+	//skew tracking, all unused when hotKeys is zero
+	private final int hotKeys;
+	private int[] load;
+	private int windowCount;
+	private long[] hotHash;    //space saving table of the heaviest keys in this window
+	private int[] hotCount;
+	private int hotUsed;
+	private long[] movedHash;  //keys which no longer use the hash
+	private int[] movedTarget;
+	private int[] movedCount;  //messages for each moved key in this window
+	private int movedUsed;
+
+	/**
+	 *
+	 * @param gm
+	 * @param input _in_ Schema T input pipe that will be partitioned
+	 * @param fieldLoc LOC of the key field
+	 * @param fieldType FIELD_INT, FIELD_LONG or FIELD_BYTES
+	 * @param outputs _out_ Pipes on which the input pipe will be partitioned
+	 */
+	public PartitionRouteStage(GraphManager gm, Pipe<T> input, int fieldLoc, int fieldType, Pipe<T> ... outputs) {
+		this(gm, input, fieldLoc, fieldType, 0, outputs);
+	}
+
+	/**
+	 *
+	 * @param gm
+	 * @param input _in_ Schema T input pipe that will be partitioned
+	 * @param fieldLoc LOC of the key field
+	 * @param fieldType FIELD_INT, FIELD_LONG or FIELD_BYTES
+	 * @param hotKeys count of hot keys tracked and moved, zero for plain hash partitioning
+	 * @param outputs _out_ Pipes on which the input pipe will be partitioned
+	 */
+	public PartitionRouteStage(GraphManager gm, Pipe<T> input, int fieldLoc, int fieldType, int hotKeys, Pipe<T> ... outputs) {
+		super(gm,input,outputs);
+		this.input = input;
+		this.outputs = outputs;
+		this.fieldOffset = 0xFFFF & fieldLoc;
+		this.fieldType = fieldType;
+		this.hotKeys = hotKeys;
+
+		if (fieldType<FIELD_INT || fieldType>FIELD_BYTES) {
+			throw new UnsupportedOperationException("unknown field type "+fieldType);
+		}
+
+		this.supportsBatchedPublish = true;
+		this.supportsBatchedRelease = true;
+
+		GraphManager.addNota(gm, GraphManager.DOT_BACKGROUND, "cornsilk2", this);
+
+		assert(validateTargetSize(input, outputs)) : "output pipes must be as large or larger than input";
+	}
+
+	private boolean validateTargetSize(Pipe<T> input, Pipe<T> ... outputs) {
+		boolean ok = true;
+		PipeConfig<T> sourceConfig = input.config();
+		int i = outputs.length;
+		while (--i >= 0) {
+			ok = ok & outputs[i].config().canConsume(sourceConfig);
+		}
+		return ok;
+	}
+
+	@Override
+	public void startup() {
+		if (hotKeys>0) {
+			load = new int[outputs.length];
+			hotHash = new long[hotKeys];
+			hotCount = new int[hotKeys];
+			movedHash = new long[hotKeys];
+			movedTarget = new int[hotKeys];
+			movedCount = new int[hotKeys];
+		}
+	}
+
+	@Override
+	public void run() {
+
+		while (Pipe.hasContentToRead(input)) {
+
+			if (Pipe.peekInt(input)<0) {
+				Pipe.takeMsgIdx(input);
+				Pipe.confirmLowLevelRead(input, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(input);
+				requestShutdown();
+				return;
+			}
+
+			long hash = keyHash(input, fieldOffset, fieldType);
+			int moved = hotKeys>0 ? movedIndex(hash) : -1;
+			int target = moved>=0 ? movedTarget[moved] : partition(hash, outputs.length);
+
+			if (!Pipe.hasRoomForWrite(outputs[target])) {
+				return; //keys must stay in order so we can not pass this one
+			}
+			Pipe.copyFragment(input, outputs[target]);
+
+			if (hotKeys>0) {
+				recordLoad(hash, target, moved);
+			}
+		}
+	}
+
+	static <S extends MessageSchema<S>> long keyHash(Pipe<S> input, int fieldOffset, int fieldType) {
+		if (FIELD_BYTES == fieldType) {
+			int meta = Pipe.peekInt(input, fieldOffset);
+			int len = Pipe.peekInt(input, fieldOffset+1);
+			return len<=0 ? mix(len) : bytesHash(Pipe.byteBackingArray(meta, input),
+					                             Pipe.bytePosition(meta, input, len),
+					                             len, Pipe.blobMask(input));
+		} else if (FIELD_LONG == fieldType) {
+			return mix(Pipe.peekLong(input, fieldOffset));
+		} else {
+			return mix(Pipe.peekInt(input, fieldOffset));
+		}
+	}
+
+	static long bytesHash(byte[] backing, int pos, int len, int mask) {
+		long h = 0xcbf29ce484222325L; //FNV-1a, then mixed for the low bits
+		int i = len;
+		while (--i>=0) {
+			h = (h ^ (0xFF & backing[mask & pos++])) * 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	static long mix(long value) {
+		//murmur3 finalizer, spreads near keys across all bits
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+	static int partition(long hash, int count) {
+		return (int)((hash>>>1) % count);
+	}
+
+	private int movedIndex(long hash) {
+		int i = movedUsed;
+		while (--i>=0) {
+			if (hash == movedHash[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int movedOrHashed(long hash) {
+		int i = movedIndex(hash);
+		return i>=0 ? movedTarget[i] : partition(hash, outputs.length);
+	}
+
+	private void recordLoad(long hash, int target, int moved) {
+		load[target]++;
+		if (moved>=0) {
+			movedCount[moved]++;
+		}
+		countHotKey(hash);
+		if (++windowCount == WINDOW) {
+			expireMoved();
+			rebalance();
+			windowCount = 0;
+			int i = outputs.length;
+			while (--i>=0) {
+				load[i] = 0;
+			}
+			hotUsed = 0;
+			i = movedUsed;
+			while (--i>=0) {
+				movedCount[i] = 0;
+			}
+		}
+	}
+
+	//moved keys with no messages in this window go back to their hashed output
+	private void expireMoved() {
+		int i = movedUsed;
+		while (--i>=0) {
+			if (0 == movedCount[i]) {
+				removeMoved(i);
+			}
+		}
+	}
+
+	private void removeMoved(int i) {
+		movedUsed--;
+		movedHash[i] = movedHash[movedUsed];
+		movedTarget[i] = movedTarget[movedUsed];
+		movedCount[i] = movedCount[movedUsed];
+	}
+
+	private void countHotKey(long hash) {
+		int min = 0;
+		int i = hotUsed;
+		while (--i>=0) {
+			if (hash == hotHash[i]) {
+				hotCount[i]++;
+				return;
+			}
+			if (hotCount[i] < hotCount[min]) {
+				min = i;
+			}
+		}
+		if (hotUsed < hotKeys) {
+			hotHash[hotUsed] = hash;
+			hotCount[hotUsed++] = 1;
+		} else {
+			//space saving, the new key inherits the smallest count
+			hotHash[min] = hash;
+			hotCount[min]++;
+		}
+	}
+
+	private void rebalance() {
+		int max = 0;
+		int min = 0;
+		int i = outputs.length;
+		while (--i>=0) {
+			if (load[i]>load[max]) {
+				max = i;
+			}
+			if (load[i]<load[min]) {
+				min = i;
+			}
+		}
+		int fair = WINDOW/outputs.length;
+		if (load[max] <= fair+(fair>>2)) {
+			return; //within 25% of fair
+		}
+
+		//pick the hot key on the heavy output which leaves the lowest peak after the move
+		int best = -1;
+		int bestPeak = load[max];
+		i = hotUsed;
+		while (--i>=0) {
+			if (max == movedOrHashed(hotHash[i])) {
+				int peak = Math.max(load[max]-hotCount[i], load[min]+hotCount[i]);
+				if (peak < bestPeak) {
+					bestPeak = peak;
+					best = i;
+				}
+			}
+		}
+		if (best>=0) {
+			int j = movedUsed;
+			while (--j>=0) {
+				if (hotHash[best] == movedHash[j]) {
+					movedTarget[j] = min;
+					return;
+				}
+			}
+			if (movedUsed == hotKeys) {
+				//make room by sending the coldest moved key home, unless it is busier than this one
+				int coldest = 0;
+				j = movedUsed;
+				while (--j>=0) {
+					if (movedCount[j] < movedCount[coldest]) {
+						coldest = j;
+					}
+				}
+				if (movedCount[coldest] >= hotCount[best]) {
+					return;
+				}
+				removeMoved(coldest);
+			}
+			movedHash[movedUsed] = hotHash[best];
+			movedTarget[movedUsed++] = min;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		int i = outputs.length;
+		while (--i>=0) {
+			Pipe.publishAllBatchedWrites(outputs[i]);
+			Pipe.publishEOF(outputs[i]);
+		}
+	}
+
+}
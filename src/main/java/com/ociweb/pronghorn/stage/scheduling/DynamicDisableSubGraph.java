@@ -2,6 +2,13 @@ package com.ociweb.pronghorn.stage.scheduling;
 
 import com.ociweb.pronghorn.pipe.Pipe;
 
+/**
+ * Finds subgraphs whose pipes are empty and have not moved for thresholdForDisableNS and disables them,
+ * a disabled subgraph is enabled again as soon as any of its pipes, input or output, has content.
+ * A subgraph with unconsumed output is never disabled since its stages may be holding more work
+ * until that output is taken.
+ * Used by ScriptedNonThreadScheduler to skip idle runs of its script.
+ */
 public class DynamicDisableSubGraph {
 
 	private int activeItem;
@@ -14,11 +21,16 @@ public class DynamicDisableSubGraph {
 	private final int[] disabledIndexes;//index to which row is the disabled item.
 	private final Pipe[][] foundToHaveData; //if has data we must un-disable this sequence
 		
-	private final long thresholdForDisableNS = 1_000_000_000; //1 full second of non use
+	private final long thresholdForDisableNS;
 	private SubGraphDisableable disabler;
 	
 	public DynamicDisableSubGraph(int countOfSubGraphs, SubGraphDisableable disableable) {
-			
+		this(countOfSubGraphs, disableable, 1_000_000_000); //1 full second of non use
+	}
+	
+	public DynamicDisableSubGraph(int countOfSubGraphs, SubGraphDisableable disableable, long thresholdForDisableNS) {
+		
+		this.thresholdForDisableNS = thresholdForDisableNS;
 		foundToBeUnusedLastModified = new long[countOfSubGraphs];
 		foundToBeUnusedBaselines = new long[countOfSubGraphs][];
 		foundToBeUnused = new Pipe[countOfSubGraphs][];
@@ -59,25 +71,17 @@ public class DynamicDisableSubGraph {
 		int d = disabledCount;
 		while (--d>=0) {
 			int i = disabledIndexes[d];
-			if (i>=0) {
-				if (foundToHaveData(foundToHaveData[i])) {
-					//un-disable the object
-					
-					//call method on the external subGraph to change its state
-					disabler.disable(i,false);
-					
-					//remove from list since it is now disabled
-					disabledIndexes[d] = -1;
-					
-					//shrink list of possible
-					if (d+1==disabledCount) {
-						disabledCount--;
-					}				
-				}
-			} else {
-				if (d+1==disabledCount) {
-					disabledCount--;
-				}
+			if (foundToHaveData(foundToHaveData[i]) || foundToHaveData(foundToBeUnused[i])) {
+				//un-disable the object
+				
+				//call method on the external subGraph to change its state
+				disabler.disable(i,false);
+				
+				//it must be idle for the full threshold again before it is disabled
+				foundToBeUnusedLastModified[i] = System.nanoTime();
+				
+				//remove from list by moving the last one into this slot
+				disabledIndexes[d] = disabledIndexes[--disabledCount];
 			}
 		}
 		
@@ -103,6 +107,10 @@ public class DynamicDisableSubGraph {
 				considerForDisable = false;
 			}
 		}
+		if (considerForDisable && foundToHaveData(outputs)) {
+			//pending output, downstream has not taken it yet so the stage may be waiting for room
+			considerForDisable = false;
+		}
 		if (considerForDisable) {
 			//if not already disabled and over time
 			if ( (!disabler.disabled(activeItem))
@@ -3,29 +3,74 @@ package com.ociweb.pronghorn.stage.scheduling;
 import java.io.IOException;
 import java.util.Arrays;
 
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
 import com.ociweb.pronghorn.util.Appendables;
 
+/**
+ * Histogram of elapsed nanoseconds in the style of HdrHistogram. Each power of two is split
+ * into sub-buckets so every reported value is within 10^-digits of the recorded value,
+ * values below the sub-bucket count are recorded exactly.
+ *
+ * The sub-buckets of each power of two are held as a row which keeps its own total so percentile
+ * lookups skip whole rows and only walk the sub-buckets of the row holding the answer.
+ *
+ * All the rows are allocated up front so record never allocates, at the default 2 digits this is
+ * about 38 KB for each recorder. Record is owned by one thread. Other threads may take a snapshot
+ * or add this recorder to their own at any time without locking, the snapshot may miss the records
+ * made while it was copied but is always self consistent.
+ *
+ * Values larger than 2^42 ns (about 73 minutes) share the top bucket, the max is always exact.
+ */
 public class ElapsedTimeRecorder {
 
-	private final int[] buckets = new int[64]; 
-	private final long[] sums   = new long[64]; 
-	
-	
+	public static final int DEFAULT_DIGITS = 2;
+	private static final int MAX_MAGNITUDE = 42;
+
+	private final int digits;
+	private final int halfMagnitude;   //log2 of half the sub-bucket count
+	private final int halfCount;
+	private final long subBucketMask;
+	private final long[][] rows;       //halfCount sub-buckets each
+	private final long[] rowTotals;
+
 	private long totalCount;
 	private long maxValue;
-	
+
 	public ElapsedTimeRecorder() {
-				
+		this(DEFAULT_DIGITS);
 	}
-	
+
+	/**
+	 * @param digits significant decimal digits, 1 to 3
+	 */
+	public ElapsedTimeRecorder(int digits) {
+		if (digits<1 || digits>3) {
+			throw new UnsupportedOperationException("digits must be 1, 2 or 3");
+		}
+		this.digits = digits;
+		long largestExact = 2*(long)Math.pow(10, digits);
+		int subBucketMagnitude = 64 - Long.numberOfLeadingZeros(largestExact-1);
+		this.halfMagnitude = subBucketMagnitude-1;
+		this.halfCount = 1<<halfMagnitude;
+		this.subBucketMask = (1L<<subBucketMagnitude)-1;
+		int rowCount = 1+(indexOf(1L<<MAX_MAGNITUDE, halfMagnitude, subBucketMask)>>halfMagnitude);
+		this.rows = new long[rowCount][halfCount];
+		this.rowTotals = new long[rowCount];
+	}
+
 	public String toString() {
 		return report(new StringBuilder()).toString();
 	}
-	
+
 	public static long totalCount(ElapsedTimeRecorder that) {
 		return that.totalCount;
 	}
-	
+
+	public static int digits(ElapsedTimeRecorder that) {
+		return that.digits;
+	}
+
 	public <A extends Appendable> A report(A target) {
 		try {
 			Appendables.appendValue(target.append("Total:"), totalCount).append("\n");
@@ -46,83 +91,189 @@ public class ElapsedTimeRecorder {
 		Appendables.appendNearestTimeUnit(target, ElapsedTimeRecorder.elapsedAtPercentile(this, 1f), " max\n");
 		return target;
 	}
-	
+
 	public static void record(ElapsedTimeRecorder that, long valueNS) {
+		record(that, valueNS, 1);
+	}
 
-		int base = 64 - Long.numberOfLeadingZeros(valueNS);
-		that.buckets[base]++;
-		that.sums[base]+=valueNS;
-	
-		that.totalCount++;
+	/**
+	 * Records count occurrences of the same value, used when a batch of messages shares one timestamp.
+	 */
+	public static void record(ElapsedTimeRecorder that, long valueNS, long count) {
+		valueNS = Math.max(0, valueNS);
+		int index = index(that, valueNS);
+		that.rows[index>>that.halfMagnitude][index&(that.halfCount-1)] += count;
+		that.rowTotals[index>>that.halfMagnitude] += count;
+		that.totalCount += count;
 		that.maxValue = Math.max(that.maxValue, valueNS);
 	}
-	
+
+	private static int index(ElapsedTimeRecorder that, long value) {
+		return Math.min(indexLimit(that)-1, indexOf(value, that.halfMagnitude, that.subBucketMask));
+	}
+
+	private static int indexLimit(ElapsedTimeRecorder that) {
+		return that.rows.length<<that.halfMagnitude;
+	}
+
+	private static int indexOf(long value, int halfMagnitude, long subBucketMask) {
+		//power of two above the value, never less than the sub-bucket count
+		int bucket = (64 - Long.numberOfLeadingZeros(value | subBucketMask)) - (halfMagnitude+1);
+		int subBucket = (int)(value >>> bucket);
+		return ((bucket+1)<<halfMagnitude) + (subBucket-(1<<halfMagnitude));
+	}
+
+	private static long lowestValue(ElapsedTimeRecorder that, int index) {
+		int bucket = (index>>that.halfMagnitude)-1;
+		int subBucket = (index&(that.halfCount-1))+that.halfCount;
+		if (bucket<0) {
+			subBucket -= that.halfCount;
+			bucket = 0;
+		}
+		return ((long)subBucket)<<bucket;
+	}
+
+	private static long highestValue(ElapsedTimeRecorder that, int index) {
+		int bucket = Math.max(0, (index>>that.halfMagnitude)-1);
+		return lowestValue(that, index) + (1L<<bucket) - 1;
+	}
+
+	/**
+	 * @return highest value equivalent to the recorded value found at this percentile, never larger than the max
+	 */
 	public static long elapsedAtPercentile(ElapsedTimeRecorder that, double pct) {
 		if (pct>1) {
 			throw new UnsupportedOperationException("pct should be entered as a value between 0 and 1 where 1 represents 100% and .5 represents 50%");
-		}		
+		}
 		long targetCount = (long)Math.rint(pct * that.totalCount);
 		if (targetCount==that.totalCount) {
 			return that.maxValue;
 		}
-		
-		if (0 != targetCount) {
-			int i = 0;
-			while (i<that.buckets.length-1) {
-				
-				long sum = that.sums[i];
-				int b = that.buckets[i++];
-		
-				if (targetCount<=b) {
-				
-					long floor = i<=1 ? 0 : (1L<<(i-2));					
-					long avg = sum/(long)b;
-										
-					long dif;
-					int half = b>>1;
-					if (half>1) {
-						long center = avg-floor;
-						
-						//weighted to the average
-						if (targetCount<half) {
-							dif = (center * targetCount)/half ;						
-						} else {
-							
-							dif = center+(((floor-center) * (targetCount-half))/half) ;
-						}
-					} else {
-						//this is the old linear less accurate solution
-						dif = ((2*floor) * targetCount)/(long)b ; 
+		if (0 == targetCount) {
+			return 0;
+		}
+		long[] totals = that.rowTotals;
+		for(int r = 0; r<totals.length; r++) {
+			long rowTotal = totals[r];
+			if (targetCount > rowTotal) {
+				targetCount -= rowTotal;
+			} else {
+				long[] local = that.rows[r];
+				for(int i = 0; i<local.length; i++) {
+					if ((targetCount -= local[i]) <= 0) {
+						return Math.min(that.maxValue, highestValue(that, (r<<that.halfMagnitude)+i));
 					}
-					return Math.min(that.maxValue, floor + dif); 
-					
-				} else {
-					targetCount -= b;				
 				}
 			}
-			return that.maxValue;		
-		} else {
-			return 0;
 		}
+		return that.maxValue;
 	}
 
+	/**
+	 * Adds all the records of source, when the digits differ each source bucket is added at its lowest value.
+	 * Source may be recording on another thread.
+	 */
 	public void add(ElapsedTimeRecorder source) {
-		int i = buckets.length;
-		while (--i>=0) {
-			buckets[i] += source.buckets[i];	
-			sums[i]+= source.sums[i];
+		int r = source.rows.length;
+		while (--r>=0) {
+			long[] sourceRow = source.rows[r];
+			if (digits == source.digits) {
+				long[] local = rows[r];
+				long total = 0;
+				int i = local.length;
+				while (--i>=0) {
+					long c = sourceRow[i];
+					local[i] += c;
+					total += c;
+				}
+				rowTotals[r] += total;
+				totalCount += total;
+			} else {
+				int i = sourceRow.length;
+				while (--i>=0) {
+					long c = sourceRow[i];
+					if (0 != c) {
+						record(this, lowestValue(source, (r<<source.halfMagnitude)+i), c);
+					}
+				}
+			}
 		}
-		totalCount += source.totalCount;
 		maxValue = Math.max(maxValue, source.maxValue);
-		
+	}
+
+	/**
+	 * Lock free copy of source into target, source may be recording on another thread.
+	 */
+	public static ElapsedTimeRecorder snapshot(ElapsedTimeRecorder source, ElapsedTimeRecorder target) {
+		clear(target);
+		target.add(source);
+		return target;
+	}
+
+	/**
+	 * Compact form for the telemetry pipes, only the non zero buckets are written as packed gaps and counts.
+	 */
+	public static void write(ElapsedTimeRecorder that, DataOutputBlobWriter<?> out) {
+		long[][] rows = that.rows;
+		int used = 0;
+		int r = rows.length;
+		while (--r>=0) {
+			long[] local = rows[r];
+			int i = local.length;
+			while (--i>=0) {
+				if (0 != local[i]) {
+					used++;
+				}
+			}
+		}
+		out.writePackedLong(that.digits);
+		out.writePackedLong(that.maxValue);
+		out.writePackedLong(used);
+		int last = -1;
+		for(r = 0; r<rows.length && used>0; r++) {
+			long[] local = rows[r];
+			for(int i = 0; i<local.length && used>0; i++) {
+				long c = local[i];
+				if (0 != c) {
+					int index = (r<<that.halfMagnitude)+i;
+					out.writePackedLong(index-last);
+					out.writePackedLong(c);
+					last = index;
+					used--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the records written by write, the digits of the writer may differ from this recorder.
+	 */
+	public static void read(ElapsedTimeRecorder that, DataInputBlobReader<?> in) {
+		int sourceDigits = (int)in.readPackedLong();
+		long sourceMax = in.readPackedLong();
+		int used = (int)in.readPackedLong();
+		ElapsedTimeRecorder layout = sourceDigits == that.digits ? that : new ElapsedTimeRecorder(sourceDigits);
+		int index = -1;
+		while (--used>=0) {
+			index += (int)in.readPackedLong();
+			long c = in.readPackedLong();
+			if (index<0 || index>=indexLimit(layout)) {
+				throw new UnsupportedOperationException("corrupt elapsed time histogram");
+			}
+			record(that, lowestValue(layout, index), c);
+		}
+		that.maxValue = Math.max(that.maxValue, sourceMax);
 	}
 
 	public static void clear(ElapsedTimeRecorder that) {
 		that.totalCount = 0;
 		that.maxValue = 0;
-		Arrays.fill(that.buckets, 0);	
-		Arrays.fill(that.sums, 0);
+		Arrays.fill(that.rowTotals, 0);
+		int r = that.rows.length;
+		while (--r>=0) {
+			Arrays.fill(that.rows[r], 0);
+		}
 	}
-	
-	
+
+
 }
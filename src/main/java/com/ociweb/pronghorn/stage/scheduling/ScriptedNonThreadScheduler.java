@@ -18,13 +18,19 @@ import com.ociweb.pronghorn.util.ma.RunningStdDev;
 import com.ociweb.pronghorn.util.math.PMath;
 import com.ociweb.pronghorn.util.math.ScriptedSchedule;
 
-public class ScriptedNonThreadScheduler extends StageScheduler implements Runnable {
+public class ScriptedNonThreadScheduler extends StageScheduler implements Runnable, SubGraphDisableable {
 
 	//should have Numa truned on           -XX:+UseNUMA
 	//should have priorities on for linux  -XX:+UseThreadPriorities -XX:+UseNUMA
 	//thread pinning may be good as well.
 	
     public static Appendable debugStageOrder = null; //turn on to investigate performance issues.
+    
+    //turn on to skip runs of the script whose pipes have been idle, producers are always run.
+    //a run is not skipped while any of its pipes has content, so stages waiting on room for output keep running,
+    //stages which hold work internally with all their pipes empty (eg timed flush) must not be used with this.
+    public static boolean skipIdleSubGraphs = false;
+    public static long idleSubGraphThresholdNS = 1_000_000_000L;
 	
     private static final int NS_OPERATOR_FLOOR = 1000; //1 micro seconds
 	private AtomicBoolean shutdownRequested = new AtomicBoolean(false);;
@@ -90,6 +96,12 @@ public class ScriptedNonThreadScheduler extends StageScheduler implements Runnab
     
 	private ElapsedTimeRecorder sleepETL = null;//new ElapsedTimeRecorder();
 	
+	//only built when skipIdleSubGraphs is set
+	private DynamicDisableSubGraph idleSubGraphs;
+	private int[] skipScript;        //length of each run at the head of the run
+	private int[] subGraphOfIdx;     //subGraph for the head of each run, -1 for all others
+	private boolean[] subGraphDisabled;
+	
     private byte[] stateArray;
     
     public int indexOfStage(PronghornStage stage) {
@@ -358,6 +370,80 @@ public class ScriptedNonThreadScheduler extends StageScheduler implements Runnab
 
         syncInputHeadValues(producerInputPipes, producerInputPipeHeads);
         syncInputHeadValues(inputPipes, inputPipeHeads);
+        
+        if (skipIdleSubGraphs) {
+        	buildIdleSubGraphs();
+        }
+	}
+
+	private void buildIdleSubGraphs() {
+		idleSubGraphs = null;
+		subGraphOfIdx = null;
+		skipScript = null;
+		subGraphDisabled = null;
+		
+		int[] script = schedule.script;
+		int[] localSkip = buildSkipScript(schedule, graphManager, stages, script);
+		int[] localSubGraphs = new int[script.length];
+		int count = 0;
+		for(int idx = 0; idx<script.length; idx++) {
+			localSubGraphs[idx] = localSkip[idx]>0 ? count++ : -1;
+		}
+		if (0 == count) {
+			return;
+		}
+		
+		DynamicDisableSubGraph local = new DynamicDisableSubGraph(count, this, idleSubGraphThresholdNS);
+		for(int idx = 0; idx<script.length; idx++) {
+			if (localSubGraphs[idx]>=0) {
+				int[] ids = new int[localSkip[idx]];
+				for(int r = 0; r<ids.length; r++) {
+					ids[r] = stages[script[idx+r]].stageId;
+				}
+				local.addSubGraph(localSubGraphs[idx], this, subGraphPipes(ids, false), subGraphPipes(ids, true));
+			}
+		}
+		
+		subGraphDisabled = new boolean[count];
+		skipScript = localSkip;
+		subGraphOfIdx = localSubGraphs;
+		idleSubGraphs = local;
+	}
+
+	private Pipe[] subGraphPipes(int[] stageIds, boolean includeOutputs) {
+		int total = 0;
+		int i = stageIds.length;
+		while (--i>=0) {
+			total += GraphManager.getInputPipeCount(graphManager, stageIds[i]);
+			if (includeOutputs) {
+				total += GraphManager.getOutputPipeCount(graphManager, stageIds[i]);
+			}
+		}
+		Pipe[] result = new Pipe[total];
+		i = stageIds.length;
+		while (--i>=0) {
+			int c = GraphManager.getInputPipeCount(graphManager, stageIds[i]);
+			for(int k = 1; k<=c; k++) {
+				result[--total] = GraphManager.getInputPipe(graphManager, stageIds[i], k);
+			}
+			if (includeOutputs) {
+				c = GraphManager.getOutputPipeCount(graphManager, stageIds[i]);
+				for(int k = 1; k<=c; k++) {
+					result[--total] = GraphManager.getOutputPipe(graphManager, stageIds[i], k);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void disable(int idx, boolean b) {
+		subGraphDisabled[idx] = b;
+	}
+
+	@Override
+	public boolean disabled(int idx) {
+		return subGraphDisabled[idx];
 	}
 
     private static void syncInputHeadValues(Pipe[] pipes, long[] heads) {
@@ -630,6 +716,10 @@ public class ScriptedNonThreadScheduler extends StageScheduler implements Runnab
 						scheduleIdx = that.runBlock(scheduleIdx, script, that.stages, that.graphManager,
 								GraphManager.isTelemetryEnabled(that.graphManager));
 		        }
+				
+				if (null != that.idleSubGraphs) {
+					that.idleSubGraphs.processUnit();
+				}
 		
 				checkForLongRun(that);
 	
@@ -836,6 +926,15 @@ public class ScriptedNonThreadScheduler extends StageScheduler implements Runnab
 		while ((scheduleIdx<script.length)
 				&& ((inProgressIdx = script[scheduleIdx++]) >= 0)) {
 			
+			if (null != subGraphOfIdx) {
+				int subGraph = subGraphOfIdx[scheduleIdx-1];
+				if (subGraph>=0 && subGraphDisabled[subGraph]) {
+					//jump over the whole idle run, none of these run() methods are called
+					scheduleIdx += skipScript[scheduleIdx-1]-1;
+					continue;
+				}
+			}
+			
 			long start = System.nanoTime();
 			if (start>SLAStartNano) {
 				SLAStart = SLABase + ((start-SLAStartNano)/1_000_000);  				
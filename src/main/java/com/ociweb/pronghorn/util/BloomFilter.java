@@ -39,7 +39,7 @@ public class BloomFilter implements Serializable {
         assert(p<=1);
     }
     
-    private static int hashFunCount(long n, double p) {
+    static int hashFunCount(long n, double p) {
         return (int)Math.round(Math.log(2.0) * bitsInFilter(n,p) / n);
     }
     
@@ -47,7 +47,7 @@ public class BloomFilter implements Serializable {
         return Arrays.equals(this.bloomSeeds, that.bloomSeeds);
     }
     
-    private static long bitsInFilter(long n, double p) {
+    static long bitsInFilter(long n, double p) {
         return (long)Math.ceil((n * Math.log(p)) / Math.log(1.0d / (Math.pow(2.0, Math.log(2.0)))));
     }
         
@@ -126,7 +126,24 @@ public class BloomFilter implements Serializable {
         return n;
     }
     
-    private static int[] buildSeeds(int k) {
+    //used to carry existing state over to MappedRollingBloomFilter
+    double falsePositiveRate() {
+        return p;
+    }
+    
+    int bloomBits() {
+        return bloomBits;
+    }
+    
+    int[] seeds() {
+        return bloomSeeds;
+    }
+    
+    long[] bloom() {
+        return bloom;
+    }
+    
+    static int[] buildSeeds(int k) {
         int[] result = new int[k];
         synchronized(r) {
             while (--k>=0) {
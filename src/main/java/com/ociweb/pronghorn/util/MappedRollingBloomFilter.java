@@ -0,0 +1,295 @@
+package com.ociweb.pronghorn.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ociweb.pronghorn.pipe.util.hash.MurmurHash;
+
+/**
+ * Rolling bloom filter with the same behavior as RollingBloomFilter but with both bit
+ * arrays held in a memory mapped file. Reopening the file restores the filter instantly,
+ * nothing is deserialized. Dirty pages are forced to disk by checkpoint at a fixed interval.
+ *
+ * File layout, header followed by the two bit arrays:
+ *   magic, version, k, n, p, bloomBits, memberCount, k seeds, (padding), bloom, bloom2
+ */
+public class MappedRollingBloomFilter {
+
+	private final static Logger logger = LoggerFactory.getLogger(MappedRollingBloomFilter.class);
+
+	private static final long MAGIC = 0x50484246_4C545231L; //PHBFLTR1
+	private static final int VERSION = 1;
+
+	private static final int OFF_MAGIC = 0;
+	private static final int OFF_VERSION = 8;
+	private static final int OFF_K = 12;
+	private static final int OFF_N = 16;
+	private static final int OFF_P = 24;
+	private static final int OFF_BITS = 32;
+	private static final int OFF_MEMBERS = 40;
+	private static final int OFF_SEEDS = 48;
+
+	public static final long DEFAULT_FORCE_INTERVAL_MS = 1_000;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer mapped;
+	private final LongBuffer bloom;
+	private final LongBuffer bloom2;
+	private final int[] bloomSeeds;
+	private final long bloomMask;
+	private final long n;
+	private final long half;
+	private final long forceIntervalMs;
+
+	private long memberCount;
+	private boolean dirty;
+	private long lastForce;
+
+	/**
+	 * Opens the existing filter in this file or creates a new one if the file is missing
+	 * or was written with different parameters.
+	 *
+	 * @param storage backing file
+	 * @param n number of items in the filter before it rolls
+	 * @param p probability of false positives
+	 */
+	public static MappedRollingBloomFilter open(File storage, long n, double p) throws IOException {
+		return open(storage, n, p, DEFAULT_FORCE_INTERVAL_MS);
+	}
+
+	public static MappedRollingBloomFilter open(File storage, long n, double p, long forceIntervalMs) throws IOException {
+		int k = BloomFilter.hashFunCount(n, p);
+		int bits = Math.max(6, (int)Math.ceil(Math.log(BloomFilter.bitsInFilter(n, p))/Math.log(2)));
+
+		if (storage.exists() && storage.length() >= OFF_SEEDS) {
+			RandomAccessFile raf = new RandomAccessFile(storage, "r");
+			try {
+				if (MAGIC == raf.readLong() && VERSION == raf.readInt() && k == raf.readInt()
+					&& n == raf.readLong() && Double.doubleToLongBits(p) == raf.readLong()
+					&& bits == raf.readInt() && storage.length() == fileSize(k, bits)) {
+					return new MappedRollingBloomFilter(storage, n, p, k, bits, null, forceIntervalMs);
+				}
+			} finally {
+				raf.close();
+			}
+			logger.info("bloom filter file {} does not match the requested filter, starting a new one", storage);
+			storage.delete();
+		}
+		return new MappedRollingBloomFilter(storage, n, p, k, bits, BloomFilter.buildSeeds(k), forceIntervalMs);
+	}
+
+	/**
+	 * Creates a new mapped filter holding a copy of the existing heap based filter,
+	 * used when moving from the old serialized files.
+	 */
+	public static MappedRollingBloomFilter open(File storage, RollingBloomFilter source, long forceIntervalMs) throws IOException {
+		if (storage.exists()) {
+			storage.delete();
+		}
+		int[] seeds = source.seeds();
+		MappedRollingBloomFilter result = new MappedRollingBloomFilter(storage, source.memberSoftLimit(), source.falsePositiveRate(),
+				                                                       seeds.length, source.bloomBits(), seeds, forceIntervalMs);
+		result.bloom.put(source.bloom());
+		result.bloom2.put(source.secondBloom());
+		result.bloom.rewind();
+		result.bloom2.rewind();
+		result.memberCount = source.memberCount();
+		result.mapped.putLong(OFF_MEMBERS, result.memberCount);
+		result.force();
+		return result;
+	}
+
+	/**
+	 * @return true if this file was written by MappedRollingBloomFilter
+	 */
+	public static boolean isMappedFile(File storage) {
+		if (!storage.exists() || storage.length() < OFF_SEEDS) {
+			return false;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(storage, "r");
+			try {
+				return MAGIC == raf.readLong();
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static long fileSize(int k, int bits) {
+		return bloomOffset(k) + (2L * 8L * bloomLongs(bits));
+	}
+
+	private static int bloomOffset(int k) {
+		return (OFF_SEEDS + (4*k) + 7) & ~7;
+	}
+
+	private static int bloomLongs(int bits) {
+		return 1<<(bits-6);
+	}
+
+	private MappedRollingBloomFilter(File storage, long n, double p, int k, int bits, int[] newSeeds, long forceIntervalMs) throws IOException {
+
+		long size = fileSize(k, bits);
+		if (size > Integer.MAX_VALUE) {
+			throw new UnsupportedOperationException("Filter is too large to be mapped, reduce n or increase p");
+		}
+
+		this.n = n;
+		this.half = n/2;
+		this.forceIntervalMs = forceIntervalMs;
+		this.bloomMask = (1L<<bits)-1;
+		this.file = new RandomAccessFile(storage, "rw");
+		this.file.setLength(size);
+		this.mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+		if (null == newSeeds) {
+			bloomSeeds = new int[k];
+			int i = k;
+			while (--i>=0) {
+				bloomSeeds[i] = mapped.getInt(OFF_SEEDS+(4*i));
+			}
+			memberCount = mapped.getLong(OFF_MEMBERS);
+		} else {
+			bloomSeeds = newSeeds;
+			int i = k;
+			while (--i>=0) {
+				mapped.putInt(OFF_SEEDS+(4*i), newSeeds[i]);
+			}
+			mapped.putLong(OFF_MEMBERS, 0);
+			mapped.putInt(OFF_BITS, bits);
+			mapped.putLong(OFF_P, Double.doubleToLongBits(p));
+			mapped.putLong(OFF_N, n);
+			mapped.putInt(OFF_K, k);
+			mapped.putInt(OFF_VERSION, VERSION);
+			mapped.force();
+			mapped.putLong(OFF_MAGIC, MAGIC); //written last so partial files are never trusted
+			mapped.force();
+		}
+
+		int longs = bloomLongs(bits);
+		int offset = bloomOffset(k);
+		bloom = slice(mapped, offset, longs);
+		bloom2 = slice(mapped, offset + (8*longs), longs);
+		lastForce = System.currentTimeMillis();
+	}
+
+	private static LongBuffer slice(MappedByteBuffer mapped, int offset, int longs) {
+		ByteBuffer dup = mapped.duplicate();
+		dup.position(offset);
+		dup.limit(offset + (8*longs));
+		return dup.slice().asLongBuffer();
+	}
+
+	public long memberCount() {
+		return memberCount;
+	}
+
+	public long memberSoftLimit() {
+		return n;
+	}
+
+	public float pctConsumed() {
+		int count = 0;
+		int i = bloom.limit();
+		while (--i>=0) {
+			count += Long.bitCount(bloom.get(i));
+		}
+		return count/(float)(bloom.limit()*64);
+	}
+
+	public boolean mayContain(byte[] source, int sourcePos, int sourceLen, int sourceMask) {
+		int i = bloomSeeds.length;
+		while (--i>=0) {
+			long h = MurmurHash.hash32(source, sourcePos, sourceLen, sourceMask, bloomSeeds[i])&bloomMask;
+			if (0 == (bloom.get(0x7FFF_FFFF & (int)(h>>6)) & (1L<<(h&0x3F)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns 0 if this was a new addition, and 1 if this may have been and old value
+	 */
+	public int addValue(byte[] source, int sourcePos, int sourceLen, int sourceMask) {
+		int i = bloomSeeds.length;
+		int seen = 1;
+		while (--i>=0) {
+			seen = updateBloom(seen, MurmurHash.hash32(source, sourcePos, sourceLen, sourceMask, bloomSeeds[i]));
+		}
+		memberCount -= (seen-1);
+		mapped.putLong(OFF_MEMBERS, memberCount);
+		dirty = true;
+		return seen;
+	}
+
+	private int updateBloom(int seen, int hash32) {
+		seen = updateBloom(bloom, bloomMask, seen, hash32);
+
+		if (memberCount>half) {
+			//also record here since we are in the second half
+			updateBloom(bloom2, bloomMask, 1, hash32);
+
+			if (memberCount>=n) {
+				//switch to the second now that we have reached the end.
+				memberCount = n/2;
+				int j = bloom.limit();
+				while (--j>=0) {
+					bloom.put(j, bloom2.get(j));
+					bloom2.put(j, 0);
+				}
+			}
+		}
+		return seen;
+	}
+
+	private static int updateBloom(LongBuffer bloom, long bloomMask, int seen, int hash32) {
+		long h = hash32 & bloomMask;
+		int idx = 0x7FFF_FFFF & (int)(h>>6);
+		int shift = (int)h&0x3F;
+		long val = 1L<<shift; //values 0 to 63
+		long prev = bloom.get(idx);
+		seen = seen & (int)((prev&val)>>shift);
+		bloom.put(idx, prev | val);
+		return seen;
+	}
+
+	/**
+	 * Forces the dirty pages to disk if anything changed and the force interval has passed.
+	 * @return true if the data was forced
+	 */
+	public boolean checkpoint(long now) {
+		if (dirty && (now-lastForce) >= forceIntervalMs) {
+			force();
+			lastForce = now;
+			return true;
+		}
+		return false;
+	}
+
+	public void force() {
+		mapped.force();
+		dirty = false;
+	}
+
+	public void close() {
+		force();
+		try {
+			file.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
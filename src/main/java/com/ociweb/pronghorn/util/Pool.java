@@ -5,11 +5,13 @@ public class Pool<T>  {
     private final T[] members;
     private final long[] keys;
     private final byte[] locked;
+    private final PoolSlotIndex index;
     
     public Pool(T[] members) {
         this.members = members;
         this.keys = new long[members.length];
         this.locked = new byte[members.length];
+        this.index = new PoolSlotIndex(members.length);
     }
     
     public T[] members() {
@@ -17,28 +19,19 @@ public class Pool<T>  {
     }
     
     public T get(long key) {        
-        int i = keys.length;
-        int idx = -1;
-        //linear search for this key. TODO: if member array is 100 or bigger we should consider hashTable
-        while (--i>=0) {
+        int idx = PoolSlotIndex.slot(index, key);
+        if (idx>=0) {
             //found and returned member that matches key and was locked
-            if (key == keys[i] && 1 == locked[i]) {
-                return members[i];
-            } else {
-                //this slot was not locked so remember it
-                //we may want to use this slot if key is not found.
-                if (idx < 0 && 0 == locked[i]) {
-                    idx = i;
-                }
-            }
+            return members[idx];
         }
-        return startNewLock(key, idx);
+        return startNewLock(key, PoolSlotIndex.freeBelow(index, keys.length));
     }
 
     private T startNewLock(long key, int idx) {
         if (idx>=0) {
             locked[idx] = 1;
             keys[idx] = key;
+            PoolSlotIndex.lock(index, key, idx);
             return members[idx];
         } else {
             return null;
@@ -46,13 +39,10 @@ public class Pool<T>  {
     }
     
     public void release(long key) {
-        int i = keys.length;
-        while (--i>=0) {
-            if (key==keys[i]) {
-                locked[i] = 0;
-                return;
-            }
-        }        
+        int i = PoolSlotIndex.unlock(index, key);
+        if (i>=0) {
+            locked[i] = 0;
+        }
     }
     
     public int locks() {
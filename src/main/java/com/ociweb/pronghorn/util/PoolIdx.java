@@ -7,17 +7,21 @@ public final class PoolIdx  {
 
     private final long[] keys;
     private final byte[] locked;
+    private final PoolSlotIndex index;
     private final int groups;
     private final int step;
     private long locksTaken = 0;
     private long locksReleased = 0;
     private Runnable firstUsage;
     private Runnable noLocks;
+    //set by release after the slot is unlocked, the owning stage then drops released keys from the index
+    private volatile boolean releasePending;
     private final static Logger logger = LoggerFactory.getLogger(PoolIdx.class);
     
     public PoolIdx(int length, int groups) {
         this.keys = new long[length];
         this.locked = new byte[length];
+        this.index = new PoolSlotIndex(length);
         this.groups = groups;
         
         if ((length%groups != 0) || (groups>length)) {
@@ -55,25 +59,9 @@ public final class PoolIdx  {
     }
     
     public static int getIfReserved(PoolIdx that, long key) {   
-    	
-    	long[] localKeys = that.keys;
-    	byte[] localLocked = that.locked;
-        int i = localKeys.length;
-        int idx = -1;
-        //linear search for this key. TODO: if member array is 100 or bigger we should consider hashTable
-        while (--i>=0) {
-            //found and returned member that matches key and was locked
-            if (0 == localLocked[i] || key != localKeys[i] ) {
-            	//this slot was not locked so remember it
-            	//we may want to use this slot if key is not found.
-            	if (idx < 0 && 0 == localLocked[i]) {
-            		idx = i;
-            	}
-            } else {
-            	return i;//this is the rare case
-            }
-        }
-        return -1;
+    	//released keys stay in the index until the owner drops them so check the lock
+    	int idx = PoolSlotIndex.slot(that.index, key);
+    	return (idx>=0 && 1==that.locked[idx]) ? idx : -1;
     }
     
     public void setFirstUsageCallback(Runnable run) {
@@ -90,33 +78,13 @@ public final class PoolIdx  {
     
     public static int get(PoolIdx that, long key) {   
     	
-        long[] localKeys = that.keys;
-        byte[] localLocked = that.locked;
-        
-        int idx = -1;
-       
-        int g = that.groups;
-        while (--g>=0) {
-        	int j = that.step;        
-	        while (--j>=0) {
-	        	///////////
-	        	int temp = (g*that.step)+j;
-	            /////////
-	            //found and returned member that matches key and was locked
-	            if (key == localKeys[temp] && 1 == localLocked[temp]) {
-	                return temp;
-	            } else {
-	                //this slot was not locked so remember it
-	                //we may want to use this slot if key is not found.
-	                if (idx < 0 && 0 == localLocked[temp]) {
-	                    idx = temp;
-	                }
-	            }
-	        }
-        }
-        
-        
-        return startNewLock(that, key, idx);
+    	int idx = reserved(that, key);
+    	if (idx>=0) {
+    		//found and returned member that matches key and was locked
+    		return idx;
+    	}
+    	//groups are walked from the top down so this is the highest free slot
+        return startNewLock(that, key, PoolSlotIndex.freeBelow(that.index, that.keys.length));
     }
     
 
@@ -128,33 +96,43 @@ public final class PoolIdx  {
      */
     public int get(long key, PoolIdxPredicate isOk) {   
     	
-        int idx = -1;
-        
-        int g = groups;
-        while (--g>=0) {
-        	int j = step;        
-	        while (--j>=0) {
-	        	///////////
-	        	int temp = (g*step)+j;
-	            /////////
-	        	
-	        	//found and returned member that matches key and was locked
-	            if (key == keys[temp] && 1 == locked[temp]) {
-	            	
-	                return temp;
-	            } else {
-	                //this slot was not locked so remember it
-	                //we may want to use this slot if key is not found.
-	                if (idx < 0 && 0 == locked[temp] && isOk.isOk(temp)) {
-	                    idx = temp;
-	                }
-	            }
-	        }  
-        }
-
+    	int idx = reserved(this, key);
+    	if (idx>=0) {
+    		//found and returned member that matches key and was locked
+    		return idx;
+    	}
+    	
+    	//take the highest free slot which is acceptable
+    	idx = PoolSlotIndex.freeBelow(index, keys.length);
+    	while (idx>=0 && !isOk.isOk(idx)) {
+    		idx = PoolSlotIndex.freeBelow(index, idx);
+    	}
         return startNewLock(this, key, idx);
     }
 
+    /**
+     * Only called by the owner, drops the keys released by other stages from the index
+     * before looking up this key.
+     */
+    private static int reserved(PoolIdx that, long key) {
+    	if (that.releasePending) {
+    		that.releasePending = false;
+    		int i = that.keys.length;
+    		while (--i>=0) {
+    			if (0==that.locked[i] && !PoolSlotIndex.isFree(that.index, i)) {
+    				PoolSlotIndex.unlock(that.index, that.keys[i]);
+    			}
+    		}
+    	}
+    	int idx = PoolSlotIndex.slot(that.index, key);
+    	if (idx>=0 && 0==that.locked[idx]) {
+    		//released since the sweep above
+    		PoolSlotIndex.unlock(that.index, key);
+    		idx = -1;
+    	}
+    	return idx;
+    }
+
     private int failureCount = 0;
     
     private static int startNewLock(PoolIdx that, long key, int idx) {
@@ -165,6 +143,7 @@ public final class PoolIdx  {
         	that.locksTaken++;
         	that.locked[idx] = 1;
         	that.keys[idx] = key;
+        	PoolSlotIndex.lock(that.index, key, idx);
             return idx;
         } else {
         	
@@ -182,24 +161,29 @@ public final class PoolIdx  {
     }
     
     /**
+     * May be called by stages other than the owner. Like the original single byte store this
+     * only clears the lock, the index is left for the owner to clean up on its next lookup.
      * 
      * @param key
      * @return the released pool index value
      */
     public int release(long key) {
-        int i = keys.length;
-        while (--i>=0) {
-            if (key==keys[i]) {
-            	locksReleased++;
-            	//System.err.println("locks tken "+locksTaken+" and released "+locksReleased);
-            	if ((locksReleased==locksTaken) && (noLocks!=null)) {
-            		noLocks.run();
-            	}
-                locked[i] = 0;
-                return i;
-            }
-        } 
-        return -1;
+    	int i = PoolSlotIndex.slot(index, key);
+    	if (i<0 || key!=keys[i] || 0==locked[i]) {
+    		//the owner may be shifting entries of the index, the locked keys never move
+    		i = keys.length;
+    		while (--i>=0 && (key!=keys[i] || 0==locked[i])) {
+    		}
+    	}
+    	if (i>=0) {
+    		locksReleased++;
+    		if ((locksReleased==locksTaken) && (noLocks!=null)) {
+    			noLocks.run();
+    		}
+    		locked[i] = 0;
+    		releasePending = true;
+    	}
+    	return i;
     }
     
     public int locks() {
@@ -0,0 +1,121 @@
+package com.ociweb.pronghorn.util;
+
+/**
+ * Open addressing index from key to slot for the reserved members of Pool and PoolIdx,
+ * along with a bit set of the free slots so a new slot is found without walking the locked ones.
+ * Only the locked slots are held in the index. Like the pools this is single writer only,
+ * PoolIdx.release may read it from other stages but never changes it.
+ */
+final class PoolSlotIndex {
+
+    private final long[] hashKeys;
+    private final int[] hashSlots; //slot+1, zero is empty
+    private final int mask;
+    private final long[] free;
+
+    PoolSlotIndex(int length) {
+        int size = 1<<(32-Integer.numberOfLeadingZeros((Math.max(1, length)*2)-1)); //at most half full
+        this.hashKeys = new long[size];
+        this.hashSlots = new int[size];
+        this.mask = size-1;
+        this.free = new long[(length+63)>>6];
+        int i = length;
+        while (--i>=0) {
+            free[i>>6] |= (1L<<(i&63));
+        }
+    }
+
+    private static int hash(long key, int mask) {
+        long h = key*0x9E3779B97F4A7C15L;
+        return ((int)(h ^ (h>>>32))) & mask;
+    }
+
+    /**
+     * @return the locked slot for this key or -1
+     */
+    static int slot(PoolSlotIndex that, long key) {
+        int[] slots = that.hashSlots;
+        long[] keys = that.hashKeys;
+        int h = hash(key, that.mask);
+        int s;
+        while (0 != (s = slots[h])) {
+            if (key == keys[h]) {
+                return s-1;
+            }
+            h = (h+1) & that.mask;
+        }
+        return -1;
+    }
+
+    static void lock(PoolSlotIndex that, long key, int slot) {
+        int h = hash(key, that.mask);
+        while (0 != that.hashSlots[h]) {
+            h = (h+1) & that.mask;
+        }
+        that.hashKeys[h] = key;
+        that.hashSlots[h] = slot+1;
+        that.free[slot>>6] &= ~(1L<<(slot&63));
+    }
+
+    /**
+     * @return the slot which was locked for this key or -1 if it was not locked
+     */
+    static int unlock(PoolSlotIndex that, long key) {
+        int[] slots = that.hashSlots;
+        long[] keys = that.hashKeys;
+        int mask = that.mask;
+        int h = hash(key, mask);
+        int s;
+        while (0 != (s = slots[h])) {
+            if (key == keys[h]) {
+                //backward shift so no tombstones are needed
+                int hole = h;
+                int j = (h+1) & mask;
+                while (0 != slots[j]) {
+                    int home = hash(keys[j], mask);
+                    //move j into the hole unless its home lies cyclically in (hole, j]
+                    if (((j-home)&mask) >= ((j-hole)&mask)) {
+                        keys[hole] = keys[j];
+                        slots[hole] = slots[j];
+                        hole = j;
+                    }
+                    j = (j+1) & mask;
+                }
+                slots[hole] = 0;
+                int slot = s-1;
+                that.free[slot>>6] |= (1L<<(slot&63));
+                return slot;
+            }
+            h = (h+1) & mask;
+        }
+        return -1;
+    }
+
+    static boolean isFree(PoolSlotIndex that, int slot) {
+        return 0 != (that.free[slot>>6] & (1L<<(slot&63)));
+    }
+
+    /**
+     * Free slots are returned from the top down, the same order the linear scans used.
+     *
+     * @param limit exclusive upper bound
+     * @return highest free slot below limit or -1
+     */
+    static int freeBelow(PoolSlotIndex that, int limit) {
+        if (limit<=0) {
+            return -1;
+        }
+        long[] local = that.free;
+        int last = limit-1;
+        int w = last>>6;
+        long bits = local[w] & (-1L>>>(63-(last&63)));
+        while (0 == bits) {
+            if (--w<0) {
+                return -1;
+            }
+            bits = local[w];
+        }
+        return (w<<6) + (63-Long.numberOfLeadingZeros(bits));
+    }
+
+}
@@ -15,6 +15,10 @@ public class RollingBloomFilter extends BloomFilter {
 		
 	}
 
+	long[] secondBloom() {
+		return bloom2;
+	}
+
 	 public long estimatedSize() {
 		 return super.estimatedSize()+(8L*bloom2.length)+8L;
 	 }
@@ -0,0 +1,517 @@
+package com.ociweb.pronghorn.util.columns;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Same record layout and static accessors as BackingData but the values are held outside the heap,
+ * either in a memory mapped file or in direct buffers. Record counts are only limited by the
+ * address space so tables much larger than the heap can be used without GC cost.
+ *
+ * Reopening a mapped file with the same TypeDef and record count restores every record instantly,
+ * nothing is deserialized.
+ *
+ * File layout, header followed by the four regions each in record order:
+ *   magic, version, longsPerRecord, intsPerRecord, shortsPerRecord, bytesPerRecord, recordCount, (padding), longs, ints, shorts, bytes
+ *
+ * The memory is split into power of two chunks since a single buffer can not exceed 2GB.
+ * Every region starts on an 8 byte boundary so no value is ever split across two chunks.
+ */
+public class MappedBackingData<T> {
+
+    private final static Logger logger = LoggerFactory.getLogger(MappedBackingData.class);
+
+    private static final long MAGIC = 0x50484D41_50424B31L; //PHMAPBK1
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 8;
+    private static final int OFF_LONGS = 12;
+    private static final int OFF_INTS = 16;
+    private static final int OFF_SHORTS = 20;
+    private static final int OFF_BYTES = 24;
+    private static final int OFF_RECORDS = 28;
+
+    public static final int DEFAULT_CHUNK_SHIFT = 30; //1GB
+
+    private final ByteBuffer[] chunks;
+    private final int chunkShift;
+    private final long chunkMask;
+    private final RandomAccessFile file;
+    private final boolean restored;
+
+    private final long longRegion;
+    private final long intRegion;
+    private final long shortRegion;
+    private final long byteRegion;
+    private final long totalSize;
+
+    public final int longsPerRecord;
+    public final int intsPerRecord;
+    public final int shortsPerRecord;
+    public final int bytesPerRecord;
+
+    public final int recordCount;
+
+    /**
+     * Opens the records held in this file or creates new zeroed records if the file is missing
+     * or was written for a different layout.
+     *
+     * @param storage backing file
+     * @param typeDef fields of each record
+     * @param recordCount total number of records
+     */
+    public static <L extends Enum<L> & FieldsOf64Bits,
+                   I extends Enum<I> & FieldsOf32Bits,
+                   S extends Enum<S> & FieldsOf16Bits,
+                   B extends Enum<B> & FieldsOf8Bits, T> MappedBackingData<T> open(File storage, TypeDef<L,I,S,B> typeDef, int recordCount) throws IOException {
+        return open(storage, typeDef, recordCount, DEFAULT_CHUNK_SHIFT);
+    }
+
+    /**
+     * @param chunkShift each mapped chunk holds 1<<chunkShift bytes, between 6 and 30
+     */
+    public static <L extends Enum<L> & FieldsOf64Bits,
+                   I extends Enum<I> & FieldsOf32Bits,
+                   S extends Enum<S> & FieldsOf16Bits,
+                   B extends Enum<B> & FieldsOf8Bits, T> MappedBackingData<T> open(File storage, TypeDef<L,I,S,B> typeDef, int recordCount, int chunkShift) throws IOException {
+        return open(storage, typeDef.longFieldCount, typeDef.intFieldCount, typeDef.shortFieldCount, typeDef.byteFieldCount, recordCount, chunkShift);
+    }
+
+    /**
+     * Allocates the records in direct memory, nothing is persisted.
+     *
+     * @param typeDef fields of each record
+     * @param recordCount total number of records
+     */
+    public static <L extends Enum<L> & FieldsOf64Bits,
+                   I extends Enum<I> & FieldsOf32Bits,
+                   S extends Enum<S> & FieldsOf16Bits,
+                   B extends Enum<B> & FieldsOf8Bits, T> MappedBackingData<T> allocateDirect(TypeDef<L,I,S,B> typeDef, int recordCount) throws IOException {
+        return new MappedBackingData<T>(null, typeDef.longFieldCount, typeDef.intFieldCount, typeDef.shortFieldCount, typeDef.byteFieldCount, recordCount, DEFAULT_CHUNK_SHIFT);
+    }
+
+    private static <T> MappedBackingData<T> open(File storage, int longsPerRecord, int intsPerRecord, int shortsPerRecord, int bytesPerRecord,
+                                         int recordCount, int chunkShift) throws IOException {
+        if (storage.exists() && storage.length() >= HEADER_SIZE) {
+            if (storage.length() != totalSize(longsPerRecord, intsPerRecord, shortsPerRecord, bytesPerRecord, recordCount)
+                || !headerMatches(storage, longsPerRecord, intsPerRecord, shortsPerRecord, bytesPerRecord, recordCount)) {
+                logger.info("backing file {} does not match the requested layout, starting a new one", storage);
+                storage.delete();
+            }
+        }
+        return new MappedBackingData<T>(storage, longsPerRecord, intsPerRecord, shortsPerRecord, bytesPerRecord, recordCount, chunkShift);
+    }
+
+    private static boolean headerMatches(File storage, int longsPerRecord, int intsPerRecord, int shortsPerRecord, int bytesPerRecord, int recordCount) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(storage, "r");
+        try {
+            //header is written in native order like the rest of the file
+            ByteBuffer header = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.nativeOrder());
+            return MAGIC == header.getLong(OFF_MAGIC)
+                   && VERSION == header.getInt(OFF_VERSION)
+                   && longsPerRecord == header.getInt(OFF_LONGS)
+                   && intsPerRecord == header.getInt(OFF_INTS)
+                   && shortsPerRecord == header.getInt(OFF_SHORTS)
+                   && bytesPerRecord == header.getInt(OFF_BYTES)
+                   && recordCount == header.getInt(OFF_RECORDS);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long align8(long value) {
+        return (value+7)&~7L;
+    }
+
+    private static long totalSize(int longsPerRecord, int intsPerRecord, int shortsPerRecord, int bytesPerRecord, int recordCount) {
+        return align8(align8(align8(align8(HEADER_SIZE
+                                           + (8L*longsPerRecord*recordCount))
+                                           + (4L*intsPerRecord*recordCount))
+                                           + (2L*shortsPerRecord*recordCount))
+                                           + ((long)bytesPerRecord*recordCount));
+    }
+
+    private MappedBackingData(File storage, int longsPerRecord, int intsPerRecord, int shortsPerRecord, int bytesPerRecord,
+                              int recordCount, int chunkShift) throws IOException {
+
+        if (chunkShift<6 || chunkShift>30) {
+            throw new UnsupportedOperationException("chunk shift must be between 6 and 30");
+        }
+
+        this.longsPerRecord = longsPerRecord;
+        this.intsPerRecord = intsPerRecord;
+        this.shortsPerRecord = shortsPerRecord;
+        this.bytesPerRecord = bytesPerRecord;
+        this.recordCount = recordCount;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L<<chunkShift)-1;
+
+        this.longRegion = HEADER_SIZE;
+        this.intRegion = align8(longRegion + (8L*longsPerRecord*recordCount));
+        this.shortRegion = align8(intRegion + (4L*intsPerRecord*recordCount));
+        this.byteRegion = align8(shortRegion + (2L*shortsPerRecord*recordCount));
+        this.totalSize = totalSize(longsPerRecord, intsPerRecord, shortsPerRecord, bytesPerRecord, recordCount);
+
+        int chunkCount = (int)((totalSize+chunkMask)>>>chunkShift);
+        this.chunks = new ByteBuffer[chunkCount];
+
+        if (null == storage) {
+            this.file = null;
+            this.restored = false;
+            int c = chunkCount;
+            while (--c>=0) {
+                chunks[c] = ByteBuffer.allocateDirect((int)chunkLength(c)).order(ByteOrder.nativeOrder());
+            }
+            writeHeader();
+        } else {
+            this.restored = storage.exists() && storage.length() == totalSize;
+            this.file = new RandomAccessFile(storage, "rw");
+            this.file.setLength(totalSize);
+            FileChannel channel = file.getChannel();
+            int c = chunkCount;
+            while (--c>=0) {
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, ((long)c)<<chunkShift, chunkLength(c)).order(ByteOrder.nativeOrder());
+            }
+            if (!restored) {
+                writeHeader();
+            }
+        }
+    }
+
+    private long chunkLength(int chunk) {
+        return Math.min(1L<<chunkShift, totalSize-(((long)chunk)<<chunkShift));
+    }
+
+    private void writeHeader() {
+        ByteBuffer header = chunks[0];
+        header.putInt(OFF_VERSION, VERSION);
+        header.putInt(OFF_LONGS, longsPerRecord);
+        header.putInt(OFF_INTS, intsPerRecord);
+        header.putInt(OFF_SHORTS, shortsPerRecord);
+        header.putInt(OFF_BYTES, bytesPerRecord);
+        header.putInt(OFF_RECORDS, recordCount);
+        force();
+        header.putLong(OFF_MAGIC, MAGIC); //written last so partial files are never trusted
+        force();
+    }
+
+    /**
+     * @return true if the records were loaded from an existing file
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    public boolean isMapped() {
+        return null != file;
+    }
+
+    public long memoryConsumed() {
+        return totalSize;
+    }
+
+    /**
+     * Writes all the dirty pages to the file, does nothing for direct memory.
+     */
+    public void force() {
+        if (null != file) {
+            int c = chunks.length;
+            while (--c>=0) {
+                ((MappedByteBuffer)chunks[c]).force();
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        if (null != file) {
+            force();
+            file.close();
+        }
+    }
+
+
+    //for use by mutale flyweights when memory is a concern.
+    public static <F extends Enum<F> & FieldsOf8Bits> void setByte(F field, byte value, int recordIdx, MappedBackingData<?> block) {
+        putByte(byteAddr(recordIdx, field.ordinal(), block), value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf8Bits> void incByte(F field, byte value, int recordIdx, MappedBackingData<?> block) {
+        long addr = byteAddr(recordIdx, field.ordinal(), block);
+        putByte(addr, (byte)(getByte(addr, block)+value), block);
+    }
+    public static <F extends Enum<F> & FieldsOf8Bits> void decByte(F field, byte value, int recordIdx, MappedBackingData<?> block) {
+        long addr = byteAddr(recordIdx, field.ordinal(), block);
+        putByte(addr, (byte)(getByte(addr, block)-value), block);
+    }
+    public static <F extends Enum<F> & FieldsOf8Bits> byte getByte(F field, int recordIdx, MappedBackingData<?> block) {
+        return getByte(byteAddr(recordIdx, field.ordinal(), block), block);
+    }
+
+    public static <F extends Enum<F> & FieldsOf16Bits> void setShort(F field, short value, int recordIdx, MappedBackingData<?> block) {
+        putShort(shortAddr(recordIdx, field.ordinal(), block), value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf16Bits> void incShort(F field, short value, int recordIdx, MappedBackingData<?> block) {
+        long addr = shortAddr(recordIdx, field.ordinal(), block);
+        putShort(addr, (short)(getShort(addr, block)+value), block);
+    }
+    public static <F extends Enum<F> & FieldsOf16Bits> void decShort(F field, short value, int recordIdx, MappedBackingData<?> block) {
+        long addr = shortAddr(recordIdx, field.ordinal(), block);
+        putShort(addr, (short)(getShort(addr, block)-value), block);
+    }
+    public static <F extends Enum<F> & FieldsOf16Bits> short getShort(F field, int recordIdx, MappedBackingData<?> block) {
+        return getShort(shortAddr(recordIdx, field.ordinal(), block), block);
+    }
+
+    public static <F extends Enum<F> & FieldsOf16Bits> boolean isAllZeroShorts(int recordIdx, MappedBackingData<?> block) {
+        long addr = shortAddr(recordIdx, 0, block);
+        int count = block.shortsPerRecord;
+        int accum = 0;
+        while (--count>=0) {
+            accum |= getShort(addr, block);
+            addr += 2;
+        }
+        return 0==accum;
+    }
+
+    public static <F extends Enum<F> & FieldsOf32Bits> void setInt(F field, int value, int recordIdx, MappedBackingData<?> block) {
+        putInt(intAddr(recordIdx, field.ordinal(), block), value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf32Bits> void incInt(F field, int value, int recordIdx, MappedBackingData<?> block) {
+        long addr = intAddr(recordIdx, field.ordinal(), block);
+        putInt(addr, getInt(addr, block)+value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf32Bits> void decInt(F field, int value, int recordIdx, MappedBackingData<?> block) {
+        long addr = intAddr(recordIdx, field.ordinal(), block);
+        putInt(addr, getInt(addr, block)-value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf32Bits> int getInt(F field, int recordIdx, MappedBackingData<?> block) {
+        return getInt(intAddr(recordIdx, field.ordinal(), block), block);
+    }
+
+    public static <F extends Enum<F> & FieldsOf32Bits> int getIntSum(F field, int[] recordIdxs, int base, MappedBackingData<?> block) {
+        int off = field.ordinal();
+        int sum = 0;
+        int j = recordIdxs.length;
+        while (--j>=0) {
+            sum += getInt(intAddr(base + recordIdxs[j], off, block), block);
+        }
+        return sum;
+    }
+
+    /**
+     * Sums one int field over a contiguous range of records, the chunk lookup is done once per chunk.
+     */
+    public static <F extends Enum<F> & FieldsOf32Bits> long getIntSum(F field, int firstRecordIdx, int count, MappedBackingData<?> block) {
+        final int stride = block.intsPerRecord<<2;
+        long addr = intAddr(firstRecordIdx, field.ordinal(), block);
+        long sum = 0;
+        while (count>0) {
+            int chunk = (int)(addr>>>block.chunkShift);
+            ByteBuffer buffer = block.chunks[chunk];
+            int pos = (int)(addr&block.chunkMask);
+            int n = (int)Math.min(count, ((buffer.capacity()-pos)+stride-1)/stride);
+            count -= n;
+            addr += (long)n*stride;
+            while (--n>=0) {
+                sum += buffer.getInt(pos);
+                pos += stride;
+            }
+        }
+        return sum;
+    }
+
+    public static <F extends Enum<F> & FieldsOf64Bits> void setLong(F field, long value, int recordIdx, MappedBackingData<?> block) {
+        putLong(longAddr(recordIdx, field.ordinal(), block), value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf64Bits> void incLong(F field, long value, int recordIdx, MappedBackingData<?> block) {
+        long addr = longAddr(recordIdx, field.ordinal(), block);
+        putLong(addr, getLong(addr, block)+value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf64Bits> void decLong(F field, long value, int recordIdx, MappedBackingData<?> block) {
+        long addr = longAddr(recordIdx, field.ordinal(), block);
+        putLong(addr, getLong(addr, block)-value, block);
+    }
+    public static <F extends Enum<F> & FieldsOf64Bits> long getLong(F field, int recordIdx, MappedBackingData<?> block) {
+        return getLong(longAddr(recordIdx, field.ordinal(), block), block);
+    }
+
+    /**
+     * Sums one long field over a contiguous range of records, the chunk lookup is done once per chunk.
+     */
+    public static <F extends Enum<F> & FieldsOf64Bits> long getLongSum(F field, int firstRecordIdx, int count, MappedBackingData<?> block) {
+        final int stride = block.longsPerRecord<<3;
+        long addr = longAddr(firstRecordIdx, field.ordinal(), block);
+        long sum = 0;
+        while (count>0) {
+            int chunk = (int)(addr>>>block.chunkShift);
+            ByteBuffer buffer = block.chunks[chunk];
+            int pos = (int)(addr&block.chunkMask);
+            int n = (int)Math.min(count, ((buffer.capacity()-pos)+stride-1)/stride);
+            count -= n;
+            addr += (long)n*stride;
+            while (--n>=0) {
+                sum += buffer.getLong(pos);
+                pos += stride;
+            }
+        }
+        return sum;
+    }
+
+
+    private static long longAddr(int recordIdx, int off, MappedBackingData<?> block) {
+        return block.longRegion + ((((long)recordIdx*block.longsPerRecord)+off)<<3);
+    }
+    private static long intAddr(int recordIdx, int off, MappedBackingData<?> block) {
+        return block.intRegion + ((((long)recordIdx*block.intsPerRecord)+off)<<2);
+    }
+    private static long shortAddr(int recordIdx, int off, MappedBackingData<?> block) {
+        return block.shortRegion + ((((long)recordIdx*block.shortsPerRecord)+off)<<1);
+    }
+    private static long byteAddr(int recordIdx, int off, MappedBackingData<?> block) {
+        return block.byteRegion + ((long)recordIdx*block.bytesPerRecord)+off;
+    }
+
+    private static long getLong(long addr, MappedBackingData<?> block) {
+        return block.chunks[(int)(addr>>>block.chunkShift)].getLong((int)(addr&block.chunkMask));
+    }
+    private static void putLong(long addr, long value, MappedBackingData<?> block) {
+        block.chunks[(int)(addr>>>block.chunkShift)].putLong((int)(addr&block.chunkMask), value);
+    }
+    private static int getInt(long addr, MappedBackingData<?> block) {
+        return block.chunks[(int)(addr>>>block.chunkShift)].getInt((int)(addr&block.chunkMask));
+    }
+    private static void putInt(long addr, int value, MappedBackingData<?> block) {
+        block.chunks[(int)(addr>>>block.chunkShift)].putInt((int)(addr&block.chunkMask), value);
+    }
+    private static short getShort(long addr, MappedBackingData<?> block) {
+        return block.chunks[(int)(addr>>>block.chunkShift)].getShort((int)(addr&block.chunkMask));
+    }
+    private static void putShort(long addr, short value, MappedBackingData<?> block) {
+        block.chunks[(int)(addr>>>block.chunkShift)].putShort((int)(addr&block.chunkMask), value);
+    }
+    private static byte getByte(long addr, MappedBackingData<?> block) {
+        return block.chunks[(int)(addr>>>block.chunkShift)].get((int)(addr&block.chunkMask));
+    }
+    private static void putByte(long addr, byte value, MappedBackingData<?> block) {
+        block.chunks[(int)(addr>>>block.chunkShift)].put((int)(addr&block.chunkMask), value);
+    }
+
+
+    public static <T extends Enum<T>, F extends Enum<F> & FieldsOf8Bits> T getEnumBytes(F field, int recordIdx, MappedBackingData<?> holder, Class<T> clazz) {
+        return (T)clazz.getEnumConstants()[getByte(byteAddr(recordIdx, field.ordinal(), holder), holder)];
+    }
+
+    public static <T extends Enum<T>, F extends Enum<F> & FieldsOf8Bits> void setEnumBytes(F field, int recordIdx, MappedBackingData<?> holder, T value) {
+        putByte(byteAddr(recordIdx, field.ordinal(), holder), (byte)value.ordinal(), holder);
+    }
+
+    public static <T extends Enum<T>, F extends Enum<F> & FieldsOf8Bits> void setEnumSetBytes(F field, int recordIdx, MappedBackingData<?> holder, Set<T> enumSet) {
+        byte result = 0;
+        Iterator<T> i = enumSet.iterator();
+        while (i.hasNext()) {
+            result |= (1<<i.next().ordinal());
+        }
+        putByte(byteAddr(recordIdx, field.ordinal(), holder), result, holder);
+    }
+
+    public static <T extends Enum<T>, F extends Enum<F> & FieldsOf8Bits> boolean isEnumBitSetByte(F field, int recordIdx, MappedBackingData<?> holder, T enumItem) {
+        return 0 != (getByte(byteAddr(recordIdx, field.ordinal(), holder), holder) & (1<<enumItem.ordinal()));
+    }
+
+
+    /**
+     * Same stream format as BackingData.write so records can be moved between the two.
+     */
+    public final void write(int recordIdx, int recordCount, DataOutput out) throws IOException {
+        if (longsPerRecord>0) {
+            int count = longsPerRecord*recordCount;
+            out.writeInt(count);
+            long addr = longAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                out.writeLong(getLong(addr, this));
+                addr += 8;
+            }
+        }
+        if (intsPerRecord>0) {
+            int count = intsPerRecord*recordCount;
+            out.writeInt(count);
+            long addr = intAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                out.writeInt(getInt(addr, this));
+                addr += 4;
+            }
+        }
+        if (shortsPerRecord>0) {
+            int count = shortsPerRecord*recordCount;
+            out.writeInt(count);
+            long addr = shortAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                out.writeShort(getShort(addr, this));
+                addr += 2;
+            }
+        }
+        if (bytesPerRecord>0) {
+            int count = bytesPerRecord*recordCount;
+            out.writeInt(count);
+            long addr = byteAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                out.writeByte(getByte(addr++, this));
+            }
+        }
+    }
+
+    /**
+     * Reads records written by BackingData.write or MappedBackingData.write.
+     */
+    public final void read(int recordIdx, int exepectedRecordCount, DataInput in) throws IOException {
+        if (longsPerRecord>0) {
+            int count = in.readInt();
+            assert(count == longsPerRecord*exepectedRecordCount) : "expected different count of records";
+            long addr = longAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                putLong(addr, in.readLong(), this);
+                addr += 8;
+            }
+        }
+        if (intsPerRecord>0) {
+            int count = in.readInt();
+            assert(count == intsPerRecord*exepectedRecordCount) : "expected different count of records";
+            long addr = intAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                putInt(addr, in.readInt(), this);
+                addr += 4;
+            }
+        }
+        if (shortsPerRecord>0) {
+            int count = in.readInt();
+            assert(count == shortsPerRecord*exepectedRecordCount) : "expected different count of records";
+            long addr = shortAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                putShort(addr, in.readShort(), this);
+                addr += 2;
+            }
+        }
+        if (bytesPerRecord>0) {
+            int count = in.readInt();
+            assert(count == bytesPerRecord*exepectedRecordCount) : "expected different count of records";
+            long addr = byteAddr(recordIdx, 0, this);
+            while (--count>=0) {
+                putByte(addr++, in.readByte(), this);
+            }
+        }
+    }
+
+}
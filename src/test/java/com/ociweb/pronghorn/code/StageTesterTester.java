@@ -53,6 +53,21 @@ public class StageTesterTester {
 			
 	}
 
+	@Test
+	public void testStageBenchmark() {
+		
+		StageBenchmark flatOut = StageTester.runBenchmark(FuzzValidationStage.class, 50, 200, 0, 51, 
+				                new MessageSchema[]{RawDataSchema.instance}, new Object[]{});
+		assertTrue(flatOut.toString(), flatOut.messages>0);
+		assertTrue(flatOut.latencyAtPercentile(.5f)<=flatOut.latencyAtPercentile(.99f));
+		
+		StageBenchmark paced = StageTester.runBenchmark(FuzzValidationStage.class, 50, 200, 1000, 51, 
+                				new MessageSchema[]{RawDataSchema.instance}, new Object[]{});
+		//paced writes may run ahead by one pipe fill but stay far below flat out
+		assertTrue(paced.toString(), paced.messagesPerSecond() < flatOut.messagesPerSecond());
+		assertTrue(paced.toJSON(new StringBuilder()).toString().startsWith("{\"stage\":\"FuzzValidationStage\""));
+	}
+
 	@Test
 	public void testStageJSONDump() {
 		
@@ -0,0 +1,149 @@
+package com.ociweb.pronghorn.columns;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.util.columns.BackingData;
+import com.ociweb.pronghorn.util.columns.FieldsOf16Bits;
+import com.ociweb.pronghorn.util.columns.FieldsOf32Bits;
+import com.ociweb.pronghorn.util.columns.FieldsOf64Bits;
+import com.ociweb.pronghorn.util.columns.FieldsOf8Bits;
+import com.ociweb.pronghorn.util.columns.MappedBackingData;
+import com.ociweb.pronghorn.util.columns.TypeDef;
+
+public class MappedBackingDataTest {
+
+    enum TestByteFields implements FieldsOf8Bits {
+        AByteField;
+    }
+
+    enum TestShortFields implements FieldsOf16Bits {
+        AShortField, BShortField;
+    }
+
+    enum TestIntFields implements FieldsOf32Bits {
+        AIntField, BIntField, CIntField;
+    }
+
+    enum TestLongFields implements FieldsOf64Bits {
+        ALongField, BLongField;
+    }
+
+    enum TestEnum {
+        Item0,
+        Item1,
+        Item2;
+    }
+
+    private static final TypeDef<TestLongFields, TestIntFields, TestShortFields, TestByteFields> TYPE
+                   = new TypeDef<TestLongFields, TestIntFields, TestShortFields, TestByteFields>(TestLongFields.class, TestIntFields.class, TestShortFields.class, TestByteFields.class);
+
+    @Test
+    public void directDataTest() throws IOException {
+
+        int testSize = 1000;
+        MappedBackingData<?> bd = MappedBackingData.allocateDirect(TYPE, testSize);
+        assertFalse(bd.isMapped());
+
+        for(int j = 0; j<testSize; j++) {
+            MappedBackingData.setByte(TestByteFields.AByteField, (byte)3, j, bd);
+            MappedBackingData.incShort(TestShortFields.BShortField, (short)4, j, bd);
+            MappedBackingData.setInt(TestIntFields.BIntField, j, j, bd);
+            MappedBackingData.decLong(TestLongFields.BLongField, 6, j, bd);
+        }
+        for(int j = 0; j<testSize; j++) {
+            assertEquals(3, MappedBackingData.getByte(TestByteFields.AByteField, j, bd));
+            assertEquals(4, MappedBackingData.getShort(TestShortFields.BShortField, j, bd));
+            assertEquals(0, MappedBackingData.getShort(TestShortFields.AShortField, j, bd));
+            assertEquals(j, MappedBackingData.getInt(TestIntFields.BIntField, j, bd));
+            assertEquals(0, MappedBackingData.getInt(TestIntFields.CIntField, j, bd));
+            assertEquals(-6, MappedBackingData.getLong(TestLongFields.BLongField, j, bd));
+        }
+
+        MappedBackingData.setEnumBytes(TestByteFields.AByteField, 7, bd, TestEnum.Item2);
+        assertEquals(TestEnum.Item2, MappedBackingData.getEnumBytes(TestByteFields.AByteField, 7, bd, TestEnum.class));
+        MappedBackingData.setEnumSetBytes(TestByteFields.AByteField, 8, bd, EnumSet.of(TestEnum.Item0, TestEnum.Item2));
+        assertTrue(MappedBackingData.isEnumBitSetByte(TestByteFields.AByteField, 8, bd, TestEnum.Item0));
+        assertFalse(MappedBackingData.isEnumBitSetByte(TestByteFields.AByteField, 8, bd, TestEnum.Item1));
+    }
+
+    @Test
+    public void chunkBoundaryTest() throws IOException {
+
+        File file = File.createTempFile("mappedBacking", "dat");
+        file.delete();
+        int testSize = 10_000;
+
+        //small 4K chunks so many values land near a chunk boundary
+        MappedBackingData<?> bd = MappedBackingData.open(file, TYPE, testSize, 12);
+        assertTrue(bd.isMapped());
+        assertFalse(bd.isRestored());
+
+        long expectedInts = 0;
+        long expectedLongs = 0;
+        for(int j = 0; j<testSize; j++) {
+            MappedBackingData.setInt(TestIntFields.CIntField, j*3, j, bd);
+            MappedBackingData.setLong(TestLongFields.ALongField, j*7L, j, bd);
+            MappedBackingData.setShort(TestShortFields.AShortField, (short)j, j, bd);
+            if (j>=100 && j<9_100) {
+                expectedInts += j*3;
+                expectedLongs += j*7L;
+            }
+        }
+        assertEquals(expectedInts, MappedBackingData.getIntSum(TestIntFields.CIntField, 100, 9_000, bd));
+        assertEquals(expectedLongs, MappedBackingData.getLongSum(TestLongFields.ALongField, 100, 9_000, bd));
+        assertEquals(3+6+9, MappedBackingData.getIntSum(TestIntFields.CIntField, new int[]{1,2,3}, 0, bd));
+        bd.close();
+
+        //restart with the same layout restores every record
+        MappedBackingData<?> restored = MappedBackingData.open(file, TYPE, testSize, 12);
+        assertTrue(restored.isRestored());
+        for(int j = 0; j<testSize; j++) {
+            assertEquals(j*3, MappedBackingData.getInt(TestIntFields.CIntField, j, restored));
+            assertEquals(j*7L, MappedBackingData.getLong(TestLongFields.ALongField, j, restored));
+            assertEquals((short)j, MappedBackingData.getShort(TestShortFields.AShortField, j, restored));
+        }
+        restored.close();
+
+        //a different layout starts over
+        MappedBackingData<?> resized = MappedBackingData.open(file, TYPE, testSize*2, 12);
+        assertFalse(resized.isRestored());
+        assertEquals(0, MappedBackingData.getInt(TestIntFields.CIntField, 5, resized));
+        resized.close();
+        file.delete();
+    }
+
+    @Test
+    public void readFromBackingDataTest() throws IOException {
+
+        int testSize = 50;
+        BackingData<?> heap = new BackingData(TYPE, testSize);
+        for(int j = 0; j<testSize; j++) {
+            BackingData.setLong(TestLongFields.BLongField, j*11L, j, heap);
+            BackingData.setInt(TestIntFields.AIntField, -j, j, heap);
+            BackingData.setShort(TestShortFields.BShortField, (short)(j*2), j, heap);
+            BackingData.setByte(TestByteFields.AByteField, (byte)j, j, heap);
+        }
+        ByteArrayOutputStream baost = new ByteArrayOutputStream();
+        heap.write(0, testSize, new DataOutputStream(baost));
+
+        MappedBackingData<?> bd = MappedBackingData.allocateDirect(TYPE, testSize);
+        bd.read(0, testSize, new DataInputStream(new ByteArrayInputStream(baost.toByteArray())));
+        for(int j = 0; j<testSize; j++) {
+            assertEquals(j*11L, MappedBackingData.getLong(TestLongFields.BLongField, j, bd));
+            assertEquals(-j, MappedBackingData.getInt(TestIntFields.AIntField, j, bd));
+            assertEquals(j*2, MappedBackingData.getShort(TestShortFields.BShortField, j, bd));
+            assertEquals(j, MappedBackingData.getByte(TestByteFields.AByteField, j, bd));
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.ociweb.pronghorn.components.ingestion.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.components.ingestion.metaMessageUtil.MetaMessageDefs;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.StageScheduler;
+import com.ociweb.pronghorn.stage.scheduling.ThreadPerStageScheduler;
+
+public class CSVGraphBuilderTest {
+
+	@Test
+	public void rangesEndOnNewLineTest() throws IOException {
+
+		File temp = File.createTempFile("ranges", ".csv");
+		temp.deleteOnExit();
+
+		StringBuilder builder = new StringBuilder();
+		int i = 0;
+		while (builder.length() < 100_000) {
+			builder.append(i).append(",sometext,").append(Integer.toHexString(i*31)).append('\n');
+			i++;
+		}
+		byte[] data = builder.toString().getBytes();
+		FileOutputStream out = new FileOutputStream(temp);
+		out.write(data);
+		out.close();
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "r");
+		FileChannel channel = raf.getChannel();
+		try {
+			long[] bounds = CSVGraphBuilder.splitRanges(channel, 7);
+
+			assertEquals(8, bounds.length);
+			assertEquals(0, bounds[0]);
+			assertEquals(data.length, bounds[bounds.length-1]);
+
+			int b = bounds.length-1;
+			while (--b>0) {
+				assertTrue(bounds[b] > bounds[b-1]);
+				assertEquals('\n', data[(int)bounds[b]-1]);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void fewerRangesForLongLinesTest() throws IOException {
+
+		File temp = File.createTempFile("ranges", ".csv");
+		temp.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(temp);
+		out.write("a,b,c,d,e,f,g,h,i,j,k,l,m\n1,2\n".getBytes());
+		out.close();
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "r");
+		try {
+			long[] bounds = CSVGraphBuilder.splitRanges(raf.getChannel(), 16);
+			assertEquals(3, bounds.length);
+			assertEquals(26, bounds[1]);
+		} finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void orderedParallelIngestionKeepsLineOrderTest() throws IOException {
+
+		File temp = File.createTempFile("ordered", ".csv");
+		temp.deleteOnExit();
+
+		final int lineCount = 20_000;
+		StringBuilder builder = new StringBuilder();
+		int i = 0;
+		while (i < lineCount) {
+			builder.append(i).append(",sometext,").append(i*31).append('\n');
+			i++;
+		}
+		FileOutputStream out = new FileOutputStream(temp);
+		out.write(builder.toString().getBytes());
+		out.close();
+
+		RandomAccessFile raf = new RandomAccessFile(temp, "r");
+		FileChannel channel = raf.getChannel();
+		try {
+			assertEquals(5, CSVGraphBuilder.splitRanges(channel, 4).length);
+
+			//small pipes so every range wraps its rings many times and later ranges stall behind the first
+			PipeConfig linesConfig = new PipeConfig(RawDataSchema.instance, 16, 256);
+			PipeConfig fieldsConfig = new PipeConfig(new MessageSchemaDynamic(MetaMessageDefs.FROM), 64, 256);
+			PipeConfig mergedConfig = new PipeConfig(new MessageSchemaDynamic(MetaMessageDefs.FROM), 128, 256);
+
+			GraphManager gm = new GraphManager();
+			Pipe merged = CSVGraphBuilder.buildOrderedParallelIngestion(gm, channel, 4, linesConfig, fieldsConfig, mergedConfig);
+			LineOrderCheckStage check = new LineOrderCheckStage(gm, merged);
+
+			StageScheduler ss = new ThreadPerStageScheduler(gm);
+			ss.startup();
+			assertTrue(ss.awaitTermination(1, TimeUnit.MINUTES));
+
+			assertTrue(GraphManager.isStageTerminated(gm, check.stageId));
+			assertEquals(lineCount, check.lines);
+			assertEquals(lineCount, check.expected);
+			assertEquals(-1, check.firstMismatch);
+			assertEquals(1, check.flushes);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Counts the lines of the merged meta messages and checks the leading sequence number of each.
+	 */
+	private static class LineOrderCheckStage extends PronghornStage {
+
+		private final Pipe input;
+		private boolean firstField;
+		int lines;
+		int expected;
+		int firstMismatch = -1;
+		int flushes;
+
+		LineOrderCheckStage(GraphManager gm, Pipe input) {
+			super(gm, input, NONE);
+			this.input = input;
+		}
+
+		@Override
+		public void run() {
+			while (Pipe.hasContentToRead(input)) {
+				int msgIdx = Pipe.peekInt(input);
+				if (MetaMessageDefs.MSG_FLUSH == msgIdx) {
+					flushes++;
+					Pipe.skipNextFragment(input);
+					requestShutdown();
+					return;
+				}
+				if (MetaMessageDefs.MSG_MESSAGE_BEGIN_LOC == msgIdx) {
+					lines++;
+					firstField = true;
+				} else if (firstField) {
+					firstField = false;
+					if ((MetaMessageDefs.MSG_UINT32_LOC == msgIdx || MetaMessageDefs.MSG_INT32_LOC == msgIdx)
+						&& expected == Pipe.peekInt(input, 1)) { //value is always after the msg idx
+						expected++;
+					} else if (firstMismatch < 0) {
+						firstMismatch = lines-1;
+					}
+				}
+				Pipe.skipNextFragment(input);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.ociweb.pronghorn.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+import org.junit.Test;
+
+public class SSLEngineFactoryTest {
+
+	private static final int CACHE_SIZE = 4;
+	private static final int TIMEOUT_SECONDS = 60;
+
+	@Test
+	public void secondHandshakeToSameHostIsResumed() throws SSLException, InterruptedException {
+		SSLEngineFactory factory = new SSLEngineFactory(TLSCertificates.defaultCerts);
+		factory.setSessionCache(CACHE_SIZE, TIMEOUT_SECONDS);
+
+		long startMS = System.currentTimeMillis();
+		SSLEngine client = factory.createSSLEngine("localhost", 8443);
+		SSLEngine server = factory.createSSLEngine();
+		assertFalse(factory.recordSession(client, true, startMS)); //nothing to count before the handshake
+		handshake(factory, client, server, startMS);
+
+		assertTrue(factory.recordSession(client, true, startMS));
+		assertTrue(factory.recordSession(server, false, startMS));
+		assertEquals(0, factory.clientSessionHits());
+		assertEquals(1, factory.clientSessionMisses());
+		assertEquals(0, factory.serverSessionHits());
+		assertEquals(1, factory.serverSessionMisses());
+
+		//the caches were bounded while the first handshake was still running
+		assertEquals(CACHE_SIZE, client.getSession().getSessionContext().getSessionCacheSize());
+		assertEquals(CACHE_SIZE, server.getSession().getSessionContext().getSessionCacheSize());
+		assertEquals(TIMEOUT_SECONDS, client.getSession().getSessionContext().getSessionTimeout());
+
+		Thread.sleep(5); //creation times are in ms
+
+		startMS = System.currentTimeMillis();
+		client = factory.createSSLEngine("localhost", 8443);
+		server = factory.createSSLEngine();
+		handshake(factory, client, server, startMS);
+
+		assertTrue(factory.recordSession(client, true, startMS));
+		assertTrue(factory.recordSession(server, false, startMS));
+		assertEquals(1, factory.clientSessionHits());
+		assertEquals(1, factory.clientSessionMisses());
+		assertEquals(1, factory.serverSessionHits());
+		assertEquals(1, factory.serverSessionMisses());
+	}
+
+	/**
+	 * Runs both engines against each other in memory, recording along the way as the wrap path does.
+	 */
+	private static void handshake(SSLEngineFactory factory, SSLEngine client, SSLEngine server, long startMS) throws SSLException {
+		int packetSize = Math.max(client.getSession().getPacketBufferSize(), server.getSession().getPacketBufferSize());
+		int appSize = Math.max(client.getSession().getApplicationBufferSize(), server.getSession().getApplicationBufferSize());
+		ByteBuffer toServer = ByteBuffer.allocate(packetSize*4);
+		ByteBuffer toClient = ByteBuffer.allocate(packetSize*4);
+		ByteBuffer clientApp = ByteBuffer.allocate(appSize*4);
+		ByteBuffer serverApp = ByteBuffer.allocate(appSize*4);
+
+		client.beginHandshake();
+		server.beginHandshake();
+
+		int extraRounds = 4; //let post handshake messages such as TLS 1.3 session tickets arrive
+		int i = 1000;
+		while (--i>=0 && extraRounds>0) {
+			step(client, toServer, toClient, clientApp);
+			step(server, toClient, toServer, serverApp);
+			if (HandshakeStatus.NOT_HANDSHAKING != client.getHandshakeStatus()) {
+				factory.recordSession(client, true, startMS);
+			}
+			if (HandshakeStatus.NOT_HANDSHAKING != server.getHandshakeStatus()) {
+				factory.recordSession(server, false, startMS);
+			}
+			if (HandshakeStatus.NOT_HANDSHAKING == client.getHandshakeStatus()
+				&& HandshakeStatus.NOT_HANDSHAKING == server.getHandshakeStatus()
+				&& 0 == toServer.position() && 0 == toClient.position()) {
+				extraRounds--;
+			}
+		}
+		assertTrue("handshake did not finish", i>=0);
+	}
+
+	private static void step(SSLEngine engine, ByteBuffer out, ByteBuffer in, ByteBuffer app) throws SSLException {
+		engine.wrap(ByteBuffer.allocate(0), out);
+		runTasks(engine);
+		in.flip();
+		engine.unwrap(in, app);
+		in.compact();
+		runTasks(engine);
+		app.clear();
+	}
+
+	private static void runTasks(SSLEngine engine) {
+		Runnable task;
+		while ((task = engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+
+}
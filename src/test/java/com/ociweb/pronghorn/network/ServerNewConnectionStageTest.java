@@ -0,0 +1,110 @@
+package com.ociweb.pronghorn.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+public class ServerNewConnectionStageTest {
+
+	private static final int CONNECTIONS = 64;
+	private static final long TIMEOUT_MS = 20_000;
+
+	@Test
+	public void twoAcceptorsRegisterEachConnectionOnce() throws IOException, InterruptedException {
+		Assume.assumeTrue(ServerNewConnectionStage.isReusePortSupported());
+
+		int port;
+		ServerSocket probe = new ServerSocket(0);
+		try {
+			port = probe.getLocalPort();
+		} finally {
+			probe.close();
+		}
+
+		GraphManager gm = new GraphManager();
+		HTTPServerConfig serverConfig = NetGraphBuilder.serverConfig(port, gm);
+		serverConfig.setHost("127.0.0.1")
+		            .setMaxConnectionBits(10)
+		            .setConcurrentAcceptors(2)
+		            .useInsecureServer();
+		((HTTPServerConfigImpl)serverConfig).finalizeDeclareConnections();
+
+		ServerCoordinator coordinator = new ServerCoordinator(
+				serverConfig.getCertificates(),
+				serverConfig.bindHost(),
+				serverConfig.bindPort(),
+				serverConfig.connectionStruct(),
+				serverConfig.requireClientAuth(),
+				serverConfig.serviceName(),
+				serverConfig.defaultHostPath(),
+				serverConfig.buildServerConfig());
+
+		//the reader stage normally owns this selector, here it is only inspected
+		Selector readerSelector = Selector.open();
+		coordinator.registerSelector(readerSelector);
+
+		final ServerNewConnectionStage[] acceptors = new ServerNewConnectionStage[] {
+				new ServerNewConnectionStage(gm, coordinator, 0, true),
+				new ServerNewConnectionStage(gm, coordinator, 1, true)};
+		acceptors[0].startup();
+		acceptors[1].startup();
+
+		final long stopTime = System.currentTimeMillis()+TIMEOUT_MS;
+		Thread[] threads = new Thread[acceptors.length];
+		int t = acceptors.length;
+		while (--t>=0) {
+			final ServerNewConnectionStage stage = acceptors[t];
+			threads[t] = new Thread(() -> {
+				while (System.currentTimeMillis()<stopTime && readerSelector.keys().size()<CONNECTIONS) {
+					stage.run();
+					Thread.yield();
+				}
+			});
+			threads[t].start();
+		}
+
+		Socket[] clients = new Socket[CONNECTIONS];
+		int c = CONNECTIONS;
+		while (--c>=0) {
+			clients[c] = new Socket("127.0.0.1", port);
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		try {
+			Set<SelectionKey> keys = readerSelector.keys();
+			assertEquals(CONNECTIONS, keys.size());
+
+			Set<Long> channelIds = new HashSet<Long>();
+			for (SelectionKey key : keys) {
+				long channelId = ((ConnectionContext)key.attachment()).getChannelId();
+				assertTrue("channel "+channelId+" registered twice", channelIds.add(channelId));
+				assertNotNull(ServerCoordinator.getSocketChannelHolder(coordinator).get(channelId));
+			}
+		} finally {
+			c = CONNECTIONS;
+			while (--c>=0) {
+				clients[c].close();
+			}
+			acceptors[0].shutdown();
+			acceptors[1].shutdown();
+			readerSelector.close();
+		}
+	}
+
+}
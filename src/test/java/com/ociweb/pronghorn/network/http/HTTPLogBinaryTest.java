@@ -0,0 +1,140 @@
+package com.ociweb.pronghorn.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.network.schema.HTTPLogRequestSchema;
+import com.ociweb.pronghorn.network.schema.HTTPLogResponseSchema;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.file.MappedSegmentRotationStage;
+import com.ociweb.pronghorn.stage.file.MappedSegmentWriteStage;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.StageScheduler;
+
+public class HTTPLogBinaryTest {
+
+	@Test
+	public void varLongRoundTripTest() {
+
+		Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(2, 1<<10);
+		pipe.initBuffers();
+
+		long[] values = new long[] {0, 1, 127, 128, 300, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+
+		int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+		for(long v: values) {
+			HTTPLogBinaryFormat.writeVarLong(out, v);
+			HTTPLogBinaryFormat.writeSignedVarLong(out, v);
+		}
+		int len = DataOutputBlobWriter.closeLowLevelField(out);
+		Pipe.confirmLowLevelWrite(pipe, size);
+		Pipe.publishWrites(pipe);
+
+		Pipe.takeMsgIdx(pipe);
+		int meta = Pipe.takeByteArrayMetaData(pipe);
+		int length = Pipe.takeByteArrayLength(pipe);
+		assertEquals(len, length);
+		byte[] bytes = new byte[length];
+		Pipe.readBytes(pipe, bytes, 0, Integer.MAX_VALUE, meta, length);
+
+		ByteBuffer source = ByteBuffer.wrap(bytes);
+		for(long v: values) {
+			assertEquals(v, HTTPLogBinaryFormat.readVarLong(source));
+			assertEquals(v, HTTPLogBinaryFormat.readSignedVarLong(source));
+		}
+		//zero is a single byte in both forms
+		assertEquals(0, bytes[0]);
+		assertEquals(0, bytes[1]);
+		assertEquals(1, bytes[2]);
+		assertEquals(2, bytes[3]); //zigzag
+	}
+
+	@Test
+	public void segmentRoundTripTest() throws IOException {
+
+		File folder = File.createTempFile("accessLog", "");
+		folder.delete();
+		folder.mkdirs();
+		String base = new File(folder, "access").getAbsolutePath();
+
+		GraphManager gm = new GraphManager();
+		GraphManager.addDefaultNota(gm, GraphManager.SCHEDULE_RATE, 20_000);
+
+		Pipe<HTTPLogRequestSchema>[] requests = new Pipe[] {HTTPLogRequestSchema.instance.newPipe(64, 1<<9)};
+		Pipe<HTTPLogResponseSchema>[] responses = new Pipe[] {HTTPLogResponseSchema.instance.newPipe(64, 1<<9)};
+		Pipe<RawDataSchema> blocks = RawDataSchema.instance.newPipe(4, 1<<13);
+		Pipe<RawDataSchema> ready = RawDataSchema.instance.newPipe(4, 1<<10);
+		Pipe<RawDataSchema> finished = RawDataSchema.instance.newPipe(4, 1<<10);
+
+		new HTTPLogUnificationStage(gm, requests, responses, blocks, true);
+		new MappedSegmentWriteStage(gm, blocks, ready, finished);
+		MappedSegmentRotationStage rotation = new MappedSegmentRotationStage(gm, finished, ready, 1<<15, base, ".plog", 1000);
+
+		requests[0].initBuffers();
+		responses[0].initBuffers();
+
+		StageScheduler scheduler = StageScheduler.defaultScheduler(gm);
+		scheduler.startup();
+
+		int count = 2000;
+		String head = "GET /index.html HTTP/1.1";
+		for(int i = 0; i<count; i++) {
+			while (!Pipe.hasRoomForWrite(requests[0])) {
+				Thread.yield();
+			}
+			HTTPLogRequestSchema.publishRequest(requests[0], System.nanoTime(), i, i, head);
+			while (!Pipe.hasRoomForWrite(responses[0])) {
+				Thread.yield();
+			}
+			HTTPLogResponseSchema.publishResponse(responses[0], System.nanoTime(), i, i, "HTTP/1.1 200 OK", 1_500_000);
+		}
+		while (!Pipe.hasRoomForWrite(requests[0], Pipe.EOF_SIZE)) {
+			Thread.yield();
+		}
+		Pipe.publishEOF(requests[0]);
+		while (!Pipe.hasRoomForWrite(responses[0], Pipe.EOF_SIZE)) {
+			Thread.yield();
+		}
+		Pipe.publishEOF(responses[0]);
+
+		GraphManager.blockUntilStageTerminated(gm, rotation);
+		scheduler.shutdown();
+
+		File[] files = folder.listFiles();
+		Arrays.sort(files);
+		assertTrue("expected rotation but found "+files.length+" files", files.length>1);
+
+		StringBuilder text = new StringBuilder();
+		for(File f: files) {
+			HTTPLogDecoder.decode(f, text);
+			f.delete();
+		}
+		folder.delete();
+
+		assertEquals(count, countOf(text, "IN  ["));
+		assertEquals(count, countOf(text, "OUT  ["));
+		assertEquals(count, countOf(text, head));
+		assertEquals(count, countOf(text, "BusinessLatency:"));
+	}
+
+	private static int countOf(StringBuilder text, String value) {
+		int total = 0;
+		int idx = 0;
+		while ((idx = text.indexOf(value, idx))>=0) {
+			total++;
+			idx += value.length();
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,309 @@
+package com.ociweb.pronghorn.network.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.network.ServerCoordinator;
+import com.ociweb.pronghorn.network.config.HTTPContentTypeDefaults;
+import com.ociweb.pronghorn.network.schema.ServerResponseSchema;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+public class HTTPResponseCompressionStageTest {
+
+	private static final int MINIMUM_SIZE = 256;
+	private static final int GZIP = ServerCoordinator.ACCEPT_GZIP_MASK;
+	private static final int DEFLATE = ServerCoordinator.ACCEPT_DEFLATE_MASK;
+	private static final int END = ServerCoordinator.END_RESPONSE_MASK;
+
+	@Test
+	public void compressibleTypesTest() {
+
+		assertTrue(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.JSON));
+		assertTrue(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.HTML));
+		assertTrue(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.CSS));
+		assertTrue(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.JS));
+		assertTrue(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.XML));
+		assertTrue(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.SVG));
+
+		assertFalse(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.PNG));
+		assertFalse(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.GZ));
+		assertFalse(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.ZIP));
+		assertFalse(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.OCTET_STREAM));
+
+		//streams must never be held back
+		assertFalse(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.EVENT_STREAM));
+		assertFalse(HTTPResponseCompressionStage.isCompressible(HTTPContentTypeDefaults.JSON_STREAM));
+
+	}
+
+	@Test
+	public void gzipRoundTripTest() throws IOException {
+		byte[] body = jsonBody(100);
+		Pipe<ServerResponseSchema> input = newPipe();
+		write(input, 1, 0, concat(header("application/json", body.length), body), GZIP|END);
+
+		Map<Long, Response> responses = run(input);
+		Response response = responses.get(1L);
+		assertEquals(1, response.endCount);
+		assertTrue(response.lastIsEnd);
+
+		String head = response.head();
+		assertTrue(head, head.contains("Content-Encoding: gzip\r\n"));
+		assertTrue(head, head.contains("Vary: Accept-Encoding\r\n"));
+		assertEquals(head, 1, count(head, "Content-Length:"));
+		assertTrue(head, head.contains("Content-Length: "+response.body().length+"\r\n"));
+		assertTrue(response.body().length < body.length);
+		assertArrayEquals(body, readAll(new GZIPInputStream(new ByteArrayInputStream(response.body()))));
+	}
+
+	@Test
+	public void deflateRoundTripWithSeparateHeaderTest() throws IOException {
+		byte[] body = jsonBody(100);
+		Pipe<ServerResponseSchema> input = newPipe();
+		//header block carries no context, the first body block shows what the client accepts
+		write(input, 1, 0, header("application/json", body.length), 0);
+		write(input, 1, 0, slice(body, 0, 1000), DEFLATE);
+		write(input, 1, 0, slice(body, 1000, body.length), DEFLATE|END);
+
+		Response response = run(input).get(1L);
+		assertEquals(1, response.endCount);
+		assertTrue(response.lastIsEnd);
+
+		String head = response.head();
+		assertTrue(head, head.contains("Content-Encoding: deflate\r\n"));
+		assertTrue(head, head.contains("Vary: Accept-Encoding\r\n"));
+		assertTrue(head, head.contains("Content-Length: "+response.body().length+"\r\n"));
+		assertArrayEquals(body, readAll(new InflaterInputStream(new ByteArrayInputStream(response.body()))));
+	}
+
+	@Test
+	public void smallResponsePassesThroughTest() {
+		byte[] body = "{\"id\":1}".getBytes();
+		assertPassThrough(concat(header("application/json", body.length), body), GZIP|END);
+	}
+
+	@Test
+	public void binaryResponsePassesThroughTest() {
+		byte[] body = jsonBody(100);
+		assertPassThrough(concat(header("image/png", body.length), body), GZIP|END);
+	}
+
+	@Test
+	public void encodedResponsePassesThroughTest() {
+		byte[] body = jsonBody(100);
+		byte[] head = ("HTTP/1.1 200 OK\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Content-Encoding: br\r\n"
+				+ "Content-Length: "+body.length+"\r\n\r\n").getBytes();
+		assertPassThrough(concat(head, body), GZIP|END);
+	}
+
+	@Test
+	public void chunkedResponsePassesThroughTest() {
+		byte[] body = jsonBody(100);
+		byte[] head = ("HTTP/1.1 200 OK\r\n"
+				+ "Content-Type: application/json\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n").getBytes();
+		assertPassThrough(concat(head, chunk(body), "0\r\n\r\n".getBytes()), GZIP|END);
+	}
+
+	@Test
+	public void clientWithoutAcceptEncodingTest() {
+		byte[] body = jsonBody(100);
+		assertPassThrough(concat(header("application/json", body.length), body), END);
+	}
+
+	@Test
+	public void interleavedResponseIsPassedUnchangedTest() throws IOException {
+		byte[] body1 = jsonBody(100);
+		byte[] body2 = jsonBody(80);
+		byte[] head1 = header("application/json", body1.length);
+
+		Pipe<ServerResponseSchema> input = newPipe();
+		write(input, 1, 0, head1, 0);
+		write(input, 2, 7, concat(header("application/json", body2.length), body2), GZIP|END);
+		write(input, 1, 0, slice(body1, 0, 1000), GZIP);
+		write(input, 1, 0, slice(body1, 1000, body1.length), GZIP|END);
+
+		Map<Long, Response> responses = run(input);
+
+		//the interrupted response is sent as it was written and ends once
+		Response response1 = responses.get(1L);
+		assertArrayEquals(concat(head1, body1), response1.bytes.toByteArray());
+		assertEquals(1, response1.endCount);
+		assertTrue(response1.lastIsEnd);
+
+		//the one which interrupted it is still compressed
+		Response response2 = responses.get(2L);
+		assertEquals(7, response2.sequenceNo);
+		assertEquals(1, response2.endCount);
+		assertTrue(response2.head().contains("Content-Encoding: gzip\r\n"));
+		assertArrayEquals(body2, readAll(new GZIPInputStream(new ByteArrayInputStream(response2.body()))));
+	}
+
+	private static void assertPassThrough(byte[] response, int context) {
+		Pipe<ServerResponseSchema> input = newPipe();
+		write(input, 1, 0, response, context);
+		Response result = run(input).get(1L);
+		assertArrayEquals(response, result.bytes.toByteArray());
+		assertEquals(1, result.endCount);
+		assertTrue(result.lastIsEnd);
+	}
+
+	private static Pipe<ServerResponseSchema> newPipe() {
+		Pipe<ServerResponseSchema> pipe = ServerResponseSchema.instance.newPipe(32, 1<<12);
+		pipe.initBuffers();
+		return pipe;
+	}
+
+	private static Map<Long, Response> run(Pipe<ServerResponseSchema> input) {
+		Pipe<ServerResponseSchema> output = newPipe();
+		Pipe.publishEOF(input);
+
+		HTTPResponseCompressionStage stage = HTTPResponseCompressionStage.newInstance(new GraphManager(), input, output, MINIMUM_SIZE);
+		stage.startup();
+		int i = 100;
+		while (--i>=0 && Pipe.hasContentToRead(input)) {
+			stage.run();
+		}
+		stage.shutdown();
+		assertFalse(Pipe.hasContentToRead(input));
+
+		Map<Long, Response> responses = new HashMap<Long, Response>();
+		while (Pipe.hasContentToRead(output)) {
+			int msgIdx = Pipe.takeMsgIdx(output);
+			if (msgIdx < 0) {
+				Pipe.confirmLowLevelRead(output, Pipe.EOF_SIZE);
+				Pipe.releaseReadLock(output);
+				break;
+			}
+			assertEquals(ServerResponseSchema.MSG_TOCHANNEL_100, msgIdx);
+			long channelId = Pipe.takeLong(output);
+			int sequenceNo = Pipe.takeInt(output);
+			int meta = Pipe.takeByteArrayMetaData(output);
+			int length = Pipe.takeByteArrayLength(output);
+			byte[] payload = new byte[length];
+			Pipe.copyBytesFromToRing(Pipe.byteBackingArray(meta, output), Pipe.bytePosition(meta, output, length),
+					                 Pipe.blobMask(output), payload, 0, Integer.MAX_VALUE, length);
+			int context = Pipe.takeInt(output);
+			Pipe.confirmLowLevelRead(output, Pipe.sizeOf(ServerResponseSchema.instance, msgIdx));
+			Pipe.releaseReadLock(output);
+
+			Response response = responses.get(channelId);
+			if (null == response) {
+				response = new Response(sequenceNo);
+				responses.put(channelId, response);
+			}
+			assertFalse("fragment after the end of the response", response.lastIsEnd);
+			assertEquals(response.sequenceNo, sequenceNo);
+			response.bytes.write(payload, 0, length);
+			response.lastIsEnd = 0 != (context & END);
+			if (response.lastIsEnd) {
+				response.endCount++;
+			}
+		}
+		return responses;
+	}
+
+	private static void write(Pipe<ServerResponseSchema> input, long channelId, int sequenceNo, byte[] payload, int context) {
+		int size = Pipe.addMsgIdx(input, ServerResponseSchema.MSG_TOCHANNEL_100);
+		Pipe.addLongValue(channelId, input);
+		Pipe.addIntValue(sequenceNo, input);
+		Pipe.addByteArray(payload, 0, payload.length, input);
+		Pipe.addIntValue(context, input);
+		Pipe.confirmLowLevelWrite(input, size);
+		Pipe.publishWrites(input);
+	}
+
+	private static byte[] header(String contentType, int contentLength) {
+		return ("HTTP/1.1 200 OK\r\n"
+				+ "Content-Type: "+contentType+"\r\n"
+				+ "Content-Length: "+contentLength+"\r\n"
+				+ "Server: Pronghorn\r\n\r\n").getBytes();
+	}
+
+	private static byte[] jsonBody(int items) {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < items; i++) {
+			builder.append(i==0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"item number ").append(i).append("\"}");
+		}
+		return builder.append(']').toString().getBytes();
+	}
+
+	private static byte[] chunk(byte[] data) {
+		return concat((Integer.toHexString(data.length)+"\r\n").getBytes(), data, "\r\n".getBytes());
+	}
+
+	private static byte[] slice(byte[] data, int from, int to) {
+		byte[] result = new byte[to-from];
+		System.arraycopy(data, from, result, 0, result.length);
+		return result;
+	}
+
+	private static byte[] concat(byte[] ... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			out.write(part, 0, part.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] temp = new byte[1024];
+		int count;
+		while ((count = in.read(temp)) >= 0) {
+			out.write(temp, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	private static int count(String text, String value) {
+		int result = 0;
+		int idx = -1;
+		while ((idx = text.indexOf(value, idx+1)) >= 0) {
+			result++;
+		}
+		return result;
+	}
+
+	private static class Response {
+		final int sequenceNo;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int endCount;
+		boolean lastIsEnd;
+
+		Response(int sequenceNo) {
+			this.sequenceNo = sequenceNo;
+		}
+
+		private int headerEnd() {
+			String text = new String(bytes.toByteArray());
+			return text.indexOf("\r\n\r\n")+4;
+		}
+
+		String head() {
+			return new String(bytes.toByteArray(), 0, headerEnd());
+		}
+
+		byte[] body() {
+			byte[] all = bytes.toByteArray();
+			return slice(all, headerEnd(), all.length);
+		}
+	}
+
+}
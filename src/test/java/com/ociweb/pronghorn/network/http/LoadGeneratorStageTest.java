@@ -0,0 +1,101 @@
+package com.ociweb.pronghorn.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.StageScheduler;
+
+public class LoadGeneratorStageTest {
+
+	private static final int REQUESTS_PER_CONNECTION = 5;
+	private static final long TIMEOUT_MS = 8_000; //must finish before the drain timeout would hide a stall
+
+	private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\n"
+			+ "Content-Type: text/plain\r\n"
+			+ "Content-Length: 2\r\n\r\nok").getBytes();
+	private static final byte[] LAST_RESPONSE = ("HTTP/1.1 200 OK\r\n"
+			+ "Content-Type: text/plain\r\n"
+			+ "Connection: close\r\n"
+			+ "Content-Length: 2\r\n\r\nok").getBytes();
+
+	@Test
+	public void closedConnectionsDoNotStallTheSchedule() throws IOException, InterruptedException {
+
+		final ServerSocket server = new ServerSocket(0);
+		Thread acceptor = new Thread(() -> {
+			while (!server.isClosed()) {
+				try {
+					final Socket socket = server.accept();
+					new Thread(() -> serve(socket, REQUESTS_PER_CONNECTION)).start();
+				} catch (IOException e) {
+					//server closed
+				}
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		long rate = 200;
+		long durationMS = 500;
+		long total = (rate*durationMS)/1000;
+
+		GraphManager gm = new GraphManager();
+		GraphManager.addDefaultNota(gm, GraphManager.SCHEDULE_RATE, 20_000);
+		LoadGeneratorStage stage = LoadGeneratorGraphBuilder.buildLoadGenerator(gm, "127.0.0.1", server.getLocalPort(), "/",
+				                                                                rate, durationMS, 2, 2, null);
+
+		StageScheduler scheduler = StageScheduler.defaultScheduler(gm);
+		scheduler.startup();
+		long stopTime = System.currentTimeMillis()+TIMEOUT_MS;
+		while (!GraphManager.isStageTerminated(gm, stage.stageId) && System.currentTimeMillis()<stopTime) {
+			Thread.sleep(10);
+		}
+		boolean finished = GraphManager.isStageTerminated(gm, stage.stageId);
+		scheduler.shutdown();
+		server.close();
+
+		assertTrue("load generator stalled after the server closed its connections", finished);
+		assertTrue(stage.closed()>0);
+		assertTrue(stage.completed()>=REQUESTS_PER_CONNECTION);
+		assertEquals(total, stage.completed()+stage.errors());
+	}
+
+	/**
+	 * Answers each request until limit responses are sent, the last one asks the client to close.
+	 */
+	private static void serve(Socket socket, int limit) {
+		try {
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+			int matched = 0; //position in the blank line ending each request
+			int answered = 0;
+			int b;
+			while (answered<limit && (b = in.read()) >= 0) {
+				matched = (b == "\r\n\r\n".charAt(matched)) ? matched+1 : (b=='\r' ? 1 : 0);
+				if (4 == matched) {
+					matched = 0;
+					out.write(++answered<limit ? RESPONSE : LAST_RESPONSE);
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			//client went away
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//ignore
+			}
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.ociweb.pronghorn.network.http;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.network.ServerConnectionStruct;
+import com.ociweb.pronghorn.network.ServerCoordinator;
+import com.ociweb.pronghorn.network.config.HTTPHeader;
+import com.ociweb.pronghorn.network.config.HTTPHeaderDefaults;
+import com.ociweb.pronghorn.network.config.HTTPSpecification;
+import com.ociweb.pronghorn.network.config.HTTPVerb;
+import com.ociweb.pronghorn.network.config.HTTPVerbDefaults;
+import com.ociweb.pronghorn.struct.StructRegistry;
+import com.ociweb.pronghorn.util.TrieParserReader;
+
+public class RouteDispatchTest {
+
+	private static final int ROUTES = 400;
+
+	private static HTTP1xRouterStageConfig buildConfig(int routes) {
+		HTTP1xRouterStageConfig config = new HTTP1xRouterStageConfig(
+				HTTPSpecification.defaultSpec(),
+				new ServerConnectionStruct(new StructRegistry()));
+
+		int r = 0;
+		while (r<routes) {
+			config.registerCompositeRoute(HTTPHeaderDefaults.CONTENT_LENGTH)
+			      .path("/service"+r+"/item/#{id}")
+			      .path("/service"+r+"/name/${name}")
+			      .routeId();
+			r++;
+		}
+		return config;
+	}
+
+	private static byte[][] buildRequests(int routes) {
+		byte[][] requests = new byte[routes][];
+		int r = routes;
+		while (--r>=0) {
+			requests[r] = ("GET /service"+r+"/item/"+(1000+r)+" HTTP/1.1\r\n\r\n").getBytes();
+		}
+		return requests;
+	}
+
+	@Test
+	public void combinedRouteMatchesTwoStepTest() {
+
+		HTTP1xRouterStageConfig config = buildConfig(ROUTES);
+		byte[][] requests = buildRequests(ROUTES);
+		TrieParserReader reader = new TrieParserReader(true);
+
+		int r = ROUTES;
+		while (--r>=0) {
+
+			TrieParserReader.parseSetup(reader, requests[r], 0, requests[r].length, Integer.MAX_VALUE);
+			int verbId = (int)TrieParserReader.parseNext(reader, config.verbMap);
+			int pathId = (int)TrieParserReader.parseNext(reader, config.urlMap);
+			long id = TrieParserReader.capturedLongField(reader, 0);
+
+			TrieParserReader.parseSetup(reader, requests[r], 0, requests[r].length, Integer.MAX_VALUE);
+			long verbPath = TrieParserReader.parseNext(reader, config.verbURLMap);
+
+			assertEquals(HTTPVerbDefaults.GET.ordinal(), verbId);
+			assertEquals(verbId, (int)(verbPath & HTTPVerb.MASK));
+			assertEquals(pathId, (int)(verbPath >> HTTPVerb.BITS));
+			assertEquals(id, TrieParserReader.capturedLongField(reader, 0));
+			assertEquals(1000+r, id);
+			assertEquals(r, config.getRouteIdForPathId(pathId));
+		}
+
+		//unknown paths still land on the catch all route
+		byte[] unknown = "POST /nothing/here HTTP/1.1\r\n\r\n".getBytes();
+		TrieParserReader.parseSetup(reader, unknown, 0, unknown.length, Integer.MAX_VALUE);
+		long verbPath = TrieParserReader.parseNext(reader, config.verbURLMap);
+		assertEquals(HTTPVerbDefaults.POST.ordinal(), (int)(verbPath & HTTPVerb.MASK));
+		assertEquals(config.UNMAPPED_ROUTE, (int)(verbPath >> HTTPVerb.BITS));
+
+	}
+
+	@Test
+	public void acceptEncodingReadOnEveryRouteTest() {
+
+		//this route does not ask for Accept-Encoding but compression still needs it
+		HTTP1xRouterStageConfig config = buildConfig(1);
+		TrieParserReader reader = new TrieParserReader(true);
+
+		final int gzip = ServerCoordinator.ACCEPT_GZIP_MASK;
+		final int deflate = ServerCoordinator.ACCEPT_DEFLATE_MASK;
+
+		assertEquals(gzip|deflate, acceptEncoding(config, reader, "gzip, deflate, br"));
+		assertEquals(deflate, acceptEncoding(config, reader, "gzip;q=0, deflate"));
+		assertEquals(gzip, acceptEncoding(config, reader, "GZIP ; Q=0.5, deflate;q=0.000"));
+		assertEquals(0, acceptEncoding(config, reader, "x-gzip, deflated"));
+		assertEquals(gzip|deflate, acceptEncoding(config, reader, "*"));
+		assertEquals(deflate, acceptEncoding(config, reader, "*;q=0.1, gzip;q=0"));
+		assertEquals(0, acceptEncoding(config, reader, "identity, *;q=0"));
+	}
+
+	private static int acceptEncoding(HTTP1xRouterStageConfig config, TrieParserReader reader, String value) {
+		byte[] header = ("Accept-Encoding: "+value+"\r\n").getBytes();
+		TrieParserReader.parseSetup(reader, header, 0, header.length, Integer.MAX_VALUE);
+		long token = TrieParserReader.parseNext(reader, config.headerParserRouteId(0));
+
+		HTTPHeader parsed = config.getAssociatedObject(token);
+		assertEquals(HTTPHeaderDefaults.ACCEPT_ENCODING.ordinal(), parsed.ordinal());
+		return HTTP1xRouterStage.applyAcceptEncodingToContext(0, reader);
+	}
+
+	//////////////////////////////////
+	//THIS IS NOT A UNIT TEST
+	//main compares the two step routing against the combined single walk
+	//////////////////////////////////
+	public static void main(String[] args) {
+
+		HTTP1xRouterStageConfig config = buildConfig(ROUTES);
+		byte[][] requests = buildRequests(ROUTES);
+		TrieParserReader reader = new TrieParserReader(true);
+
+		int iterations = 200;
+		int warmup = 5;
+		int runs = 10;
+		while (--runs>=0) {
+
+			long start = System.nanoTime();
+			long sum = 0;
+			int i = iterations;
+			while (--i>=0) {
+				int r = ROUTES;
+				while (--r>=0) {
+					TrieParserReader.parseSetup(reader, requests[r], 0, requests[r].length, Integer.MAX_VALUE);
+					int verbId = (int)TrieParserReader.parseNext(reader, config.verbMap);
+					int pathId = (int)TrieParserReader.parseNext(reader, config.urlMap);
+					sum += config.getRouteIdForPathId(pathId) + verbId;
+				}
+			}
+			long twoStep = System.nanoTime()-start;
+
+			start = System.nanoTime();
+			i = iterations;
+			while (--i>=0) {
+				int r = ROUTES;
+				while (--r>=0) {
+					TrieParserReader.parseSetup(reader, requests[r], 0, requests[r].length, Integer.MAX_VALUE);
+					long verbPath = TrieParserReader.parseNext(reader, config.verbURLMap);
+					sum -= config.getRouteIdForPathId((int)(verbPath >> HTTPVerb.BITS)) + (int)(verbPath & HTTPVerb.MASK);
+				}
+			}
+			long combined = System.nanoTime()-start;
+
+			if (runs < (10-warmup)) {
+				long total = (long)iterations*ROUTES;
+				System.out.println("two step "+(twoStep/total)+"ns/op  combined "+(combined/total)+"ns/op  check:"+sum);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.ociweb.pronghorn.stage.blocking;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+public class ExecutorBlockingSupportStageTest {
+
+	private static final byte[] DATA = "work".getBytes();
+
+	private static class SleepBlockable extends Blockable<RawDataSchema, RawDataSchema, RawDataSchema> {
+
+		private final long sleepMS;
+
+		SleepBlockable(long sleepMS) {
+			this.sleepMS = sleepMS;
+		}
+
+		@Override
+		public void begin(Pipe<RawDataSchema> input) {
+			int msgIdx = Pipe.takeMsgIdx(input);
+			Pipe.takeByteArrayMetaData(input);
+			Pipe.takeByteArrayLength(input);
+			Pipe.confirmLowLevelRead(input, Pipe.sizeOf(input, msgIdx));
+			Pipe.releaseReadLock(input);
+		}
+
+		@Override
+		public void run() throws InterruptedException {
+			Thread.sleep(sleepMS);
+		}
+
+		@Override
+		public void finish(Pipe<RawDataSchema> output) {
+			write(output);
+		}
+
+		@Override
+		public void timeout(Pipe<RawDataSchema> output) {
+			write(output);
+		}
+	}
+
+	private static void write(Pipe<RawDataSchema> pipe) {
+		int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		Pipe.addByteArray(DATA, 0, DATA.length, pipe);
+		Pipe.confirmLowLevelWrite(pipe, size);
+		Pipe.publishWrites(pipe);
+	}
+
+	private static int drain(Pipe<RawDataSchema> pipe) {
+		int count = 0;
+		while (Pipe.hasContentToRead(pipe)) {
+			int msgIdx = Pipe.takeMsgIdx(pipe);
+			Pipe.takeByteArrayMetaData(pipe);
+			Pipe.takeByteArrayLength(pipe);
+			Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+			Pipe.releaseReadLock(pipe);
+			count++;
+		}
+		return count;
+	}
+
+	private static Choosable<RawDataSchema> roundRobin(final int count) {
+		return new Choosable<RawDataSchema>() {
+			int next;
+			@Override
+			public int choose(Pipe<RawDataSchema> t) {
+				return next++ % count;
+			}
+		};
+	}
+
+	@Test
+	public void moreWorkThanThreadsTest() {
+
+		GraphManager gm = new GraphManager();
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(64, 100);
+		Pipe<RawDataSchema> output = RawDataSchema.instance.newPipe(64, 100);
+		Pipe<RawDataSchema> timeout = RawDataSchema.instance.newPipe(8, 100);
+		input.initBuffers();
+		output.initBuffers();
+		timeout.initBuffers();
+
+		int blockableCount = 16;
+		SleepBlockable[] blockables = new SleepBlockable[blockableCount];
+		int i = blockableCount;
+		while (--i>=0) {
+			blockables[i] = new SleepBlockable(2);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		ExecutorBlockingSupportStage<RawDataSchema, RawDataSchema, RawDataSchema> stage =
+				new ExecutorBlockingSupportStage<RawDataSchema, RawDataSchema, RawDataSchema>(gm, input, output, timeout,
+						5_000_000_000L, 8, pool, roundRobin(blockableCount), blockables);
+
+		int tasks = 40;
+		i = tasks;
+		while (--i>=0) {
+			write(input);
+		}
+
+		stage.startup();
+		int finished = 0;
+		long limit = System.currentTimeMillis()+10_000;
+		while (finished<tasks && System.currentTimeMillis()<limit) {
+			stage.run();
+			finished += drain(output);
+			Thread.yield();
+		}
+		stage.shutdown();
+		pool.shutdownNow();
+
+		assertEquals(tasks, finished);
+		assertEquals(0, drain(timeout));
+	}
+
+	@Test
+	public void timeoutWritesToTimeoutPipeTest() {
+
+		GraphManager gm = new GraphManager();
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(8, 100);
+		Pipe<RawDataSchema> output = RawDataSchema.instance.newPipe(8, 100);
+		Pipe<RawDataSchema> timeout = RawDataSchema.instance.newPipe(8, 100);
+		input.initBuffers();
+		output.initBuffers();
+		timeout.initBuffers();
+
+		ExecutorService pool = Executors.newCachedThreadPool();
+		ExecutorBlockingSupportStage<RawDataSchema, RawDataSchema, RawDataSchema> stage =
+				new ExecutorBlockingSupportStage<RawDataSchema, RawDataSchema, RawDataSchema>(gm, input, output, timeout,
+						20_000_000L, 1, pool, roundRobin(1), new SleepBlockable(60_000));
+
+		write(input);
+
+		stage.startup();
+		int timedOut = 0;
+		long limit = System.currentTimeMillis()+10_000;
+		while (0==timedOut && System.currentTimeMillis()<limit) {
+			stage.run();
+			timedOut += drain(timeout);
+			Thread.yield();
+		}
+		stage.shutdown();
+		pool.shutdownNow();
+
+		assertEquals(1, timedOut);
+		assertEquals(0, drain(output));
+	}
+
+}
@@ -78,6 +78,60 @@ public class FileBlobRoundTripTest {
         }
     }
     
+    @Test
+    public void fileBlobWriteGathersManyFragmentsTest() throws IOException {
+
+        File f = File.createTempFile("gatherTest", "dat");
+        f.deleteOnExit();
+
+        GraphManager gm = new GraphManager();
+        Pipe<RawDataSchema> inputPipe = RawDataSchema.instance.newPipe(16, 256);
+        FileBlobWriteStage stage = new FileBlobWriteStage(gm, inputPipe, 1L<<20, false, f.getAbsolutePath(), 1, 1<<20, false);
+        inputPipe.initBuffers();
+        stage.startup();
+
+        //several rounds of many fragments each, the blob ring wraps so some fragments are split in two
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Random random = new Random(7);
+        int round = 0;
+        while (round<4) {
+            int i = 12;
+            while (--i>=0) {
+                byte[] fragment = new byte[100+random.nextInt(156)];
+                random.nextBytes(fragment);
+                expected.write(fragment);
+
+                Pipe.addMsgIdx(inputPipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+                Pipe.addByteArray(fragment, 0, fragment.length, inputPipe);
+                Pipe.confirmLowLevelWrite(inputPipe, Pipe.sizeOf(inputPipe, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+                Pipe.publishWrites(inputPipe);
+            }
+            stage.run();
+            assertEquals(0, Pipe.contentRemaining(inputPipe));
+            round++;
+        }
+        Pipe.publishEOF(inputPipe);
+        stage.run();
+        stage.shutdown();
+
+        assertArrayEquals(expected.toByteArray(), readAll(f));
+    }
+
+    private static byte[] readAll(File f) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(f);
+        try {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                baos.write(buffer, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return baos.toByteArray();
+    }
+
     @Test
     public void testReadWriteStage() {
     	
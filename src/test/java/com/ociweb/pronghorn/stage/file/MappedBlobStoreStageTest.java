@@ -0,0 +1,303 @@
+package com.ociweb.pronghorn.stage.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeReader;
+import com.ociweb.pronghorn.pipe.PipeWriter;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadConsumerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadProducerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadReleaseSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreConsumerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreProducerSchema;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.NonThreadScheduler;
+import com.ociweb.pronghorn.stage.test.ConsoleJSONDumpStage;
+
+public class MappedBlobStoreStageTest {
+
+	//8 chunks of 256 bytes, blocks of up to 128 bytes so records often do not fit at the end of a chunk
+	private static final long LOG_SIZE = 64+2048;
+	private static final int CHUNK_BITS = 8;
+	private static final int MAX_BLOCK = 128;
+
+	@Test
+	public void releasedBlocksAreNotReplayedAfterRestart() throws IOException {
+		File dir = Files.createTempDirectory("blobStore").toFile();
+		dir.deleteOnExit();
+
+		Pipe<PersistedBlobStoreProducerSchema> producer = PersistedBlobStoreProducerSchema.instance.newPipe(10, 1000);
+		Pipe<PersistedBlobStoreConsumerSchema> consumer = PersistedBlobStoreConsumerSchema.instance.newPipe(10, 1000);
+		producer.initBuffers();
+		consumer.initBuffers();
+
+		writeBlock(producer, 10, "hello");
+		writeBlock(producer, 11, "world");
+
+		PipeWriter.presumeWriteFragment(consumer, PersistedBlobStoreConsumerSchema.MSG_RELEASE_7);
+		PipeWriter.writeLong(consumer, PersistedBlobStoreConsumerSchema.MSG_RELEASE_7_FIELD_BLOCKID_3, 10L);
+		PipeWriter.publishWrites(consumer);
+		PipeWriter.publishEOF(consumer);
+
+		String result = runGraph(producer, consumer, dir);
+		assertTrue(result, result.indexOf("AckWrite")>0);
+		assertTrue(result, result.indexOf("AckRelease")>0);
+
+		producer = PersistedBlobStoreProducerSchema.instance.newPipe(10, 1000);
+		consumer = PersistedBlobStoreConsumerSchema.instance.newPipe(10, 1000);
+		producer.initBuffers();
+		consumer.initBuffers();
+
+		PipeWriter.presumeWriteFragment(consumer, PersistedBlobStoreConsumerSchema.MSG_REQUESTREPLAY_6);
+		PipeWriter.publishWrites(consumer);
+		PipeWriter.publishEOF(consumer);
+
+		result = runGraph(producer, consumer, dir);
+		assertTrue(result, result.indexOf("BeginReplay")>0);
+		assertFalse(result, result.indexOf("0x68,0x65,0x6c,0x6c,0x6f")>0); //hello was released
+		assertTrue(result, result.indexOf("0x77,0x6f,0x72,0x6c,0x64")>0);  //world survives the restart
+		assertTrue(result, result.indexOf("FinishReplay")>0);
+
+		new File(dir, "blobStore.log").delete();
+		new File(dir, "blobStore.idx").delete();
+	}
+
+	@Test
+	public void wrapAroundWithPadRecordsTest() throws IOException {
+		File dir = Files.createTempDirectory("blobStore").toFile();
+		dir.deleteOnExit();
+
+		Store store = new Store(dir, 8);
+		Map<Long, byte[]> live = new LinkedHashMap<Long, byte[]>();
+		Random random = new Random(3);
+		//many times round the log, records of uneven size leave pads at the ends of the chunks
+		for(long id = 1; id<=300; id++) {
+			byte[] block = new byte[20+random.nextInt(MAX_BLOCK-20)];
+			random.nextBytes(block);
+			store.store(id, block);
+			live.put(id, block);
+			if (live.size()>3) {
+				Iterator<Long> oldest = live.keySet().iterator();
+				store.release(oldest.next());
+				oldest.remove();
+			}
+		}
+		assertBlocks(live, store.replay());
+		store.shutdown();
+
+		store = new Store(dir, 8);
+		assertBlocks(live, store.replay());
+		store.shutdown();
+	}
+
+	@Test
+	public void relocationUnderCompactionTest() throws IOException {
+		File dir = Files.createTempDirectory("blobStore").toFile();
+		dir.deleteOnExit();
+
+		Store store = new Store(dir, 8);
+		Random random = new Random(5);
+		byte[] kept = new byte[MAX_BLOCK];
+		random.nextBytes(kept);
+		store.store(1, kept);
+
+		//the tail stops at the kept block, every store after the log fills needs it moved to the head
+		Map<Long, byte[]> live = new LinkedHashMap<Long, byte[]>();
+		live.put(1L, kept);
+		for(long id = 2; id<=200; id++) {
+			byte[] block = new byte[16+random.nextInt(MAX_BLOCK-16)];
+			random.nextBytes(block);
+			store.store(id, block);
+			if (id>2) {
+				store.release(id-1);
+			}
+		}
+		store.release(200);
+		assertBlocks(live, store.replay());
+
+		store.release(1);
+		store.shutdown();
+
+		store = new Store(dir, 8);
+		assertBlocks(new LinkedHashMap<Long, byte[]>(), store.replay());
+		store.shutdown();
+	}
+
+	@Test
+	public void backwardShiftDeleteTest() throws IOException {
+		File dir = Files.createTempDirectory("blobStore").toFile();
+		dir.deleteOnExit();
+
+		//16 slots and 12 live ids, probe chains overlap and wrap round the end of the index
+		Random random = new Random(11);
+		for(int round = 0; round<20; round++) {
+			Store store = new Store(dir, 4);
+			List<Long> ids = new ArrayList<Long>();
+			Map<Long, byte[]> live = new LinkedHashMap<Long, byte[]>();
+			for(int i = 0; i<12; i++) {
+				long id = random.nextLong();
+				byte[] block = new byte[8];
+				random.nextBytes(block);
+				store.store(id, block); //would stall at the live limit if a remove had lost an entry
+				ids.add(id);
+				live.put(id, block);
+			}
+			Collections.shuffle(ids, random);
+			for(int i = 0; i<6; i++) {
+				store.release(ids.get(i));
+				live.remove(ids.get(i));
+			}
+			store.shutdown();
+
+			//every remaining id is still found after the shifts
+			store = new Store(dir, 4);
+			assertBlocks(live, store.replay());
+			for(int i = 6; i<12; i++) {
+				store.release(ids.get(i));
+			}
+			store.shutdown();
+
+			store = new Store(dir, 4);
+			assertBlocks(new LinkedHashMap<Long, byte[]>(), store.replay());
+			store.shutdown();
+		}
+	}
+
+	private static void assertBlocks(Map<Long, byte[]> expected, Map<Long, byte[]> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for(Map.Entry<Long, byte[]> e: expected.entrySet()) {
+			assertArrayEquals(e.getValue(), actual.get(e.getKey()));
+		}
+	}
+
+	//drives the stage directly so each request is answered before the next is sent
+	private static class Store {
+
+		final Pipe<PersistedBlobStoreConsumerSchema> consumer = PersistedBlobStoreConsumerSchema.instance.newPipe(4, MAX_BLOCK);
+		final Pipe<PersistedBlobStoreProducerSchema> producer = PersistedBlobStoreProducerSchema.instance.newPipe(4, MAX_BLOCK);
+		final Pipe<PersistedBlobLoadReleaseSchema>  releases = PersistedBlobLoadReleaseSchema.instance.newPipe(4, MAX_BLOCK);
+		final Pipe<PersistedBlobLoadConsumerSchema> replays = PersistedBlobLoadConsumerSchema.instance.newPipe(4, MAX_BLOCK);
+		final Pipe<PersistedBlobLoadProducerSchema> acks = PersistedBlobLoadProducerSchema.instance.newPipe(4, MAX_BLOCK);
+		final MappedBlobStoreStage stage;
+
+		Store(File dir, int indexBits) {
+			stage = new MappedBlobStoreStage(new GraphManager(), consumer, producer, releases, replays, acks,
+					new File(dir, "blobStore.log"), new File(dir, "blobStore.idx"), LOG_SIZE, indexBits, CHUNK_BITS);
+			consumer.initBuffers();
+			producer.initBuffers();
+			releases.initBuffers();
+			replays.initBuffers();
+			acks.initBuffers();
+			stage.startup();
+		}
+
+		void store(long id, byte[] block) {
+			writeBlock(producer, id, block);
+			stage.run();
+			assertTrue("no room to store "+id, PipeReader.tryReadFragment(acks));
+			assertEquals(id, PipeReader.readLong(acks, PersistedBlobLoadProducerSchema.MSG_ACKWRITE_11_FIELD_BLOCKID_3));
+			PipeReader.releaseReadLock(acks);
+		}
+
+		void release(long id) {
+			PipeWriter.presumeWriteFragment(consumer, PersistedBlobStoreConsumerSchema.MSG_RELEASE_7);
+			PipeWriter.writeLong(consumer, PersistedBlobStoreConsumerSchema.MSG_RELEASE_7_FIELD_BLOCKID_3, id);
+			PipeWriter.publishWrites(consumer);
+			stage.run();
+			assertTrue(PipeReader.tryReadFragment(releases));
+			assertEquals(id, PipeReader.readLong(releases, PersistedBlobLoadReleaseSchema.MSG_ACKRELEASE_10_FIELD_BLOCKID_3));
+			PipeReader.releaseReadLock(releases);
+		}
+
+		Map<Long, byte[]> replay() {
+			PipeWriter.presumeWriteFragment(consumer, PersistedBlobStoreConsumerSchema.MSG_REQUESTREPLAY_6);
+			PipeWriter.publishWrites(consumer);
+
+			Map<Long, byte[]> blocks = new LinkedHashMap<Long, byte[]>();
+			int guard = 1000;
+			while (--guard>=0) {
+				stage.run();
+				while (PipeReader.tryReadFragment(replays)) {
+					int msgIdx = PipeReader.getMsgIdx(replays);
+					if (PersistedBlobLoadConsumerSchema.MSG_FINISHREPLAY_9 == msgIdx) {
+						PipeReader.releaseReadLock(replays);
+						return blocks;
+					}
+					if (PersistedBlobLoadConsumerSchema.MSG_BLOCK_1 == msgIdx) {
+						long id = PipeReader.readLong(replays, PersistedBlobLoadConsumerSchema.MSG_BLOCK_1_FIELD_BLOCKID_3);
+						ByteBuffer block = ByteBuffer.allocate(PipeReader.readBytesLength(replays, PersistedBlobLoadConsumerSchema.MSG_BLOCK_1_FIELD_BYTEARRAY_2));
+						PipeReader.readBytes(replays, PersistedBlobLoadConsumerSchema.MSG_BLOCK_1_FIELD_BYTEARRAY_2, block);
+						assertTrue("replayed twice "+id, null == blocks.put(id, block.array()));
+					}
+					PipeReader.releaseReadLock(replays);
+				}
+			}
+			throw new AssertionError("replay did not finish");
+		}
+
+		void shutdown() {
+			stage.shutdown();
+		}
+	}
+
+	private static void writeBlock(Pipe<PersistedBlobStoreProducerSchema> producer, long id, String text) {
+		writeBlock(producer, id, text.getBytes());
+	}
+
+	private static void writeBlock(Pipe<PersistedBlobStoreProducerSchema> producer, long id, byte[] bytes) {
+		PipeWriter.presumeWriteFragment(producer, PersistedBlobStoreProducerSchema.MSG_BLOCK_1);
+		PipeWriter.writeLong(producer, PersistedBlobStoreProducerSchema.MSG_BLOCK_1_FIELD_BLOCKID_3, id);
+		PipeWriter.writeBytes(producer, PersistedBlobStoreProducerSchema.MSG_BLOCK_1_FIELD_BYTEARRAY_2, bytes, 0, bytes.length);
+		PipeWriter.publishWrites(producer);
+	}
+
+	private String runGraph(Pipe<PersistedBlobStoreProducerSchema> producer,
+			                Pipe<PersistedBlobStoreConsumerSchema> consumer, File dir) {
+
+		GraphManager gm = new GraphManager();
+		short inFlightCount = 20;
+		int largestBlock = 1<<12;
+
+		Pipe<PersistedBlobLoadReleaseSchema>  loadRelease  = PersistedBlobLoadReleaseSchema.instance.newPipe(inFlightCount, largestBlock);
+		Pipe<PersistedBlobLoadConsumerSchema> loadConsumer = PersistedBlobLoadConsumerSchema.instance.newPipe(inFlightCount, largestBlock);
+		Pipe<PersistedBlobLoadProducerSchema> loadProducer = PersistedBlobLoadProducerSchema.instance.newPipe(inFlightCount, largestBlock);
+
+		FileGraphBuilder.buildMappedBlobStore(gm, loadRelease, loadConsumer, loadProducer,
+				                              consumer, producer, 1<<16, 8, dir, null);
+
+		StringBuilder result0 = new StringBuilder();
+		ConsoleJSONDumpStage.newInstance(gm, loadRelease, result0);
+		StringBuilder result1 = new StringBuilder();
+		ConsoleJSONDumpStage.newInstance(gm, loadProducer, result1);
+		StringBuilder result2 = new StringBuilder();
+		ConsoleJSONDumpStage watch = ConsoleJSONDumpStage.newInstance(gm, loadConsumer, result2);
+
+		NonThreadScheduler scheduler = new NonThreadScheduler(gm);
+		scheduler.startup();
+		while (!GraphManager.isStageTerminated(gm, watch.stageId)) {
+			scheduler.run();
+			Thread.yield();
+		}
+		scheduler.shutdown();
+
+		return result0.toString()+result1.toString()+result2.toString();
+	}
+
+}
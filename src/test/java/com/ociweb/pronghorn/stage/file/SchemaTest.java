@@ -18,6 +18,7 @@ import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreConsumerSchema;
 import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreProducerSchema;
 import com.ociweb.pronghorn.stage.file.schema.SequentialCtlSchema;
 import com.ociweb.pronghorn.stage.file.schema.SequentialRespSchema;
+import com.ociweb.pronghorn.stage.file.schema.TapeControlSchema;
 
 public class SchemaTest {
 
@@ -70,6 +71,11 @@ public class SchemaTest {
 		assertTrue(FROMValidation.checkSchema(ROOT + "SequentialResp.xml", SequentialRespSchema.class));
 	}
 	
+	@Test
+	public void testTapeControlSchema() {
+		assertTrue(FROMValidation.checkSchema(ROOT + "TapeControl.xml", TapeControlSchema.class));
+	}
+	
 	@Test
 	public void testBlockStorageXmitSchema() {
 		assertTrue(FROMValidation.checkSchema(ROOT + "BlockStorageXmit.xml", BlockStorageXmitSchema.class));
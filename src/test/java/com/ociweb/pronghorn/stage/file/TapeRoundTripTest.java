@@ -11,6 +11,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -19,6 +20,7 @@ import org.junit.Test;
 import com.ociweb.pronghorn.pipe.Pipe;
 import com.ociweb.pronghorn.pipe.PipeConfig;
 import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.file.schema.TapeControlSchema;
 import com.ociweb.pronghorn.stage.scheduling.GraphManager;
 import com.ociweb.pronghorn.stage.scheduling.ThreadPerStageScheduler;
 import com.ociweb.pronghorn.stage.stream.ToOutputStreamStage;
@@ -265,4 +267,91 @@ public class TapeRoundTripTest {
     	} 
     }
      
+    @Test
+    public void indexSearchTest() throws IOException {
+        File f = File.createTempFile("tapeIndexTest", "idx");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            TapeIndex index = new TapeIndex(raf.getChannel(), 100);
+            index.chunk(1000, 0, 0);    //first chunk is always indexed
+            index.chunk(1001, 10, 60);  //too close
+            index.chunk(1002, 20, 120);
+            index.chunk(900, 30, 230);  //time is held at 1002
+            index.chunk(1010, 40, 240); //too close
+            index.chunk(1020, 50, 340);
+            
+            assertEquals(TapeIndex.HEADER_SIZE + (4*TapeIndex.ENTRY_SIZE), f.length());
+            
+            assertEquals(0,   TapeIndex.offsetForTime(raf.getChannel(), 999));
+            assertEquals(0,   TapeIndex.offsetForTime(raf.getChannel(), 1001));
+            assertEquals(230, TapeIndex.offsetForTime(raf.getChannel(), 1002));
+            assertEquals(340, TapeIndex.offsetForTime(raf.getChannel(), Long.MAX_VALUE));
+            
+            assertEquals(0,   TapeIndex.offsetForPosition(raf.getChannel(), 19));
+            assertEquals(120, TapeIndex.offsetForPosition(raf.getChannel(), 20));
+            assertEquals(230, TapeIndex.offsetForPosition(raf.getChannel(), 49));
+            assertEquals(340, TapeIndex.offsetForPosition(raf.getChannel(), 50));
+        } finally {
+            raf.close();
+        }
+    }
+    
+    @Test
+    public void seekRoundTripTest() throws IOException {
+        
+        if ("arm".equals(System.getProperty("os.arch"))) {
+            return;
+        }
+        
+        int maxVarLength = 4096;
+        PipeConfig<RawDataSchema> config = new PipeConfig<RawDataSchema>(RawDataSchema.instance, 10, maxVarLength);
+        
+        File tapeFile = File.createTempFile("seekRoundTripTest", "dat");
+        File indexFile = new File(TapeIndex.indexPath(tapeFile.getAbsolutePath()));
+        tapeFile.deleteOnExit();
+        indexFile.deleteOnExit();
+        
+        GraphManager gm = new GraphManager();
+        Pipe<RawDataSchema> inputPipe = new Pipe<RawDataSchema>(config);
+        new ByteArrayProducerStage(gm, rawData, inputPipe);
+        RandomAccessFile tape = new RandomAccessFile(tapeFile, "rw");
+        RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+        new TapeWriteStage(gm, inputPipe, tape, index, 1<<16);
+        ThreadPerStageScheduler scheduler = new ThreadPerStageScheduler(gm);
+        scheduler.startup();
+        scheduler.awaitTermination(3, TimeUnit.SECONDS);
+        tape.close();
+        index.close();
+        
+        assertTrue(indexFile.length() > TapeIndex.HEADER_SIZE + TapeIndex.ENTRY_SIZE);
+        
+        //jump to the middle of the recorded pipe, each message holds 4 ints
+        long messages = (rawData.length+maxVarLength-1)/maxVarLength;
+        long middle = 2*messages;
+        
+        gm = new GraphManager();
+        Pipe<TapeControlSchema> control = TapeControlSchema.instance.newPipe(4, 512);
+        Pipe<RawDataSchema> loadedDataPipe = new Pipe<RawDataSchema>(config.grow2x());
+        new TapeReadStage(gm, control, loadedDataPipe);
+        ByteArrayOutputStream baost = new ByteArrayOutputStream();
+        new ToOutputStreamStage(gm, loadedDataPipe, baost, false);
+        
+        control.initBuffers();
+        TapeControlSchema.publishOpen(control, tapeFile.getAbsolutePath());
+        TapeControlSchema.publishSeekPosition(control, middle);
+        Pipe.publishEOF(control);
+        
+        scheduler = new ThreadPerStageScheduler(gm);
+        scheduler.startup();
+        scheduler.awaitTermination(60, TimeUnit.SECONDS);
+        
+        byte[] replayed = baost.toByteArray();
+        //the indexed chunk is at or before the middle
+        assertTrue(replayed.length >= (rawData.length/2) - maxVarLength);
+        assertTrue(replayed.length < rawData.length);
+        //replay starts on a chunk boundary so it is exactly the end of the data
+        assertArrayEquals(Arrays.copyOfRange(rawData, rawData.length-replayed.length, rawData.length), replayed);
+    }
+     
 }
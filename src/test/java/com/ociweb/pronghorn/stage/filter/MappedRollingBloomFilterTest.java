@@ -0,0 +1,82 @@
+package com.ociweb.pronghorn.stage.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.util.MappedRollingBloomFilter;
+import com.ociweb.pronghorn.util.RollingBloomFilter;
+
+public class MappedRollingBloomFilterTest {
+
+    private final byte[] buffer = new byte[256];
+    private final int mask = 0xFF;
+    
+    private int write(String value) {
+        byte[] b = value.getBytes();
+        System.arraycopy(b, 0, buffer, 0, b.length);
+        return b.length;
+    }
+    
+    @Test
+    public void reopenKeepsValuesTest() throws IOException {
+        
+        File file = File.createTempFile("bloom", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        
+        MappedRollingBloomFilter filter = MappedRollingBloomFilter.open(file, 1000, .00000001);
+        int i = 100;
+        while (--i>=0) {
+            int len = write("value"+i);
+            assertEquals(0, filter.addValue(buffer, 0, len, mask));
+        }
+        assertEquals(100, filter.memberCount());
+        filter.close();
+        
+        assertTrue(MappedRollingBloomFilter.isMappedFile(file));
+        
+        MappedRollingBloomFilter reopened = MappedRollingBloomFilter.open(file, 1000, .00000001);
+        assertEquals(100, reopened.memberCount());
+        i = 100;
+        while (--i>=0) {
+            int len = write("value"+i);
+            assertTrue(reopened.mayContain(buffer, 0, len, mask));
+        }
+        int len = write("other");
+        assertFalse(reopened.mayContain(buffer, 0, len, mask));
+        reopened.close();
+        
+        //different parameters must not reuse the old bits
+        MappedRollingBloomFilter different = MappedRollingBloomFilter.open(file, 2000, .00000001);
+        assertEquals(0, different.memberCount());
+        different.close();
+    }
+    
+    @Test
+    public void copyFromHeapFilterTest() throws IOException {
+        
+        File file = File.createTempFile("bloom", ".dat");
+        file.deleteOnExit();
+        
+        RollingBloomFilter heap = new RollingBloomFilter(1000, .00000001);
+        int len = write("Moe");
+        heap.addValue(buffer, 0, len, mask);
+        
+        MappedRollingBloomFilter filter = MappedRollingBloomFilter.open(file, heap, 0);
+        assertTrue(filter.mayContain(buffer, 0, len, mask));
+        len = write("Shemp");
+        assertFalse(filter.mayContain(buffer, 0, len, mask));
+        
+        filter.addValue(buffer, 0, len, mask);
+        assertTrue(filter.checkpoint(System.currentTimeMillis()));
+        assertFalse(filter.checkpoint(System.currentTimeMillis()));
+        filter.close();
+    }
+    
+}
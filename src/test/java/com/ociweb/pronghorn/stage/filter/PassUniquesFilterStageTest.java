@@ -0,0 +1,75 @@
+package com.ociweb.pronghorn.stage.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.util.MappedRollingBloomFilter;
+import com.ociweb.pronghorn.util.RollingBloomFilter;
+
+public class PassUniquesFilterStageTest {
+
+    @Test
+    public void serializedFilterIsMigratedTest() throws IOException {
+
+        File file = File.createTempFile("uniques", ".dat");
+        file.deleteOnExit();
+        RollingBloomFilter heap = new RollingBloomFilter(1000, .00001);
+        byte[] value = "Moe".getBytes();
+        heap.addValue(value, 0, value.length, 0xFF);
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+        out.writeObject(heap);
+        out.close();
+        byte[] original = Files.readAllBytes(file.toPath());
+
+        startAndStop(file);
+
+        assertTrue(MappedRollingBloomFilter.isMappedFile(file));
+        assertArrayEquals(original, Files.readAllBytes(backup(file).toPath()));
+        assertFalse(new File(file.getCanonicalPath()+".tmp").exists());
+    }
+
+    @Test
+    public void unreadableFilterIsKeptTest() throws IOException {
+
+        File file = File.createTempFile("uniques", ".dat");
+        file.deleteOnExit();
+        byte[] original = "not a serialized filter".getBytes();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(original);
+        out.close();
+
+        startAndStop(file);
+
+        assertTrue(MappedRollingBloomFilter.isMappedFile(file));
+        assertArrayEquals(original, Files.readAllBytes(backup(file).toPath()));
+    }
+
+    private static File backup(File file) throws IOException {
+        File backup = new File(file.getCanonicalPath()+".bak");
+        backup.deleteOnExit();
+        return backup;
+    }
+
+    private static void startAndStop(File file) {
+        GraphManager gm = new GraphManager();
+        Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(4, 64);
+        Pipe<RawDataSchema> output = RawDataSchema.instance.newPipe(4, 64);
+        PassUniquesFilterStage<RawDataSchema> stage = new PassUniquesFilterStage<RawDataSchema>(gm, input, output,
+                                                          RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, file);
+        stage.startup();
+        stage.shutdown();
+    }
+
+}
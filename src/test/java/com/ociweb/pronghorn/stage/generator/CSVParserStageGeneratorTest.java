@@ -0,0 +1,133 @@
+package com.ociweb.pronghorn.stage.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.code.LoaderUtil;
+import com.ociweb.pronghorn.pipe.FieldReferenceOffsetManager;
+import com.ociweb.pronghorn.pipe.MessageSchemaDynamic;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.schema.loader.TemplateHandler;
+import com.ociweb.pronghorn.stage.PronghornStage;
+import com.ociweb.pronghorn.stage.monitor.PipeMonitorSchema;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+public class CSVParserStageGeneratorTest {
+
+    @Test
+    public void generateCSVParserCompileTest() {
+        
+        StringBuilder target = new StringBuilder();
+        CSVParserStageGenerator ew = new CSVParserStageGenerator(PipeMonitorSchema.instance, target);
+
+        try {
+            ew.processSchema();
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail();
+        }
+        
+        String source = target.toString();
+        assertTrue(source.contains("Pipe.addLongValue"));
+        assertTrue(source.contains("Pipe.addIntValue"));
+        assertFalse("columns must be unrolled, no runtime type dispatch", source.contains("switch"));
+        
+        try {
+            Class generateClass = LoaderUtil.generateClass(ew.getPackageName(), ew.getClassName(), target, FuzzDataStageGenerator.class);
+            Constructor constructor =  generateClass.getConstructor(GraphManager.class, Pipe.class, Pipe.class);
+            assertNotNull(constructor);
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            fail();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            fail();
+        }
+
+    }
+
+    @Test
+    public void generatedParserDecodesLines() throws Exception {
+
+        FieldReferenceOffsetManager from = TemplateHandler.loadFrom("src/test/resources/template/csvColumns.xml");
+        MessageSchemaDynamic schema = new MessageSchemaDynamic(from);
+
+        StringBuilder target = new StringBuilder();
+        CSVParserStageGenerator ew = new CSVParserStageGenerator(schema, target);
+        ew.processSchema();
+        Class generateClass = LoaderUtil.generateClass(ew.getPackageName(), ew.getClassName(), target, CSVParserStageGenerator.class);
+
+        GraphManager gm = new GraphManager();
+        Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(16, 256);
+        Pipe<MessageSchemaDynamic> output = new Pipe<MessageSchemaDynamic>(new PipeConfig<MessageSchemaDynamic>(schema, 16, 256));
+        input.initBuffers();
+        output.initBuffers();
+        PronghornStage stage = (PronghornStage)generateClass.getConstructor(GraphManager.class, Pipe.class, Pipe.class)
+                                                            .newInstance(gm, input, output);
+
+        writeLine(input, "IBM,100,1234567890123,12.50,plain\r\n");
+        writeLine(input, "\"Acme, Inc.\",-7,42,-0.05,\"said \"\"hi\"\", then left\"\r\n");
+        writeLine(input, "XYZ,,,,\r\n");
+        writeLine(input, "BAD,12x,1,1.0,dropped\r\n");
+        writeLine(input, "LAST,5,6,7.125,end");
+        Pipe.publishEOF(input);
+
+        stage.run();
+
+        int msgIdx = from.messageStarts()[0];
+        assertTrade(output, msgIdx, "IBM", 100, 1234567890123L, 2, 1250, "plain");
+        assertTrade(output, msgIdx, "Acme, Inc.", -7, 42, 2, -5, "said \"hi\", then left");
+        assertTrade(output, msgIdx, "XYZ", 0, 0, 0, 0, "");
+        assertTrade(output, msgIdx, "LAST", 5, 6, 3, 7125, "end");
+        assertEquals(-1, Pipe.takeMsgIdx(output));
+
+        assertEquals(1L, generateClass.getMethod("rejectedLines").invoke(stage));
+    }
+
+    private static void writeLine(Pipe<RawDataSchema> input, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        int size = Pipe.addMsgIdx(input, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+        Pipe.addByteArray(bytes, 0, bytes.length, input);
+        Pipe.confirmLowLevelWrite(input, size);
+        Pipe.publishWrites(input);
+    }
+
+    private static void assertTrade(Pipe<MessageSchemaDynamic> output, int msgIdx, String symbol, int quantity,
+                                    long sequence, int places, long price, String note) {
+        assertTrue(Pipe.hasContentToRead(output));
+        assertEquals(msgIdx, Pipe.takeMsgIdx(output));
+        assertEquals(symbol, takeText(output));
+        assertEquals(quantity, Pipe.takeInt(output));
+        assertEquals(sequence, Pipe.takeLong(output));
+        assertEquals(places, Pipe.takeInt(output));
+        assertEquals(price, Pipe.takeLong(output));
+        assertEquals(note, takeText(output));
+        Pipe.confirmLowLevelRead(output, Pipe.sizeOf(output, msgIdx));
+        Pipe.releaseReadLock(output);
+    }
+
+    private static String takeText(Pipe<MessageSchemaDynamic> output) {
+        int meta = Pipe.takeByteArrayMetaData(output);
+        int len = Pipe.takeByteArrayLength(output);
+        byte[] backing = Pipe.byteBackingArray(meta, output);
+        int pos = Pipe.bytePosition(meta, output, len);
+        byte[] text = new byte[len];
+        int i = len;
+        while (--i>=0) {
+            text[i] = backing[output.blobMask & (pos+i)];
+        }
+        return new String(text, StandardCharsets.US_ASCII);
+    }
+
+}
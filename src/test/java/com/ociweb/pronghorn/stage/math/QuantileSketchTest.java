@@ -0,0 +1,238 @@
+package com.ociweb.pronghorn.stage.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.pipe.util.build.FROMValidation;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.StageScheduler;
+import com.ociweb.pronghorn.stage.scheduling.ThreadPerStageScheduler;
+
+public class QuantileSketchTest {
+
+	private static final double[] QUANTILES = new double[]{0.5, 0.9, 0.99, 0.999};
+	
+	@Test
+	public void testQuantileSketchFROMMatchesXML() {
+		assertTrue(FROMValidation.checkSchema("/QuantileSketch.xml", QuantileSketchSchema.class));
+	}
+	
+	@Test
+	public void sketchAccuracyTest() {
+		
+		int count = 1_000_000;
+		long[] values = new long[count];
+		Random r = new Random(101);
+		QuantileSketch sketch = new QuantileSketch();
+		for(int i = 0; i<count; i++) {
+			values[i] = (long)(Math.abs(r.nextGaussian())*1_000_000); //latency like, long tail
+			sketch.update(values[i]);
+		}
+		Arrays.sort(values);
+		
+		assertEquals(count, sketch.count());
+		assertEquals(values[0], sketch.min());
+		assertEquals(values[count-1], sketch.max());
+		assertTrue(sketch.retained() < 4*QuantileSketch.DEFAULT_K*Math.log(count));
+		assertRankError(sketch, values, 0.02);
+	}
+	
+	@Test
+	public void mergeTest() {
+		
+		int parts = 8;
+		int perPart = 100_000;
+		long[] values = new long[parts*perPart];
+		Random r = new Random(7);
+		QuantileSketch merged = new QuantileSketch();
+		int j = 0;
+		for(int p = 0; p<parts; p++) {
+			QuantileSketch part = new QuantileSketch();
+			for(int i = 0; i<perPart; i++) {
+				long v = r.nextInt(1_000_000)+(p*100_000);
+				values[j++] = v;
+				part.update(v);
+			}
+			merged.merge(part);
+		}
+		Arrays.sort(values);
+		
+		assertEquals(values.length, merged.count());
+		assertEquals(values[0], merged.min());
+		assertEquals(values[values.length-1], merged.max());
+		assertRankError(merged, values, 0.02);
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void writeTooSmallPipeTest() {
+		Pipe<QuantileSketchSchema> pipe = new Pipe<QuantileSketchSchema>(QuantileSketchSchema.instance.newPipeConfig(4, 1<<10));
+		pipe.initBuffers();
+		QuantileSketchSchema.writeSketch(pipe, new QuantileSketch(1000));
+	}
+	
+	@Test
+	public void writeReadTest() {
+		
+		Pipe<QuantileSketchSchema> pipe = new Pipe<QuantileSketchSchema>(QuantileSketchSchema.instance.newPipeConfig(4, 1<<16));
+		pipe.initBuffers();
+		
+		QuantileSketch sketch = new QuantileSketch();
+		Random r = new Random(3);
+		for(int i = 0; i<50_000; i++) {
+			sketch.update(r.nextInt(10_000)-5_000);
+		}
+		QuantileSketchSchema.writeSketch(pipe, sketch);
+		
+		QuantileSketch copy = new QuantileSketch();
+		int msgIdx = Pipe.takeMsgIdx(pipe);
+		assertEquals(QuantileSketchSchema.MSG_SKETCH_1, msgIdx);
+		QuantileSketchSchema.readSketch(pipe, copy);
+		Pipe.confirmLowLevelRead(pipe, Pipe.sizeOf(pipe, msgIdx));
+		Pipe.releaseReadLock(pipe);
+		
+		assertEquals(sketch.count(), copy.count());
+		assertEquals(sketch.min(), copy.min());
+		assertEquals(sketch.max(), copy.max());
+		assertEquals(sketch.retained(), copy.retained());
+		for(double q: QUANTILES) {
+			assertEquals(sketch.quantile(q), copy.quantile(q));
+		}
+	}
+	
+	@Test
+	public void fullOutputHoldsSamplesTest() {
+		
+		GraphManager gm = new GraphManager();
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(4, 1<<12);
+		Pipe<QuantileSketchSchema> output = QuantileSketchSchema.instance.newPipe(2, 1<<16);
+		int perSketch = 100;
+		int total = 1000;
+		QuantileSketchBuildStage stage = QuantileSketchBuildStage.newInstance(gm, input, output, QuantileSketch.DEFAULT_K, perSketch);
+		input.initBuffers();
+		output.initBuffers();
+		
+		//one block holds many sketches worth of samples, far more than the output pipe can hold
+		int size = Pipe.addMsgIdx(input, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(input);
+		for(int value = 0; value<total; value++) {
+			out.writePackedLong(value);
+		}
+		DataOutputBlobWriter.closeLowLevelField(out);
+		Pipe.confirmLowLevelWrite(input, size);
+		Pipe.publishWrites(input);
+		Pipe.publishEOF(input);
+		
+		QuantileSketch copy = new QuantileSketch();
+		int sketches = 0;
+		int runs = 100;
+		while (--runs>=0 && sketches*perSketch<total) {
+			stage.run();
+			while (Pipe.hasContentToRead(output)) {
+				int msgIdx = Pipe.takeMsgIdx(output);
+				assertEquals(QuantileSketchSchema.MSG_SKETCH_1, msgIdx);
+				copy.reset();
+				QuantileSketchSchema.readSketch(output, copy);
+				Pipe.confirmLowLevelRead(output, Pipe.sizeOf(output, msgIdx));
+				Pipe.releaseReadLock(output);
+				assertEquals(perSketch, copy.count());
+				assertEquals(sketches*perSketch, copy.min());
+				sketches++;
+			}
+		}
+		assertEquals(total/perSketch, sketches);
+	}
+	
+	@Test
+	public void buildMergeQueryGraphTest() {
+		
+		GraphManager gm = new GraphManager();
+		GraphManager.addDefaultNota(gm, GraphManager.SCHEDULE_RATE, 1000);
+		
+		int shards = 3;
+		int perShard = 30_000;
+		PipeConfig<RawDataSchema> rawConfig = RawDataSchema.instance.newPipeConfig(4, 4096);
+		PipeConfig<QuantileSketchSchema> sketchConfig = QuantileSketchSchema.instance.newPipeConfig(4, 1<<16);
+		
+		Pipe<RawDataSchema>[] samples = Pipe.buildPipes(shards, rawConfig);
+		Pipe<QuantileSketchSchema>[] sketches = Pipe.buildPipes(shards, sketchConfig);
+		int i = shards;
+		while (--i>=0) {
+			QuantileSketchBuildStage.newInstance(gm, samples[i], sketches[i], QuantileSketch.DEFAULT_K, perShard);
+		}
+		Pipe<QuantileSketchSchema> merged = QuantileSketchMergeStage.buildMergeTree(gm, QuantileSketch.DEFAULT_K, 2, sketchConfig, sketches);
+		Pipe<QuantileSketchSchema> result = new Pipe<QuantileSketchSchema>(sketchConfig);
+		QuantileSketchQueryStage.newInstance(gm, merged, result, QUANTILES);
+		result.initBuffers(); //read on this thread
+		
+		StageScheduler scheduler = new ThreadPerStageScheduler(gm);
+		scheduler.startup();
+		
+		//every shard gets 0 until perShard-1 so the merged median is near perShard/2
+		i = shards;
+		while (--i>=0) {
+			Pipe<RawDataSchema> p = samples[i];
+			int value = 0;
+			while (value<perShard) {
+				while (!Pipe.hasRoomForWrite(p)) {
+					Thread.yield();
+				}
+				int size = Pipe.addMsgIdx(p, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+				DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(p);
+				int limit = Math.min(perShard, value+400);
+				while (value<limit) {
+					out.writePackedLong(value++);
+				}
+				DataOutputBlobWriter.closeLowLevelField(out);
+				Pipe.confirmLowLevelWrite(p, size);
+				Pipe.publishWrites(p);
+			}
+		}
+		
+		long limit = System.currentTimeMillis()+10_000;
+		while (!Pipe.hasContentToRead(result) && System.currentTimeMillis()<limit) {
+			Thread.yield();
+		}
+		int msgIdx = Pipe.takeMsgIdx(result);
+		assertEquals(QuantileSketchSchema.MSG_QUANTILES_2, msgIdx);
+		assertEquals(shards*perShard, Pipe.takeLong(result));
+		DataInputBlobReader<QuantileSketchSchema> in = Pipe.openInputStream(result);
+		for(double q: QUANTILES) {
+			long expected = (long)(q*perShard);
+			long actual = in.readPackedLong();
+			assertTrue(q+" expected "+expected+" but found "+actual, Math.abs(expected-actual) <= perShard*0.02);
+		}
+		Pipe.confirmLowLevelRead(result, Pipe.sizeOf(result, msgIdx));
+		Pipe.releaseReadLock(result);
+		
+		i = shards;
+		while (--i>=0) {
+			while (!Pipe.hasRoomForWrite(samples[i], Pipe.EOF_SIZE)) {
+				Thread.yield();
+			}
+			Pipe.publishEOF(samples[i]);
+		}
+		scheduler.shutdown();
+	}
+	
+	private static void assertRankError(QuantileSketch sketch, long[] sorted, double maxError) {
+		for(double q: QUANTILES) {
+			long estimate = sketch.quantile(q);
+			//rank of the estimate in the exact data
+			int idx = Arrays.binarySearch(sorted, estimate);
+			assertTrue(idx>=0);
+			double rank = idx/(double)sorted.length;
+			assertTrue(q+" rank "+rank, Math.abs(rank-q) <= maxError);
+		}
+	}
+	
+}
@@ -0,0 +1,135 @@
+package com.ociweb.pronghorn.stage.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.PipeConfig;
+import com.ociweb.pronghorn.stage.math.BuildMatrixCompute.MatrixTypes;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+import com.ociweb.pronghorn.stage.scheduling.StageScheduler;
+import com.ociweb.pronghorn.stage.scheduling.ThreadPerStageScheduler;
+
+public class RowBlockComputeTest {
+
+	@Test
+	public void evenBlockRowsTest() {
+		assertArrayEquals(new int[]{4,3,3}, RowBlockSplitStage.blockRows(10, 3));
+		assertArrayEquals(new int[]{2,2,2,2}, RowBlockSplitStage.blockRows(8, 4));
+		assertArrayEquals(new int[]{1,1,0}, RowBlockSplitStage.blockRows(2, 3));
+	}
+
+	@Test
+	public void tileMatchesNaiveTest() {
+		Random r = new Random(42);
+		int rows = 7;
+		int depth = 300;
+		int columns = 513; //crosses the column tile
+		long[] left = new long[rows*depth];
+		long[] right = new long[depth*columns];
+		long[] sum = new long[rows*columns];
+		int i = left.length;
+		while (--i>=0) {
+			left[i] = r.nextInt(200)-100;
+		}
+		i = right.length;
+		while (--i>=0) {
+			right[i] = r.nextInt(200)-100;
+		}
+
+		RowBlockComputeStage.multiplyTile(left, right, sum, rows, depth, columns);
+
+		for(int row = 0; row<rows; row++) {
+			for(int col = 0; col<columns; col++) {
+				long expected = 0;
+				for(int k = 0; k<depth; k++) {
+					expected += left[row*depth+k]*right[k*columns+col];
+				}
+				assertEquals(expected, sum[row*columns+col]);
+			}
+		}
+	}
+
+	@Test
+	public <M extends MatrixSchema<M>> void computeExampleTest() {
+
+		int[][] leftTest = new int[][] {
+			{1,2},
+			{4,4},
+			{7,7},
+			{3,2},
+			{1,1},
+		};
+
+		int[][] rightTest = new int[][] {
+			{1,2,3},
+			{4,4,4}
+		};
+
+		int[][] expectedAnswer = new int[][] {
+			{9,10,11},
+			{20,24,28},
+			{35,42,49},
+			{11,14,17},
+			{5,6,7},
+		};
+
+		MatrixTypes type = MatrixTypes.Integers;
+		MatrixSchema<M> leftSchema = BuildMatrixCompute.buildSchema(5, 2, type);
+		MatrixSchema<M> rightSchema = BuildMatrixCompute.buildSchema(2, 3, type);
+
+		Pipe<RowSchema<M>> left = new Pipe<RowSchema<M>>(new PipeConfig<RowSchema<M>>(new RowSchema<M>(leftSchema), 5));
+		Pipe<RowSchema<M>> right = new Pipe<RowSchema<M>>(new PipeConfig<RowSchema<M>>(new RowSchema<M>(rightSchema), 2));
+
+		GraphManager gm = new GraphManager();
+		GraphManager.addDefaultNota(gm, GraphManager.SCHEDULE_RATE, 500);
+
+		Pipe<RowSchema<M>> result = BuildMatrixCompute.buildProductGraphRowBlocks(gm, left, right, 3);
+		result.initBuffers(); //read on this thread
+
+		StageScheduler scheduler = new ThreadPerStageScheduler(gm);
+		scheduler.startup();
+
+		int rowId = leftSchema.rowId;
+		writeRows(left, type, leftTest, rowId);
+		writeRows(right, type, rightTest, rowId);
+
+		long limit = System.currentTimeMillis()+10_000;
+		for(int row = 0; row<expectedAnswer.length; row++) {
+			while (!Pipe.hasContentToRead(result) && System.currentTimeMillis()<limit) {
+				Thread.yield();
+			}
+			int id = Pipe.takeMsgIdx(result);
+			for(int c = 0; c<3; c++) {
+				assertEquals(expectedAnswer[row][c], Pipe.takeInt(result));
+			}
+			Pipe.confirmLowLevelRead(result, Pipe.sizeOf(result, id));
+			Pipe.releaseReadLock(result);
+		}
+
+		Pipe.publishEOF(left);
+		Pipe.publishEOF(right);
+		scheduler.shutdown();
+		scheduler.awaitTermination(2, TimeUnit.SECONDS);
+	}
+
+	private static <M extends MatrixSchema<M>> void writeRows(Pipe<RowSchema<M>> pipe, MatrixTypes type, int[][] values, int rowId) {
+		for(int c = 0; c<values.length; c++) {
+			while (!Pipe.hasRoomForWrite(pipe)) {
+				Thread.yield();
+			}
+			Pipe.addMsgIdx(pipe, rowId);
+			for(int r = 0; r<values[c].length; r++) {
+				type.addValue(values[c][r], pipe);
+			}
+			Pipe.confirmLowLevelWrite(pipe, Pipe.sizeOf(pipe, rowId));
+			Pipe.publishWrites(pipe);
+		}
+	}
+
+}
@@ -0,0 +1,350 @@
+package com.ociweb.pronghorn.stage.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ociweb.pronghorn.network.ClientCoordinator;
+import com.ociweb.pronghorn.network.mqtt.MQTTClientToServerEncodeStage;
+import com.ociweb.pronghorn.network.mqtt.MQTTEncoder;
+import com.ociweb.pronghorn.network.mqtt.MQTTInFlightWindow;
+import com.ociweb.pronghorn.network.schema.MQTTClientToServerSchema;
+import com.ociweb.pronghorn.network.schema.MQTTClientToServerSchemaAck;
+import com.ociweb.pronghorn.network.schema.MQTTIdRangeControllerSchema;
+import com.ociweb.pronghorn.network.schema.NetPayloadSchema;
+import com.ociweb.pronghorn.pipe.FragmentWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadConsumerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadProducerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobLoadReleaseSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreConsumerSchema;
+import com.ociweb.pronghorn.stage.file.schema.PersistedBlobStoreProducerSchema;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+public class MQTTClientToServerEncodeStageTest {
+
+	private static final int MAX_IN_FLIGHT = 16;
+	private static final long TIMEOUT_MS = 5_000;
+	private static final int CONNECT = 1;
+	private static final int PUBLISH = 3;
+
+	private ServerSocket broker;
+	private Socket accepted;
+
+	private Pipe<MQTTClientToServerSchema> input;
+	private Pipe<MQTTClientToServerSchemaAck> inputAck;
+	private Pipe<PersistedBlobStoreConsumerSchema> persistBlobStoreConsumer;
+	private Pipe<PersistedBlobStoreProducerSchema> persistBlobStoreProducer;
+	private Pipe<PersistedBlobLoadReleaseSchema> persistBlobLoadRelease;
+	private Pipe<PersistedBlobLoadConsumerSchema> persistBlobLoadConsumer;
+	private Pipe<PersistedBlobLoadProducerSchema> persistBlobLoadProducer;
+	private Pipe<MQTTIdRangeControllerSchema> idRangeControl;
+	private Pipe<NetPayloadSchema> toBroker;
+
+	private MQTTClientToServerEncodeStage stage;
+
+	@Before
+	public void buildStage() throws IOException {
+		//the broker only has to accept, the test reads what would be sent from the pipe
+		broker = new ServerSocket(0);
+		Thread acceptor = new Thread(() -> {
+			try {
+				accepted = broker.accept();
+			} catch (IOException e) {
+				//closed by the test
+			}
+		});
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		GraphManager gm = new GraphManager();
+		ClientCoordinator ccm = new ClientCoordinator(2, 1, null, gm.recordTypeData);
+
+		input = MQTTClientToServerSchema.instance.newPipe(32, 256);
+		inputAck = MQTTClientToServerSchemaAck.instance.newPipe(16, 0);
+		persistBlobStoreConsumer = PersistedBlobStoreConsumerSchema.instance.newPipe(32, 0);
+		persistBlobStoreProducer = PersistedBlobStoreProducerSchema.instance.newPipe(32, 256);
+		persistBlobLoadRelease = PersistedBlobLoadReleaseSchema.instance.newPipe(16, 0);
+		persistBlobLoadConsumer = PersistedBlobLoadConsumerSchema.instance.newPipe(16, 256);
+		persistBlobLoadProducer = PersistedBlobLoadProducerSchema.instance.newPipe(16, 0);
+		idRangeControl = MQTTIdRangeControllerSchema.instance.newPipe(32, 0);
+		toBroker = NetPayloadSchema.instance.newPipe(64, 256);
+
+		input.initBuffers();
+		inputAck.initBuffers();
+		persistBlobStoreConsumer.initBuffers();
+		persistBlobStoreProducer.initBuffers();
+		persistBlobLoadRelease.initBuffers();
+		persistBlobLoadConsumer.initBuffers();
+		persistBlobLoadProducer.initBuffers();
+		idRangeControl.initBuffers();
+		toBroker.initBuffers();
+
+		stage = new MQTTClientToServerEncodeStage(gm, ccm, MAX_IN_FLIGHT, 0,
+				input, inputAck,
+				persistBlobStoreConsumer, persistBlobStoreProducer,
+				persistBlobLoadRelease, persistBlobLoadConsumer, persistBlobLoadProducer,
+				idRangeControl, new Pipe[]{toBroker});
+		stage.startup();
+
+		Pipe.presumeRoomForWrite(input);
+		int size = Pipe.addMsgIdx(input, MQTTClientToServerSchema.MSG_BROKERHOST_100);
+		Pipe.addUTF8("127.0.0.1", input);
+		Pipe.addIntValue(broker.getLocalPort(), input);
+		Pipe.confirmLowLevelWrite(input, size);
+		Pipe.publishWrites(input);
+	}
+
+	@After
+	public void closeBroker() throws IOException {
+		broker.close();
+		if (null!=accepted) {
+			accepted.close();
+		}
+	}
+
+	@Test
+	public void persistedBatchIsPublishedAndReleasedOnce() {
+
+		connect(0); //keep the session so QoS 1 publishes go to disk first
+		publish(1);
+		publish(2);
+		publish(3);
+
+		long stopTime = System.currentTimeMillis()+TIMEOUT_MS;
+		int stored = 0;
+		while (stored<3 && System.currentTimeMillis()<stopTime) {
+			stage.run();
+			stored += countStored();
+		}
+		assertEquals(3, stored);
+
+		//only the connect may reach the broker while the batch waits on disk
+		int[] sent = sentByType();
+		assertEquals(1, sent[CONNECT]);
+		assertEquals(0, sent[PUBLISH]);
+
+		//an ack for a block before the last one does not cover the batch
+		diskAck(2);
+		stage.run();
+		assertEquals(0, sentByType()[PUBLISH]);
+		assertTrue(Pipe.tailPosition(input) < Pipe.headPosition(input));
+
+		//the store sends one ack for the last id, it covers the whole batch
+		diskAck(3);
+		stage.run();
+		assertEquals(3, sentByType()[PUBLISH]);
+		assertEquals(Pipe.headPosition(input), Pipe.tailPosition(input));
+
+		//nothing is sent again and the input is not released twice
+		stage.run();
+		stage.run();
+		assertEquals(0, sentByType()[PUBLISH]);
+		assertEquals(Pipe.headPosition(input), Pipe.tailPosition(input));
+
+		//the broker acks release the batch from disk and from the in flight ring
+		int id = 0;
+		while (++id<=3) {
+			Pipe.presumeRoomForWrite(persistBlobLoadRelease);
+			FragmentWriter.writeL(persistBlobLoadRelease, PersistedBlobLoadReleaseSchema.MSG_ACKRELEASE_10, id);
+		}
+		stage.run();
+		assertFalse(stage.hasUnackPublished());
+		assertEquals(0, sentByType()[PUBLISH]);
+	}
+
+	@Test
+	public void windowGrowsWhenSaturatedAndAckedQuickly() {
+
+		connect(MQTTEncoder.CONNECT_FLAG_CLEAN_SESSION_1);
+		int limit = stage.inFlightLimit();
+		assertEquals(MQTTInFlightWindow.INITIAL, limit);
+
+		int id = 0;
+		while (++id<=limit+1) {
+			publish(id);
+		}
+
+		long stopTime = System.currentTimeMillis()+TIMEOUT_MS;
+		int sent = 0;
+		while (sent<limit && System.currentTimeMillis()<stopTime) {
+			stage.run();
+			sent += sentByType()[PUBLISH];
+		}
+		assertEquals(limit, sent);
+
+		//the last publish waits on the window
+		stage.run();
+		assertEquals(0, sentByType()[PUBLISH]);
+
+		Pipe.presumeRoomForWrite(inputAck);
+		FragmentWriter.writeI(inputAck, MQTTClientToServerSchemaAck.MSG_STOPREPUBLISH_99, 1);
+		stage.run();
+
+		assertEquals(limit+1, stage.inFlightLimit());
+		assertEquals(1, sentByType()[PUBLISH]);
+		assertEquals(Pipe.headPosition(input), Pipe.tailPosition(input));
+	}
+
+	@Test
+	public void publishBytesForBothQoSAcrossTheRingWrap() {
+
+		connect(MQTTEncoder.CONNECT_FLAG_CLEAN_SESSION_1);
+		long stopTime = System.currentTimeMillis()+TIMEOUT_MS;
+		while (0==sentByType()[CONNECT] && System.currentTimeMillis()<stopTime) {
+			stage.run();
+		}
+
+		byte[] topic = "sensors/room/temperature".getBytes();
+		byte[] payload = new byte[200]; //remaining length needs two bytes
+		int i = payload.length;
+		while (--i>=0) {
+			payload[i] = (byte)i;
+		}
+
+		boolean wrapped = false;
+		int round = 0;
+		while (!wrapped && ++round<1000) {
+			int packetId = 0x100+round; //both id bytes are non zero
+			publish(-1, 0, topic, payload);
+			publish(packetId, 1, topic, payload);
+			stage.run();
+
+			wrapped |= assertPublish(0x30, -1, topic, payload);
+			wrapped |= assertPublish(0x32, packetId, topic, payload);
+			assertFalse(Pipe.hasContentToRead(toBroker));
+
+			Pipe.presumeRoomForWrite(inputAck);
+			FragmentWriter.writeI(inputAck, MQTTClientToServerSchemaAck.MSG_STOPREPUBLISH_99, packetId);
+		}
+		assertTrue("no publish crossed the end of the ring", wrapped);
+	}
+
+	/**
+	 * Checks the next packet sent to the broker byte for byte.
+	 *
+	 * @return true if the packet wrapped around the end of the blob ring
+	 */
+	private boolean assertPublish(int head, int packetId, byte[] topic, byte[] payload) {
+		assertTrue(Pipe.hasContentToRead(toBroker));
+		int msgIdx = Pipe.takeMsgIdx(toBroker);
+		assertEquals(NetPayloadSchema.MSG_PLAIN_210, msgIdx);
+		Pipe.takeLong(toBroker);
+		Pipe.takeLong(toBroker);
+		Pipe.takeLong(toBroker);
+		int meta = Pipe.takeByteArrayMetaData(toBroker);
+		int len = Pipe.takeByteArrayLength(toBroker);
+		byte[] blob = Pipe.byteBackingArray(meta, toBroker);
+		int pos = Pipe.bytePosition(meta, toBroker, len);
+		int mask = toBroker.blobMask;
+
+		int remaining = 2 + topic.length + (packetId<0 ? 0 : 2) + payload.length;
+		byte[] expected = new byte[1 + 2 + remaining];
+		int e = 0;
+		expected[e++] = (byte)head;
+		expected[e++] = (byte)(0x80 | (remaining & 0x7F));
+		expected[e++] = (byte)(remaining >> 7);
+		expected[e++] = (byte)(topic.length >> 8);
+		expected[e++] = (byte)topic.length;
+		System.arraycopy(topic, 0, expected, e, topic.length);
+		e += topic.length;
+		if (packetId>=0) {
+			expected[e++] = (byte)(packetId >> 8);
+			expected[e++] = (byte)packetId;
+		}
+		System.arraycopy(payload, 0, expected, e, payload.length);
+
+		assertEquals(expected.length, len);
+		int i = 0;
+		while (i<len) {
+			assertEquals("byte "+i, expected[i], blob[mask & (pos+i)]);
+			i++;
+		}
+
+		Pipe.confirmLowLevelRead(toBroker, Pipe.sizeOf(toBroker, msgIdx));
+		Pipe.releaseReadLock(toBroker);
+		return (mask & pos) + len > mask + 1;
+	}
+
+	private void connect(int flags) {
+		Pipe.presumeRoomForWrite(input);
+		int size = Pipe.addMsgIdx(input, MQTTClientToServerSchema.MSG_CONNECT_1);
+		Pipe.addLongValue(System.currentTimeMillis(), input);
+		Pipe.addIntValue(0, input); //keep alive, no pings
+		Pipe.addIntValue(flags, input);
+		Pipe.addUTF8("client", input);
+		Pipe.addUTF8("", input);
+		Pipe.addByteArray(new byte[0], 0, 0, input);
+		Pipe.addUTF8("", input);
+		Pipe.addUTF8("", input);
+		Pipe.confirmLowLevelWrite(input, size);
+		Pipe.publishWrites(input);
+	}
+
+	private void publish(int packetId) {
+		publish(packetId, 1, "topic".getBytes(), new byte[] {1, 2, 3});
+	}
+
+	private void publish(int packetId, int qos, byte[] topic, byte[] payload) {
+		Pipe.presumeRoomForWrite(input);
+		int size = Pipe.addMsgIdx(input, MQTTClientToServerSchema.MSG_PUBLISH_3);
+		Pipe.addLongValue(System.currentTimeMillis(), input);
+		Pipe.addIntValue(packetId, input);
+		Pipe.addIntValue(qos, input);
+		Pipe.addIntValue(0, input); //retain
+		Pipe.addByteArray(topic, 0, topic.length, input);
+		Pipe.addByteArray(payload, 0, payload.length, input);
+		Pipe.confirmLowLevelWrite(input, size);
+		Pipe.publishWrites(input);
+	}
+
+	private void diskAck(int packetId) {
+		Pipe.presumeRoomForWrite(persistBlobLoadProducer);
+		FragmentWriter.writeL(persistBlobLoadProducer, PersistedBlobLoadProducerSchema.MSG_ACKWRITE_11, packetId);
+	}
+
+	private int countStored() {
+		int count = 0;
+		while (Pipe.hasContentToRead(persistBlobStoreProducer)) {
+			int msgIdx = Pipe.takeMsgIdx(persistBlobStoreProducer);
+			assertEquals(PersistedBlobStoreProducerSchema.MSG_BLOCK_1, msgIdx);
+			Pipe.takeLong(persistBlobStoreProducer);
+			Pipe.takeByteArrayMetaData(persistBlobStoreProducer);
+			Pipe.takeByteArrayLength(persistBlobStoreProducer);
+			Pipe.confirmLowLevelRead(persistBlobStoreProducer, Pipe.sizeOf(persistBlobStoreProducer, msgIdx));
+			Pipe.releaseReadLock(persistBlobStoreProducer);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Consumes everything published to the broker pipe and counts the packets by MQTT control packet type.
+	 */
+	private int[] sentByType() {
+		int[] count = new int[16];
+		while (Pipe.hasContentToRead(toBroker)) {
+			int msgIdx = Pipe.takeMsgIdx(toBroker);
+			assertEquals(NetPayloadSchema.MSG_PLAIN_210, msgIdx);
+			Pipe.takeLong(toBroker);
+			Pipe.takeLong(toBroker);
+			Pipe.takeLong(toBroker);
+			int meta = Pipe.takeByteArrayMetaData(toBroker);
+			int len = Pipe.takeByteArrayLength(toBroker);
+			int first = Pipe.byteBackingArray(meta, toBroker)[toBroker.blobMask & Pipe.bytePosition(meta, toBroker, len)];
+			count[(0xF0 & first)>>4]++;
+			Pipe.confirmLowLevelRead(toBroker, Pipe.sizeOf(toBroker, msgIdx));
+			Pipe.releaseReadLock(toBroker);
+		}
+		return count;
+	}
+
+}
@@ -14,6 +14,31 @@ import com.ociweb.pronghorn.pipe.Pipe;
 
 public class MQTTEncoderTest {
 
+
+	@Test
+	public void publishQoS0WritesNothingPastThePacket() {
+		int mask = (1<<8)-1;
+		byte[] target = new byte[mask+1];
+		byte[] topic = "topic".getBytes();
+		byte[] payload = new byte[0]; //nothing after the topic to write over a stray id
+
+		int start = mask-4; //packet wraps the end of the ring
+		Arrays.fill(target, (byte)0x55);
+		int len = MQTTEncoder.buildPublishPacket(start, target, mask, 0, 0, topic, 0, topic.length, mask, payload, 0, 0, mask, -1);
+		assertEquals(2+2+topic.length, len);
+		int i = len;
+		while (i<=mask) {
+			assertEquals("byte "+i, (byte)0x55, target[mask & (start+i)]);
+			i++;
+		}
+
+		Arrays.fill(target, (byte)0x55);
+		len = MQTTEncoder.buildPublishPacket(start, target, mask, 1, 0, topic, 0, topic.length, mask, payload, 0, 0, mask, 0x1234);
+		assertEquals(2+2+topic.length+2, len);
+		assertEquals((byte)0x12, target[mask & (start+len-2)]);
+		assertEquals((byte)0x34, target[mask & (start+len-1)]);
+		assertEquals((byte)0x55, target[mask & (start+len)]);
+	}
 	
 	@Test
 	public void testconvertToUTF8() {
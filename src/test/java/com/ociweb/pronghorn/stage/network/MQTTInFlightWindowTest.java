@@ -0,0 +1,90 @@
+package com.ociweb.pronghorn.stage.network;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.network.mqtt.MQTTInFlightWindow;
+
+public class MQTTInFlightWindowTest {
+
+	@Test
+	public void growsOnlyWhenSaturated() {
+		MQTTInFlightWindow window = new MQTTInFlightWindow(64);
+		assertEquals(MQTTInFlightWindow.INITIAL, window.limit());
+
+		assertEquals(0, window.acked(0, 100)); //fast but the window was not what held us back
+		window.saturated();
+		assertEquals(1, window.acked(200, 300));
+		assertEquals(0, window.acked(400, 500)); //saturation is consumed by the growth
+		assertEquals(MQTTInFlightWindow.INITIAL+1, window.limit());
+	}
+
+	@Test
+	public void neverGrowsPastTheMaximum() {
+		MQTTInFlightWindow window = new MQTTInFlightWindow(MQTTInFlightWindow.INITIAL+1);
+		window.saturated();
+		assertEquals(1, window.acked(0, 100));
+		window.saturated();
+		assertEquals(0, window.acked(200, 300));
+		assertEquals(MQTTInFlightWindow.INITIAL+1, window.limit());
+	}
+
+	@Test
+	public void shrinksOncePerRoundTrip() {
+		MQTTInFlightWindow window = new MQTTInFlightWindow(64);
+		window.acked(0, 100); //best round trip is 100
+
+		//slow acks for a burst sent together, the average passes four times the best on the fourth
+		assertEquals(0, window.acked(1_000, 2_000));
+		assertEquals(0, window.acked(1_000, 2_000));
+		assertEquals(0, window.acked(1_000, 2_000));
+		assertEquals(-1, window.acked(1_000, 2_000));
+		assertEquals(MQTTInFlightWindow.INITIAL-1, window.limit());
+
+		//the rest of that burst was sent before the cut so it can not show whether the cut helped
+		assertEquals(0, window.acked(1_000, 2_100));
+		assertEquals(0, window.acked(1_500, 2_500));
+		assertEquals(MQTTInFlightWindow.INITIAL-1, window.limit());
+
+		//sent after the cut and still slow, so cut again
+		assertEquals(-1, window.acked(2_001, 3_500));
+		assertEquals(MQTTInFlightWindow.INITIAL-2, window.limit());
+	}
+
+	@Test
+	public void neverShrinksBelowTheMinimum() {
+		MQTTInFlightWindow window = new MQTTInFlightWindow(64);
+		window.acked(0, 1);
+		long now = 10;
+		int i = 100;
+		while (--i>=0) {
+			window.acked(now, now+1_000);
+			now += 2_000;
+		}
+		assertEquals(MQTTInFlightWindow.MINIMUM, window.limit());
+	}
+
+	@Test
+	public void staleBestRoundTripIsResampled() {
+		MQTTInFlightWindow window = new MQTTInFlightWindow(64);
+		window.acked(0, 100);
+		long now = 1_000;
+		while (window.limit() == MQTTInFlightWindow.INITIAL) {
+			window.acked(now, now+1_000);
+			now += 2_000;
+		}
+		int limit = window.limit();
+
+		//the broker is now slower for good, once the old best expires the slow trip becomes the new best
+		now = 100 + MQTTInFlightWindow.MIN_RTT_EXPIRE_NS + 1;
+		assertEquals(0, window.acked(now-1_000, now));
+		int i = 20;
+		while (--i>=0) {
+			now += 2_000;
+			assertEquals(0, window.acked(now-1_000, now));
+		}
+		assertEquals(limit, window.limit());
+	}
+
+}
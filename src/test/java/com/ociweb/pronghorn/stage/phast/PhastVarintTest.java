@@ -0,0 +1,100 @@
+package com.ociweb.pronghorn.stage.phast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.DataInputBlobReader;
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
+public class PhastVarintTest {
+
+	private static final long[] VALUES = new long[] {0, 1, -1, 63, -63, -64, 64, 8191, -8192, 1L<<40,
+		                                             -(1L<<55), (1L<<56)-1, Long.MAX_VALUE, Long.MIN_VALUE};
+
+	@Test
+	public void unpackMatchesPackedLong() {
+		Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(4, 1<<10);
+		pipe.initBuffers();
+		DataOutputBlobWriter<RawDataSchema> writer = new DataOutputBlobWriter<RawDataSchema>(pipe);
+		Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		writer.openField();
+		int start = writer.absolutePosition();
+		for (long value : VALUES) {
+			DataOutputBlobWriter.writePackedLong(writer, value);
+		}
+
+		byte[] blob = Pipe.blob(pipe);
+		int mask = Pipe.blobMask(pipe);
+		int pos = start;
+		for (long value : VALUES) {
+			long word = PhastVarint.readWord(blob, mask, pos);
+			int length = PhastVarint.unpackedLength(word);
+			if (length>0) {
+				assertEquals(value, PhastVarint.unpack(word, length));
+				pos += length;
+			} else {
+				assertTrue(PhastVarint.packedLength(value)>8);
+				while (blob[mask & pos++]>=0) {
+					//skip to the stop bit, longer values are left to the byte at a time path
+				}
+			}
+		}
+	}
+
+	@Test
+	public void packedBlockReadsAsPackedLongs() {
+		Pipe<PhastCodecSchema> longs = PhastCodecSchema.instance.newPipe(4, 0);
+		longs.initBuffers();
+		Pipe<RawDataSchema> bytes = RawDataSchema.instance.newPipe(4, 1<<10);
+		bytes.initBuffers();
+
+		int i = 0;
+		while (i<VALUES.length) {
+			Pipe.addMsgIdx(longs, PhastCodecSchema.MSG_008_10008);
+			int j = 8;
+			while (--j>=0) {
+				Pipe.addLongValue(i<VALUES.length ? VALUES[i] : 0, longs);
+				i++;
+			}
+			Pipe.confirmLowLevelWrite(longs, Pipe.sizeOf(longs, PhastCodecSchema.MSG_008_10008));
+			Pipe.publishWrites(longs);
+		}
+
+		DataOutputBlobWriter<RawDataSchema> writer = new DataOutputBlobWriter<RawDataSchema>(bytes);
+		Pipe.addMsgIdx(bytes, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		writer.openField();
+		int count = 0;
+		while (Pipe.hasContentToRead(longs)) {
+			Pipe.takeMsgIdx(longs);
+			long slabPos = Pipe.getWorkingTailPosition(longs);
+			writer.absolutePosition(PhastVarint.pack(Pipe.slab(longs), Pipe.slabMask(longs), slabPos, 8,
+					                                 Pipe.blob(bytes), Pipe.blobMask(bytes), writer.absolutePosition()));
+			Pipe.setWorkingTailPosition(longs, slabPos+16);
+			Pipe.confirmLowLevelRead(longs, Pipe.sizeOf(longs, PhastCodecSchema.MSG_008_10008));
+			Pipe.releaseReadLock(longs);
+			count += 8;
+		}
+		writer.closeLowLevelField();
+		Pipe.confirmLowLevelWrite(bytes, Pipe.sizeOf(bytes, RawDataSchema.MSG_CHUNKEDSTREAM_1));
+		Pipe.publishWrites(bytes);
+
+		Pipe.takeMsgIdx(bytes);
+		DataInputBlobReader<RawDataSchema> reader = Pipe.openInputStream(bytes);
+		i = 0;
+		while (i<count) {
+			long expected = i<VALUES.length ? VALUES[i] : 0;
+			long actual = reader.readPackedLong();
+			if (PhastPackingStage.ESCAPE_VALUE == expected) {
+				assertEquals(expected, actual); //escape is doubled
+				actual = reader.readPackedLong();
+			}
+			assertEquals(expected, actual);
+			i++;
+		}
+	}
+
+}
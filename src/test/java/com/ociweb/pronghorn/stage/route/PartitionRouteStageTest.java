@@ -0,0 +1,194 @@
+package com.ociweb.pronghorn.stage.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.scheduling.GraphManager;
+
+public class PartitionRouteStageTest {
+
+	private static final int SIZE = RawDataSchema.FROM.fragDataSize[0];
+
+	@Test
+	public void keysKeepTheirOutputTest() {
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(32, 64);
+		Pipe<RawDataSchema>[] outputs = newOutputs(4);
+		PartitionRouteStage<RawDataSchema> stage = new PartitionRouteStage<RawDataSchema>(new GraphManager(), input,
+				RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, PartitionRouteStage.FIELD_BYTES, outputs);
+
+		String[] keys = new String[10_000];
+		for(int i = 0; i<keys.length; i++) {
+			keys[i] = "key"+(i%97);
+		}
+		Map<String, Set<Integer>> seen = new HashMap<String, Set<Integer>>();
+		int[] counts = route(stage, input, outputs, keys, seen);
+
+		assertEquals(97, seen.size());
+		for(Set<Integer> targets: seen.values()) {
+			assertEquals(1, targets.size());
+		}
+		int total = 0;
+		for(int c: counts) {
+			assertTrue("every output is used", c>0);
+			total += c;
+		}
+		assertEquals(keys.length, total);
+	}
+
+	@Test
+	public void hotKeyIsMovedTest() {
+
+		//find two hot keys which hash to the same of two outputs
+		String hotA = null;
+		String hotB = null;
+		int i = 0;
+		while (null == hotB) {
+			String key = "hot"+i++;
+			if (0 == PartitionRouteStage.partition(hash(key), 2)) {
+				if (null == hotA) {
+					hotA = key;
+				} else {
+					hotB = key;
+				}
+			}
+		}
+
+		//each run of ten holds 4 of each hot key and 2 cold keys
+		String[] keys = new String[PartitionRouteStage.WINDOW*4];
+		for(i = 0; i<keys.length; i++) {
+			int r = i%10;
+			keys[i] = r<4 ? hotA : (r<8 ? hotB : "cold"+(i%101));
+		}
+
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(32, 64);
+		Pipe<RawDataSchema>[] outputs = newOutputs(2);
+		PartitionRouteStage<RawDataSchema> stage = new PartitionRouteStage<RawDataSchema>(new GraphManager(), input,
+				RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, PartitionRouteStage.FIELD_BYTES, 8, outputs);
+
+		Map<String, Set<Integer>> seen = new HashMap<String, Set<Integer>>();
+		int[] counts = route(stage, input, outputs, keys, seen);
+
+		//only one of the hot keys moved and the cold keys kept their outputs
+		int split = 0;
+		for(Set<Integer> targets: seen.values()) {
+			if (targets.size()>1) {
+				split++;
+			}
+		}
+		assertEquals(1, split);
+		assertTrue(seen.get(hotA).size()>1 || seen.get(hotB).size()>1);
+		//without the move output zero would have over 80%
+		assertTrue(counts[0]+" of "+keys.length, counts[0] < keys.length*0.7);
+	}
+
+	@Test
+	public void coldMovedKeysExpireTest() {
+
+		//each phase has its own pair of hot keys on output zero, more phases than there are moved key slots
+		final int hotKeys = 4;
+		final int phases = hotKeys+2;
+		String[] hot = new String[2*phases];
+		int h = 0;
+		int i = 0;
+		while (h<hot.length) {
+			String key = "hot"+i++;
+			if (0 == PartitionRouteStage.partition(hash(key), 2)) {
+				hot[h++] = key;
+			}
+		}
+
+		//each run of ten holds 3 of each hot key and 4 cold keys, the phase changes on a window boundary
+		final int phaseLength = PartitionRouteStage.WINDOW*3;
+		String[] keys = new String[phaseLength*phases];
+		for(i = 0; i<keys.length; i++) {
+			int p = i/phaseLength;
+			int r = i%10;
+			keys[i] = r<3 ? hot[2*p] : (r<6 ? hot[2*p+1] : "cold"+(i%101));
+		}
+
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(32, 64);
+		Pipe<RawDataSchema>[] outputs = newOutputs(2);
+		PartitionRouteStage<RawDataSchema> stage = new PartitionRouteStage<RawDataSchema>(new GraphManager(), input,
+				RawDataSchema.MSG_CHUNKEDSTREAM_1_FIELD_BYTEARRAY_2, PartitionRouteStage.FIELD_BYTES, hotKeys, outputs);
+
+		Map<String, Set<Integer>> seen = new HashMap<String, Set<Integer>>();
+		route(stage, input, outputs, keys, seen);
+
+		//keys moved in the early phases went cold and made room, so every phase still moved one of its keys
+		for(int p = 0; p<phases; p++) {
+			assertTrue("phase "+p, seen.get(hot[2*p]).size()>1 || seen.get(hot[2*p+1]).size()>1);
+		}
+	}
+
+	private static long hash(String key) {
+		byte[] bytes = key.getBytes();
+		return PartitionRouteStage.bytesHash(bytes, 0, bytes.length, -1);
+	}
+
+	private static Pipe<RawDataSchema>[] newOutputs(int count) {
+		Pipe<RawDataSchema>[] outputs = new Pipe[count];
+		while (--count>=0) {
+			outputs[count] = RawDataSchema.instance.newPipe(32, 64);
+		}
+		return outputs;
+	}
+
+	private static int[] route(PartitionRouteStage<RawDataSchema> stage, Pipe<RawDataSchema> input, Pipe<RawDataSchema>[] outputs,
+			                   String[] keys, Map<String, Set<Integer>> seen) {
+		input.initBuffers();
+		for(Pipe<RawDataSchema> p: outputs) {
+			p.initBuffers();
+		}
+		stage.startup();
+
+		int[] counts = new int[outputs.length];
+		StringBuilder key = new StringBuilder();
+		for(String k: keys) {
+			while (!Pipe.hasRoomForWrite(input)) {
+				stage.run();
+				drain(outputs, seen, counts, key);
+			}
+			int size = Pipe.addMsgIdx(input, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+			Pipe.addUTF8(k, input);
+			Pipe.confirmLowLevelWrite(input, size);
+			Pipe.publishWrites(input);
+		}
+		while (Pipe.hasContentToRead(input)) {
+			stage.run();
+			drain(outputs, seen, counts, key);
+		}
+		return counts;
+	}
+
+	private static void drain(Pipe<RawDataSchema>[] outputs, Map<String, Set<Integer>> seen, int[] counts, StringBuilder key) {
+		for(int i = 0; i<outputs.length; i++) {
+			Pipe<RawDataSchema> p = outputs[i];
+			while (Pipe.hasContentToRead(p)) {
+				Pipe.takeMsgIdx(p);
+				int meta = Pipe.takeByteArrayMetaData(p);
+				int len = Pipe.takeByteArrayLength(p);
+				key.setLength(0);
+				Pipe.readUTF8(p, key, meta, len);
+				Pipe.confirmLowLevelRead(p, SIZE);
+				Pipe.releaseReadLock(p);
+
+				Set<Integer> targets = seen.get(key.toString());
+				if (null == targets) {
+					seen.put(key.toString(), targets = new HashSet<Integer>());
+				}
+				targets.add(i);
+				counts[i]++;
+			}
+		}
+	}
+
+}
@@ -1,5 +1,108 @@
 package com.ociweb.pronghorn.stage.scheduling;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
 public class DynamicDisableTest {
 
+	private static final long THRESHOLD_NS = 1_000_000;
+
+	private static class Flags implements SubGraphDisableable {
+		final boolean[] disabled;
+
+		Flags(int count) {
+			disabled = new boolean[count];
+		}
+
+		@Override
+		public void disable(int idx, boolean b) {
+			disabled[idx] = b;
+		}
+
+		@Override
+		public boolean disabled(int idx) {
+			return disabled[idx];
+		}
+	}
+
+	@Test
+	public void idleSubGraphsAreDisabledAndReArmedTest() throws InterruptedException {
+
+		Pipe<RawDataSchema>[] pipes = new Pipe[] {RawDataSchema.instance.newPipe(4, 64), RawDataSchema.instance.newPipe(4, 64)};
+		Flags flags = new Flags(pipes.length);
+		DynamicDisableSubGraph dynamic = new DynamicDisableSubGraph(pipes.length, flags, THRESHOLD_NS);
+		for(int i = 0; i<pipes.length; i++) {
+			pipes[i].initBuffers();
+			dynamic.addSubGraph(i, flags, new Pipe[] {pipes[i]}, new Pipe[] {pipes[i]});
+		}
+
+		//cycles through enable and disable many times, the disabled list must never grow past the subgraph count
+		for(int cycle = 0; cycle<20; cycle++) {
+
+			idle(dynamic);
+			assertTrue(flags.disabled[0]);
+			assertTrue(flags.disabled[1]);
+
+			int active = cycle&1;
+			publish(pipes[active]);
+			dynamic.processUnit();
+			assertFalse(flags.disabled[active]);
+			assertTrue(flags.disabled[1-active]);
+
+			//consume so the subgraph can go idle again
+			consume(pipes[active]);
+		}
+	}
+
+	@Test
+	public void busySubGraphIsNotDisabledTest() throws InterruptedException {
+
+		Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(4, 64);
+		pipe.initBuffers();
+		Flags flags = new Flags(1);
+		DynamicDisableSubGraph dynamic = new DynamicDisableSubGraph(1, flags, THRESHOLD_NS);
+		dynamic.addSubGraph(0, flags, new Pipe[] {pipe}, new Pipe[] {pipe});
+
+		for(int i = 0; i<20; i++) {
+			publish(pipe);
+			consume(pipe);
+			Thread.sleep(1);
+			dynamic.processUnit();
+			assertFalse(flags.disabled[0]);
+		}
+	}
+
+	private static void idle(DynamicDisableSubGraph dynamic) throws InterruptedException {
+		//each call scans one subgraph so call enough times to visit them all after the threshold
+		for(int i = 0; i<4; i++) {
+			dynamic.processUnit();
+		}
+		Thread.sleep(2*THRESHOLD_NS/1_000_000);
+		for(int i = 0; i<4; i++) {
+			dynamic.processUnit();
+		}
+	}
+
+	private static void publish(Pipe<RawDataSchema> pipe) {
+		int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		Pipe.addUTF8("x", pipe);
+		Pipe.confirmLowLevelWrite(pipe, size);
+		Pipe.publishWrites(pipe);
+	}
+
+	private static void consume(Pipe<RawDataSchema> pipe) {
+		while (Pipe.hasContentToRead(pipe)) {
+			Pipe.takeMsgIdx(pipe);
+			Pipe.takeByteArrayMetaData(pipe);
+			Pipe.takeByteArrayLength(pipe);
+			Pipe.confirmLowLevelRead(pipe, RawDataSchema.FROM.fragDataSize[0]);
+			Pipe.releaseReadLock(pipe);
+		}
+	}
+
 }
@@ -1,9 +1,17 @@
 package com.ociweb.pronghorn.stage.scheduling;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Test;
 
+import com.ociweb.pronghorn.pipe.DataOutputBlobWriter;
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+
 public class ElapsedTimeRecorderTest {
 
 	@Test
@@ -21,8 +29,8 @@ public class ElapsedTimeRecorderTest {
 		
 			
 		assertEquals(32,etr.elapsedAtPercentile(etr, .5f));
-		//this is an estimate so this value is ok.
-		assertEquals(16,etr.elapsedAtPercentile(etr, .16f));	
+		//small values are recorded exactly
+		assertEquals(8,etr.elapsedAtPercentile(etr, .16f));	
 	}
 	
 	@Test
@@ -77,10 +85,91 @@ public class ElapsedTimeRecorderTest {
 		etr.record(etr, 400);
 		etr.record(etr, 400);
 	
-		//this is an estimate so this value is ok
-		assertEquals(128, ElapsedTimeRecorder.elapsedAtPercentile(etr, .5f));
+		assertEquals(120, ElapsedTimeRecorder.elapsedAtPercentile(etr, .5f));
 				
 	}
 	
 	
+	@Test
+	public void significantDigitsTest() {
+		
+		for(int digits = 1; digits<=3; digits++) {
+			Random r = new Random(digits);
+			ElapsedTimeRecorder etr = new ElapsedTimeRecorder(digits);
+			long[] values = new long[100_000];
+			for(int i = 0; i<values.length; i++) {
+				values[i] = (long)Math.exp(r.nextDouble()*28); //1ns to over 20 minutes
+				ElapsedTimeRecorder.record(etr, values[i]);
+			}
+			Arrays.sort(values);
+			
+			double error = Math.pow(10, -digits);
+			for(double pct: new double[] {.1, .5, .9, .99, .999}) {
+				long exact = values[(int)Math.rint(pct*values.length)-1];
+				long found = ElapsedTimeRecorder.elapsedAtPercentile(etr, pct);
+				assertTrue(exact+" "+found, found>=exact);
+				assertTrue(exact+" "+found, found<=exact*(1+error)+1);
+			}
+		}
+	}
+	
+	@Test
+	public void sparseMagnitudesTest() {
+		
+		ElapsedTimeRecorder etr = new ElapsedTimeRecorder();
+		
+		//only three magnitudes are touched, far apart from each other
+		ElapsedTimeRecorder.record(etr, 10, 10);
+		ElapsedTimeRecorder.record(etr, 5_000_000, 80);
+		ElapsedTimeRecorder.record(etr, 1_000_000_000_000L, 10);
+		
+		assertEquals(10, ElapsedTimeRecorder.elapsedAtPercentile(etr, .1));
+		//millisecond latencies are reported within 100 micros
+		long median = ElapsedTimeRecorder.elapsedAtPercentile(etr, .5);
+		assertTrue(""+median, median>=5_000_000 && median<=5_100_000);
+		long high = ElapsedTimeRecorder.elapsedAtPercentile(etr, .95);
+		assertTrue(""+high, high>=1_000_000_000_000L && high<=1_010_000_000_000L);
+		
+		ElapsedTimeRecorder.clear(etr);
+		assertEquals(0, ElapsedTimeRecorder.elapsedAtPercentile(etr, .5));
+		
+		ElapsedTimeRecorder.record(etr, 1_000, 2);
+		assertEquals(2, ElapsedTimeRecorder.totalCount(etr));
+		assertEquals(1_000, ElapsedTimeRecorder.elapsedAtPercentile(etr, .5));
+	}
+	
+	@Test
+	public void mergeAndSerializeTest() {
+		
+		ElapsedTimeRecorder a = new ElapsedTimeRecorder();
+		ElapsedTimeRecorder b = new ElapsedTimeRecorder(1);
+		for(int i = 1; i<=1000; i++) {
+			ElapsedTimeRecorder.record(a, i*1000L);
+			ElapsedTimeRecorder.record(b, i*1000L);
+		}
+		
+		ElapsedTimeRecorder merged = ElapsedTimeRecorder.snapshot(a, new ElapsedTimeRecorder(3));
+		merged.add(b);
+		assertEquals(2000, ElapsedTimeRecorder.totalCount(merged));
+		assertEquals(1_000_000, ElapsedTimeRecorder.elapsedAtPercentile(merged, 1f));
+		
+		Pipe<RawDataSchema> pipe = RawDataSchema.instance.newPipe(2, 1<<14);
+		pipe.initBuffers();
+		int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		DataOutputBlobWriter<RawDataSchema> out = Pipe.openOutputStream(pipe);
+		ElapsedTimeRecorder.write(a, out);
+		DataOutputBlobWriter.closeLowLevelField(out);
+		Pipe.confirmLowLevelWrite(pipe, size);
+		Pipe.publishWrites(pipe);
+		
+		Pipe.takeMsgIdx(pipe);
+		Pipe.openInputStream(pipe);
+		ElapsedTimeRecorder loaded = new ElapsedTimeRecorder();
+		ElapsedTimeRecorder.read(loaded, Pipe.inputStream(pipe));
+		
+		assertEquals(ElapsedTimeRecorder.totalCount(a), ElapsedTimeRecorder.totalCount(loaded));
+		assertEquals(ElapsedTimeRecorder.elapsedAtPercentile(a, .5f), ElapsedTimeRecorder.elapsedAtPercentile(loaded, .5f));
+		assertEquals(ElapsedTimeRecorder.elapsedAtPercentile(a, .99f), ElapsedTimeRecorder.elapsedAtPercentile(loaded, .99f));
+	}
+	
 }
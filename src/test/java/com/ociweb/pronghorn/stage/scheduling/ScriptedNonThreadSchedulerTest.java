@@ -0,0 +1,154 @@
+package com.ociweb.pronghorn.stage.scheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ociweb.pronghorn.pipe.Pipe;
+import com.ociweb.pronghorn.pipe.RawDataSchema;
+import com.ociweb.pronghorn.stage.PronghornStage;
+
+public class ScriptedNonThreadSchedulerTest {
+
+	private static final long THRESHOLD_NS = 1_000_000;
+	private static final long LIMIT_MS = 2_000;
+
+	//takes everything from its input at once and hands it out again only as room allows
+	private static class HoldingStage extends PronghornStage {
+
+		private final Pipe<RawDataSchema> input;
+		private final Pipe<RawDataSchema> output;
+		int pending;
+		int runs;
+
+		HoldingStage(GraphManager gm, Pipe<RawDataSchema> input, Pipe<RawDataSchema> output) {
+			super(gm, input, output);
+			this.input = input;
+			this.output = output;
+		}
+
+		@Override
+		public void run() {
+			runs++;
+			while (Pipe.hasContentToRead(input)) {
+				consume(input);
+				pending++;
+			}
+			while (pending>0 && Pipe.hasRoomForWrite(output)) {
+				publish(output);
+				pending--;
+			}
+		}
+	}
+
+	@Test
+	public void idleRunIsSkippedAndReArmedTest() throws InterruptedException {
+
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(4, 64);
+		Pipe<RawDataSchema> output = RawDataSchema.instance.newPipe(4, 64);
+		GraphManager gm = new GraphManager();
+		HoldingStage stage = new HoldingStage(gm, input, output);
+
+		ScriptedNonThreadScheduler scheduler = startup(gm, stage);
+		try {
+			//once idle past the threshold the run is skipped and the stage is no longer called
+			idle(scheduler);
+			assertTrue(scheduler.disabled(0));
+			int runs = stage.runs;
+			for(int i = 0; i<100; i++) {
+				scheduler.run();
+			}
+			assertEquals(runs, stage.runs);
+
+			//new input enables the run again
+			publish(input);
+			long limit = System.currentTimeMillis()+LIMIT_MS;
+			while (!Pipe.hasContentToRead(output) && System.currentTimeMillis()<limit) {
+				scheduler.run();
+			}
+			assertFalse(scheduler.disabled(0));
+			assertTrue(stage.runs>runs);
+			assertTrue(Pipe.hasContentToRead(output));
+			consume(output);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void pendingOutputIsNotSkippedTest() throws InterruptedException {
+
+		final int count = 10;
+		Pipe<RawDataSchema> input = RawDataSchema.instance.newPipe(16, 64);
+		Pipe<RawDataSchema> output = RawDataSchema.instance.newPipe(2, 64);
+		GraphManager gm = new GraphManager();
+		HoldingStage stage = new HoldingStage(gm, input, output);
+
+		ScriptedNonThreadScheduler scheduler = startup(gm, stage);
+		try {
+			for(int i = 0; i<count; i++) {
+				publish(input);
+			}
+
+			//output fills, the stage holds the rest while no pipe moves for longer than the threshold
+			idle(scheduler);
+			assertTrue(stage.pending>0);
+			assertFalse(Pipe.hasContentToRead(input));
+			assertFalse(scheduler.disabled(0));
+
+			int received = 0;
+			long limit = System.currentTimeMillis()+LIMIT_MS;
+			while (received<count && System.currentTimeMillis()<limit) {
+				while (Pipe.hasContentToRead(output)) {
+					consume(output);
+					received++;
+				}
+				scheduler.run();
+			}
+			assertEquals(count, received);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	private static ScriptedNonThreadScheduler startup(GraphManager gm, PronghornStage stage) {
+		boolean skip = ScriptedNonThreadScheduler.skipIdleSubGraphs;
+		long threshold = ScriptedNonThreadScheduler.idleSubGraphThresholdNS;
+		ScriptedNonThreadScheduler.skipIdleSubGraphs = true;
+		ScriptedNonThreadScheduler.idleSubGraphThresholdNS = THRESHOLD_NS;
+		try {
+			ScriptedNonThreadScheduler scheduler = new ScriptedNonThreadScheduler(gm, false, new PronghornStage[] {stage});
+			scheduler.startup();
+			return scheduler;
+		} finally {
+			ScriptedNonThreadScheduler.skipIdleSubGraphs = skip;
+			ScriptedNonThreadScheduler.idleSubGraphThresholdNS = threshold;
+		}
+	}
+
+	private static void idle(ScriptedNonThreadScheduler scheduler) throws InterruptedException {
+		long limit = System.nanoTime()+(20*THRESHOLD_NS);
+		while (System.nanoTime()<limit) {
+			scheduler.run();
+			Thread.sleep(1);
+		}
+	}
+
+	private static void publish(Pipe<RawDataSchema> pipe) {
+		int size = Pipe.addMsgIdx(pipe, RawDataSchema.MSG_CHUNKEDSTREAM_1);
+		Pipe.addUTF8("x", pipe);
+		Pipe.confirmLowLevelWrite(pipe, size);
+		Pipe.publishWrites(pipe);
+	}
+
+	private static void consume(Pipe<RawDataSchema> pipe) {
+		Pipe.takeMsgIdx(pipe);
+		Pipe.takeByteArrayMetaData(pipe);
+		Pipe.takeByteArrayLength(pipe);
+		Pipe.confirmLowLevelRead(pipe, RawDataSchema.FROM.fragDataSize[0]);
+		Pipe.releaseReadLock(pipe);
+	}
+
+}
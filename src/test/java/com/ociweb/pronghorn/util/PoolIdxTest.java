@@ -0,0 +1,133 @@
+package com.ociweb.pronghorn.util;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PoolIdxTest {
+
+    @Test
+    public void testReserveTopDown() {
+
+        PoolIdx pool = new PoolIdx(8, 2);
+
+        //free slots are taken from the top down as the group scan did
+        assertEquals(7, pool.get(100));
+        assertEquals(6, pool.get(200));
+        assertEquals(7, pool.get(100));
+        assertEquals(6, pool.getIfReserved(200));
+        assertEquals(-1, pool.getIfReserved(300));
+        assertEquals(2, pool.locks());
+
+        assertEquals(7, pool.release(100));
+        assertEquals(-1, pool.release(100)); //already released
+        assertEquals(-1, pool.getIfReserved(100));
+        assertEquals(1, pool.locks());
+
+        assertEquals(7, pool.get(300));
+    }
+
+    @Test
+    public void testPredicate() {
+
+        PoolIdx pool = new PoolIdx(8, 2);
+        final int[] group = new int[1];
+        PoolIdxPredicate lowerHalf = new PoolIdxPredicate() {
+            @Override
+            public boolean isOk(int i) {
+                return i/4 == group[0];
+            }
+        };
+
+        group[0] = 0;
+        assertEquals(3, pool.get(1, lowerHalf));
+        assertEquals(2, pool.get(2, lowerHalf));
+        group[0] = 1;
+        assertEquals(7, pool.get(3, lowerHalf));
+        assertEquals(2, pool.get(2, lowerHalf)); //already reserved so the predicate is not used
+    }
+
+    @Test
+    public void testLargePool() {
+
+        int size = 4096;
+        PoolIdx pool = new PoolIdx(size, 4);
+
+        int i = size;
+        while (--i>=0) {
+            assertEquals(i, pool.get(1_000_000L+(i*31L)));
+        }
+        assertEquals(-1, pool.get(42)); //full
+        assertEquals(size, pool.locks());
+
+        i = size;
+        while (--i>=0) {
+            assertEquals(i, pool.getIfReserved(1_000_000L+(i*31L)));
+        }
+
+        //release every other one and reuse those slots
+        i = size;
+        while ((i-=2)>=0) {
+            assertEquals(i, pool.release(1_000_000L+(i*31L)));
+        }
+        assertEquals(size/2, pool.locks());
+        assertEquals(size-2, pool.get(7));
+        assertEquals(size-1, pool.getIfReserved(1_000_000L+((size-1)*31L)));
+    }
+
+    @Test
+    public void testGetAndReleaseOnTwoThreads() throws InterruptedException {
+
+        final int size = 16;
+        final int rounds = 200_000;
+        final PoolIdx pool = new PoolIdx(size, 2);
+        final AtomicIntegerArray owners = new AtomicIntegerArray(size);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final BlockingQueue<long[]> held = new ArrayBlockingQueue<long[]>(size+1);
+
+        //releases come from another stage while the owning stage keeps taking new slots, only release is called there
+        Thread releaser = new Thread(() -> {
+            try {
+                long[] entry;
+                while ((entry = held.take())[0] >= 0) {
+                    int idx = (int)entry[1];
+                    owners.set(idx, 0);
+                    if (idx != pool.release(entry[0])) {
+                        failure.compareAndSet(null, "released wrong slot for "+entry[0]);
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure.compareAndSet(null, "interrupted");
+            }
+        });
+        releaser.start();
+
+        long key = 0;
+        int i = rounds;
+        while (--i>=0 && null==failure.get()) {
+            key += 0x10001; //spread keys so probe chains overlap and shift on release
+            int idx;
+            while ((idx = pool.get(key)) < 0) {
+                Thread.yield(); //full, wait for the releaser
+            }
+            if (!owners.compareAndSet(idx, 0, 1)) {
+                failure.compareAndSet(null, "slot "+idx+" assigned twice");
+            }
+            if (idx != pool.getIfReserved(key)) {
+                failure.compareAndSet(null, "key "+key+" not found after get");
+            }
+            held.put(new long[] {key, idx});
+        }
+        held.put(new long[] {-1, -1});
+        releaser.join();
+
+        assertNull(failure.get(), failure.get());
+        assertEquals(0, pool.locks());
+    }
+
+}